@@ -23,8 +23,21 @@
  */
 package net.sf.joost.test;
 
+import net.sf.joost.test.stx.BufferSpillTest;
+import net.sf.joost.test.stx.DocumentCacheTest;
+import net.sf.joost.test.stx.FilterCacheTest;
+import net.sf.joost.test.stx.KeyTest;
+import net.sf.joost.test.stx.NamePoolTest;
+import net.sf.joost.test.stx.ParallelProcessingTest;
+import net.sf.joost.test.stx.ProcessorPoolTest;
+import net.sf.joost.test.stx.ProjectionTest;
+import net.sf.joost.test.stx.SequenceIndexTest;
+import net.sf.joost.test.stx.SheetCacheTest;
+import net.sf.joost.test.stx.SortBufferTest;
 import net.sf.joost.test.stx.StxTest;
+import net.sf.joost.test.stx.TemplatesCacheTest;
 import net.sf.joost.test.stx.function.ExtensionFunctionTest;
+import net.sf.joost.test.stx.function.RegexCacheTest;
 import net.sf.joost.test.trax.thread.TemplateThreadSafetyTest;
 
 import junit.framework.Test;
@@ -41,7 +54,20 @@ public class AllTests extends TestSuite
       suite.addTest(StxTest.suite());
       suite.addTest(net.sf.joost.test.trax.AllTests.suite());
       suite.addTestSuite(ExtensionFunctionTest.class);
+      suite.addTestSuite(RegexCacheTest.class);
       suite.addTestSuite(TemplateThreadSafetyTest.class);
+      suite.addTestSuite(ProcessorPoolTest.class);
+      suite.addTestSuite(ParallelProcessingTest.class);
+      suite.addTestSuite(BufferSpillTest.class);
+      suite.addTestSuite(SheetCacheTest.class);
+      suite.addTestSuite(DocumentCacheTest.class);
+      suite.addTestSuite(KeyTest.class);
+      suite.addTestSuite(SortBufferTest.class);
+      suite.addTestSuite(ProjectionTest.class);
+      suite.addTestSuite(TemplatesCacheTest.class);
+      suite.addTestSuite(FilterCacheTest.class);
+      suite.addTestSuite(SequenceIndexTest.class);
+      suite.addTestSuite(NamePoolTest.class);
       return suite;
    }
 }
@@ -0,0 +1,89 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that buffers written to temporary files (see
+ * {@link TrAXConstants#BUFFER_SPILL_THRESHOLD}) produce the same results
+ * as buffers kept in memory.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class BufferSpillTest extends TestCase
+{
+   private static String transform(int spillThreshold, String input)
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.BUFFER_SPILL_THRESHOLD,
+                           new Integer(spillThreshold));
+      return TestUtil.transform(factory, "buffer.stx", input);
+   }
+
+   public void testSmallThreshold()
+      throws TransformerException
+   {
+      String input = TestUtil.createRecords(500);
+      String expected = transform(0, input);
+      assertTrue(expected.indexOf("<rec seq=\"500\"") != -1);
+      // every event will be written to disk
+      assertEquals(expected, transform(1, input));
+      assertEquals(expected, transform(64, input));
+   }
+
+   public void testSpillFilesDeleted()
+      throws TransformerException
+   {
+      int before = TestUtil.countTempFiles(".buf");
+      // every record spills its local buffer
+      transform(1, TestUtil.createRecords(50));
+      assertEquals(before, TestUtil.countTempFiles(".buf"));
+
+      String input = TestUtil.createRecords(50);
+      try {
+         // the document ends while the buffer is being filled
+         transform(1, input.substring(0, input.length() / 2));
+         fail("transformation did not fail");
+      }
+      catch (TransformerException e) {
+         // expected
+      }
+      assertEquals(before, TestUtil.countTempFiles(".buf"));
+   }
+
+   public void testThresholdNotReached()
+      throws TransformerException
+   {
+      String input = TestUtil.createRecords(5);
+      assertEquals(transform(0, input), transform(1 << 20, input));
+   }
+}
@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.stx.DocumentCache;
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.trax.TransformerImpl;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that documents processed from a document cache (see
+ * {@link TrAXConstants#DOCUMENT_CACHE_SIZE}) produce the same results as
+ * documents parsed by <code>stx:process-document</code>.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class DocumentCacheTest extends TestCase
+{
+   /** Contains the documents */
+   private File tmpDir;
+
+   private File doc1, doc2;
+
+   /** The input document that refers to {@link #doc1} and {@link #doc2} */
+   private String input;
+
+   protected void setUp() throws Exception
+   {
+      tmpDir = TestUtil.createTempDir();
+      doc1 = new File(tmpDir, "doc1.xml");
+      doc2 = new File(tmpDir, "doc2.xml");
+      TestUtil.write(doc1, createDocument("first", 20));
+      TestUtil.write(doc2, createDocument("second", 5));
+      String href1 = doc1.toURI().toString(),
+             href2 = doc2.toURI().toString();
+      input = "<docs><doc href='" + href1 + "'/><doc href='" + href2 +
+              "'/><doc href='" + href1 + "'/></docs>";
+   }
+
+   protected void tearDown() throws Exception
+   {
+      TestUtil.delete(tmpDir);
+   }
+
+   private static String createDocument(String name, int count)
+   {
+      StringBuffer sb = new StringBuffer(
+         "<?xml version='1.0'?>\n" +
+         "<!DOCTYPE list [ <!-- ignored --> <?ignored?> ]>\n" +
+         "<list xmlns:n='urn:n' name='" + name + "'>");
+      for (int i=1; i<=count; i++)
+         sb.append("<item n:id='").append(i).append("'>text ").append(i)
+           .append("<![CDATA[<cdata>]]><!--comment--><?pi data?></item>");
+      return sb.append("</list>").toString();
+   }
+
+   /**
+    * @param cacheSize the size of the document cache, 0 for none
+    * @return the compiled sheet
+    */
+   private Templates loadSheet(int cacheSize)
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.DOCUMENT_CACHE_SIZE,
+                           new Integer(cacheSize));
+      return TestUtil.newTemplates(factory, "documentcache.stx");
+   }
+
+   private String transform(Transformer transformer)
+      throws TransformerException
+   {
+      return TestUtil.transform(transformer, input);
+   }
+
+   private static DocumentCache getCache(Transformer transformer)
+   {
+      return ((TransformerImpl)transformer).getStxProcessor()
+                                           .getDocumentCache();
+   }
+
+   public void testCachedDocuments()
+      throws TransformerException
+   {
+      String expected = transform(loadSheet(0).newTransformer());
+      assertTrue(expected.indexOf("<item n:id=\"20\"") != -1);
+
+      Templates templates = loadSheet(1 << 20);
+      Transformer transformer = templates.newTransformer();
+      assertEquals(expected, transform(transformer));
+      DocumentCache cache = getCache(transformer);
+      assertEquals(2, cache.getDocumentCount());
+      assertEquals(2, cache.getMisses());
+      assertEquals(1, cache.getHits());
+
+      // the cache is shared by all transformers of the templates
+      transformer = templates.newTransformer();
+      assertEquals(expected, transform(transformer));
+      assertSame(cache, getCache(transformer));
+      assertEquals(2, cache.getMisses());
+      assertEquals(4, cache.getHits());
+   }
+
+   public void testChangedDocument()
+      throws TransformerException, IOException
+   {
+      Templates templates = loadSheet(1 << 20);
+      Transformer transformer = templates.newTransformer();
+      String original = transform(transformer);
+
+      TestUtil.write(doc1, createDocument("changed", 3));
+      // make sure the modification is visible
+      doc1.setLastModified(doc1.lastModified() + 10000);
+      String expected = transform(loadSheet(0).newTransformer());
+      assertTrue(expected.indexOf("name=\"changed\"") != -1);
+      assertFalse(expected.equals(original));
+      assertEquals(expected, transform(transformer));
+   }
+
+   public void testDocumentsTooLarge()
+      throws TransformerException
+   {
+      String expected = transform(loadSheet(0).newTransformer());
+      Transformer transformer = loadSheet(100).newTransformer();
+      assertEquals(expected, transform(transformer));
+      assertEquals(expected, transform(transformer));
+      assertEquals(0, getCache(transformer).getDocumentCount());
+   }
+}
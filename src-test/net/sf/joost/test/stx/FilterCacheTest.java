@@ -0,0 +1,293 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx;
+
+import net.sf.joost.plugins.traxfilter.THResolver;
+import net.sf.joost.stx.Processor;
+import net.sf.joost.trax.TemplatesCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Hashtable;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache of compiled sheets of the TrAX filter plugin
+ * ({@link THResolver}).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class FilterCacheTest extends TestCase
+{
+   private static final String FILTER_ATTR =
+      "{" + THResolver.FILTER_ATTR_NS + "}";
+
+   /** Contains the sheets */
+   private File tmpDir;
+
+   private String base;
+
+   private THResolver resolver = new THResolver();
+
+   private TemplatesCache cache = THResolver.getTemplatesCache();
+
+   /** the statistics of {@link #cache} at the start of a test */
+   private long hits, misses, staleEntries, evictions;
+
+   protected void setUp() throws Exception
+   {
+      tmpDir = TestUtil.createTempDir();
+      base = tmpDir.toURI().toString();
+      // the cache is shared by all plugin instances
+      cache.clear();
+      hits = cache.getHits();
+      misses = cache.getMisses();
+      staleEntries = cache.getStaleEntries();
+      evictions = cache.getEvictions();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      // the filter attributes are global, restore their defaults
+      Hashtable params = new Hashtable();
+      params.put(FILTER_ATTR + "REUSE-TH-URL", "false");
+      params.put(FILTER_ATTR + "TEMPLATES-CACHE-SIZE", "32");
+      writeSheet("reset.stx", "");
+      resolver.resolve(THResolver.STX_METHOD, "reset.stx", base, null, null,
+                       params);
+      cache.clear();
+
+      TestUtil.delete(tmpDir);
+   }
+
+   /**
+    * Writes a sheet.
+    * @param contents the top level elements
+    */
+   private void write(String name, String contents)
+      throws IOException
+   {
+      TestUtil.writeSheet(tmpDir, name, contents);
+   }
+
+   /** Writes a sheet that outputs <code>text</code> */
+   private void writeSheet(String name, String text)
+      throws IOException
+   {
+      write(name, "<stx:template match='/'><r>" + text + "</r>" +
+                  "</stx:template>");
+   }
+
+   /**
+    * Runs a filter with {@link THResolver#REUSE_TH_URL} and a cache size
+    * of 2.
+    * @return the contents of the result element
+    */
+   private String filter(String href, URIResolver uriResolver)
+      throws Exception
+   {
+      Hashtable params = new Hashtable();
+      params.put(FILTER_ATTR + "REUSE-TH-URL", "true");
+      params.put(FILTER_ATTR + "TEMPLATES-CACHE-SIZE", "2");
+      TransformerHandler th =
+         resolver.resolve(THResolver.STX_METHOD, href, base, uriResolver,
+                          null, params);
+      StringWriter result = new StringWriter();
+      th.setResult(new StreamResult(result));
+      XMLReader reader = Processor.createXMLReader();
+      reader.setContentHandler(th);
+      reader.parse(new InputSource(new StringReader("<x/>")));
+      String s = result.toString();
+      return s.substring(s.indexOf("<r>") + 3, s.indexOf("</r>"));
+   }
+
+   public void testStatistics()
+      throws Exception
+   {
+      writeSheet("a.stx", "a");
+      assertEquals("a", filter("a.stx", null));
+      assertEquals("a", filter("a.stx", null));
+      assertEquals("a", filter(base + "a.stx", null));
+      assertEquals(misses + 1, cache.getMisses());
+      assertEquals(hits + 2, cache.getHits());
+      assertEquals(1, cache.getSize());
+      assertEquals(2, cache.getMaxSize());
+   }
+
+   public void testLeastRecentlyUsedEviction()
+      throws Exception
+   {
+      writeSheet("a.stx", "a");
+      writeSheet("b.stx", "b");
+      writeSheet("c.stx", "c");
+      filter("a.stx", null);
+      filter("b.stx", null);
+      // touch a, so that b becomes the eldest entry
+      filter("a.stx", null);
+      assertEquals("c", filter("c.stx", null));
+      assertEquals(evictions + 1, cache.getEvictions());
+      assertEquals(2, cache.getSize());
+
+      long m = cache.getMisses();
+      assertEquals("a", filter("a.stx", null));
+      assertEquals(m, cache.getMisses());
+      assertEquals("b", filter("b.stx", null));
+      assertEquals(m + 1, cache.getMisses());
+      assertEquals(evictions + 2, cache.getEvictions());
+   }
+
+   public void testChangedSheet()
+      throws Exception
+   {
+      writeSheet("a.stx", "first");
+      new File(tmpDir, "a.stx").setLastModified(1000000000000L);
+      assertEquals("first", filter("a.stx", null));
+      assertEquals("first", filter("a.stx", null));
+      writeSheet("a.stx", "second");
+      assertEquals("second", filter("a.stx", null));
+      assertEquals(staleEntries + 1, cache.getStaleEntries());
+      assertEquals(misses + 2, cache.getMisses());
+      assertEquals(hits + 1, cache.getHits());
+   }
+
+   public void testURIResolvers()
+      throws Exception
+   {
+      write("a.stx", "<stx:include href='inc.stx'/>" +
+                     "<stx:template match='/'>" +
+                     "<r><stx:call-procedure name='p'/></r></stx:template>");
+      write("inc1.stx", "<stx:procedure name='p'>one</stx:procedure>");
+      write("inc2.stx", "<stx:procedure name='p'>two</stx:procedure>");
+      URIResolver one = new IncludeResolver("inc1.stx"),
+                  two = new IncludeResolver("inc2.stx");
+      assertEquals("one", filter("a.stx", one));
+      // the same sheet with a different URIResolver
+      assertEquals("two", filter("a.stx", two));
+      assertEquals("one", filter("a.stx", one));
+      assertEquals("two", filter("a.stx", two));
+      assertEquals(misses + 2, cache.getMisses());
+      assertEquals(hits + 2, cache.getHits());
+   }
+
+   /** Resolves inc.stx */
+   private final class IncludeResolver implements URIResolver
+   {
+      private String include;
+
+      IncludeResolver(String include)
+      {
+         this.include = include;
+      }
+
+      public Source resolve(String href, String base)
+      {
+         return "inc.stx".equals(href)
+                   ? new StreamSource(new File(tmpDir, include)) : null;
+      }
+   }
+
+   public void testChangeDuringCompilation()
+      throws Exception
+   {
+      write("a.stx", "<stx:include href='inc.stx'/>" +
+                     "<stx:template match='/'><r>first</r></stx:template>");
+      write("inc.stx", "<stx:procedure name='p'/>");
+      File a = new File(tmpDir, "a.stx");
+      a.setLastModified(1000000000000L);
+      URIResolver edit = new URIResolver() {
+         private boolean done;
+
+         public Source resolve(String href, String base)
+         {
+            if ("inc.stx".equals(href) && !done) {
+               done = true;
+               try {
+                  // the same length, the parser may have read a.stx already
+                  write("a.stx",
+                        "<stx:include href='inc.stx'/>" +
+                        "<stx:template match='/'><r>other</r></stx:template>");
+               }
+               catch (IOException ex) {
+                  throw new RuntimeException(ex.toString());
+               }
+            }
+            return null;
+         }
+      };
+      assertEquals("first", filter("a.stx", edit));
+      assertEquals("other", filter("a.stx", edit));
+      assertEquals(staleEntries + 1, cache.getStaleEntries());
+      assertEquals("other", filter("a.stx", edit));
+      assertEquals(hits + 1, cache.getHits());
+   }
+
+   public void testConcurrentFilters()
+      throws Exception
+   {
+      writeSheet("a.stx", "a");
+      final int count = 8;
+      final String[] results = new String[count];
+      Thread[] threads = new Thread[count];
+      for (int i=0; i<count; i++) {
+         final int n = i;
+         threads[i] = new Thread() {
+            public void run()
+            {
+               try {
+                  for (int j=0; j<20; j++) {
+                     results[n] = filter("a.stx", null);
+                     if (!"a".equals(results[n]))
+                        return;
+                  }
+               }
+               catch (Exception ex) {
+                  results[n] = ex.toString();
+               }
+            }
+         };
+      }
+      for (int i=0; i<count; i++)
+         threads[i].start();
+      for (int i=0; i<count; i++)
+         threads[i].join();
+      for (int i=0; i<count; i++)
+         assertEquals("a", results[i]);
+      assertEquals(hits + misses + count * 20,
+                   cache.getHits() + cache.getMisses());
+      assertEquals(1, cache.getSize());
+   }
+}
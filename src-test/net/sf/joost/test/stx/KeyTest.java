@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests lookups with <code>joost:key</code> against a transformation
+ * sheet that scans the buffer with <code>stx:process-buffer</code>.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class KeyTest extends TestCase
+{
+   private static Transformer newTransformer(String stxName)
+      throws TransformerException
+   {
+      return TestUtil.newTemplates(new TransformerFactoryImpl(), stxName)
+                     .newTransformer();
+   }
+
+   /**
+    * @return an input document in which the buffer of people will be
+    *         filled <code>blocks</code> times, each time followed by orders
+    */
+   private static String createOrders(int blocks)
+   {
+      StringBuffer sb = new StringBuffer("<input>");
+      for (int b=0; b<blocks; b++) {
+         sb.append("<people>");
+         for (int i=0; i<20; i++) {
+            // nested persons and ids that occur in several blocks
+            if (i % 5 == 0)
+               sb.append("<group>");
+            sb.append("<person id='p").append((b * 7 + i * 3) % 40)
+              .append("' dept='d").append((b + i) % 6).append("'/>");
+            if (i % 5 == 4)
+               sb.append("</group>");
+         }
+         sb.append("</people>");
+         for (int i=0; i<10; i++)
+            sb.append("<order n='").append(b * 10 + i)
+              .append("' who='p").append((b + i * 11) % 40)
+              .append(" p").append((b * 3 + i) % 40)
+              .append(" unknown' dept='d").append(i % 7).append("'/>");
+      }
+      return sb.append("</input>").toString();
+   }
+
+   public void testRefilledBuffer()
+      throws TransformerException
+   {
+      String input =
+         "<input><people><person id='p1' dept='a'/>" +
+         "<person id='p3' dept='a'/></people>" +
+         "<order n='1' who='p3' dept='x'/>" +
+         "<people><person id='p3' dept='c'/></people>" +
+         "<order n='2' who='p1 p3' dept='a'/></input>";
+      String result = TestUtil.transform(newTransformer("key.stx"), input);
+      assertTrue(result.indexOf("<order n=\"1\"><person id=\"p3\" " +
+                                "dept=\"a\" /></order>") != -1);
+      // p1 and department a have gone
+      assertTrue(result.indexOf("<order n=\"2\"><person id=\"p3\" " +
+                                "dept=\"c\" /></order>") != -1);
+   }
+
+   public void testKeyAndScan()
+      throws TransformerException
+   {
+      Transformer key = newTransformer("key.stx");
+      Transformer scan = newTransformer("key-scan.stx");
+      String input = createOrders(30);
+      String expected = TestUtil.transform(scan, input);
+      assertTrue(expected.indexOf("<colleague") != -1);
+      assertEquals(expected, TestUtil.transform(key, input));
+      // the index of a previous transformation must not be used
+      input = createOrders(3);
+      assertEquals(TestUtil.transform(scan, input),
+                   TestUtil.transform(key, input));
+   }
+}
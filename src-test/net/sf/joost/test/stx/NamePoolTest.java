@@ -0,0 +1,94 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx;
+
+import net.sf.joost.stx.NamePool;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that names of the input are not added to a full {@link NamePool},
+ * and that name tests and positions still work for these names.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class NamePoolTest extends TestCase
+{
+   private int maxSize;
+
+   /** A suffix that makes the names of a test new to the pool */
+   private String suffix;
+
+   protected void setUp()
+   {
+      maxSize = NamePool.getMaxSize();
+      suffix = "-" + System.currentTimeMillis() + "-" + getName();
+   }
+
+   protected void tearDown()
+   {
+      NamePool.setMaxSize(maxSize);
+   }
+
+   public void testFullPool()
+      throws Exception
+   {
+      NamePool.setMaxSize(NamePool.getSize());
+      String a = "a" + suffix, b = "b" + suffix, c = "c" + suffix;
+      Templates templates = new TransformerFactoryImpl().newTemplates(
+         new StreamSource(new StringReader(
+            "<stx:transform version='1.0' " +
+            "xmlns:stx='http://stx.sourceforge.net/2002/ns'>" +
+            "<stx:template match='" + a + "[2]'>" +
+            "<hit pos='{position()}' b='{@" + b + "}'/></stx:template>" +
+            "<stx:template match='*'><stx:process-children/>" +
+            "</stx:template></stx:transform>")));
+      // the names of the sheet have been added
+      int size = NamePool.getSize();
+      assertEquals(a, NamePool.getName(NamePool.lookupCode(a)));
+
+      String input = "<r><" + c + " " + b + "='0'/><" + a + " " + b +
+                     "='1'/><" + c + "/><" + a + " " + c + "='x' " + b +
+                     "='2'/><" + a + "/></r>";
+      String result = TestUtil.transform(templates, input);
+      assertEquals("<hit pos=\"2\" b=\"2\" />",
+                   result.substring(result.indexOf("<hit")).trim());
+      // but the names of the input haven't
+      assertEquals(size, NamePool.getSize());
+      assertEquals(NamePool.NO_CODE, NamePool.lookupCode(c));
+
+      // input names are added again below the limit
+      NamePool.setMaxSize(maxSize);
+      int code = NamePool.lookupCode(c);
+      assertEquals(c, NamePool.getName(code));
+      assertEquals(code, NamePool.getCode(c));
+   }
+}
@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the processing of children on worker threads
+ * (<code>joost:parallel</code>).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class ParallelProcessingTest extends TestCase
+{
+   /** The name of the worker threads */
+   private static final String WORKER_NAME = "joost-parallel";
+
+   private static Templates loadSheet(String stxName)
+      throws TransformerException
+   {
+      return TestUtil.newTemplates(new TransformerFactoryImpl(), stxName);
+   }
+
+   /** @return the number of live worker threads */
+   private static int countWorkers()
+   {
+      Thread[] threads = new Thread[Thread.activeCount() + 100];
+      int n = Thread.enumerate(threads);
+      int count = 0;
+      for (int i=0; i<n; i++)
+         if (WORKER_NAME.equals(threads[i].getName()))
+            count++;
+      return count;
+   }
+
+   /** @return the number of live worker threads after they had time to stop */
+   private static int waitForWorkers()
+      throws InterruptedException
+   {
+      int count = countWorkers();
+      for (int i=0; count > 0 && i<100; i++) {
+         Thread.sleep(50);
+         count = countWorkers();
+      }
+      return count;
+   }
+
+   public void testParallelOutput()
+      throws TransformerException
+   {
+      Templates parallel = loadSheet("parallel.stx");
+      Templates sequential = loadSheet("parallel-sequential.stx");
+      for (int count=0; count<=30; count+=6) {
+         String input = TestUtil.createRecords(count);
+         assertEquals(TestUtil.transform(sequential, input),
+                      TestUtil.transform(parallel, input));
+      }
+      String input = TestUtil.createRecords(1000);
+      String expected = TestUtil.transform(sequential, input);
+      assertTrue(expected.indexOf("<fifth pos=\"1000\">") != -1);
+      assertEquals(expected, TestUtil.transform(parallel, input));
+      // again, with a new set of worker threads
+      assertEquals(expected, TestUtil.transform(parallel, input));
+   }
+
+   public void testNamespaceDeclarations()
+      throws TransformerException
+   {
+      // children that declare prefixes, or bind the prefix of the parent
+      // to another URI for themselves only
+      StringBuffer sb = new StringBuffer("<list xmlns:x='urn:x'>");
+      for (int i=1; i<=30; i++) {
+         sb.append("<rec seq='").append(i).append("'");
+         if (i % 3 == 0)
+            sb.append(" xmlns:x='urn:other'");
+         if (i % 4 == 0)
+            sb.append(" xmlns:y='urn:y' y:a='").append(i).append("'");
+         sb.append("><x:sub x:a='").append(i).append("'/></rec>");
+      }
+      String input = sb.append("</list>").toString();
+      String expected =
+         TestUtil.transform(loadSheet("parallel-sequential.stx"), input);
+      assertTrue(expected.indexOf("[3]") == -1);
+      assertTrue(expected.indexOf("[4]") != -1);
+      assertEquals(expected,
+                   TestUtil.transform(loadSheet("parallel.stx"), input));
+   }
+
+   public void testWorkersStopAfterFailure()
+      throws TransformerException, InterruptedException
+   {
+      Templates templates = loadSheet("parallel.stx");
+      String input = TestUtil.createRecords(200);
+      // the input isn't well-formed
+      input = input.substring(0, input.length() / 2);
+      for (int i=0; i<10; i++) {
+         try {
+            TestUtil.transform(templates, input);
+            fail("Truncated input has been accepted");
+         }
+         catch (TransformerException ex) {
+            // expected
+         }
+      }
+      assertEquals(0, waitForWorkers());
+   }
+}
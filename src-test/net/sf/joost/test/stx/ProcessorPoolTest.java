@@ -0,0 +1,178 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TemplatesImpl;
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.trax.TransformerImpl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the reuse of processors by {@link TemplatesImpl#recycle} and
+ * {@link net.sf.joost.stx.Processor#reset}.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class ProcessorPoolTest extends TestCase
+{
+   private static TemplatesImpl newTemplates(int poolSize)
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.PROCESSOR_POOL_SIZE,
+                           new Integer(poolSize));
+      return (TemplatesImpl)factory.newTemplates(new StreamSource(
+         ProcessorPoolTest.class.getResourceAsStream("processorpool.stx")));
+   }
+
+   private static String transform(Transformer transformer, String input)
+      throws TransformerException
+   {
+      StringWriter result = new StringWriter();
+      transformer.transform(new StreamSource(new StringReader(input)),
+                            new StreamResult(result));
+      return result.toString();
+   }
+
+   private static Object processorOf(Transformer transformer)
+   {
+      return ((TransformerImpl)transformer).getStxProcessor();
+   }
+
+   public void testReuse()
+      throws TransformerException
+   {
+      TemplatesImpl templates = newTemplates(1);
+      Transformer t = templates.newTransformer();
+      t.setParameter("label", "first");
+      assertEquals("first:2:ab",
+                   transform(t, "<list><item>a</item><item>b</item></list>"));
+      Object proc = processorOf(t);
+      templates.recycle(t);
+      // recycling twice must not put the processor into the pool twice
+      templates.recycle(t);
+
+      t = templates.newTransformer();
+      assertSame(proc, processorOf(t));
+      // neither the parameter nor the group variable nor the buffer
+      // of the previous run are visible
+      assertEquals("none:1:c", transform(t, "<list><item>c</item></list>"));
+      assertNotSame(proc, processorOf(templates.newTransformer()));
+   }
+
+   public void testReuseAfterFailure()
+      throws TransformerException
+   {
+      TemplatesImpl templates = newTemplates(1);
+      Transformer t = templates.newTransformer();
+      t.setParameter("label", "first");
+      StringWriter failed = new StringWriter();
+      try {
+         // terminates while the buffer emitter is the current emitter
+         t.transform(new StreamSource(new StringReader(
+                        "<list><item>a</item><item>fail</item>" +
+                        "<item>b</item></list>")),
+                     new StreamResult(failed));
+         fail("transformation did not fail");
+      }
+      catch (TransformerException e) {
+         // expected
+      }
+      String failedOutput = failed.toString();
+      Object proc = processorOf(t);
+      templates.recycle(t);
+
+      t = templates.newTransformer();
+      assertSame(proc, processorOf(t));
+      assertEquals("none:2:cd",
+                   transform(t, "<list><item>c</item><item>d</item></list>"));
+      // nothing of the second run went to the result of the first one
+      assertEquals(failedOutput, failed.toString());
+
+      // a malformed document fails while parsing
+      try {
+         transform(t, "<list><item>e</item><item>");
+         fail("transformation did not fail");
+      }
+      catch (TransformerException e) {
+         // expected
+      }
+      templates.recycle(t);
+      t = templates.newTransformer();
+      assertSame(proc, processorOf(t));
+      assertEquals("none:1:f", transform(t, "<list><item>f</item></list>"));
+   }
+
+   public void testBoundedPool()
+      throws TransformerException
+   {
+      TemplatesImpl templates = newTemplates(2);
+      Transformer[] t = new Transformer[3];
+      Object[] procs = new Object[t.length];
+      for (int i=0; i<t.length; i++) {
+         t[i] = templates.newTransformer();
+         procs[i] = processorOf(t[i]);
+      }
+      for (int i=0; i<t.length; i++)
+         templates.recycle(t[i]);
+
+      // two processors have been kept, the third one has been dropped
+      int reused = 0;
+      for (int i=0; i<t.length; i++) {
+         Object proc = processorOf(templates.newTransformer());
+         for (int j=0; j<procs.length; j++)
+            if (proc == procs[j])
+               reused++;
+      }
+      assertEquals(2, reused);
+   }
+
+   public void testDisabledPool()
+      throws TransformerException
+   {
+      TemplatesImpl templates = newTemplates(0);
+      Transformer t = templates.newTransformer();
+      Object proc = processorOf(t);
+      templates.recycle(t);
+      assertNotSame(proc, processorOf(templates.newTransformer()));
+      // a transformer of other templates is ignored
+      Transformer other = newTemplates(1).newTransformer();
+      TemplatesImpl pooling = newTemplates(1);
+      pooling.recycle(other);
+      assertNotSame(processorOf(other),
+                    processorOf(pooling.newTransformer()));
+   }
+}
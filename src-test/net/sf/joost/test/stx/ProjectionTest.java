@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import javax.xml.transform.TransformerException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that subtrees which no template can match are projected away
+ * without changing the result. The sheet <code>projection-all.stx</code>
+ * includes <code>projection.stx</code> and contains a template that may
+ * match at any depth, so it processes every node.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class ProjectionTest extends TestCase
+{
+   private static String transform(String stxName, String input)
+      throws TransformerException
+   {
+      return TestUtil.transform(new TransformerFactoryImpl(), stxName, input);
+   }
+
+   /**
+    * @return a document with nested records at several depths and
+    *         <code>count</code> groups of them in its data section
+    */
+   private static String createDocument(int count)
+   {
+      StringBuffer sb = new StringBuffer(
+         "<doc><head><title>t <b>1</b></title><rec n='0'/></head><data>");
+      for (int i=1; i<=count; i++) {
+         sb.append("<group><rec n='").append(i).append("'>text ").append(i)
+           .append("<rec>").append(i).append("<!--c--></rec></rec></group>")
+           .append("<rec n='").append(-i).append("'><?pi data?></rec>");
+         if (i % 3 == 0)
+            sb.append("<other><rec n='x").append(i).append("'/></other>");
+      }
+      return sb.append("</data><tail><data><rec n='1'/><title/></data>" +
+                       "</tail></doc>").toString();
+   }
+
+   public void testProjection()
+      throws TransformerException
+   {
+      String input = createDocument(20);
+      String expected = transform("projection-all.stx", input);
+      assertTrue(expected.indexOf("<heading>t <b>1</b></heading>") != -1);
+      assertTrue(expected.indexOf("<hit n=\"20\" pos=\"1\">[text 20]" +
+                                  "<rec>[20]<!--c--></rec></hit>") != -1);
+      assertTrue(expected.indexOf("<tail><data><rec n=\"1\" />") != -1);
+      assertEquals(expected, transform("projection.stx", input));
+   }
+}
@@ -0,0 +1,244 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx;
+
+import net.sf.joost.grammar.tree.EqTree;
+import net.sf.joost.grammar.tree.ListTree;
+import net.sf.joost.grammar.tree.NeTree;
+import net.sf.joost.grammar.tree.ValueTree;
+import net.sf.joost.stx.Sequence;
+import net.sf.joost.stx.SequenceIndex;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.IndexOf;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the results of <code>=</code>, <code>!=</code> and
+ * <code>index-of</code> computed with a {@link SequenceIndex} with the
+ * results of comparing the items one by one, for random sequences.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class SequenceIndexTest extends TestCase
+{
+   /** Items whose comparisons depend on their types */
+   private static final Value[] ITEMS = {
+      Value.VAL_TRUE, Value.VAL_FALSE,
+      new Value(0), new Value(-0.0), new Value(Double.NaN), new Value(1),
+      new Value(2.5), new Value(-3), new Value(Double.POSITIVE_INFINITY),
+      new Value("0"), new Value("-0"), new Value("1"), new Value("01"),
+      new Value("1.0"), new Value(" 2.5 "), new Value("2.5"),
+      new Value("NaN"), new Value("Infinity"), new Value(""),
+      new Value("true"), new Value("false"), new Value("abc")
+   };
+
+   private static final int ROUNDS = 2000;
+
+   private int minSize;
+
+   protected void setUp()
+   {
+      minSize = SequenceIndex.getMinSize();
+   }
+
+   protected void tearDown()
+   {
+      SequenceIndex.setMinSize(minSize);
+   }
+
+   /**
+    * Creates a random sequence. Some sequences contain items of one type
+    * only, so that all representations of {@link Sequence} are used.
+    */
+   private static Value randomSequence(Random random, int size)
+   {
+      int from = 0, to = ITEMS.length;
+      switch (random.nextInt(4)) {
+      case 0: // numbers
+         from = 2;
+         to = 9;
+         break;
+      case 1: // strings
+         from = 9;
+         break;
+      }
+      Sequence.Builder builder = new Sequence.Builder();
+      for (int i=0; i<size; i++)
+         builder.add(ITEMS[from + random.nextInt(to - from)]);
+      return builder.toValue();
+   }
+
+   private static boolean equal(Value v1, Value v2)
+      throws Exception
+   {
+      return new EqTree(new ValueTree(v1), new ValueTree(v2))
+                .evaluate(null, 0).getBooleanValue();
+   }
+
+   private static boolean unequal(Value v1, Value v2)
+      throws Exception
+   {
+      return new NeTree(new ValueTree(v1), new ValueTree(v2))
+                .evaluate(null, 0).getBooleanValue();
+   }
+
+   private static String indexOf(Value seq, Value item)
+      throws Exception
+   {
+      Value result = new IndexOf().evaluate(
+         null, 0, new ListTree(new ValueTree(seq), new ValueTree(item)));
+      StringBuffer sb = new StringBuffer();
+      for (int i=0, count=result.count(); i<count; i++)
+         sb.append(' ').append(result.numberAt(i));
+      return sb.toString();
+   }
+
+   /**
+    * Evaluates the comparisons of two sequences several times, so that
+    * the hashed path builds its index.
+    */
+   private static String compare(Value v1, Value v2)
+      throws Exception
+   {
+      StringBuffer sb = new StringBuffer();
+      for (int i=0; i<3; i++) {
+         sb.append(equal(v1, v2)).append(equal(v2, v1))
+           .append(unequal(v1, v2)).append(unequal(v2, v1)).append('|');
+         for (int j=0, count=v2.count(); j<count; j++)
+            sb.append(indexOf(v1, v2.itemAt(j))).append('|');
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Compares both paths for random sequences.
+    * @param threshold the minimal size of an indexed sequence
+    * @param maxSize the maximal size of a random sequence
+    */
+   private void checkRandom(long seed, int threshold, int maxSize)
+      throws Exception
+   {
+      Random random = new Random(seed);
+      for (int i=0; i<ROUNDS; i++) {
+         Value v1 = randomSequence(random, random.nextInt(maxSize + 1));
+         Value v2 = randomSequence(random, 1 + random.nextInt(4));
+         SequenceIndex.setMinSize(Integer.MAX_VALUE);
+         String nested = compare(v1, v2);
+         SequenceIndex.setMinSize(threshold);
+         String hashed = compare(v1, v2);
+         assertEquals("seed " + seed + ", round " + i + ": " + v1 +
+                      " and " + v2, nested, hashed);
+      }
+   }
+
+   public void testSmallIndexes()
+      throws Exception
+   {
+      checkRandom(1, 1, 8);
+   }
+
+   public void testDefaultThreshold()
+      throws Exception
+   {
+      checkRandom(2, minSize, 2 * minSize);
+   }
+
+   public void testLargeSequences()
+      throws Exception
+   {
+      checkRandom(3, 2, 200);
+   }
+
+   public void testSpecialValues()
+      throws Exception
+   {
+      SequenceIndex.setMinSize(1);
+      Sequence.Builder builder = new Sequence.Builder();
+      builder.add(Double.NaN);
+      builder.add(-0.0);
+      builder.add(7);
+      Value numbers = builder.toValue();
+      // NaN isn't equal to anything, -0 equals 0
+      assertFalse(equal(numbers, new Value(Double.NaN)));
+      assertEquals(" 2.0", indexOf(numbers, new Value(0)));
+      assertEquals(" 2.0", indexOf(numbers, new Value("-0")));
+      assertEquals("", indexOf(numbers, new Value("NaN")));
+      // but NaN is unequal to everything
+      assertTrue(unequal(numbers, new Value(7)));
+
+      builder = new Sequence.Builder();
+      builder.add(0);
+      builder.add(-0.0);
+      builder.add(7);
+      numbers = builder.toValue();
+      // booleans compare with the boolean values of the other items
+      assertEquals(" 3.0", indexOf(numbers, Value.VAL_TRUE));
+      assertEquals(" 1.0 2.0", indexOf(numbers, Value.VAL_FALSE));
+
+      builder = new Sequence.Builder();
+      builder.add("1.0");
+      builder.add("01");
+      builder.add("x");
+      Value strings = builder.toValue();
+      // numeric strings compare as numbers with numbers only
+      assertEquals(" 1.0 2.0", indexOf(strings, new Value(1)));
+      assertEquals("", indexOf(strings, new Value("1")));
+      assertEquals(" 1.0 2.0 3.0", indexOf(strings, Value.VAL_TRUE));
+   }
+
+   public void testThreshold()
+   {
+      SequenceIndex.setMinSize(4);
+      Sequence.Builder builder = new Sequence.Builder();
+      for (int i=0; i<3; i++)
+         builder.add(i);
+      assertNull(SequenceIndex.getIndex(builder.toValue(), 2));
+      builder = new Sequence.Builder();
+      for (int i=0; i<4; i++)
+         builder.add(i);
+      Value seq = builder.toValue();
+      SequenceIndex index = SequenceIndex.getIndex(seq, 2);
+      assertNotNull(index);
+      // the index is kept with its sequence
+      assertSame(index, SequenceIndex.getIndex(seq, 2));
+
+      // a single lookup doesn't build an index, the second one does
+      builder = new Sequence.Builder();
+      for (int i=0; i<4; i++)
+         builder.add(i);
+      seq = builder.toValue();
+      assertNull(SequenceIndex.getIndex(seq, 1));
+      assertNotNull(SequenceIndex.getIndex(seq, 1));
+
+      SequenceIndex.setMinSize(Integer.MAX_VALUE);
+      builder = new Sequence.Builder();
+      for (int i=0; i<100; i++)
+         builder.add(i);
+      assertNull(SequenceIndex.getIndex(builder.toValue(), 100));
+   }
+}
@@ -0,0 +1,218 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.TreeMap;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests transformation sheets that have been stored in and loaded from
+ * a sheet cache (see {@link TrAXConstants#SHEET_CACHE_DIRECTORY}).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class SheetCacheTest extends TestCase
+{
+   private static final String INPUT =
+      "<list><item name='a'>x 1 y</item><item name='b'>22</item>" +
+      "<item name='c'>c3</item><item name='d'/></list>";
+
+   /** A time stamp for cache entries that have been checked */
+   private static final long OLD_TIME = 1000000000000L;
+
+   /** Counts its deserializations */
+   private static final class Marker implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      static int readCount;
+
+      private void readObject(ObjectInputStream in)
+         throws IOException, ClassNotFoundException
+      {
+         in.defaultReadObject();
+         readCount++;
+      }
+   }
+
+   /** Contains the sheets and the cache directory */
+   private File tmpDir;
+
+   private File sheet, include, cacheDir;
+
+   protected void setUp() throws Exception
+   {
+      tmpDir = TestUtil.createTempDir();
+      sheet = new File(tmpDir, "sheetcache.stx");
+      include = new File(tmpDir, "sheetcache-include.stx");
+      cacheDir = new File(tmpDir, "cache");
+      TestUtil.write(sheet, readResource("sheetcache.stx"));
+      TestUtil.write(include, readResource("sheetcache-include.stx"));
+   }
+
+   protected void tearDown() throws Exception
+   {
+      TestUtil.delete(tmpDir);
+   }
+
+   private static String readResource(String name)
+      throws IOException
+   {
+      Reader in = new InputStreamReader(
+         SheetCacheTest.class.getResourceAsStream(name), "UTF-8");
+      try {
+         StringBuffer sb = new StringBuffer();
+         char[] buf = new char[4096];
+         int len;
+         while ((len = in.read(buf)) != -1)
+            sb.append(buf, 0, len);
+         return sb.toString();
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Transforms {@link #INPUT} with a new factory.
+    * @param cached whether the factory uses {@link #cacheDir}
+    */
+   private String transform(boolean cached)
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      if (cached)
+         factory.setAttribute(TrAXConstants.SHEET_CACHE_DIRECTORY, cacheDir);
+      return TestUtil.transform(
+         factory.newTransformer(new StreamSource(sheet)), INPUT);
+   }
+
+   /** @return the entries in the cache directory */
+   private File[] getEntries()
+   {
+      File[] entries = cacheDir.listFiles(new FilenameFilter() {
+         public boolean accept(File dir, String name)
+         {
+            return name.endsWith(".stxc");
+         }
+      });
+      return entries != null ? entries : new File[0];
+   }
+
+   public void testRoundTrip()
+      throws TransformerException
+   {
+      String expected = transform(false);
+      assertTrue(expected.indexOf("<num>22</num>") != -1);
+      assertEquals(0, getEntries().length);
+
+      // compiles the sheet and stores it
+      assertEquals(expected, transform(true));
+      File[] entries = getEntries();
+      assertEquals(1, entries.length);
+      entries[0].setLastModified(OLD_TIME);
+
+      // loads the sheet, the entry won't be written again
+      assertEquals(expected, transform(true));
+      assertEquals(1, getEntries().length);
+      assertEquals(OLD_TIME, entries[0].lastModified());
+   }
+
+   public void testChangedInclude()
+      throws TransformerException, IOException
+   {
+      String original = transform(true);
+      File[] entries = getEntries();
+      assertEquals(1, entries.length);
+      entries[0].setLastModified(OLD_TIME);
+
+      // the principal sheet remains the same
+      TestUtil.write(include, readResource("sheetcache-include.stx")
+                                 .replaceAll("\"original\"", "\"changed\""));
+
+      String expected = transform(false);
+      assertTrue(expected.indexOf("kind=\"changed\"") != -1);
+      assertFalse(expected.equals(original));
+      // the outdated entry will be replaced
+      assertEquals(expected, transform(true));
+      entries = getEntries();
+      assertEquals(1, entries.length);
+      assertTrue(entries[0].lastModified() != OLD_TIME);
+      // and used afterwards
+      entries[0].setLastModified(OLD_TIME);
+      assertEquals(expected, transform(true));
+      assertEquals(OLD_TIME, entries[0].lastModified());
+   }
+
+   public void testForeignClassesRejected()
+      throws TransformerException, IOException
+   {
+      String expected = transform(true);
+      File[] entries = getEntries();
+      assertEquals(1, entries.length);
+
+      // replace the entry by one that contains a JDK class that doesn't
+      // occur in compiled sheets
+      TreeMap map = new TreeMap();
+      map.put("marker", new Marker());
+      ObjectOutputStream out =
+         new ObjectOutputStream(new FileOutputStream(entries[0]));
+      try {
+         out.writeObject(new String[0]);
+         out.writeObject(new byte[0][]);
+         out.writeObject(map);
+      }
+      finally {
+         out.close();
+      }
+      entries[0].setLastModified(OLD_TIME);
+
+      Marker.readCount = 0;
+      // the entry is rejected before the map has been read
+      assertEquals(expected, transform(true));
+      assertEquals(0, Marker.readCount);
+      // and replaced by a valid one
+      assertTrue(entries[0].lastModified() != OLD_TIME);
+      entries[0].setLastModified(OLD_TIME);
+      assertEquals(expected, transform(true));
+      assertEquals(OLD_TIME, entries[0].lastModified());
+   }
+}
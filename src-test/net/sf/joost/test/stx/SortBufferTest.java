@@ -0,0 +1,282 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the sorting of records in a <code>joost:sort-buffer</code>, in
+ * memory and merged from several runs on disk. The run size is
+ * controlled by {@link TrAXConstants#BUFFER_SPILL_THRESHOLD}.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class SortBufferTest extends TestCase
+{
+   /**
+    * A record of the input (see {@link TestUtil#createRecords}), in the
+    * order expected in the output
+    */
+   private static final class Record
+   {
+      final int seq;
+      final String dept;
+      final double salary;
+
+      Record(int seq)
+      {
+         this.seq = seq;
+         dept = TestUtil.getDept(seq);
+         salary = toNumber(TestUtil.getSalary(seq));
+      }
+
+      private static double toNumber(String s)
+      {
+         try {
+            return Double.parseDouble(s);
+         }
+         catch (NumberFormatException ex) {
+            return Double.NaN;
+         }
+      }
+   }
+
+   /**
+    * The expected order: department ascending, salary descending, NaN
+    * precedes all numbers
+    */
+   private static final Comparator RECORD_ORDER = new Comparator() {
+      public int compare(Object o1, Object o2)
+      {
+         Record r1 = (Record)o1, r2 = (Record)o2;
+         int c = r1.dept.compareTo(r2.dept);
+         if (c != 0)
+            return c;
+         // descending
+         return compareNumbers(r2.salary, r1.salary);
+      }
+
+      private int compareNumbers(double d1, double d2)
+      {
+         if (Double.isNaN(d1))
+            return Double.isNaN(d2) ? 0 : -1;
+         if (Double.isNaN(d2))
+            return 1;
+         return d1 < d2 ? -1 : d1 > d2 ? 1 : 0;
+      }
+   };
+
+   /** @return the compiled sortbuffer.stx with a run size */
+   private static Templates loadSheet(int runSize)
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.BUFFER_SPILL_THRESHOLD,
+                           new Integer(runSize));
+      return TestUtil.newTemplates(factory, "sortbuffer.stx");
+   }
+
+   private static String transform(int runSize, String input)
+      throws TransformerException
+   {
+      return TestUtil.transform(loadSheet(runSize), input);
+   }
+
+   /** @return the sequence numbers of the sorted records in the result */
+   private static int[] getOrder(String result)
+   {
+      String sorted = result.substring(result.indexOf("<sorted>"));
+      Matcher m = Pattern.compile("<rec seq=\"([0-9]+)\"").matcher(sorted);
+      Vector seqs = new Vector();
+      while (m.find())
+         seqs.addElement(m.group(1));
+      int[] order = new int[seqs.size()];
+      for (int i=0; i<order.length; i++)
+         order[i] = Integer.parseInt((String)seqs.elementAt(i));
+      return order;
+   }
+
+   /** @return the expected order of the sequence numbers */
+   private static int[] getExpectedOrder(int count)
+   {
+      Record[] records = new Record[count];
+      for (int i=0; i<count; i++)
+         records[i] = new Record(i + 1);
+      // stable
+      Arrays.sort(records, RECORD_ORDER);
+      int[] order = new int[count];
+      for (int i=0; i<count; i++)
+         order[i] = records[i].seq;
+      return order;
+   }
+
+   private void assertOrder(int count, String result)
+   {
+      int[] expected = getExpectedOrder(count), order = getOrder(result);
+      assertEquals(expected.length, order.length);
+      for (int i=0; i<expected.length; i++)
+         assertEquals("Position " + (i+1), expected[i], order[i]);
+   }
+
+   public void testInMemory()
+      throws TransformerException
+   {
+      String result = transform(0, TestUtil.createRecords(200));
+      assertOrder(200, result);
+      // the contents of the records are preserved
+      assertTrue(result.indexOf("<rec seq=\"4\" dept=\"ab\" salary=\"-1\" " +
+                                "pos=\"") != -1);
+      assertTrue(result.indexOf("\">text 4 &amp; more</rec>") != -1);
+      assertTrue(result.indexOf("<x:sub x:a=\"1\"><!--comment-->" +
+                                "<?pi data?></x:sub></rec>") != -1);
+      assertTrue(result.indexOf("<![CDATA[<cdata>]]></rec>") != -1);
+   }
+
+   public void testSeveralRuns()
+      throws TransformerException
+   {
+      String input = TestUtil.createRecords(200);
+      String expected = transform(0, input);
+      // about 10 records per run
+      assertEquals(expected, transform(1000, input));
+      // a new run for every record
+      assertEquals(expected, transform(1, input));
+   }
+
+   public void testSeveralMergePasses()
+      throws TransformerException
+   {
+      // more runs than files that will be merged at once
+      String input = TestUtil.createRecords(1000);
+      String result = transform(1, input);
+      assertOrder(1000, result);
+      assertEquals(transform(0, input), result);
+   }
+
+   public void testEmptyBuffer()
+      throws TransformerException
+   {
+      String input = TestUtil.createRecords(0);
+      assertEquals(transform(0, input), transform(1, input));
+   }
+
+   public void testKeyLookup()
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      String input = TestUtil.createRecords(200);
+      String expected =
+         TestUtil.transform(factory, "sortbuffer-key.stx", input);
+      // the records of department a, ordered by their salaries
+      String seqs = expected.substring(expected.indexOf("<dept>") + 6,
+                                       expected.indexOf("</dept>"));
+      String[] seq = seqs.trim().split(" ");
+      assertEquals(40, seq.length);
+      double last = Double.NEGATIVE_INFINITY;
+      for (int i=0; i<seq.length; i++) {
+         Record record = new Record(Integer.parseInt(seq[i]));
+         assertEquals("a", record.dept);
+         if (!Double.isNaN(record.salary)) {
+            assertTrue(record.salary >= last);
+            last = record.salary;
+         }
+      }
+      // the sorted buffer is merged from several runs
+      factory.setAttribute(TrAXConstants.BUFFER_SPILL_THRESHOLD,
+                           new Integer(1));
+      assertEquals(expected,
+                   TestUtil.transform(factory, "sortbuffer-key.stx", input));
+   }
+
+   /** A writer that fails after a number of characters */
+   private static final class FailingWriter extends FilterWriter
+   {
+      private int remaining;
+
+      FailingWriter(int remaining)
+      {
+         super(new StringWriter());
+         this.remaining = remaining;
+      }
+
+      public void write(char[] cbuf, int off, int len)
+         throws IOException
+      {
+         if ((remaining -= len) < 0)
+            throw new IOException("Output failed");
+         super.write(cbuf, off, len);
+      }
+
+      public void write(String str, int off, int len)
+         throws IOException
+      {
+         write(str.toCharArray(), off, len);
+      }
+
+      public void write(int c)
+         throws IOException
+      {
+         write(new char[] { (char)c }, 0, 1);
+      }
+   }
+
+   public void testRunFilesDeleted()
+      throws TransformerException
+   {
+      int before = TestUtil.countTempFiles(".run");
+      // several merge passes
+      transform(1, TestUtil.createRecords(200));
+      assertEquals(before, TestUtil.countTempFiles(".run"));
+
+      // the output fails while the runs are being merged
+      Templates templates = loadSheet(1);
+      String input = TestUtil.createRecords(200);
+      int length = TestUtil.transform(templates, input).length();
+      try {
+         TestUtil.transform(templates.newTransformer(), input,
+                            new FailingWriter(length / 2));
+         fail("transformation did not fail");
+      }
+      catch (TransformerException e) {
+         // expected
+      }
+      assertEquals(before, TestUtil.countTempFiles(".run"));
+   }
+}
@@ -0,0 +1,368 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TemplatesCache;
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the templates cache of {@link TransformerFactoryImpl} (see
+ * {@link TrAXConstants#TEMPLATES_CACHE_SIZE}).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class TemplatesCacheTest extends TestCase
+{
+   /** Contains the sheets */
+   private File tmpDir;
+
+   private SAXTransformerFactory factory;
+
+   protected void setUp() throws Exception
+   {
+      tmpDir = TestUtil.createTempDir();
+      factory = new TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.TEMPLATES_CACHE_SIZE,
+                           new Integer(2));
+   }
+
+   protected void tearDown() throws Exception
+   {
+      TestUtil.delete(tmpDir);
+   }
+
+   /**
+    * Writes a sheet.
+    * @param contents the top level elements
+    */
+   private File write(String name, String contents)
+      throws IOException
+   {
+      return TestUtil.writeSheet(tmpDir, name, contents);
+   }
+
+   /**
+    * Writes a sheet that outputs <code>text</code>.
+    * @param include the href of an included sheet, may be <code>null</code>
+    */
+   private File writeSheet(String name, String text, String include)
+      throws IOException
+   {
+      return write(name, (include != null
+                             ? "<stx:include href='" + include + "'/>" : "") +
+                         "<stx:template match='/'><r>" + text + "</r>" +
+                         "</stx:template>");
+   }
+
+   private static String transform(Templates templates)
+      throws TransformerException
+   {
+      return TestUtil.transform(templates, "<x/>");
+   }
+
+   private TemplatesCache getCache()
+   {
+      return (TemplatesCache)
+         factory.getAttribute(TrAXConstants.TEMPLATES_CACHE_STATISTICS);
+   }
+
+   public void testHitsAndMisses()
+      throws Exception
+   {
+      File a = writeSheet("a.stx", "a", null);
+      Templates templates = factory.newTemplates(new StreamSource(a));
+      assertSame(templates, factory.newTemplates(new StreamSource(a)));
+      // the same sheet specified by its URL
+      assertSame(templates, factory.newTemplates(
+         new StreamSource(a.toURI().toString())));
+      assertTrue(transform(templates).indexOf("<r>a</r>") != -1);
+
+      // the contents of a stream are not looked at
+      StreamSource stream = new StreamSource(new StringReader(
+         "<stx:transform version='1.0' " +
+         "xmlns:stx='http://stx.sourceforge.net/2002/ns'/>"));
+      stream.setSystemId(a);
+      assertNotSame(templates, factory.newTemplates(stream));
+
+      TemplatesCache cache = getCache();
+      assertEquals(2, cache.getHits());
+      assertEquals(1, cache.getMisses());
+      assertEquals(1, cache.getSize());
+   }
+
+   public void testLeastRecentlyUsedEviction()
+      throws Exception
+   {
+      StreamSource a = new StreamSource(writeSheet("a.stx", "a", null)),
+                   b = new StreamSource(writeSheet("b.stx", "b", null)),
+                   c = new StreamSource(writeSheet("c.stx", "c", null));
+      Templates ta = factory.newTemplates(a);
+      Templates tb = factory.newTemplates(b);
+      // touch a, so that b becomes the eldest entry
+      assertSame(ta, factory.newTemplates(a));
+      factory.newTemplates(c);
+
+      TemplatesCache cache = getCache();
+      assertEquals(2, cache.getSize());
+      assertEquals(1, cache.getEvictions());
+      assertSame(ta, factory.newTemplates(a));
+      assertNotSame(tb, factory.newTemplates(b));
+      assertEquals(2, cache.getEvictions());
+      assertEquals(2, cache.getHits());
+      assertEquals(4, cache.getMisses());
+
+      // shrinking evicts entries as well
+      factory.setAttribute(TrAXConstants.TEMPLATES_CACHE_SIZE,
+                           new Integer(1));
+      assertEquals(1, cache.getSize());
+      factory.setAttribute(TrAXConstants.TEMPLATES_CACHE_SIZE,
+                           new Integer(0));
+      assertNull(getCache());
+      assertNotSame(factory.newTemplates(a), factory.newTemplates(a));
+   }
+
+   public void testChangedSheet()
+      throws Exception
+   {
+      File a = writeSheet("a.stx", "first", "b.stx");
+      File b = write("b.stx", "");
+      a.setLastModified(1000000000000L);
+      b.setLastModified(1000000000000L);
+      Templates first = factory.newTemplates(new StreamSource(a));
+      assertSame(first, factory.newTemplates(new StreamSource(a)));
+
+      writeSheet("a.stx", "second", "b.stx");
+      Templates second = factory.newTemplates(new StreamSource(a));
+      assertNotSame(first, second);
+      assertTrue(transform(second).indexOf("<r>second</r>") != -1);
+      assertSame(second, factory.newTemplates(new StreamSource(a)));
+
+      // a changed included sheet
+      write("b.stx", "<!-- changed -->");
+      assertNotSame(second, factory.newTemplates(new StreamSource(a)));
+
+      TemplatesCache cache = getCache();
+      assertEquals(2, cache.getStaleEntries());
+      assertEquals(3, cache.getMisses());
+      assertEquals(2, cache.getHits());
+   }
+
+   public void testSAXTransformerFactory()
+      throws Exception
+   {
+      StreamSource a = new StreamSource(writeSheet("a.stx", "a", null));
+      TransformerHandler handler = factory.newTransformerHandler(a);
+      handler.setResult(new SAXResult(new DefaultHandler()));
+      XMLFilter filter = factory.newXMLFilter(a);
+      filter.setContentHandler(new DefaultHandler());
+      filter.parse(new InputSource(new StringReader("<x/>")));
+      factory.newTransformer(a);
+
+      TemplatesCache cache = getCache();
+      assertEquals(1, cache.getMisses());
+      assertEquals(2, cache.getHits());
+   }
+
+   public void testHitDuringCompilation()
+      throws Exception
+   {
+      final StreamSource a =
+         new StreamSource(writeSheet("a.stx", "a", null));
+      final StreamSource b =
+         new StreamSource(writeSheet("b.stx", "b", "c.stx"));
+      write("c.stx", "");
+      final Object lock = new Object();
+      final boolean[] state = new boolean[2]; // resolving, released
+      factory.setURIResolver(new URIResolver() {
+         public Source resolve(String href, String base)
+         {
+            synchronized (lock) {
+               state[0] = true;
+               lock.notifyAll();
+               while (!state[1]) {
+                  try {
+                     lock.wait();
+                  }
+                  catch (InterruptedException ex) {
+                     return null;
+                  }
+               }
+            }
+            return null;
+         }
+      });
+      final Templates ta = factory.newTemplates(a);
+
+      // compiles b, which waits for the release in the URIResolver
+      Thread compiler = new Thread() {
+         public void run()
+         {
+            try {
+               factory.newTemplates(b);
+            }
+            catch (TransformerException ex) {
+               // the test fails anyway
+            }
+         }
+      };
+      final Templates[] hit = new Templates[1];
+      Thread reader = new Thread() {
+         public void run()
+         {
+            try {
+               hit[0] = factory.newTemplates(a);
+            }
+            catch (TransformerException ex) {
+               // hit[0] remains null
+            }
+         }
+      };
+      try {
+         compiler.start();
+         synchronized (lock) {
+            while (!state[0])
+               lock.wait();
+         }
+         reader.start();
+         reader.join(10000);
+         assertSame(ta, hit[0]);
+      }
+      finally {
+         synchronized (lock) {
+            state[1] = true;
+            lock.notifyAll();
+         }
+         compiler.join();
+         reader.join();
+      }
+      assertEquals(2, getCache().getSize());
+   }
+
+   /**
+    * Calls {@link #run} when the sheet including <code>inc.stx</code> is
+    * compiled for the first time
+    */
+   private abstract class IncludeAction implements URIResolver
+   {
+      private boolean done;
+
+      public Source resolve(String href, String base)
+      {
+         if ("inc.stx".equals(href) && !done) {
+            done = true;
+            try {
+               run();
+            }
+            catch (Exception ex) {
+               throw new RuntimeException(ex.toString());
+            }
+         }
+         return null;
+      }
+
+      abstract void run() throws Exception;
+   }
+
+   public void testSheetChangedDuringCompilation()
+      throws Exception
+   {
+      File a = writeSheet("a.stx", "first", "inc.stx");
+      write("inc.stx", "");
+      a.setLastModified(1000000000000L);
+      factory.setURIResolver(new IncludeAction() {
+         void run() throws Exception
+         {
+            // the same length, the parser may have read a.stx already
+            writeSheet("a.stx", "other", "inc.stx");
+         }
+      });
+      Templates first = factory.newTemplates(new StreamSource(a));
+      assertTrue(transform(first).indexOf("<r>first</r>") != -1);
+      Templates second = factory.newTemplates(new StreamSource(a));
+      assertNotSame(first, second);
+      assertTrue(transform(second).indexOf("<r>other</r>") != -1);
+      assertSame(second, factory.newTemplates(new StreamSource(a)));
+      assertEquals(1, getCache().getStaleEntries());
+   }
+
+   public void testIncludeChangedDuringCompilation()
+      throws Exception
+   {
+      File a = write("a.stx", "<stx:include href='b.stx'/>" +
+                              "<stx:include href='inc.stx'/>");
+      File b = write("b.stx", "");
+      b.setLastModified(1000000000000L);
+      write("inc.stx", "");
+      factory.setURIResolver(new IncludeAction() {
+         void run() throws Exception
+         {
+            // b.stx has been read already
+            write("b.stx", "<!-- changed -->");
+         }
+      });
+      Templates first = factory.newTemplates(new StreamSource(a));
+      Templates second = factory.newTemplates(new StreamSource(a));
+      assertNotSame(first, second);
+      assertSame(second, factory.newTemplates(new StreamSource(a)));
+      assertEquals(1, getCache().getStaleEntries());
+   }
+
+   public void testClearDuringCompilation()
+      throws Exception
+   {
+      File a = writeSheet("a.stx", "a", "inc.stx");
+      write("inc.stx", "");
+      factory.setURIResolver(new IncludeAction() {
+         void run()
+         {
+            // clears the cache
+            factory.setAttribute(TrAXConstants.ALLOW_EXTERNAL_FUNCTIONS,
+                                 Boolean.FALSE);
+         }
+      });
+      factory.newTemplates(new StreamSource(a));
+      assertEquals(0, getCache().getSize());
+   }
+}
@@ -0,0 +1,223 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Helper methods shared by the tests in this package.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class TestUtil
+{
+   /** The departments of the records, see {@link #createRecords} */
+   private static final String[] DEPTS = { "b", "a", "c", "", "ab" };
+
+   /** The salaries of the records, see {@link #createRecords} */
+   private static final String[] SALARIES =
+      { "10", "2.5", "n/a", "100", "10", "-1", "2.5" };
+
+   private TestUtil()
+   { }
+
+
+   /**
+    * Compiles a sheet of this package. The sheet is read from its URL,
+    * so that relative references work.
+    * @param factory the factory
+    * @param stxName the file name of the sheet
+    */
+   public static Templates newTemplates(TransformerFactory factory,
+                                        String stxName)
+      throws TransformerException
+   {
+      return factory.newTemplates(new StreamSource(
+         TestUtil.class.getResource(stxName).toString()));
+   }
+
+   /** @return the result of transforming <code>input</code> */
+   public static String transform(Transformer transformer, String input)
+      throws TransformerException
+   {
+      StringWriter result = new StringWriter();
+      transform(transformer, input, result);
+      return result.toString();
+   }
+
+   /** Transforms <code>input</code> to <code>result</code> */
+   public static void transform(Transformer transformer, String input,
+                                Writer result)
+      throws TransformerException
+   {
+      transformer.transform(new StreamSource(new StringReader(input)),
+                            new StreamResult(result));
+   }
+
+   /** @return the result of transforming <code>input</code> */
+   public static String transform(Templates templates, String input)
+      throws TransformerException
+   {
+      return transform(templates.newTransformer(), input);
+   }
+
+   /**
+    * @return the result of transforming <code>input</code> with a sheet
+    *         of this package
+    */
+   public static String transform(TransformerFactory factory,
+                                  String stxName, String input)
+      throws TransformerException
+   {
+      return transform(newTemplates(factory, stxName), input);
+   }
+
+
+   /** @return the department (a string) of a record */
+   public static String getDept(int seq)
+   {
+      return DEPTS[seq % DEPTS.length];
+   }
+
+   /** @return the salary (a number or <code>n/a</code>) of a record */
+   public static String getSalary(int seq)
+   {
+      return SALARIES[seq * 3 % SALARIES.length];
+   }
+
+   /**
+    * Creates a list of records with the attributes <code>seq</code>
+    * (1 to <code>count</code>), <code>dept</code> and <code>salary</code>,
+    * and contents consisting of all kinds of nodes.
+    * @return the document
+    */
+   public static String createRecords(int count)
+   {
+      StringBuffer sb = new StringBuffer("<list xmlns:x='urn:x'>\n");
+      for (int i=1; i<=count; i++) {
+         sb.append("<rec seq='").append(i)
+           .append("' dept='").append(getDept(i))
+           .append("' salary='").append(getSalary(i))
+           .append("'>");
+         switch (i % 4) {
+         case 0:
+            sb.append("text ").append(i).append(" &amp; more");
+            break;
+         case 1:
+            sb.append("<x:sub x:a='").append(i)
+              .append("'><!--comment--><?pi data?></x:sub>");
+            break;
+         case 2:
+            sb.append("<![CDATA[<cdata>]]>");
+            break;
+         case 3:
+            sb.append("<sub xmlns='urn:d'>\u00e9 \u2603 \ud801\udc00</sub>");
+            break;
+         }
+         sb.append("</rec>\n");
+         if (i % 10 == 0)
+            sb.append("<!-- not a record -->\n");
+      }
+      return sb.append("</list>").toString();
+   }
+
+
+   /** @return a new empty temporary directory */
+   public static File createTempDir()
+      throws IOException
+   {
+      File dir = File.createTempFile("joost", ".test");
+      dir.delete();
+      dir.mkdir();
+      return dir;
+   }
+
+   /** Deletes a file or a directory with its contents */
+   public static void delete(File file)
+   {
+      File[] files = file.listFiles();
+      if (files != null)
+         for (int i=0; i<files.length; i++)
+            delete(files[i]);
+      file.delete();
+   }
+
+   /** Writes a file in UTF-8 */
+   public static void write(File file, String contents)
+      throws IOException
+   {
+      OutputStream out = new FileOutputStream(file);
+      try {
+         out.write(contents.getBytes("UTF-8"));
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Writes a transformation sheet.
+    * @param topLevel the top level elements of the sheet
+    * @return the file
+    */
+   public static File writeSheet(File dir, String name, String topLevel)
+      throws IOException
+   {
+      File file = new File(dir, name);
+      write(file, "<stx:transform version='1.0' " +
+                  "xmlns:stx='http://stx.sourceforge.net/2002/ns'>" +
+                  topLevel + "</stx:transform>");
+      return file;
+   }
+
+
+   /**
+    * @return the number of temporary files created by Joost with the
+    *         suffix <code>suffix</code>
+    */
+   public static int countTempFiles(String suffix)
+   {
+      String[] names =
+         new File(System.getProperty("java.io.tmpdir")).list();
+      int count = 0;
+      for (int i=0; names != null && i<names.length; i++)
+         if (names[i].startsWith("joost") && names[i].endsWith(suffix))
+            count++;
+      return count;
+   }
+}
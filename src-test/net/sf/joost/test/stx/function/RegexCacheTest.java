@@ -0,0 +1,149 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.stx.function;
+
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.trax.TransformerFactoryImpl;
+import net.sf.joost.util.regex.RegexCache;
+import net.sf.joost.util.regex.RegularExpression;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the global {@link RegexCache} and the compile-time precompilation
+ * of literal regular expressions.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class RegexCacheTest extends TestCase
+{
+   protected void setUp()
+   {
+      RegexCache.clear();
+   }
+
+   protected void tearDown()
+   {
+      RegexCache.clear();
+   }
+
+   private static String transform(String stxName, String input)
+      throws TransformerException
+   {
+      TransformerFactory factory = new TransformerFactoryImpl();
+      Transformer transformer = factory.newTransformer(new StreamSource(
+         RegexCacheTest.class.getResourceAsStream(stxName)));
+      StringWriter result = new StringWriter();
+      transformer.transform(new StreamSource(new StringReader(input)),
+                            new StreamResult(result));
+      return result.toString();
+   }
+
+   public void testHitsAndMisses()
+      throws EvalException
+   {
+      RegularExpression re = RegexCache.getRegex("a+", "");
+      assertEquals(0, RegexCache.getHitCount());
+      assertEquals(1, RegexCache.getMissCount());
+      assertSame(re, RegexCache.getRegex("a+", ""));
+      assertEquals(1, RegexCache.getHitCount());
+      // the same pattern with different flags is a different expression
+      assertNotSame(re, RegexCache.getRegex("a+", "i"));
+      assertEquals(2, RegexCache.getMissCount());
+      assertEquals(2, RegexCache.getSize());
+   }
+
+   public void testInvalidExpressionNotCached()
+   {
+      for (int i=0; i<2; i++) {
+         try {
+            RegexCache.getRegex("(a", "");
+            fail("invalid expression accepted");
+         }
+         catch (EvalException e) {
+            // expected
+         }
+      }
+      assertEquals(2, RegexCache.getMissCount());
+      assertEquals(0, RegexCache.getSize());
+   }
+
+   public void testLeastRecentlyUsedEviction()
+      throws EvalException
+   {
+      RegularExpression first = RegexCache.getRegex("p0", "");
+      RegularExpression second = RegexCache.getRegex("p1", "");
+      for (int i=2; i<RegexCache.MAX_SIZE; i++)
+         RegexCache.getRegex("p" + i, "");
+      assertEquals(RegexCache.MAX_SIZE, RegexCache.getSize());
+
+      // touch p0, so that p1 becomes the eldest entry
+      assertSame(first, RegexCache.getRegex("p0", ""));
+      RegexCache.getRegex("p" + RegexCache.MAX_SIZE, "");
+      assertEquals(RegexCache.MAX_SIZE, RegexCache.getSize());
+
+      long misses = RegexCache.getMissCount();
+      assertSame(first, RegexCache.getRegex("p0", ""));
+      assertEquals(misses, RegexCache.getMissCount());
+      assertNotSame(second, RegexCache.getRegex("p1", ""));
+      assertEquals(misses + 1, RegexCache.getMissCount());
+      assertEquals(RegexCache.MAX_SIZE, RegexCache.getSize());
+   }
+
+   public void testLiteralPatternsBypassCache()
+      throws TransformerException
+   {
+      String result = transform("regexLiteral.stx",
+         "<list><item>aab, 12, x</item><item>b,3</item></list>");
+      assertEquals("true|aab, #, x|aab/12/x|[aab][x]\n" +
+                   "false|b,#|b/3|[b]\n", result);
+      assertEquals(0, RegexCache.getHitCount());
+      assertEquals(0, RegexCache.getMissCount());
+      assertEquals(0, RegexCache.getSize());
+   }
+
+   public void testComputedPatternsUseCache()
+      throws TransformerException
+   {
+      String result = transform("regexComputed.stx",
+         "<list><item pattern=','>a,b</item>" +
+         "<item pattern=','>c</item>" +
+         "<item pattern='-'>d-e</item></list>");
+      assertEquals("true|a/b\nfalse|c\ntrue|d/e\n", result);
+      // two distinct patterns, each used by matches() and tokenize()
+      assertEquals(2, RegexCache.getMissCount());
+      assertEquals(4, RegexCache.getHitCount());
+      assertEquals(2, RegexCache.getSize());
+   }
+}
@@ -0,0 +1,170 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.trax.profiler;
+
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.joost.stx.SequenceIndex;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Compares the general comparison <code>=</code> and the function
+ * <code>index-of</code> with and without the hash index of
+ * {@link SequenceIndex}. Every input element is compared with a list of
+ * codes that is stored in a variable; the table shows the number of
+ * elements processed per second for growing lists.
+ * <p>
+ * Usage: <code>java net.sf.joost.test.trax.profiler.SequenceComparisonBenchmark
+ * [elements]</code>
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class SequenceComparisonBenchmark
+{
+   /** The numbers of codes to be measured */
+   private static final int[] CODE_COUNTS =
+      { 4, 16, 100, 1000, 10000, 50000 };
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      int elements = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+      System.setProperty("javax.xml.transform.TransformerFactory",
+                         "net.sf.joost.trax.TransformerFactoryImpl");
+      TransformerFactory factory = TransformerFactory.newInstance();
+
+      int minSize = SequenceIndex.getMinSize();
+      System.out.println("codes   function   nested/s   hashed/s");
+      for (int i=0; i<CODE_COUNTS.length; i++) {
+         String input = createInput(elements, CODE_COUNTS[i]);
+         for (int f=0; f<2; f++) {
+            Templates templates = factory.newTemplates(
+               new StreamSource(new StringReader(
+                  createSheet(CODE_COUNTS[i], f == 0 ? "=" : "index-of"))));
+            SequenceIndex.setMinSize(Integer.MAX_VALUE);
+            long nested = measure(templates, input);
+            SequenceIndex.setMinSize(minSize);
+            long hashed = measure(templates, input);
+            System.out.println(pad(CODE_COUNTS[i], 5) +
+                               pad(f == 0 ? "=" : "index-of", 11) +
+                               pad(nested == 0 ? elements * 1000L
+                                               : elements * 1000L / nested,
+                                   11) +
+                               pad(hashed == 0 ? elements * 1000L
+                                               : elements * 1000L / hashed,
+                                   11));
+         }
+      }
+   }
+
+
+   /** @return the best time in milliseconds of three transformations */
+   private static long measure(Templates templates, String input)
+      throws Exception
+   {
+      // warm up
+      run(templates, input);
+      long best = Long.MAX_VALUE;
+      for (int j=0; j<3; j++)
+         best = Math.min(best, run(templates, input));
+      return best;
+   }
+
+
+   /** @return the time in milliseconds for a single transformation */
+   private static long run(Templates templates, String input)
+      throws Exception
+   {
+      Transformer transformer = templates.newTransformer();
+      long start = System.currentTimeMillis();
+      transformer.transform(new StreamSource(new StringReader(input)),
+                            new SAXResult(new DefaultHandler()));
+      return System.currentTimeMillis() - start;
+   }
+
+
+   /**
+    * @return a sheet that compares the type attribute of every element
+    *         with <code>count</code> codes
+    */
+   private static String createSheet(int count, String function)
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'"
+                + " version='1.0' pass-through='none'>\n");
+      sb.append("<stx:variable name='codes' select=\"tokenize('");
+      for (int i=0; i<count; i++)
+         sb.append(i == 0 ? "" : " ").append('c').append(i);
+      sb.append("', ' ')\"/>\n");
+      sb.append("<stx:template match='root'><stx:process-children/>"
+                + "</stx:template>\n");
+      if (function.equals("="))
+         sb.append("<stx:template match='e'><stx:if test='$codes = @type'>"
+                   + "<x/></stx:if></stx:template>\n");
+      else
+         sb.append("<stx:template match='e'><x pos='{index-of($codes, "
+                   + "string(@type))}'/></stx:template>\n");
+      sb.append("</stx:transform>");
+      return sb.toString();
+   }
+
+
+   /**
+    * @return a flat document with <code>count</code> elements, half of
+    *         them have a type from the codes
+    */
+   private static String createInput(int count, int codes)
+   {
+      StringBuffer sb = new StringBuffer("<root>");
+      for (int i=0; i<count; i++) {
+         int n = (i * 7919) % (2 * codes);
+         sb.append("<e type='c").append(n).append("'/>");
+      }
+      sb.append("</root>");
+      return sb.toString();
+   }
+
+
+   private static String pad(Object value, int width)
+   {
+      StringBuffer sb = new StringBuffer(String.valueOf(value));
+      while (sb.length() < width)
+         sb.insert(0, ' ');
+      return sb.toString();
+   }
+
+   private static String pad(long value, int width)
+   {
+      return pad(String.valueOf(value), width);
+   }
+}
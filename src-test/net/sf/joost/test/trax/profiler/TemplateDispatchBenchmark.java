@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.trax.profiler;
+
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Measures the throughput (input events per second) of transformation
+ * sheets with a growing number of templates. Every template matches a
+ * different element name, so the template lookup dominates the costs.
+ * <p>
+ * Usage: <code>java net.sf.joost.test.trax.profiler.TemplateDispatchBenchmark
+ * [elements]</code>
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public class TemplateDispatchBenchmark
+{
+   /** The numbers of templates to be measured */
+   private static final int[] TEMPLATE_COUNTS =
+      { 1, 10, 50, 100, 200, 400, 800 };
+
+   /** Number of different element names in the input */
+   private static final int NAME_COUNT = 40;
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      int elements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+      System.setProperty("javax.xml.transform.TransformerFactory",
+                         "net.sf.joost.trax.TransformerFactoryImpl");
+      TransformerFactory factory = TransformerFactory.newInstance();
+
+      String input = createInput(elements);
+      // each element produces a start event, a text event and
+      // (with the text as look-ahead) an end event
+      long events = 3L * elements;
+
+      System.out.println("templates   events/s");
+      for (int i=0; i<TEMPLATE_COUNTS.length; i++) {
+         Templates templates = factory.newTemplates(
+            new StreamSource(new StringReader(
+               createSheet(TEMPLATE_COUNTS[i]))));
+         // warm up
+         run(templates, input);
+         long best = Long.MAX_VALUE;
+         for (int j=0; j<3; j++)
+            best = Math.min(best, run(templates, input));
+         System.out.println(pad(TEMPLATE_COUNTS[i], 9) +
+                            pad(best == 0 ? events * 1000
+                                          : events * 1000 / best, 11));
+      }
+   }
+
+
+   /** @return the time in milliseconds for a single transformation */
+   private static long run(Templates templates, String input)
+      throws Exception
+   {
+      Transformer transformer = templates.newTransformer();
+      long start = System.currentTimeMillis();
+      transformer.transform(new StreamSource(new StringReader(input)),
+                            new SAXResult(new DefaultHandler()));
+      return System.currentTimeMillis() - start;
+   }
+
+
+   /** @return a sheet with <code>count</code> templates */
+   private static String createSheet(int count)
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'"
+                + " version='1.0' pass-through='none'>\n");
+      sb.append("<stx:template match='root'><stx:process-children/>"
+                + "</stx:template>\n");
+      for (int i=0; i<count; i++)
+         sb.append("<stx:template match='e" + i + "'><x/></stx:template>\n");
+      sb.append("<stx:template match='text()'/>\n");
+      sb.append("</stx:transform>");
+      return sb.toString();
+   }
+
+
+   /** @return a flat document with <code>count</code> elements */
+   private static String createInput(int count)
+   {
+      StringBuffer sb = new StringBuffer("<root>");
+      for (int i=0; i<count; i++) {
+         int n = (i % NAME_COUNT) * 17;
+         sb.append("<e").append(n).append(">text</e").append(n).append('>');
+      }
+      sb.append("</root>");
+      return sb.toString();
+   }
+
+
+   private static String pad(long value, int width)
+   {
+      StringBuffer sb = new StringBuffer(String.valueOf(value));
+      while (sb.length() < width)
+         sb.insert(0, ' ');
+      return sb.toString();
+   }
+}
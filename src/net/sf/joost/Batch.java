@@ -0,0 +1,473 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost;
+
+import net.sf.joost.emitter.StreamEmitter;
+import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.stx.Processor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerException;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Transforms a batch of input files with the same chain of compiled
+ * transformation sheets. The files are distributed over a number of
+ * worker threads, each of them owns a copy of the processor chain that
+ * is reset before every file. An error aborts the transformation of the
+ * affected file only; its incomplete result file will be deleted.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+final class Batch
+{
+   /** The compiled processor chain, the first transformation comes first */
+   private Processor[] chain;
+
+   /** The parameters for each processor in {@link #chain} */
+   private Hashtable[] params;
+
+   /** The output file name, either a directory or a name containing '*' */
+   private String outPattern;
+
+   /** The class name of the message emitter, <code>null</code> if none */
+   private String meClassname;
+
+   /** Command line flags */
+   private boolean nodecl, doe, measureTime;
+
+   /** The files to be transformed */
+   private File[] inputs;
+
+   /** The index of the next file in {@link #inputs} */
+   private int next;
+
+   /** Statistics */
+   private int processed, failed, startFailures;
+   private long bytes;
+
+
+   /**
+    * Constructs a batch.
+    * @param processor the last processor of the chain
+    * @param params the parameters for each processor of the chain, the
+    *        first transformation comes first
+    * @param outPattern the name of the output directory, or a file name
+    *        that contains a '*' as placeholder for the input file name
+    *        without extension
+    * @param meClassname the class name of the message emitter or
+    *        <code>null</code>
+    */
+   Batch(Processor processor, Vector params, String outPattern,
+         String meClassname, boolean nodecl, boolean doe,
+         boolean measureTime)
+   {
+      chain = new Processor[params.size()];
+      this.params = new Hashtable[chain.length];
+      params.copyInto(this.params);
+      for (int i=chain.length-1; i>=0; i--) {
+         chain[i] = processor;
+         Object o = processor.getParent();
+         if (o instanceof Processor)
+            processor = (Processor)o;
+      }
+      this.outPattern = outPattern;
+      this.meClassname = meClassname;
+      this.nodecl = nodecl;
+      this.doe = doe;
+      this.measureTime = measureTime;
+   }
+
+
+   /**
+    * Transforms all input files.
+    * @param inputSpec the input files: a directory, a list file (prefixed
+    *        with '@') or a file name that may contain the wildcards '*'
+    *        and '?' in its last component
+    * @param threadCount the number of worker threads, 0 for one per
+    *        available processor
+    * @return <code>true</code> if all files were transformed successfully
+    * @throws IOException if the input files couldn't be determined or if
+    *         two input files would be transformed into the same result file
+    */
+   boolean run(String inputSpec, int threadCount)
+      throws IOException
+   {
+      inputs = getInputs(inputSpec);
+      checkOutputs();
+      if (threadCount == 0)
+         threadCount = Runtime.getRuntime().availableProcessors();
+      if (threadCount > inputs.length)
+         threadCount = inputs.length;
+
+      long timeStart = System.currentTimeMillis();
+      Thread[] workers = new Thread[threadCount];
+      for (int i=0; i<threadCount; i++) {
+         workers[i] = new Thread("joost-batch-" + i) {
+            public void run()
+            {
+               work();
+            }
+         };
+         workers[i].start();
+      }
+      for (int i=0; i<threadCount; i++) {
+         try {
+            workers[i].join();
+         }
+         catch (InterruptedException ex) {
+            // ignore, wait again
+            i--;
+         }
+      }
+      long time = System.currentTimeMillis() - timeStart;
+
+      if (measureTime) {
+         // avoid a division by zero
+         double seconds = Math.max(time, 1) / 1000.0;
+         System.err.println("Processed " + processed + " files (" +
+                            failed + " failed, " + bytes + " bytes) with " +
+                            threadCount + " threads: " + time + " ms, " +
+                            round(processed / seconds) + " files/s, " +
+                            round(bytes / seconds / (1024 * 1024)) +
+                            " MB/s");
+      }
+      else if (failed > 0)
+         System.err.println(failed + " of " + inputs.length +
+                            " files failed");
+      if (startFailures > 0)
+         System.err.println(startFailures + " of " + threadCount +
+                            " worker threads failed");
+      if (processed < inputs.length)
+         System.err.println((inputs.length - processed) + " of " +
+                            inputs.length + " files not processed");
+      return failed == 0 && processed == inputs.length;
+   }
+
+
+   /** @return <code>value</code> rounded to two decimal places */
+   private static double round(double value)
+   {
+      return Math.round(value * 100) / 100.0;
+   }
+
+
+   /**
+    * @return the next file to be transformed, <code>null</code> if there
+    *         are no more files
+    */
+   private synchronized File nextInput()
+   {
+      return next < inputs.length ? inputs[next++] : null;
+   }
+
+
+   /**
+    * Records the result of a transformation.
+    */
+   private synchronized void done(File input, boolean success)
+   {
+      processed++;
+      if (success)
+         bytes += input.length();
+      else
+         failed++;
+   }
+
+
+   /**
+    * Records that the current worker thread couldn't be started.
+    * @param message the error message
+    */
+   private synchronized void startFailed(String message)
+   {
+      startFailures++;
+      System.err.println("Starting " + Thread.currentThread().getName() +
+                         " failed: " + message);
+   }
+
+
+   /**
+    * The main loop of a worker thread.
+    */
+   private void work()
+   {
+      Processor[] procs = new Processor[chain.length];
+      StxEmitter messageEmitter = null;
+      try {
+         for (int i=0; i<chain.length; i++)
+            procs[i] = chain[i].copy();
+         // message emitters are not thread-safe, every worker needs its own
+         if (meClassname != null)
+            messageEmitter =
+               (StxEmitter)Class.forName(meClassname).newInstance();
+      }
+      catch (SAXException ex) {
+         // the same has been done successfully for the original chain,
+         // but creating a new XML parser may fail nevertheless
+         Exception embedded = ex.getException();
+         startFailed(embedded != null &&
+                     !(embedded instanceof TransformerException)
+                     ? embedded.toString() : Main.getErrorMessage(ex));
+         return;
+      }
+      catch (Throwable t) {
+         // the message emitter
+         startFailed(t.toString());
+         return;
+      }
+
+      File input;
+      while ((input = nextInput()) != null) {
+         long timeStart = System.currentTimeMillis();
+         boolean success = false;
+         try {
+            transform(procs, messageEmitter, input);
+            success = true;
+         }
+         catch (SAXException ex) {
+            Exception embedded = ex.getException();
+            synchronized (System.err) {
+               System.err.print("Processing " + input + " failed: ");
+               if (embedded != null &&
+                   !(embedded instanceof TransformerException)) {
+                  // Fatal: this mustn't happen
+                  System.err.println();
+                  embedded.printStackTrace(System.err);
+               }
+               else
+                  System.err.println(Main.getErrorMessage(ex));
+            }
+         }
+         catch (IOException ex) {
+            System.err.println("Processing " + input + " failed: " + ex);
+         }
+         catch (Throwable t) {
+            // a runtime exception, or an error such as StackOverflowError
+            // caused by a deeply recursive transformation sheet; the
+            // processors will be reset for the next file
+            synchronized (System.err) {
+               System.err.println("Processing " + input + " failed: ");
+               t.printStackTrace(System.err);
+            }
+         }
+         done(input, success);
+         if (measureTime)
+            System.err.println("Processing " + input + ": " +
+                               (System.currentTimeMillis() - timeStart) +
+                               " ms");
+      }
+   }
+
+
+   /**
+    * Transforms a single file.
+    * @param procs the processor chain of the current worker
+    * @param messageEmitter the message emitter of the current worker
+    * @param input the file to be transformed
+    */
+   private void transform(Processor[] procs, StxEmitter messageEmitter,
+                          File input)
+      throws SAXException, IOException
+   {
+      for (int i=0; i<procs.length; i++) {
+         Processor p = procs[i];
+         p.reset();
+         if (i > 0)
+            p.setParent(procs[i-1]); // XMLFilter chain
+         for (Enumeration e = params[i].keys(); e.hasMoreElements(); ) {
+            String name = (String)e.nextElement();
+            p.setParameter(name, params[i].get(name));
+         }
+         if (nodecl)
+            p.outputProperties.setProperty(OutputKeys.OMIT_XML_DECLARATION,
+                                           "yes");
+         if (messageEmitter != null)
+            p.setMessageEmitter(messageEmitter);
+      }
+      Processor processor = procs[procs.length-1];
+
+      File output = getOutput(input);
+      if (output.getCanonicalFile().equals(input.getCanonicalFile()))
+         throw new IOException("Result would overwrite the input file");
+      File dir = output.getAbsoluteFile().getParentFile();
+      if (dir != null)
+         dir.mkdirs();
+
+      OutputStream out = new FileOutputStream(output);
+      boolean complete = false;
+      try {
+         StreamEmitter emitter =
+            StreamEmitter.newEmitter(out, processor.outputProperties);
+         emitter.setSystemId(output.toURI().toString());
+         emitter.setSupportDisableOutputEscaping(doe);
+         processor.setContentHandler(emitter);
+         processor.setLexicalHandler(emitter);
+         processor.parse(new InputSource(input.toURI().toString()));
+         complete = true;
+      }
+      finally {
+         out.close();
+         if (!complete)
+            output.delete();
+      }
+   }
+
+
+   /**
+    * Checks that every input file has its own result file. Otherwise two
+    * worker threads would write the same file at the same time.
+    * @throws IOException if two input files have the same result file
+    */
+   private void checkOutputs()
+      throws IOException
+   {
+      Hashtable outputs = new Hashtable();
+      for (int i=0; i<inputs.length; i++) {
+         File output = getOutput(inputs[i]).getCanonicalFile();
+         File other = (File)outputs.put(output, inputs[i]);
+         if (other != null)
+            throw new IOException("The results of " + other + " and " +
+                                  inputs[i] + " would both be written to " +
+                                  output);
+      }
+   }
+
+
+   /**
+    * Determines the result file for an input file.
+    * @param input the input file
+    * @return the result file
+    */
+   private File getOutput(File input)
+   {
+      String name = input.getName();
+      int index = outPattern.indexOf('*');
+      if (index == -1)
+         return new File(outPattern, name);
+      int dot = name.lastIndexOf('.');
+      if (dot > 0)
+         name = name.substring(0, dot);
+      return new File(outPattern.substring(0, index) + name +
+                      outPattern.substring(index+1));
+   }
+
+
+   /**
+    * Determines the input files.
+    * @param spec the specification, see {@link #run}
+    * @return the input files, at least one
+    * @throws IOException if there are no matching files or the list file
+    *         couldn't be read
+    */
+   static File[] getInputs(String spec)
+      throws IOException
+   {
+      Vector files = new Vector();
+      if (spec.startsWith("@")) {
+         // list file, one file name per line
+         BufferedReader br =
+            new BufferedReader(new FileReader(spec.substring(1)));
+         try {
+            String line;
+            while ((line = br.readLine()) != null) {
+               line = line.trim();
+               if (line.length() != 0 && !line.startsWith("#"))
+                  files.addElement(new File(line));
+            }
+         }
+         finally {
+            br.close();
+         }
+      }
+      else {
+         File file = new File(spec);
+         String pattern = null;
+         if (!file.isDirectory()) {
+            pattern = file.getName();
+            if (pattern.indexOf('*') == -1 && pattern.indexOf('?') == -1) {
+               // a single file
+               if (!file.isFile())
+                  throw new IOException("Input file " + spec +
+                                        " doesn't exist");
+               return new File[] { file };
+            }
+            file = file.getParentFile();
+            if (file == null)
+               file = new File(".");
+         }
+         File[] list = file.listFiles();
+         if (list == null)
+            throw new IOException("Can't read the directory " + file);
+         Arrays.sort(list);
+         for (int i=0; i<list.length; i++)
+            if (list[i].isFile() &&
+                (pattern == null || matches(pattern, 0, list[i].getName(), 0)))
+               files.addElement(list[i]);
+      }
+
+      if (files.isEmpty())
+         throw new IOException("No input files found for " + spec);
+      File[] result = new File[files.size()];
+      files.copyInto(result);
+      return result;
+   }
+
+
+   /**
+    * Matches a file name against a pattern containing the wildcards
+    * '*' (any number of characters) and '?' (a single character).
+    */
+   private static boolean matches(String pattern, int pi,
+                                  String name, int ni)
+   {
+      for (; pi < pattern.length(); pi++, ni++) {
+         char c = pattern.charAt(pi);
+         if (c == '*') {
+            for (int i=name.length(); i>=ni; i--)
+               if (matches(pattern, pi+1, name, i))
+                  return true;
+            return false;
+         }
+         if (ni == name.length() || (c != '?' && c != name.charAt(ni)))
+            return false;
+      }
+      return ni == name.length();
+   }
+}
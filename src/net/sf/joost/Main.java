@@ -27,14 +27,18 @@ package net.sf.joost;
 import net.sf.joost.emitter.FOPEmitter;
 import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.stx.DocumentCache;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.SheetCache;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Hashtable;
+import java.util.Vector;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.SourceLocator;
@@ -107,6 +111,21 @@ public class Main implements Constants
       boolean measureTime = false;
       long timeStart = 0, timeEnd = 0;
 
+      // set to true if -batch was specified on the command line
+      boolean batch = false;
+
+      // number of threads for the batch mode (0 means one per processor)
+      int threadCount = 0;
+
+      // the parameters for each STX sheet (needed for the batch mode)
+      Vector sheetParams = new Vector();
+
+      // cache for compiled STX sheets (optional)
+      SheetCache sheetCache = null;
+
+      // cache for documents of stx:process-document (optional)
+      DocumentCache documentCache = null;
+
       // needed for evaluating parameter assignments
       int index;
 
@@ -157,6 +176,31 @@ public class Main implements Constants
                   measureTime = true;
                   continue;
                }
+               else if ("-batch".equals(args[i])) {
+                  batch = true;
+                  continue;
+               }
+               else if ("-threads".equals(args[i])) {
+                  // this option needs a parameter
+                  if (++i < args.length && args[i].charAt(0) != '-') {
+                     try {
+                        threadCount = Integer.parseInt(args[i]);
+                     }
+                     catch (NumberFormatException ex) {
+                        threadCount = -1;
+                     }
+                     if (threadCount > 0)
+                        continue;
+                     System.err.println("Option -threads requires a " +
+                                        "positive number");
+                     wrongParameter = true;
+                  }
+                  else {
+                     System.err.println("Option -threads requires a number");
+                     i--;
+                     wrongParameter = true;
+                  }
+               }
                else if ("-o".equals(args[i])) {
                   // this option needs a parameter
                   if (++i < args.length && args[i].charAt(0) != '-') {
@@ -179,6 +223,43 @@ public class Main implements Constants
                      wrongParameter = true;
                   }
                }
+               else if ("-cache".equals(args[i])) {
+                  // this option needs a parameter
+                  if (++i < args.length && args[i].charAt(0) != '-') {
+                     sheetCache = new SheetCache(new File(args[i]));
+                     continue;
+                  }
+                  else {
+                     System.err.println("Option -cache requires a " +
+                                        "directory name");
+                     i--;
+                     wrongParameter = true;
+                  }
+               }
+               else if ("-doccache".equals(args[i])) {
+                  // this option needs a parameter
+                  if (++i < args.length && args[i].charAt(0) != '-') {
+                     long size;
+                     try {
+                        size = Long.parseLong(args[i]);
+                     }
+                     catch (NumberFormatException ex) {
+                        size = -1;
+                     }
+                     if (size > 0) {
+                        documentCache = new DocumentCache(size * 1024);
+                        continue;
+                     }
+                     System.err.println("Option -doccache requires a " +
+                                        "positive number");
+                     wrongParameter = true;
+                  }
+                  else {
+                     System.err.println("Option -doccache requires a number");
+                     i--;
+                     wrongParameter = true;
+                  }
+               }
                else if ("-m".equals(args[i])) {
                   // this option needs a parameter
                   if (++i < args.length && args[i].charAt(0) != '-') {
@@ -265,9 +346,12 @@ public class Main implements Constants
             // command line argument is not an option with a leading '-'
             else if ((index = args[i].indexOf('=')) != -1) {
                // parameter assignment
-               if (processor != null)
+               if (processor != null) {
                   processor.setParameter(args[i].substring(0,index),
                                         args[i].substring(index+1));
+                  ((Hashtable)sheetParams.lastElement()).put(
+                        args[i].substring(0,index), args[i].substring(index+1));
+               }
                else {
                   System.err.println("Assignment " + args[i] +
                                      " must follow an stx-sheet parameter");
@@ -285,11 +369,15 @@ public class Main implements Constants
                pContext.allowExternalFunctions = !noext;
                if (measureTime)
                   timeStart = System.currentTimeMillis();
-               Processor proc =
-                  new Processor(new InputSource(args[i]), pContext);
+               Processor proc = sheetCache != null
+                  ? new Processor(sheetCache.parse(null,
+                                                   new InputSource(args[i]),
+                                                   pContext))
+                  : new Processor(new InputSource(args[i]), pContext);
                if (nodecl)
                   proc.outputProperties.setProperty(
                         OutputKeys.OMIT_XML_DECLARATION, "yes");
+               proc.setDocumentCache(documentCache);
                if (measureTime) {
                   timeEnd = System.currentTimeMillis();
                   System.err.println("Parsing " + args[i] + ": " +
@@ -299,6 +387,7 @@ public class Main implements Constants
                if (processor != null)
                   proc.setParent(processor); // XMLFilter chain
                processor = proc;
+               sheetParams.addElement(new Hashtable());
             }
          }
 
@@ -308,6 +397,26 @@ public class Main implements Constants
             wrongParameter = true;
          }
 
+         if (batch) {
+            if (outFile == null) {
+               System.err.println("Option -batch requires option -o");
+               wrongParameter = true;
+            }
+            if (doFOP) {
+               System.err.println("Option -pdf can't be used with -batch");
+               wrongParameter = true;
+            }
+            if ("-".equals(xmlFile)) {
+               System.err.println("Option -batch can't read the standard " +
+                                  "input");
+               wrongParameter = true;
+            }
+         }
+         else if (threadCount != 0) {
+            System.err.println("Option -threads requires option -batch");
+            wrongParameter = true;
+         }
+
          // missing filenames
          if (!printHelp && processor == null) {
             if (xmlFile == null)
@@ -383,6 +492,14 @@ public class Main implements Constants
          }
 
 
+         if (batch) {
+            Batch b = new Batch(processor, sheetParams, outFile, meClassname,
+                                nodecl, doe, measureTime);
+            if (!b.run(xmlFile, threadCount))
+               System.exit(1);
+            return;
+         }
+
          // The first processor re-uses its XMLReader for parsing the input
          // xmlFile.
          // For a real XMLFilter usage you have to call
@@ -476,39 +593,47 @@ public class Main implements Constants
             }
          }
          Exception embedded = ex.getException();
-         if (embedded != null) {
-            if (embedded instanceof TransformerException) {
-               TransformerException te = (TransformerException)embedded;
-               SourceLocator sl = te.getLocator();
-               String systemId;
-               // ensure that systemId is not null; is this a bug?
-               if (sl != null && (systemId = sl.getSystemId()) != null) {
-                  // remove the "file://" scheme prefix if it is present
-                  if (systemId.startsWith("file://"))
-                     systemId = systemId.substring(7);
-                  else if (systemId.startsWith("file:"))
-                     // bug in JDK 1.4 / Crimson? (see rfc1738)
-                     systemId = systemId.substring(5);
-                  System.err.println(systemId + ":" +
-                                     sl.getLineNumber() + ":" +
-                                     sl.getColumnNumber() + ": " +
-                                     te.getMessage());
-               }
-               else
-                  System.err.println(te.getMessage());
-            }
-            else {
-               // Fatal: this mustn't happen
-               embedded.printStackTrace(System.err);
-            }
-         }
+         if (embedded != null && !(embedded instanceof TransformerException))
+            // Fatal: this mustn't happen
+            embedded.printStackTrace(System.err);
          else
-            System.err.println(ex.toString());
+            System.err.println(getErrorMessage(ex));
          System.exit(1);
       }
    }
 
 
+   /**
+    * Creates an error message for the command line.
+    * @param ex the exception, either without an embedded exception or
+    *        with an embedded <code>TransformerException</code>
+    * @return the message, prefixed with the location of the error if
+    *         available
+    */
+   static String getErrorMessage(SAXException ex)
+   {
+      Exception embedded = ex.getException();
+      if (embedded == null)
+         return ex.toString();
+
+      TransformerException te = (TransformerException)embedded;
+      SourceLocator sl = te.getLocator();
+      String systemId;
+      // ensure that systemId is not null; is this a bug?
+      if (sl != null && (systemId = sl.getSystemId()) != null) {
+         // remove the "file://" scheme prefix if it is present
+         if (systemId.startsWith("file://"))
+            systemId = systemId.substring(7);
+         else if (systemId.startsWith("file:"))
+            // bug in JDK 1.4 / Crimson? (see rfc1738)
+            systemId = systemId.substring(5);
+         return systemId + ":" + sl.getLineNumber() + ":" +
+                sl.getColumnNumber() + ": " + te.getMessage();
+      }
+      return te.getMessage();
+   }
+
+
    /**
     * Outputs the contents of a resource info file.
     * @param filename the name of the file containing the info to output
@@ -0,0 +1,244 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.emitter;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+import net.sf.joost.stx.NamePool;
+import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.SAXEvent;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/**
+ * The contents of a {@link BufferEmitter} at the time it has been filled.
+ * The events are stored in packed form: a stream of ints that contains the
+ * event types (see {@link SAXEvent}) followed by their operands, a table
+ * of names (referenced by their index in the table) and an arena of
+ * characters (referenced by offset and length). Both the op stream and the
+ * character arena are either arrays or mapped spill files.
+ * <p>
+ * The layout of the events in the op stream is
+ * <pre>
+ * ELEMENT      uri lName qName n (uri lName qName type offset length)*n
+ * ELEMENT_END  uri lName qName
+ * TEXT, CDATA, COMMENT  offset length
+ * PI           target offset length
+ * MAPPING      prefix uri
+ * MAPPING_END  prefix
+ * </pre>
+ * An object of this class never changes, so it remains valid while the
+ * buffer receives new events.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class BufferContents
+{
+   /** The contents of an empty buffer */
+   static final BufferContents EMPTY =
+      new BufferContents(IntBuffer.allocate(0), CharBuffer.allocate(0),
+                         new String[0], new int[0]);
+
+   /** The op stream */
+   private final IntBuffer ops;
+
+   /** The character arena */
+   private final CharBuffer chars;
+
+   /** The name table */
+   private final String[] names;
+
+   /** The {@link NamePool} codes of {@link #names}, -1 if not known yet */
+   private final int[] nameCodes;
+
+
+   BufferContents(IntBuffer ops, CharBuffer chars,
+                  String[] names, int[] nameCodes)
+   {
+      this.ops = ops;
+      this.chars = chars;
+      this.names = names;
+      this.nameCodes = nameCodes;
+   }
+
+
+   /**
+    * @return an estimate of the memory in bytes occupied by this object,
+    *         not counting the strings of the name table
+    */
+   public int getSize()
+   {
+      return 4 * ops.capacity() + 2 * chars.capacity() + 8 * names.length;
+   }
+
+
+   /**
+    * @return an object with the same contents whose arrays don't contain
+    *         unused space; this object if there is no such space or if the
+    *         contents is mapped from files
+    */
+   public BufferContents trim()
+   {
+      if (!ops.hasArray() || !chars.hasArray() ||
+          (ops.capacity() == ops.limit() && chars.capacity() == chars.limit()))
+         return this;
+      int[] opsArray = new int[ops.limit()];
+      ops.duplicate().get(opsArray);
+      char[] charsArray = new char[chars.limit()];
+      chars.duplicate().get(charsArray);
+      return new BufferContents(IntBuffer.wrap(opsArray),
+                                CharBuffer.wrap(charsArray),
+                                names, nameCodes);
+   }
+
+
+   /**
+    * Reports the stored events. Elements are passed to
+    * {@link Processor#startBufferedElement} if <code>contH</code> is a
+    * {@link Processor}.
+    * @param contH the content handler
+    * @param lexH the lexical handler, may be <code>null</code>
+    */
+   public void parse(ContentHandler contH, LexicalHandler lexH)
+      throws SAXException
+   {
+      IntBuffer ops = this.ops;
+      // the position of the duplicate is used for copying characters
+      CharBuffer chars = this.chars.duplicate();
+      char[] array = chars.hasArray() ? chars.array() : null;
+      char[] scratch = new char[array != null ? 0 : 256];
+      Processor proc =
+         contH instanceof Processor ? (Processor)contH : null;
+      AttributesImpl attrs = new AttributesImpl();
+
+      int length = ops.limit();
+      for (int i=0; i<length; ) {
+         int type = ops.get(i);
+         switch (type) {
+         case SAXEvent.ELEMENT: {
+            int uri = ops.get(i+1), lName = ops.get(i+2),
+                qName = ops.get(i+3), attCount = ops.get(i+4);
+            i += 5;
+            attrs.clear();
+            for (int j=0; j<attCount; j++, i+=6) {
+               int offset = ops.get(i+4), len = ops.get(i+5);
+               String value;
+               if (array != null)
+                  value = new String(array, offset, len);
+               else {
+                  chars.position(offset);
+                  value = chars.subSequence(0, len).toString();
+               }
+               attrs.addAttribute(names[ops.get(i)], names[ops.get(i+1)],
+                                  names[ops.get(i+2)], names[ops.get(i+3)],
+                                  value);
+            }
+            if (proc != null)
+               // keep the encoded name
+               proc.startBufferedElement(names[uri], names[lName],
+                                         names[qName], attrs,
+                                         getNameCode(uri),
+                                         getNameCode(lName));
+            else
+               contH.startElement(names[uri], names[lName], names[qName],
+                                  attrs);
+            break;
+         }
+         case SAXEvent.ELEMENT_END:
+            contH.endElement(names[ops.get(i+1)], names[ops.get(i+2)],
+                             names[ops.get(i+3)]);
+            i += 4;
+            break;
+         case SAXEvent.TEXT:
+         case SAXEvent.CDATA:
+         case SAXEvent.COMMENT:
+         case SAXEvent.PI: {
+            String target = null;
+            if (type == SAXEvent.PI)
+               target = names[ops.get(++i)];
+            int offset = ops.get(i+1), len = ops.get(i+2);
+            i += 3;
+            char[] ch = array;
+            if (ch == null) {
+               if (scratch.length < len)
+                  scratch = new char[Math.max(len, scratch.length << 1)];
+               chars.position(offset);
+               chars.get(scratch, 0, len);
+               ch = scratch;
+               offset = 0;
+            }
+            if (type == SAXEvent.TEXT)
+               contH.characters(ch, offset, len);
+            else if (type == SAXEvent.CDATA) {
+               if (lexH != null)
+                  lexH.startCDATA();
+               contH.characters(ch, offset, len);
+               if (lexH != null)
+                  lexH.endCDATA();
+            }
+            else if (type == SAXEvent.COMMENT) {
+               if (lexH != null)
+                  lexH.comment(ch, offset, len);
+            }
+            else
+               contH.processingInstruction(target,
+                                           new String(ch, offset, len));
+            break;
+         }
+         case SAXEvent.MAPPING:
+            contH.startPrefixMapping(names[ops.get(i+1)],
+                                     names[ops.get(i+2)]);
+            i += 3;
+            break;
+         case SAXEvent.MAPPING_END:
+            contH.endPrefixMapping(names[ops.get(i+1)]);
+            i += 2;
+            break;
+         default:
+            throw new SAXException("Corrupt buffer contents: unknown " +
+                                   "event type " + type);
+         }
+      }
+   }
+
+
+   /** @return the {@link NamePool} code of the name at <code>index</code> */
+   private int getNameCode(int index)
+   {
+      int code = nameCodes[index];
+      if (code == -1)
+         // no synchronization: every thread computes the same value
+         // (NO_CODE is -1 too, so names that are not in the pool will
+         // be looked up again)
+         nameCodes[index] = code = NamePool.lookupCode(names[index]);
+      return code;
+   }
+}
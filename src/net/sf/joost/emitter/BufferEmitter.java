@@ -22,10 +22,19 @@
  * Contributor(s): ______________________________________. 
  */
 
+
 package net.sf.joost.emitter;
 
-//SAX2
-import java.util.Vector;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
 
 import net.sf.joost.stx.SAXEvent;
 
@@ -35,19 +44,65 @@ import org.xml.sax.SAXException;
 
 
 /**
- * This class implements a buffer for storing SAX events.
+ * This class implements a buffer for storing SAX events. The events are
+ * stored in packed form (see {@link BufferContents}). If a spill threshold
+ * has been set and the buffer grows beyond this size, the events will be
+ * written to temporary files, which will be mapped into memory when the
+ * buffer is read. Each of the two temporary files of a buffer (one for the
+ * events, one for the characters) is limited to 2 GB.
+ * <p>
+ * The temporary files are deleted by {@link #clear}. A buffer that has been
+ * constructed with a set of spilled buffers adds itself to this set when
+ * it spills, so the owner of the set is able to delete the files of all
+ * buffers that haven't been cleared (see {@link #clearAll}).
  * @version $Revision: 1.5 $ $Date: 2005/11/06 21:22:21 $
  * @author Oliver Becker
  */
 
 public class BufferEmitter extends StxEmitterBase {
 
-   /** the event buffer */
-   private Vector buffer = new Vector();
+   /** initial sizes of the arrays */
+   private static final int OPS_SIZE = 256, CHARS_SIZE = 1024;
+
+   /** sizes of the arrays when used as write buffers for the spill files */
+   private static final int SPILL_OPS_SIZE = 16384, SPILL_CHARS_SIZE = 32768;
+
+   /** the name table, entries never change once they have been added */
+   private String[] names = new String[16];
+
+   /** the NamePool codes of the names, -1 if not known yet */
+   private int[] nameCodes = newNameCodes(16);
+
+   /** the number of names */
+   private int nameCount;
+
+   /** maps names to their index in {@link #names} */
+   private HashMap nameIndex = new HashMap();
+
+   /** the op stream (or its part that hasn't been spilled yet) */
+   private int[] ops = new int[OPS_SIZE];
+   private int opsLength;
+
+   /** the character arena (or its part that hasn't been spilled yet) */
+   private char[] chars = new char[CHARS_SIZE];
+   private int charsLength;
+
+   /** whether {@link #contents} refers to {@link #ops} and {@link #chars} */
+   private boolean shared;
+
+   /** the size in bytes above which this buffer spills, 0 means never */
+   private int spillThreshold;
+
+   /** the spill files, <code>null</code> while the buffer is in memory */
+   private SpillFile opsFile, charsFile;
 
-   /** the event array, the old contents remains valid until this buffer 
+   /** receives this buffer while it has spill files, may be
+       <code>null</code> */
+   private Set spilledBuffers;
+
+   /** the contents, the old contents remains valid until this buffer
        is completely new filled */
-   private SAXEvent[] eventArray = new SAXEvent[0];  // initial: empty
+   private BufferContents contents = BufferContents.EMPTY;
 
    /** CDATA flag */
    private boolean insideCDATA = false;
@@ -56,24 +111,322 @@ public class BufferEmitter extends StxEmitterBase {
    private boolean charsEmitted = false;
 
 
-   /** @return an array of the events stored in this buffer */
-   public SAXEvent[] getEvents()
+   /** Constructs a buffer that is kept in memory */
+   public BufferEmitter()
+   { }
+
+   /**
+    * Constructs a buffer that spills to temporary files
+    * @param spillThreshold the size in bytes above which the events will
+    *        be written to temporary files, 0 keeps the buffer in memory
+    */
+   public BufferEmitter(int spillThreshold)
+   {
+      this.spillThreshold = spillThreshold;
+   }
+
+   /**
+    * Constructs a buffer that spills to temporary files and registers
+    * itself in a set of spilled buffers while it has temporary files
+    * @param spillThreshold the size in bytes above which the events will
+    *        be written to temporary files, 0 keeps the buffer in memory
+    * @param spilledBuffers the set that receives this buffer when it
+    *        spills, see {@link #clearAll}
+    */
+   public BufferEmitter(int spillThreshold, Set spilledBuffers)
    {
-      return eventArray;
+      this.spillThreshold = spillThreshold;
+      this.spilledBuffers = spilledBuffers;
+   }
+
+
+   /** @return the contents of this buffer */
+   public BufferContents getContents()
+   {
+      return contents;
    }
 
    /** Clears the event buffer */
    public void clear()
    {
-      buffer.clear();
+      if (opsFile != null) {
+         // the files remain readable for a mapped contents object
+         opsFile.close();
+         charsFile.close();
+         opsFile = charsFile = null;
+         if (spilledBuffers != null)
+            spilledBuffers.remove(this);
+      }
+      if (shared) {
+         ops = new int[OPS_SIZE];
+         chars = new char[CHARS_SIZE];
+         shared = false;
+      }
+      opsLength = charsLength = 0;
+   }
+
+   /**
+    * Clears all buffers in a set of spilled buffers (see
+    * {@link #BufferEmitter(int, Set)}), which deletes their temporary
+    * files, and empties the set.
+    * @param spilledBuffers the set of spilled buffers
+    */
+   public static void clearAll(Set spilledBuffers)
+   {
+      Object[] buffers = spilledBuffers.toArray();
+      for (int i=0; i<buffers.length; i++)
+         ((BufferEmitter)buffers[i]).clear();
+      spilledBuffers.clear();
    }
 
    /** Signals that the buffer is completely filled; makes its contents
-       available to {@link #getEvents} */
+       available to {@link #getContents} */
    public void filled()
+      throws SAXException
    {
-      eventArray = new SAXEvent[buffer.size()];
-      buffer.toArray(eventArray);
+      String[] tableNames = names;
+      int[] tableCodes = nameCodes;
+      if (opsFile == null) {
+         contents = new BufferContents(IntBuffer.wrap(ops, 0, opsLength),
+                                       CharBuffer.wrap(chars, 0,
+                                                       charsLength),
+                                       tableNames, tableCodes);
+         shared = true;
+      }
+      else {
+         flushOps();
+         flushChars();
+         contents = new BufferContents(opsFile.map().asIntBuffer(),
+                                       charsFile.map().asCharBuffer(),
+                                       tableNames, tableCodes);
+      }
+   }
+
+
+   //
+   // packed storage
+   //
+
+   private static int[] newNameCodes(int size)
+   {
+      int[] codes = new int[size];
+      Arrays.fill(codes, -1);
+      return codes;
+   }
+
+   /** @return the index of <code>name</code> in the name table */
+   private int name(String name)
+   {
+      Integer index = (Integer)nameIndex.get(name);
+      if (index != null)
+         return index.intValue();
+      if (nameCount == names.length) {
+         // the contents object keeps the old arrays
+         String[] tmp = new String[nameCount << 1];
+         System.arraycopy(names, 0, tmp, 0, nameCount);
+         names = tmp;
+         int[] codes = newNameCodes(nameCount << 1);
+         System.arraycopy(nameCodes, 0, codes, 0, nameCount);
+         nameCodes = codes;
+      }
+      names[nameCount] = name;
+      nameIndex.put(name, new Integer(nameCount));
+      return nameCount++;
+   }
+
+   /** Makes room for <code>count</code> ints in {@link #ops} */
+   private void ensureOps(int count)
+      throws SAXException
+   {
+      if (opsLength + count <= ops.length)
+         return;
+      if (opsFile != null) {
+         flushOps();
+         if (count <= ops.length)
+            return;
+      }
+      int[] tmp = new int[Math.max(ops.length << 1, opsLength + count)];
+      System.arraycopy(ops, 0, tmp, 0, opsLength);
+      ops = tmp;
+   }
+
+   /**
+    * Appends characters to the arena.
+    * @return the offset of the characters in the arena
+    */
+   private int appendChars(char[] ch, int start, int length)
+      throws SAXException
+   {
+      if (charsLength + length > chars.length) {
+         if (charsFile != null)
+            flushChars();
+         if (charsLength + length > chars.length) {
+            char[] tmp = new char[Math.max(chars.length << 1,
+                                           charsLength + length)];
+            System.arraycopy(chars, 0, tmp, 0, charsLength);
+            chars = tmp;
+         }
+      }
+      System.arraycopy(ch, start, chars, charsLength, length);
+      int offset = charsFile != null ? charsFile.getOffset(charsLength)
+                                     : charsLength;
+      charsLength += length;
+      return offset;
+   }
+
+   private int appendChars(String s)
+      throws SAXException
+   {
+      return appendChars(s.toCharArray(), 0, s.length());
+   }
+
+   /** Appends an event of the type TEXT, CDATA, COMMENT or PI */
+   private void addCharacters(int type, String target,
+                              char[] ch, int start, int length)
+      throws SAXException
+   {
+      int offset = appendChars(ch, start, length);
+      ensureOps(4);
+      ops[opsLength++] = type;
+      if (target != null)
+         ops[opsLength++] = name(target);
+      ops[opsLength++] = offset;
+      ops[opsLength++] = length;
+      checkSpill();
+   }
+
+   /** Moves the buffer into spill files if it has become too large */
+   private void checkSpill()
+      throws SAXException
+   {
+      if (spillThreshold == 0 || opsFile != null ||
+          opsLength * 4L + charsLength * 2L <= spillThreshold)
+         return;
+      opsFile = new SpillFile(4);
+      try {
+         charsFile = new SpillFile(2);
+      }
+      catch (SAXException ex) {
+         opsFile.close();
+         opsFile = null;
+         throw ex;
+      }
+      if (spilledBuffers != null)
+         spilledBuffers.add(this);
+      flushOps();
+      flushChars();
+      if (shared) { // the arrays belong to the contents object
+         ops = new int[SPILL_OPS_SIZE];
+         chars = new char[SPILL_CHARS_SIZE];
+         shared = false;
+      }
+   }
+
+   private void flushOps()
+      throws SAXException
+   {
+      ByteBuffer bytes = ByteBuffer.allocate(opsLength * 4);
+      bytes.asIntBuffer().put(ops, 0, opsLength);
+      opsFile.write(bytes);
+      opsLength = 0;
+   }
+
+   private void flushChars()
+      throws SAXException
+   {
+      ByteBuffer bytes = ByteBuffer.allocate(charsLength * 2);
+      bytes.asCharBuffer().put(chars, 0, charsLength);
+      charsFile.write(bytes);
+      charsLength = 0;
+   }
+
+
+   /**
+    * A temporary file that receives a part of the buffer.
+    */
+   private static final class SpillFile
+   {
+      private File file;
+      private FileChannel channel;
+
+      /** the number of bytes per unit (int or char) */
+      private int unitSize;
+
+      /** the number of bytes written */
+      private long size;
+
+      SpillFile(int unitSize)
+         throws SAXException
+      {
+         this.unitSize = unitSize;
+         try {
+            file = File.createTempFile("joost", ".buf");
+            channel = new RandomAccessFile(file, "rw").getChannel();
+         }
+         catch (IOException ex) {
+            throw new SAXException("Cannot create a spill file for a " +
+                                   "buffer", ex);
+         }
+      }
+
+      /**
+       * @return the offset (in units) in this file of the unit with the
+       *         index <code>index</code> in the write buffer
+       */
+      int getOffset(int index)
+         throws SAXException
+      {
+         long offset = size / unitSize + index;
+         if (offset > Integer.MAX_VALUE)
+            throw new SAXException("Buffer too large, a spill file " +
+                                   "must not exceed 2 GB");
+         return (int)offset;
+      }
+
+      void write(ByteBuffer bytes)
+         throws SAXException
+      {
+         try {
+            while (bytes.hasRemaining())
+               size += channel.write(bytes);
+         }
+         catch (IOException ex) {
+            throw new SAXException("Cannot write the spill file " + file,
+                                   ex);
+         }
+      }
+
+      /** Maps the written part of this file into memory */
+      ByteBuffer map()
+         throws SAXException
+      {
+         if (size > Integer.MAX_VALUE)
+            throw new SAXException("Buffer too large, a spill file " +
+                                   "must not exceed 2 GB");
+         try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         }
+         catch (IOException ex) {
+            throw new SAXException("Cannot map the spill file " + file, ex);
+         }
+      }
+
+      /** Closes and deletes this file */
+      void close()
+      {
+         if (channel == null)
+            return;
+         try {
+            channel.close();
+         }
+         catch (IOException ex) {
+            // ignore
+         }
+         // may fail on platforms that don't allow the deletion of a
+         // mapped file, the file will remain in the temporary directory
+         file.delete();
+         channel = null;
+      }
    }
 
 
@@ -98,40 +451,68 @@ public class BufferEmitter extends StxEmitterBase {
    public void startPrefixMapping(String prefix, String uri)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newMapping(prefix, uri));
+      ensureOps(3);
+      ops[opsLength++] = SAXEvent.MAPPING;
+      ops[opsLength++] = name(prefix);
+      ops[opsLength++] = name(uri);
+      checkSpill();
    }
 
    public void endPrefixMapping(String prefix)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newMapping(prefix, null)); 
+      ensureOps(2);
+      ops[opsLength++] = SAXEvent.MAPPING_END;
+      ops[opsLength++] = name(prefix);
+      checkSpill();
    }
 
    public void startElement(String namespaceURI, String localName,
                             String qName, Attributes atts)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newElement(namespaceURI, localName,
-                                            qName, atts, true, null));
+      int attCount = atts.getLength();
+      int[] values = new int[attCount];
+      for (int i=0; i<attCount; i++)
+         values[i] = appendChars(atts.getValue(i));
+      ensureOps(5 + 6 * attCount);
+      ops[opsLength++] = SAXEvent.ELEMENT;
+      ops[opsLength++] = name(namespaceURI);
+      ops[opsLength++] = name(localName);
+      ops[opsLength++] = name(qName);
+      ops[opsLength++] = attCount;
+      for (int i=0; i<attCount; i++) {
+         ops[opsLength++] = name(atts.getURI(i));
+         ops[opsLength++] = name(atts.getLocalName(i));
+         ops[opsLength++] = name(atts.getQName(i));
+         ops[opsLength++] = name(atts.getType(i));
+         ops[opsLength++] = values[i];
+         ops[opsLength++] = atts.getValue(i).length();
+      }
+      checkSpill();
    }
 
    public void endElement(String namespaceURI, String localName,
                           String qName)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newElement(namespaceURI, localName,
-                                            qName, null, true, null));
+      ensureOps(4);
+      ops[opsLength++] = SAXEvent.ELEMENT_END;
+      ops[opsLength++] = name(namespaceURI);
+      ops[opsLength++] = name(localName);
+      ops[opsLength++] = name(qName);
+      checkSpill();
    }
 
    public void characters(char[] ch, int start, int length)
       throws SAXException
    {
       if (insideCDATA) {
-         buffer.addElement(SAXEvent.newCDATA(new String(ch, start, length)));
+         addCharacters(SAXEvent.CDATA, null, ch, start, length);
          charsEmitted = true;
       }
       else
-         buffer.addElement(SAXEvent.newText(new String(ch, start, length)));
+         addCharacters(SAXEvent.TEXT, null, ch, start, length);
    }
 
    /** not used */
@@ -144,7 +525,8 @@ public class BufferEmitter extends StxEmitterBase {
    public void processingInstruction(String target, String data)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newPI(target, data));
+      addCharacters(SAXEvent.PI, target, data.toCharArray(), 0,
+                    data.length());
    }
 
    /** not used */
@@ -189,12 +571,12 @@ public class BufferEmitter extends StxEmitterBase {
    {
       insideCDATA = false;
       if (!charsEmitted) // no characters event: empty CDATA section
-         buffer.addElement(SAXEvent.newCDATA(""));
+         addCharacters(SAXEvent.CDATA, null, new char[0], 0, 0);
    }
 
    public void comment(char[] ch, int start, int length)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newComment(new String(ch, start, length)));
+      addCharacters(SAXEvent.COMMENT, null, ch, start, length);
    }
 }
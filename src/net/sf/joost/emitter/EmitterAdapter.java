@@ -26,11 +26,10 @@ package net.sf.joost.emitter;
 
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.Emitter;
+import net.sf.joost.stx.NamespaceScope;
 import net.sf.joost.stx.helpers.MutableAttributes;
 import net.sf.joost.stx.helpers.MutableAttributesImpl;
 
-import java.util.Hashtable;
-
 import javax.xml.XMLConstants;
 
 import org.xml.sax.Attributes;
@@ -52,7 +51,8 @@ import org.xml.sax.ext.LexicalHandler;
 public class EmitterAdapter implements ContentHandler, LexicalHandler
 {
    private Emitter emitter;
-   private Hashtable nsTable = new Hashtable();
+   /** the namespaces declared for the next element */
+   private NamespaceScope nsScope;
 
    private NodeBase instruction;
 
@@ -78,7 +78,8 @@ public class EmitterAdapter implements ContentHandler, LexicalHandler
 
    public void startPrefixMapping(String prefix, String uri)
    {
-      nsTable.put(prefix, uri);
+      nsScope = (nsScope != null ? nsScope : NamespaceScope.ROOT)
+                .declare(prefix, uri);
    }
 
    public void endPrefixMapping(String prefix)
@@ -98,9 +99,9 @@ public class EmitterAdapter implements ContentHandler, LexicalHandler
                                          atts.getValue(i));
       }
 
-      emitter.startElement(uri, lName, qName, filteredAtts, nsTable,
+      emitter.startElement(uri, lName, qName, filteredAtts, nsScope,
                            instruction);
-      nsTable.clear();
+      nsScope = null;
    }
 
    public void endElement(String uri, String lName, String qName)
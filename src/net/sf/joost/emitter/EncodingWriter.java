@@ -0,0 +1,237 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.emitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+
+/**
+ * A <code>Writer</code> that encodes characters directly into a reusable
+ * byte buffer, which is written to an <code>OutputStream</code> when it is
+ * full. Supports the encodings UTF-8, ISO-8859-1 and US-ASCII, for which it
+ * replaces the generic <code>OutputStreamWriter</code> and its
+ * <code>BufferedWriter</code>. Characters that cannot be represented in the
+ * encoding are written as <code>'?'</code> (as the
+ * <code>OutputStreamWriter</code> does); the emitters escape these
+ * characters before they reach the writer.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class EncodingWriter extends Writer
+{
+   /** The target stream */
+   private final OutputStream out;
+
+   /** Whether this writer uses the UTF-8 encoding */
+   private final boolean utf8;
+
+   /** Characters below this limit are encoded as a single byte */
+   private final char singleByteLimit;
+
+   /** The byte buffer */
+   private final byte[] buf = new byte[8192];
+
+   /** The number of bytes in {@link #buf} */
+   private int count = 0;
+
+   /** A high surrogate waiting for its low surrogate, 0 if there is none */
+   private char highSurrogate = 0;
+
+
+   /**
+    * Constructs a writer for one of the supported encodings.
+    * @param out the target stream
+    * @param encoding the name of the encoding
+    * @throws UnsupportedEncodingException if <code>encoding</code> is not
+    *         supported by this writer
+    * @see #isSupported
+    */
+   public EncodingWriter(OutputStream out, String encoding)
+      throws UnsupportedEncodingException
+   {
+      this.out = out;
+      String name = canonicalName(encoding);
+      if ("UTF-8".equals(name)) {
+         utf8 = true;
+         singleByteLimit = '\u0080';
+      }
+      else if ("ISO-8859-1".equals(name)) {
+         utf8 = false;
+         singleByteLimit = '\u0100';
+      }
+      else if ("US-ASCII".equals(name)) {
+         utf8 = false;
+         singleByteLimit = '\u0080';
+      }
+      else
+         throw new UnsupportedEncodingException(encoding);
+   }
+
+
+   /**
+    * @return whether this writer supports the encoding
+    *         <code>encoding</code>
+    */
+   public static boolean isSupported(String encoding)
+   {
+      String name = canonicalName(encoding);
+      return "UTF-8".equals(name) || "ISO-8859-1".equals(name) ||
+             "US-ASCII".equals(name);
+   }
+
+
+   /**
+    * @return the canonical name of an encoding, <code>null</code> if the
+    *         encoding is unknown
+    */
+   private static String canonicalName(String encoding)
+   {
+      try {
+         return Charset.forName(encoding).name();
+      }
+      catch (IllegalArgumentException ex) {
+         // illegal or unsupported charset name
+         return null;
+      }
+   }
+
+
+   public void write(char[] cbuf, int off, int len)
+      throws IOException
+   {
+      byte[] buf = this.buf;
+      for (int end = off + len; off < end; off++) {
+         char c = cbuf[off];
+         if (c < singleByteLimit && highSurrogate == 0 && count < buf.length)
+            buf[count++] = (byte)c;
+         else
+            writeChar(c);
+      }
+   }
+
+
+   public void write(String str, int off, int len)
+      throws IOException
+   {
+      byte[] buf = this.buf;
+      for (int end = off + len; off < end; off++) {
+         char c = str.charAt(off);
+         if (c < singleByteLimit && highSurrogate == 0 && count < buf.length)
+            buf[count++] = (byte)c;
+         else
+            writeChar(c);
+      }
+   }
+
+
+   public void write(int c)
+      throws IOException
+   {
+      writeChar((char)c);
+   }
+
+
+   /**
+    * Encodes a single character (the slow path of the write methods).
+    */
+   private void writeChar(char c)
+      throws IOException
+   {
+      if (count > buf.length - 4)
+         flushBuffer();
+
+      if (highSurrogate != 0) {
+         char high = highSurrogate;
+         highSurrogate = 0;
+         if (c >= '\uDC00' && c <= '\uDFFF') {
+            if (utf8) {
+               int code = ((high - 0xD800) << 10) + (c - 0xDC00) + 0x10000;
+               buf[count++] = (byte)(0xF0 | (code >> 18));
+               buf[count++] = (byte)(0x80 | ((code >> 12) & 0x3F));
+               buf[count++] = (byte)(0x80 | ((code >> 6) & 0x3F));
+               buf[count++] = (byte)(0x80 | (code & 0x3F));
+            }
+            else
+               buf[count++] = '?';
+            return;
+         }
+         // unpaired high surrogate
+         buf[count++] = '?';
+      }
+
+      if (c < singleByteLimit)
+         buf[count++] = (byte)c;
+      else if (c >= '\uD800' && c <= '\uDBFF')
+         highSurrogate = c;
+      else if (!utf8 || (c >= '\uDC00' && c <= '\uDFFF'))
+         buf[count++] = '?';
+      else if (c < '\u0800') {
+         buf[count++] = (byte)(0xC0 | (c >> 6));
+         buf[count++] = (byte)(0x80 | (c & 0x3F));
+      }
+      else {
+         buf[count++] = (byte)(0xE0 | (c >> 12));
+         buf[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+         buf[count++] = (byte)(0x80 | (c & 0x3F));
+      }
+   }
+
+
+   /** Writes the contents of the byte buffer to the stream */
+   private void flushBuffer()
+      throws IOException
+   {
+      if (count > 0) {
+         out.write(buf, 0, count);
+         count = 0;
+      }
+   }
+
+
+   public void flush()
+      throws IOException
+   {
+      flushBuffer();
+      out.flush();
+   }
+
+
+   public void close()
+      throws IOException
+   {
+      if (highSurrogate != 0) {
+         highSurrogate = 0;
+         if (count == buf.length)
+            flushBuffer();
+         buf[count++] = '?';
+      }
+      flush();
+      out.close();
+   }
+}
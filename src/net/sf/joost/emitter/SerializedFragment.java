@@ -0,0 +1,96 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.emitter;
+
+import java.io.CharArrayWriter;
+import java.io.Serializable;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+
+/**
+ * A constant fragment of the result (for example the contents of a literal
+ * result element that contains only literal elements and text), which
+ * an {@link XmlEmitter} can write as a single block of characters instead
+ * of serializing its events again and again. The serialized form is
+ * created on first use for the output encoding of the emitter (because the
+ * encoding determines which characters must be escaped). A fragment is
+ * part of a compiled transformation sheet and may be shared by concurrent
+ * transformations. The serialized form is not part of the serialized
+ * object, it will be created again after deserialization.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public abstract class SerializedFragment implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** The serialized form of the fragment for a single encoding */
+   private static final class Serialization
+   {
+      final String encoding;
+      final char[] chars;
+
+      Serialization(String encoding, char[] chars)
+      {
+         this.encoding = encoding;
+         this.chars = chars;
+      }
+   }
+
+   /** The serialization created last */
+   private transient volatile Serialization serialization;
+
+
+   /**
+    * Reports the events of this fragment. The fragment must be balanced
+    * and must not need any namespace declarations, so this method doesn't
+    * report any prefix mappings.
+    * @param handler the receiver of the events
+    */
+   protected abstract void emit(ContentHandler handler)
+      throws SAXException;
+
+
+   /**
+    * @param encoding the output encoding
+    * @return the serialized form of this fragment for the given encoding,
+    *         the array must not be modified
+    */
+   char[] getChars(String encoding)
+      throws SAXException
+   {
+      Serialization s = serialization;
+      if (s == null || !s.encoding.equals(encoding)) {
+         CharArrayWriter writer = new CharArrayWriter();
+         emit(new XmlEmitter(writer, encoding, null));
+         // the fragment is balanced, so there's no pending start tag
+         serialization = s = new Serialization(encoding,
+                                               writer.toCharArray());
+      }
+      return s.chars;
+   }
+}
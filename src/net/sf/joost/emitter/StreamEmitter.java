@@ -70,6 +70,12 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
    /** Encoder for the chosen {@link #encoding} */
    protected CharsetEncoder charsetEncoder;
 
+   /**
+    * Characters below this limit can be represented in the chosen
+    * {@link #encoding} without asking the {@link #charsetEncoder}
+    */
+   private char encodableLimit;
+
 
    //
    // Base constructor
@@ -80,6 +86,17 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
       this.writer = writer;
       this.encoding = encoding;
       charsetEncoder = Charset.forName(encoding).newEncoder();
+
+      String name = charsetEncoder.charset().name();
+      if (name.startsWith("UTF-"))
+         encodableLimit = '\uD800'; // all characters except surrogates
+      else if (name.equals("ISO-8859-1"))
+         encodableLimit = '\u0100';
+      else
+         // probe the ASCII range
+         while (encodableLimit < '\u0080' &&
+                charsetEncoder.canEncode(encodableLimit))
+            encodableLimit++;
    }
 
 
@@ -156,6 +173,11 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
       else
          encoding = DEFAULT_ENCODING;
 
+      if (EncodingWriter.isSupported(encoding))
+         // encodes directly into a byte buffer, no need for a BufferedWriter
+         return newEmitter(new EncodingWriter(out, encoding), encoding,
+                           outputProperties);
+
       OutputStreamWriter writer;
       try {
          writer = new OutputStreamWriter(out, encoding);
@@ -231,6 +253,16 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
    { }
 
 
+   /**
+    * @return whether the character <code>c</code> can be represented in the
+    *         chosen {@link #encoding}
+    */
+   protected final boolean canEncode(char c)
+   {
+      return c < encodableLimit || charsetEncoder.canEncode(c);
+   }
+
+
    /**
     * Encode a character from a character array, respect surrogate pairs
     * @param chars the character array
@@ -241,12 +273,29 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
     */
    protected int encodeCharacters(char[] chars, int index, StringBuffer sb)
          throws SAXException
+   {
+      return encodeCharacters(chars, index, chars.length, sb);
+   }
+
+
+   /**
+    * Encode a character from a character array, respect surrogate pairs
+    * @param chars the character array
+    * @param index the current index
+    * @param end the end of the valid characters in <code>chars</code>
+    * @param sb the buffer to append the encoded character
+    * @return the new index (if a pair has been consumed)
+    * @throws SAXException when there's no low surrogate
+    */
+   protected int encodeCharacters(char[] chars, int index, int end,
+                                  StringBuffer sb)
+         throws SAXException
    {
       // check surrogate pairs
       if (chars[index] >= '\uD800' && chars[index] <= '\uDBFF') {
          // found a high surrogate
          index++;
-         if (index < chars.length && chars[index] >= '\uDC00'
+         if (index < end && chars[index] >= '\uDC00'
                && chars[index] <= '\uDFFF') {
             // found a low surrogate
             // output the calculated code value
@@ -261,7 +310,7 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
                   + (int) chars[index - 1]);
       }
       // else: single character
-      else if (charsetEncoder.canEncode(chars[index])) {
+      else if (canEncode(chars[index])) {
          sb.append(chars[index]);
       }
       else {
@@ -93,7 +93,7 @@ public class TextEmitter extends StreamEmitter
    {
       // Check that the characters can be represented in the current encoding
       for (int i=0; i<length; i++)
-         if (!charsetEncoder.canEncode(ch[start+i]))
+         if (!canEncode(ch[start+i]))
             throw new SAXException("Cannot output character with code " + 
                                    (int)ch[start+i] + 
                                    " in the encoding '" + encoding + "'");
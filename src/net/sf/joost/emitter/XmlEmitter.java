@@ -75,6 +75,31 @@ public class XmlEmitter extends StreamEmitter
    /** flag indicating if disabled output escaping is active */
    private boolean disabledOutputEscaping = false;
 
+   /** Buffer for encoding single characters in {@link #writeEscaped} */
+   private StringBuffer escapeBuffer = new StringBuffer();
+
+   /** Buffer for the characters of attribute values */
+   private char[] attrChars = new char[128];
+
+   /**
+    * Replacements of the ASCII characters in text nodes,
+    * <code>null</code> for characters that are output unchanged
+    */
+   private static final String[] TEXT_ESCAPES = new String[0x80];
+
+   /** Replacements of the ASCII characters in attribute values */
+   private static final String[] ATTR_ESCAPES = new String[0x80];
+
+   static {
+      TEXT_ESCAPES['&'] = ATTR_ESCAPES['&'] = "&amp;";
+      TEXT_ESCAPES['<'] = ATTR_ESCAPES['<'] = "&lt;";
+      TEXT_ESCAPES['>'] = ATTR_ESCAPES['>'] = "&gt;";
+      ATTR_ESCAPES['\"'] = "&quot;";
+      ATTR_ESCAPES['\t'] = "&#x9;";
+      ATTR_ESCAPES['\n'] = "&#xA;";
+      ATTR_ESCAPES['\r'] = "&#xD;";
+   }
+
 
    /** Constructor */
    public XmlEmitter(Writer writer, String encoding,
@@ -140,40 +165,32 @@ public class XmlEmitter extends StreamEmitter
    {
 
       if (lastQName != null) {
-         StringBuffer out = new StringBuffer("<");
-         out.append(lastQName);
-         out.append(nsDeclarations);
-         nsDeclarations.setLength(0);
-
-         // attributes
-         int length = lastAttrs.getLength();
-         for (int i=0; i<length; i++) {
-            out.append(' ').append(lastAttrs.getQName(i)).append("=\"");
-            char[] attChars = lastAttrs.getValue(i).toCharArray();
-
-            // output escaping
-            for (int j=0; j<attChars.length; j++)
-               switch (attChars[j]) {
-               case '&':  out.append("&amp;");  break;
-               case '<':  out.append("&lt;");   break;
-               case '>':  out.append("&gt;");   break;
-               case '\"': out.append("&quot;"); break;
-               case '\t': out.append("&#x9;");  break;
-               case '\n': out.append("&#xA;");  break;
-               case '\r': out.append("&#xD;");  break;
-               default:
-                  j = encodeCharacters(attChars, j, out);
-               }
-            out.append('\"');
-         }
+         try {
+            writer.write('<');
+            writer.write(lastQName);
+            if (nsDeclarations.length() != 0) {
+               writer.write(nsDeclarations.toString());
+               nsDeclarations.setLength(0);
+            }
 
-         out.append(end ? " />" : ">");
+            // attributes
+            int length = lastAttrs.getLength();
+            for (int i=0; i<length; i++) {
+               writer.write(' ');
+               writer.write(lastAttrs.getQName(i));
+               writer.write("=\"");
+               String value = lastAttrs.getValue(i);
+               int valueLength = value.length();
+               if (valueLength > attrChars.length)
+                  attrChars = new char[valueLength];
+               value.getChars(0, valueLength, attrChars, 0);
+               writeEscaped(attrChars, 0, valueLength, ATTR_ESCAPES);
+               writer.write('\"');
+            }
 
-         try {
-            // stream string to writer
-            writer.write(out.toString());
+            writer.write(end ? " />" : ">");
             if (DEBUG)
-               log.debug(out);
+               log.debug("<" + lastQName + (end ? " />" : ">"));
          }
          catch (IOException ex) {
             if (log != null)
@@ -188,6 +205,71 @@ public class XmlEmitter extends StreamEmitter
    }
 
 
+   /**
+    * Writes characters with output escaping. Runs of unchanged characters
+    * are written directly from the array.
+    * @param ch the character array
+    * @param start the start index
+    * @param end the end index (exclusive)
+    * @param escapes the replacements of the ASCII characters, either
+    *        {@link #TEXT_ESCAPES} or {@link #ATTR_ESCAPES}
+    */
+   private void writeEscaped(char[] ch, int start, int end, String[] escapes)
+      throws IOException, SAXException
+   {
+      int run = start;
+      for (int i=start; i<end; i++) {
+         char c = ch[i];
+         String replacement;
+         if (c < '\u0080') {
+            if ((replacement = escapes[c]) == null)
+               continue; // belongs to the current run
+         }
+         else if ((c < '\uD800' || c > '\uDBFF') && canEncode(c))
+            continue;
+         else
+            replacement = null;
+         writer.write(ch, run, i-run);
+         if (replacement == null) {
+            escapeBuffer.setLength(0);
+            i = encodeCharacters(ch, i, end, escapeBuffer);
+            replacement = escapeBuffer.toString();
+         }
+         writer.write(replacement);
+         run = i + 1;
+      }
+      writer.write(ch, run, end-run);
+   }
+
+
+   /**
+    * Writes the serialized form of a constant fragment.
+    * @param fragment the fragment
+    * @return <code>false</code> if the fragment cannot be written in the
+    *         current state (within a CDATA section or if output escaping
+    *         has been disabled); the caller has to report the events of
+    *         the fragment instead
+    */
+   public boolean writeFragment(SerializedFragment fragment)
+      throws SAXException
+   {
+      if (insideCDATA || disabledOutputEscaping)
+         return false;
+
+      processLastElement(false);
+      char[] chars = fragment.getChars(encoding);
+      try {
+         writer.write(chars, 0, chars.length);
+      }
+      catch (IOException ex) {
+         if (log != null)
+            log.error(ex);
+         throw new SAXException(ex);
+      }
+      return true;
+   }
+
+
    /**
     * SAX2-Callback - Outputs XML-Deklaration with encoding.
     */
@@ -281,7 +363,7 @@ public class XmlEmitter extends StreamEmitter
             // check that the characters can be represented in the current
             // encoding (escaping not possible within CDATA)
             for (int i=0; i<length; i++)
-               if (!charsetEncoder.canEncode(ch[start+i]))
+               if (!canEncode(ch[start+i]))
                   throw new SAXException(
                      "Cannot output character with code " +
                      (int)ch[start+i] + " in the encoding '" + encoding +
@@ -289,17 +371,7 @@ public class XmlEmitter extends StreamEmitter
             writer.write(ch, start, length);
          }
          else {
-            StringBuffer out = new StringBuffer(length);
-            // output escaping
-            for (int i=0; i<length; i++)
-               switch (ch[start+i]) {
-               case '&': out.append("&amp;"); break;
-               case '<': out.append("&lt;"); break;
-               case '>': out.append("&gt;"); break;
-               default:
-                  i = encodeCharacters(ch, start+i, out) - start;
-               }
-            writer.write(out.toString());
+            writeEscaped(ch, start, start + length, TEXT_ESCAPES);
          }
          if (DEBUG)
             log.debug("'" + new String(ch, start, length) + "'");
@@ -32,6 +32,8 @@ package net.sf.joost.grammar;
  */
 abstract public class ReversableTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public ReversableTree(int type)
    {
       super(type);
@@ -24,12 +24,13 @@
 
 package net.sf.joost.grammar;
 
-import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.DescendantIndex;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.Value;
 
-import java.util.HashMap;
+import java.io.Serializable;
 
 import org.xml.sax.SAXException;
 
@@ -39,8 +40,10 @@ import org.xml.sax.SAXException;
  * @version $Revision: 2.14 $ $Date: 2008/10/04 17:13:14 $
  * @author Oliver Becker
  */
-public abstract class Tree implements Cloneable
+public abstract class Tree implements Cloneable, Serializable
 {
+   private static final long serialVersionUID = 1L;
+
    /** Node type constants for {@link #type} */
    public static final int
       ROOT                = 1,   // root node
@@ -202,6 +205,36 @@ public abstract class Tree implements Cloneable
    }
 
 
+   /**
+    * Requests position counters for the node tests of a pattern. Node tests
+    * and predicates override this method; all other trees just pass the
+    * request to their subtrees.
+    * @param index the position counter slots of the transformation sheet
+    */
+   public void requestPositions(PositionIndex index)
+   {
+      if (left != null)
+         left.requestPositions(index);
+      if (right != null)
+         right.requestPositions(index);
+   }
+
+
+   /**
+    * Requests incremental matching for the descendant steps of a pattern.
+    * Descendant steps and predicates override this method; all other
+    * trees just pass the request to their subtrees.
+    * @param index the descendant step slots of the transformation sheet
+    */
+   public void requestDescendantSlots(DescendantIndex index)
+   {
+      if (left != null)
+         left.requestDescendantSlots(index);
+      if (right != null)
+         right.requestDescendantSlots(index);
+   }
+
+
    /** May be overridden to reconstruct the current tree */
    public Tree reverseAssociativity()
    {
@@ -229,32 +262,6 @@ public abstract class Tree implements Cloneable
    }
 
 
-   /**
-    * Creates a deep copy of this Tree
-    * @param copies the map of already copied objects that need to be remembered
-    * (mainly of {@link AbstractInstruction})
-    * @return the created copy
-    */
-   public Tree deepCopy(HashMap copies) {
-      // no need to keep Tree instances in the copies map because there are
-      // no circular references of Trees
-      Tree copy;
-      try {
-         copy = (Tree) clone();
-      }
-      catch (CloneNotSupportedException e) {
-            // mustn't happen since this class implements Cloneable
-         throw new RuntimeException(e);
-      }
-      if (left != null)
-         copy.left = left.deepCopy(copies);
-      if (right != null)
-         copy.right = right.deepCopy(copies);
-      // note: cannot clone the value
-      return copy;
-   }
-
-
    // for debugging
    public String toString()
    {
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class AddTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public AddTree(Tree left, Tree right)
    {
    	super(ADD, left, right);
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class AndTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public AndTree(Tree left, Tree right)
    {
    	super(AND, left, right);
@@ -26,10 +26,15 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamePool;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -41,6 +46,11 @@ import org.xml.sax.SAXParseException;
  */
 final public class AttrLocalWildcardTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the encoded name, see {@link NamePool}, valid in the current VM */
+   private transient int uriCode;
+
    private String prefix; // needed only in the error message
 
    /**
@@ -58,6 +68,16 @@ final public class AttrLocalWildcardTree extends Tree
       if (uri == null) 
          throw new SAXParseException("Undeclared prefix '" + prefix + "'",
                                      context.locator);
+      uriCode = NamePool.getCode(uri);
+   }
+
+
+   /** Determines the name codes again after deserialization */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      uriCode = NamePool.getCode(uri);
    }
 
    public boolean matches(Context context, int top, boolean setPosition)
@@ -72,7 +92,7 @@ final public class AttrLocalWildcardTree extends Tree
       if (setPosition)
          context.position = 1; // position for attributes is undefined
       
-      if (uri.equals(e.uri))
+      if (e.uriCode == uriCode)
          return true;
       return false;
    }
@@ -93,7 +113,7 @@ final public class AttrLocalWildcardTree extends Tree
          return Value.VAL_EMPTY;
 
       // iterate through this node sequence
-      Value ret = null, last = null; // for constructing the result seq
+      Sequence.Builder ret = new Sequence.Builder(); // the result seq
       do {
          SAXEvent e = v1.getNode();
          if (e == null) {
@@ -115,20 +135,13 @@ final public class AttrLocalWildcardTree extends Tree
                Value v2 = new Value(SAXEvent.newAttribute(
                      uri, e.attrs.getLocalName(i), 
                      e.attrs.getQName(i), e.attrs.getValue(i)));
-               if (last != null)
-                  last.next = v2;
-               else
-                  ret = v2;
-               last = v2;
+               ret.add(v2);
             }
          } // for
-         v1 = v1.next; // next node
+         v1 = v1.getNext(); // next node
       } while (v1 != null);
    
-      if (ret != null)
-         return ret;
-      else
-         return Value.VAL_EMPTY;
+      return ret.toValue();
    }
 
    public double getPriority()
@@ -26,11 +26,16 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamePool;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
+import net.sf.joost.stx.helpers.MutableAttributes;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -42,6 +47,11 @@ import org.xml.sax.SAXParseException;
  */
 final public class AttrTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the encoded name, see {@link NamePool}, valid in the current VM */
+   private transient int uriCode, lNameCode;
+
    /** 
     * Constructs an AttrTree object.
     * @param value the qualified attribute name
@@ -67,6 +77,18 @@ final public class AttrTree extends Tree
          uri = "";
          lName = value;
       }
+      uriCode = NamePool.getCode(uri);
+      lNameCode = NamePool.getCode(lName);
+   }
+
+
+   /** Determines the name codes again after deserialization */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      uriCode = NamePool.getCode(uri);
+      lNameCode = NamePool.getCode(lName);
    }
 
    public boolean matches(Context context, int top, boolean setPosition)
@@ -81,7 +103,7 @@ final public class AttrTree extends Tree
        if (setPosition)
           context.position = 1; // position for attributes is undefined
 
-       if (uri.equals(e.uri) && lName.equals(e.lName))
+       if (e.lNameCode == lNameCode && e.uriCode == uriCode)
           return true;
 
        return false;
@@ -96,7 +118,7 @@ final public class AttrTree extends Tree
             return Value.VAL_EMPTY;
 
          // iterate through this node sequence
-         Value ret = null, last = null; // for constructing the result seq
+         Sequence.Builder ret = new Sequence.Builder(); // the result seq
          while (v1 != null) {
             if (v1.type != Value.NODE) {
                context.errorHandler.error(
@@ -110,30 +132,25 @@ final public class AttrTree extends Tree
                return Value.VAL_EMPTY; 
             }
 
-            Attributes a = v1.getNode().attrs;
+            MutableAttributes a = v1.getNode().attrs;
             int index;
-            if (a != null && (index = a.getIndex(uri, lName)) != -1) {
+            if (a != null &&
+                (index = a.getIndex(uriCode, lNameCode)) != -1) {
                Value v2 = new Value(SAXEvent.newAttribute(uri, lName, 
                                                           a.getQName(index), 
                                                           a.getValue(index)));
-               if (last != null)
-                  last.next = v2;
-               else
-                  ret = v2;
-               last = v2;
+               ret.add(v2);
             }
-            v1 = v1.next; // next node
+            v1 = v1.getNext(); // next node
          } // while (v1 != null)
          
-         if (ret == null) 
-            ret = Value.VAL_EMPTY;
-         return ret;
+         return ret.toValue();
       }
       else if (top > 0) { // use current node
          SAXEvent saxEvent = 
             (SAXEvent)context.ancestorStack.elementAt(top-1);
-         Attributes a = saxEvent.attrs;
-         int index = a.getIndex(uri, lName);
+         MutableAttributes a = saxEvent.attrs;
+         int index = a.getIndex(uriCode, lNameCode);
          if (index == -1) 
             return Value.VAL_EMPTY;
          return new Value(SAXEvent.newAttribute(uri, lName, 
@@ -26,10 +26,15 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamePool;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import org.xml.sax.SAXException;
 
 /**
@@ -40,6 +45,11 @@ import org.xml.sax.SAXException;
  */
 final public class AttrUriWildcardTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the encoded name, see {@link NamePool}, valid in the current VM */
+   private transient int lNameCode;
+
    /**
     * Constructs an AttrUriWildcardTree object with a given local name.
     * @param lName the local name
@@ -49,6 +59,16 @@ final public class AttrUriWildcardTree extends Tree
    {
       super(ATTR_URI_WILDCARD);
       this.lName = lName;
+      lNameCode = NamePool.getCode(lName);
+   }
+
+
+   /** Determines the name codes again after deserialization */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      lNameCode = NamePool.getCode(lName);
    }
 
    public boolean matches(Context context, int top, boolean setPosition)
@@ -62,7 +82,7 @@ final public class AttrUriWildcardTree extends Tree
          return false;
       if (setPosition)
          context.position = 1; // position for attributes is undefined
-      if (lName.equals(e.lName))
+      if (e.lNameCode == lNameCode)
          return true;
       return false;
    }
@@ -83,7 +103,7 @@ final public class AttrUriWildcardTree extends Tree
          return Value.VAL_EMPTY;
       
       // iterate through this node sequence
-      Value ret = null, last = null; // for constructing the result seq
+      Sequence.Builder ret = new Sequence.Builder(); // the result seq
       do {
          SAXEvent e = v1.getNode();
          if (e == null) {
@@ -105,20 +125,13 @@ final public class AttrUriWildcardTree extends Tree
                                                           lName,
                                                           e.attrs.getQName(i),
                                                           e.attrs.getValue(i)));
-               if (last != null)
-                  last.next = v2;
-               else
-                  ret = v2;
-               last = v2;
+               ret.add(v2);
             }
          } // for
-         v1 = v1.next; // next node
+         v1 = v1.getNext(); // next node
       } while (v1 != null);
 
-      if (ret != null)
-         return ret;
-      else
-         return Value.VAL_EMPTY;
+      return ret.toValue();
    } 
 
    public double getPriority()
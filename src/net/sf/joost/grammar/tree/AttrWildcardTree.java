@@ -27,6 +27,7 @@ package net.sf.joost.grammar.tree;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 
 import org.xml.sax.SAXException;
@@ -39,6 +40,8 @@ import org.xml.sax.SAXException;
  */
 final public class AttrWildcardTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    /** 
     * Constructs an AttrWildcardTree object.
     */
@@ -77,7 +80,7 @@ final public class AttrWildcardTree extends Tree
          return Value.VAL_EMPTY;
 
       // iterate through this node sequence
-      Value ret = null, last = null; // for constructing the result seq
+      Sequence.Builder ret = new Sequence.Builder(); // the result seq
       do {
          SAXEvent e = v1.getNode();
          if (e == null) {
@@ -95,19 +98,12 @@ final public class AttrWildcardTree extends Tree
          // iterate through attribute list
          for (int i=0; i<len; i++) {
             Value v2 = new Value(SAXEvent.newAttribute(e.attrs, i));
-            if (last != null)
-               last.next = v2;
-            else
-               ret = v2;
-            last = v2;
+            ret.add(v2);
          } // for
-         v1 = v1.next; // next node
+         v1 = v1.getNext(); // next node
       } while (v1 != null);
       
-      if (ret != null)
-         return ret;
-      else
-         return Value.VAL_EMPTY;
+      return ret.toValue();
    } 
 
    public double getPriority()
@@ -37,6 +37,8 @@ import org.xml.sax.SAXException;
  */
 final public class AvtTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public AvtTree(Tree left, Tree right)
    {
       super(AVT, left, right);
@@ -40,6 +40,8 @@ import org.xml.sax.SAXException;
  */
 final public class ChildTree extends ReversableTree
 {
+   private static final long serialVersionUID = 1L;
+
    public ChildTree(Tree left,Tree right)
    {
      super(CHILD, left, right);
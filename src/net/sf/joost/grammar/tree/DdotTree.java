@@ -39,6 +39,8 @@ import org.xml.sax.SAXException;
  */
 final public class DdotTree extends ReversableTree
 {
+   private static final long serialVersionUID = 1L;
+
    public DdotTree()
    {
       super(DDOT);
@@ -27,8 +27,13 @@ package net.sf.joost.grammar.tree;
 import net.sf.joost.grammar.ReversableTree;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.DescendantIndex;
+import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 
+import java.util.Vector;
+
 import org.xml.sax.SAXException;
 
 /**
@@ -39,6 +44,14 @@ import org.xml.sax.SAXException;
  */
 final public class DescTree extends ReversableTree
 {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The slot of this step in the {@link DescendantIndex}, <code>-1</code>
+    * if the left path must be looked up on the ancestor stack
+    */
+   private int descendantSlot = -1;
+
    public DescTree(Tree left,Tree right)
    {
       super(DESC, left, right);
@@ -52,6 +65,12 @@ final public class DescTree extends ReversableTree
       if (top < 3)
          return false;
       if (right.matches(context, top, setPosition)) {
+         if (descendantSlot != -1) {
+            // the states of the parent cover all its ancestors
+            SAXEvent parent = (SAXEvent)context.ancestorStack.elementAt(top-2);
+            if (parent.hasDescendantStates())
+               return parent.getDescendantState(descendantSlot);
+         }
          // look for a matching sub path on the left
          while (top > 1) {
             if (left.matches(context, top-1, false))
@@ -63,40 +82,45 @@ final public class DescTree extends ReversableTree
       return false;
    }
    
+   public void requestDescendantSlots(DescendantIndex index)
+   {
+      super.requestDescendantSlots(index);
+      if (!containsPredicate(left))
+         descendantSlot = index.requestSlot(left);
+   }
+
+   /** @return whether <code>path</code> contains a predicate */
+   private static boolean containsPredicate(Tree path)
+   {
+      if (path == null)
+         return false;
+      return path.type == PREDICATE ||
+             containsPredicate(path.left) || containsPredicate(path.right);
+   }
+
    public Value evaluate(Context context, int top)
       throws SAXException
    {
-      Value ret = null, last = null; // for constructing the result seq
+      Sequence.Builder ret = new Sequence.Builder(); // the result seq
+      Vector nodes = new Vector(); // the nodes in ret
       while (top < context.ancestorStack.size()) {
          Value v1 = right.evaluate(context, top++);
          if (v1.type == Value.NODE) {
-            if (ret != null) {
-               // skip duplicates
-               Value vi = v1;
-               while (vi != null) {
-                  Value vj;
-                  for (vj = ret; vj != null; vj = vj.next)
-                     if (vi.getNode() == vj.getNode())
-                        break;
-                  if (vj == null) { // vi not found in ret
-                     last.next = vi;
-                     last = vi;
-                  }
-                  vi = vi.next;
-                  last.next = null; // because last=vi above
+            // skip duplicates
+            for (Value vi = v1; vi != null; vi = vi.getNext()) {
+               SAXEvent e = vi.getNode();
+               int j;
+               for (j=nodes.size()-1; j>=0; j--)
+                  if (nodes.elementAt(j) == e)
+                     break;
+               if (j == -1) { // vi not found in ret
+                  nodes.addElement(e);
+                  ret.add(vi.itemAt(0));
                }
             }
-            else {
-               ret = v1;
-               for (last = v1; last.next != null; last = last.next)
-                  ;
-            }
          }
       }
-      if (ret != null)
-         return ret;
-      else // empty sequence
-         return Value.VAL_EMPTY;
+      return ret.toValue();
    }
    
    public boolean isConstant()
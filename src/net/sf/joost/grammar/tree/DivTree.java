@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class DivTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public DivTree(Tree left, Tree right)
    {
       super(DIV, left, right);
@@ -39,6 +39,8 @@ import org.xml.sax.SAXException;
  */
 final public class DotTree extends ReversableTree
 {
+   private static final long serialVersionUID = 1L;
+
    public DotTree()
    {
       super(DOT);
@@ -31,6 +31,7 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory;
+import net.sf.joost.stx.function.Position;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -43,6 +44,8 @@ import org.xml.sax.SAXParseException;
  */
 final public class FunctionTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    /*** the function instance */
    private FunctionFactory.Instance func;
 
@@ -74,6 +77,8 @@ final public class FunctionTree extends Tree
       }
 
       func = context.getFunctionFactory().getFunction(uri, lName, qName, left);
+      if (func instanceof Position)
+         context.getPositionIndex().setPositionsUsed();
    }
 
    public Value evaluate(Context context, int top)
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class LeTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public LeTree(Tree left, Tree right)
    {
       super(LE, left, right);
@@ -52,8 +54,12 @@ final public class LeTree extends Tree
          return Value.VAL_FALSE;
       
       // sequences: find a pair that the comparison is true
-      for (Value vi = v1; vi != null; vi = vi.next) {
-         for (Value vj = v2; vj != null; vj = vj.next) {
+      int n1 = v1.count(), n2 = v2.count();
+      Value[] items2 = n2 > 1 ? v2.toArray() : null;
+      for (int i=0; i<n1; i++) {
+         Value vi = v1.itemAt(i);
+         for (int j=0; j<n2; j++) {
+            Value vj = items2 != null ? items2[j] : v2;
             if (vi.getNumberValue() <= vj.getNumberValue())
                return Value.VAL_TRUE;
          }
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class ListTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public ListTree()
    {
       super(LIST);
@@ -26,9 +26,14 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamePool;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.SAXEvent;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -40,6 +45,14 @@ import org.xml.sax.SAXParseException;
  */
 final public class LocalWildcardTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the encoded name, see {@link NamePool}, valid in the current VM */
+   private transient int uriCode;
+
+   /** the position counter slot of this node test */
+   private int positionSlot = -1;
+
    /**
     * Constructs a LocalWildcardTree object with a given namespace prefix.
     * @param prefix the namespace prefix of the name test
@@ -54,6 +67,16 @@ final public class LocalWildcardTree extends Tree
       if (uri == null) 
          throw new SAXParseException("Undeclared prefix '" + prefix + "'",
                                      context.locator);
+      uriCode = NamePool.getCode(uri);
+   }
+
+
+   /** Determines the name codes again after deserialization */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      uriCode = NamePool.getCode(uri);
    }
 	
    public boolean matches(Context context, int top, boolean setPosition)
@@ -63,17 +86,22 @@ final public class LocalWildcardTree extends Tree
          return false;
 
       SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
-      if (e.type != SAXEvent.ELEMENT || !uri.equals(e.uri))
+      if (e.type != SAXEvent.ELEMENT || e.uriCode != uriCode)
          return false;
       
       if (setPosition)
          context.position = 
             ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOf(uri, "*");
+                                            .getPosition(positionSlot);
 
       return true;
    }
 
+   public void requestPositions(PositionIndex index)
+   {
+      positionSlot = index.requestUriSlot(uriCode);
+   }
+
    public double getPriority()
    {
       return -0.25;
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class ModTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public ModTree(Tree left, Tree right)
    {
       super(MOD, left, right);
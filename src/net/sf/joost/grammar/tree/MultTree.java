@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class MultTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public MultTree(Tree left, Tree right)
    {
       super(MULT, left, right);
@@ -26,9 +26,14 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamePool;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.SAXEvent;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -40,6 +45,14 @@ import org.xml.sax.SAXParseException;
  */
 final public class NameTestTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the encoded name, see {@link NamePool}, valid in the current VM */
+   private transient int uriCode, lNameCode;
+
+   /** the position counter slot of this node test */
+   private int positionSlot = -1;
+
    public NameTestTree(String value, ParseContext context)
       throws SAXParseException
    {
@@ -62,6 +75,18 @@ final public class NameTestTree extends Tree
          uri = context.transformNode.stxpathDefaultNamespace;
          lName = value;
       }
+      uriCode = NamePool.getCode(uri);
+      lNameCode = NamePool.getCode(lName);
+   }
+
+
+   /** Determines the name codes again after deserialization */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      uriCode = NamePool.getCode(uri);
+      lNameCode = NamePool.getCode(lName);
    }
 
    public boolean matches(Context context, int top, boolean setPosition)
@@ -72,17 +97,22 @@ final public class NameTestTree extends Tree
 
       SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
       if (e.type != SAXEvent.ELEMENT || 
-          !(uri.equals(e.uri) && lName.equals(e.lName)))
+          e.lNameCode != lNameCode || e.uriCode != uriCode)
          return false;
 
       if (setPosition)
          context.position = 
             ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOf(uri, lName);
+                                            .getPosition(positionSlot);
 
       return true;
    }
 
+   public void requestPositions(PositionIndex index)
+   {
+      positionSlot = index.requestNameSlot(uriCode, lNameCode);
+   }
+
    public double getPriority()
    {
       return 0;
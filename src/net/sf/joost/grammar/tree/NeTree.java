@@ -26,6 +26,7 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.SequenceIndex;
 import net.sf.joost.stx.Value;
 
 import org.xml.sax.SAXException;
@@ -38,6 +39,8 @@ import org.xml.sax.SAXException;
  */
 final public class NeTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public NeTree(Tree left, Tree right)
    {
       super(NE, left, right);
@@ -52,8 +55,23 @@ final public class NeTree extends Tree
          return Value.VAL_FALSE;
       
       // sequences: find a pair that the comparison is true
-      for (Value vi = v1; vi != null; vi = vi.next) {
-         for (Value vj = v2; vj != null; vj = vj.next) {
+      int n1 = v1.count(), n2 = v2.count();
+      // large sequences: look up the items of the other operand in an index
+      SequenceIndex index = n1 < n2 ? SequenceIndex.getIndex(v2, n1)
+                                    : SequenceIndex.getIndex(v1, n2);
+      if (index != null) {
+         Value v = n1 < n2 ? v1 : v2;
+         for (int i=0, n=Math.min(n1, n2); i<n; i++)
+            if (index.containsUnequal(v.itemAt(i)))
+               return Value.VAL_TRUE;
+         return Value.VAL_FALSE;
+      }
+
+      Value[] items2 = n2 > 1 ? v2.toArray() : null;
+      for (int i=0; i<n1; i++) {
+         Value vi = v1.itemAt(i);
+         for (int j=0; j<n2; j++) {
+            Value vj = items2 != null ? items2[j] : v2;
             if (vi.type == Value.BOOLEAN || vj.type == Value.BOOLEAN) {
                if (vi.getBooleanValue() != vj.getBooleanValue())
                   return Value.VAL_TRUE;
@@ -26,6 +26,7 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.SAXEvent;
 
 import org.xml.sax.SAXException;
@@ -38,6 +39,11 @@ import org.xml.sax.SAXException;
  */
 final public class NodeTestTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the position counter slot of this node test */
+   private int positionSlot = -1;
+
    public NodeTestTree()
    {
       super(NODE_TEST);
@@ -56,11 +62,16 @@ final public class NodeTestTree extends Tree
       if (setPosition)
          context.position = 
             ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOfNode();
+                                            .getPosition(positionSlot);
 
       return true; 
    }
 
+   public void requestPositions(PositionIndex index)
+   {
+      positionSlot = index.requestNodeSlot();
+   }
+
    public double getPriority()
    {
       return -0.5;
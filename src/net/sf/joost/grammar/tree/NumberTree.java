@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class NumberTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    private Value theValue;
 
    public NumberTree(Number n)
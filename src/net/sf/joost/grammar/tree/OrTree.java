@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class OrTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public OrTree(Tree left, Tree right)
    {
       super(OR, left, right);
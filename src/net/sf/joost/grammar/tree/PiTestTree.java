@@ -26,6 +26,7 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.SAXEvent;
 
 import org.xml.sax.SAXException;
@@ -38,8 +39,10 @@ import org.xml.sax.SAXException;
  */
 final public class PiTestTree extends Tree
 {
-   /** key in the position map */
-   private String piKeyName;
+   private static final long serialVersionUID = 1L;
+
+   /** the position counter slot of this node test */
+   private int positionSlot = -1;
 
    /** 
     * Constructs a PiTextTree that represents a processing-instruction test
@@ -48,8 +51,6 @@ final public class PiTestTree extends Tree
    public PiTestTree()
    {
       super(PI_TEST);
-      piKeyName = "";
-      
    }
 	
    /** 
@@ -60,8 +61,6 @@ final public class PiTestTree extends Tree
    public PiTestTree(Object literal)
    {
       super(PI_TEST, literal);
-      piKeyName = (String)literal;
-      
    }
 
    public boolean matches(Context context, int top, boolean setPosition)
@@ -77,12 +76,17 @@ final public class PiTestTree extends Tree
          if (setPosition)
             context.position = 
                ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                 .getPositionOfPI(piKeyName);
+                                 .getPosition(positionSlot);
          return true;
       }
       return false;
    }
 
+   public void requestPositions(PositionIndex index)
+   {
+      positionSlot = index.requestPISlot((String)value);
+   }
+
    public double getPriority()
    {
       if (value != null)
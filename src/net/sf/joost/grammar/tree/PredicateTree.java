@@ -26,6 +26,8 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.DescendantIndex;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.Value;
 
 import org.xml.sax.SAXException;
@@ -38,6 +40,8 @@ import org.xml.sax.SAXException;
  */
 final public class PredicateTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    /**
     * Constructs a PredicateTree.
     * @param left the path before the predicate
@@ -69,6 +73,19 @@ final public class PredicateTree extends Tree
       return retValue;
    }
    
+   public void requestPositions(PositionIndex index)
+   {
+      // a numeric predicate compares the context position
+      index.setPositionsUsed();
+      super.requestPositions(index);
+   }
+
+   public void requestDescendantSlots(DescendantIndex index)
+   {
+      // the predicate itself is an expression, not a pattern
+      left.requestDescendantSlots(index);
+   }
+
    public boolean isConstant()
    {
       return false;
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class RootTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public RootTree(Tree left)
    {
       super(ROOT, left, null);
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class SeqTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public SeqTree()
    {
       super(SEQ);
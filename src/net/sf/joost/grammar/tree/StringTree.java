@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class StringTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    private Value theValue;
 
    public StringTree(String s)
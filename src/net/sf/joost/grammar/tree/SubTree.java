@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class SubTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public SubTree(Tree left, Tree right)
    {
       super(SUB, left, right);
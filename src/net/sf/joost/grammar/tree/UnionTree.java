@@ -37,6 +37,8 @@ import org.xml.sax.SAXException;
  */
 final public class UnionTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public UnionTree(Tree left,Tree right)
    {
       super(UNION, left, right);
@@ -26,9 +26,14 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamePool;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.SAXEvent;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import org.xml.sax.SAXException;
 
 /**
@@ -39,6 +44,14 @@ import org.xml.sax.SAXException;
  */
 final public class UriWildcardTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
+   /** the encoded name, see {@link NamePool}, valid in the current VM */
+   private transient int lNameCode;
+
+   /** the position counter slot of this node test */
+   private int positionSlot = -1;
+
    /**
     * Constructs a UriWildcardTree object with a given local name.
     * @param lName the local name in the name test
@@ -48,6 +61,16 @@ final public class UriWildcardTree extends Tree
    {
       super(URI_WILDCARD);
       this.lName = lName;
+      lNameCode = NamePool.getCode(lName);
+   }
+
+
+   /** Determines the name codes again after deserialization */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      lNameCode = NamePool.getCode(lName);
    }
 	
    public boolean matches(Context context, int top, boolean setPosition)
@@ -57,17 +80,22 @@ final public class UriWildcardTree extends Tree
          return false;
 
       SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
-      if (e.type != SAXEvent.ELEMENT || !lName.equals(e.lName))
+      if (e.type != SAXEvent.ELEMENT || e.lNameCode != lNameCode)
          return false;
       
       if (setPosition)
          context.position = 
             ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOf("*", lName);
+                                            .getPosition(positionSlot);
 
       return true;
    }
 
+   public void requestPositions(PositionIndex index)
+   {
+      positionSlot = index.requestLocalNameSlot(lNameCode);
+   }
+
    public double getPriority()
    {
       return -0.25;
@@ -38,6 +38,8 @@ import org.xml.sax.SAXException;
  */
 final public class ValueTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    public ValueTree(Value v)
    {
       super(VALUE, v);
@@ -32,10 +32,6 @@ import net.sf.joost.stx.Value;
 import net.sf.joost.util.VariableNotFoundException;
 import net.sf.joost.util.VariableUtils;
 
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Stack;
-
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -47,10 +43,19 @@ import org.xml.sax.SAXParseException;
  */
 final public class VarTree extends Tree
 {
+   private static final long serialVersionUID = 1L;
+
    /** The expanded name of the variable */
    private final String expName;
 
-   private boolean scopeDetermined = false;
+   /** The slot of the variable, either in the local variables or in the
+       variables of {@link #groupScope} */
+   private int slot;
+
+   // local variables are determined while parsing, group variables on
+   // first use; the compiled tree may be shared by several concurrently
+   // running processors
+   private volatile boolean scopeDetermined;
    private GroupBase groupScope = null;
 
    /*
@@ -80,6 +85,8 @@ final public class VarTree extends Tree
          lName = value;
       }
       expName = "{" + uri + "}" + lName;
+      slot = context.getLocalVariableSlot(expName);
+      scopeDetermined = (slot != -1);
    }
 
 
@@ -87,8 +94,9 @@ final public class VarTree extends Tree
       throws SAXException
    {
       if (!scopeDetermined) {
+         GroupBase group;
          try {
-            groupScope = VariableUtils.findVariableScope(context, expName);
+            group = VariableUtils.findVariableScope(context, expName);
          }
          catch (VariableNotFoundException e) {
             context.errorHandler.error("Undeclared variable '" + value + "'",
@@ -99,16 +107,17 @@ final public class VarTree extends Tree
             // if the errorHandler decides to continue ...
             return Value.VAL_EMPTY;
          }
+         slot = group.getVariableSlot(expName);
+         groupScope = group;
          scopeDetermined = true;
       }
 
-      Hashtable vars = (groupScope == null)
+      Object[] vars = (groupScope == null)
          ? context.localVars
-         : (Hashtable)((Stack)context.groupVars.get(groupScope)).peek();
+         : groupScope.getVariables(context);
 
-      Value v1 = (Value)vars.get(expName);
-      // create a copy if the result is a sequence
-      return v1.next == null ? v1 : v1.copy();
+      // sequences are immutable, no need to create a copy
+      return (Value)vars[slot];
    }
 
 
@@ -116,14 +125,4 @@ final public class VarTree extends Tree
    {
       return false;
    }
-
-
-   public Tree deepCopy(HashMap copies)
-   {
-      VarTree copy = (VarTree) super.deepCopy(copies);
-      if (scopeDetermined && groupScope != null) {
-         copy.groupScope = (GroupBase) groupScope.deepCopy(copies);
-      }
-      return copy;
-   }
 }
@@ -26,9 +26,7 @@ package net.sf.joost.instruction;
 
 import net.sf.joost.stx.Context;
 
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Hashtable;
+import java.io.Serializable;
 
 import org.xml.sax.SAXException;
 
@@ -42,11 +40,15 @@ import org.xml.sax.SAXException;
  * @version $Revision: 2.3 $ $Date: 2008/10/04 17:13:14 $
  * @author Oliver Becker
  */
-public abstract class AbstractInstruction implements Cloneable
+public abstract class AbstractInstruction implements Cloneable, Serializable
 {
+   private static final long serialVersionUID = 1L;
+
    /**
     * The next instruction in the chain. The subtree of nodes in a
     * template or procedure will be represented as a linked list.
+    * This field won't be changed after the transformation sheet has been
+    * compiled, see {@link #getNext}.
     */
    public AbstractInstruction next;
 
@@ -89,82 +91,18 @@ public abstract class AbstractInstruction implements Cloneable
 
 
    /**
-    * Creates a deep copy of this instruction
-    * @param copies the map of already copied objects
-    * @return the copy of this instruction
-    */
-   final public AbstractInstruction deepCopy(HashMap copies)
-   {
-      AbstractInstruction copy = (AbstractInstruction) copies.get(this);
-      if (copy == null) {
-         try {
-            copy = (AbstractInstruction) this.clone();
-         }
-         catch (CloneNotSupportedException e) {
-            // mustn't happen since this class implements Cloneable
-            throw new RuntimeException(e);
-         }
-         copies.put(this, copy);
-         onDeepCopy(copy, copies);
-      }
-      return copy;
-   }
-
-
-   /**
-    * Callback that will be called when a clone of this instance has been
-    * created. To be overridden in subclasses.
-    * @param copy the created clones
-    * @param copies the map of already copied objects
-    */
-   protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-   {
-      if (next != null)
-         copy.next = next.deepCopy(copies);
-   }
-
-
-   /**
-    * Create a deep copy of a {@link Hashtable} that contains
-    * {@link AbstractInstruction} instances as values
-    * @param hashtable the Hashtable to be copied
-    * @param copies the map of already copied objects
-    * @return the copy
-    */
-   public static final Hashtable deepHashtableCopy(Hashtable hashtable,
-                                                   HashMap copies)
-   {
-      Hashtable copy = (Hashtable) copies.get(hashtable);
-      if (copy == null) {
-         copy = new Hashtable(hashtable.size());
-         for (Enumeration e = hashtable.keys(); e.hasMoreElements();) {
-            Object key = e.nextElement();
-            copy.put(key,
-                  ((AbstractInstruction)hashtable.get(key)).deepCopy(copies));
-         }
-         copies.put(hashtable, copy);
-      }
-      return copy;
-   }
-
-
-   /**
-    * Create a deep copy of an array of STX template instances.
-    * @param templates the array to be copied
-    * @param copies the map of already copied objects
-    * @return the copy
+    * Determines the instruction that follows this one at run-time. This is
+    * normally {@link #next}, unless the preceding invocation of
+    * {@link #process} requested a jump via {@link Context#jumpTo}.
+    * @param context the current context
+    * @return the next instruction to be processed
     */
-   public static final TemplateFactory.Instance[] deepTemplateArrayCopy(
-         TemplateFactory.Instance[] templates, HashMap copies)
+   public final AbstractInstruction getNext(Context context)
    {
-      TemplateFactory.Instance[] copy =
-         (TemplateFactory.Instance[]) copies.get(templates);
-      if (copy == null) {
-         copy = new TemplateFactory.Instance[templates.length];
-         for (int i=0; i<templates.length; i++) {
-            copy[i] = (TemplateFactory.Instance) templates[i].deepCopy(copies);
-         }
+      if (context.jumpRequested) {
+         context.jumpRequested = false;
+         return context.jumpTarget;
       }
-      return copy;
+      return next;
    }
 }
@@ -28,9 +28,9 @@ import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
-import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegexCache;
+import net.sf.joost.util.regex.RegularExpression;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Stack;
 import java.util.Vector;
@@ -50,14 +50,7 @@ import org.xml.sax.SAXParseException;
 
 final public class AnalyzeTextFactory extends FactoryBase
 {
-   /**
-    * Name of a special pseudo-variable that contains the values for
-    * the regex-group function. (Note: "normal" variables start always
-    * with a namespace in curly braces like '<code>{uri}name</code>')
-    * @see net.sf.joost.stx.function.RegexGroup
-    */
-   public static String REGEX_GROUP = "%REGEX-GROUP";
-
+   private static final long serialVersionUID = 1L;
 
    /** allowed attributes for this element */
    private HashSet attrNames;
@@ -92,6 +85,8 @@ final public class AnalyzeTextFactory extends FactoryBase
    /** Represents an instance of the <code>analyze-text</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree select;
 
       private AbstractInstruction successor;
@@ -101,12 +96,21 @@ final public class AnalyzeTextFactory extends FactoryBase
       private MatchFactory.Instance[] matchChildren;
       private NodeBase noMatchChild;
 
+      /**
+       * The slot of a local pseudo-variable that contains a stack with the
+       * values for the regex-group function (accessed from the stx:match
+       * and stx:no-match children)
+       * @see net.sf.joost.stx.function.RegexGroup
+       */
+      final int regexGroupSlot;
+
       // Constructor
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          Tree select)
       {
          super(qName, parent, context, true);
          this.select = select;
+         regexGroupSlot = context.getRegexGroupSlot();
       }
 
 
@@ -185,15 +189,38 @@ final public class AnalyzeTextFactory extends FactoryBase
       }
 
 
-      // needed to detect recursive invocations
-      private boolean continued = false;
+      /** The run-time state of a <code>stx:analyze-text</code> */
+      final class AnalyzeTextFrame extends Frame
+      {
+         // needed to detect recursive invocations
+         boolean continued = false;
+
+         /**
+          * For the regex-group function (accessed from the stx:match and
+          * stx:no-match children, so they cannot be private)
+          * @see net.sf.joost.stx.function.RegexGroup
+          */
+         String[] capSubstr, noMatchStr;
+
+         /** The instruction to continue with after stx:no-match */
+         AbstractInstruction noMatchSuccessor;
+      }
+
+
+      protected Frame createFrame()
+      {
+         return new AnalyzeTextFrame();
+      }
+
 
       /**
-       * For the regex-group function (accessed from the stx:match and
-       * stx:no-match children, so they cannot be private)
-       * @see net.sf.joost.stx.function.RegexGroup
+       * @return the frame of this instruction in the given context
+       *         (used by the stx:match and stx:no-match children)
        */
-      protected String[] capSubstr, noMatchStr;
+      AnalyzeTextFrame getAnalyzeTextFrame(Context context)
+      {
+         return (AnalyzeTextFrame) getFrame(context);
+      }
 
 
       /**
@@ -206,33 +233,35 @@ final public class AnalyzeTextFactory extends FactoryBase
          String text;
          int lastIndex;
          Matcher[] matchers;
+         AnalyzeTextFrame frame = getAnalyzeTextFrame(context);
 
-         if (continued) {
+         if (frame.continued) {
             // restore previous values
-            text = (String)localFieldStack.pop();
-            lastIndex = ((Integer)localFieldStack.pop()).intValue();
-            matchers = (Matcher[])localFieldStack.pop();
-            continued = false; // in case there will be an stx:process-xxx
+            text = (String)frame.localFieldStack.pop();
+            lastIndex = ((Integer)frame.localFieldStack.pop()).intValue();
+            matchers = (Matcher[])frame.localFieldStack.pop();
+            frame.continued = false; // in case there will be an stx:process-xxx
          }
          else { // this is a new invocation
             text = select.evaluate(context, this).getStringValue();
             lastIndex = 0;
             // create a pseudo variable for regex-group()
-            if (context.localVars.get(REGEX_GROUP) == null)
-               context.localVars.put(REGEX_GROUP, new Stack());
+            if (context.localVars[regexGroupSlot] == null)
+               context.localVars[regexGroupSlot] = new Stack();
             matchers = new Matcher[matchChildren.length];
             for (int i=0; i<matchChildren.length; i++) {
-               String re =
-                  matchChildren[i].regex.evaluate(context,
-                                                  matchChildren[i]).getString();
-
-               String flags = matchChildren[i].flags != null
-                  ? matchChildren[i].flags.evaluate(context,
-                                                    matchChildren[i]).getString()
-                  : "";
+               MatchFactory.Instance match = matchChildren[i];
                try {
-                  matchers[i] =
-                     new JRegularExpression(re, true, flags).matcher(text);
+                  RegularExpression re = match.compiledRegex;
+                  if (re == null) {
+                     String flags = match.flags != null
+                        ? match.flags.evaluate(context, match).getString()
+                        : "";
+                     re = RegexCache.getRegex(
+                        match.regex.evaluate(context, match).getString(),
+                        flags);
+                  }
+                  matchers[i] = re.matcher(text);
                }
                catch (EvalException e) {
                   context.errorHandler.fatalError(e.getMessage(),
@@ -272,36 +301,40 @@ final public class AnalyzeTextFactory extends FactoryBase
                }
             }
 
-            noMatchStr = new String[1];
+            String[] capSubstr;
+            String[] noMatchStr = frame.noMatchStr = new String[1];
             if (matchIndex != -1) { // found an stx:match
-               capSubstr = new String[matchers[matchIndex].groupCount() + 1];
+               capSubstr = frame.capSubstr =
+                  new String[matchers[matchIndex].groupCount() + 1];
                for (int i=0; i<capSubstr.length; i++)
                   capSubstr[i] = matchers[matchIndex].group(i);
                noMatchStr[0] = text.substring(lastIndex, newIndex);
-               localFieldStack.push(matchers);
-               localFieldStack.push(new Integer(newIndex + maxSubstringLength));
-               localFieldStack.push(text);
+               frame.localFieldStack.push(matchers);
+               frame.localFieldStack.push(
+                  new Integer(newIndex + maxSubstringLength));
+               frame.localFieldStack.push(text);
                if (noMatchChild != null && newIndex != lastIndex) {
                   // invoke stx:no-match before stx:match
-                  next = noMatchChild;
-                  noMatchChild.nodeEnd.next = matchChildren[matchIndex];
+                  context.jumpTo(noMatchChild);
+                  frame.noMatchSuccessor = matchChildren[matchIndex];
                }
                else
-                  next = matchChildren[matchIndex];
+                  context.jumpTo(matchChildren[matchIndex]);
             }
             else { // no matching regex found
                if (noMatchChild != null) {
                   noMatchStr[0] = text.substring(lastIndex);
-                  next = noMatchChild;
+                  context.jumpTo(noMatchChild);
                   // leave stx:analyze-text after stx:no-match
-                  noMatchChild.nodeEnd.next = successor;
+                  frame.noMatchSuccessor = successor;
                }
                else
-                  next = successor; // leave stx:analyze-text instantly
+                  // leave stx:analyze-text instantly
+                  context.jumpTo(successor);
             }
          }
          else // text.length() == lastIndex, we're done
-            next = successor;
+            context.jumpTo(successor);
 
          return PR_CONTINUE;
       }
@@ -310,32 +343,9 @@ final public class AnalyzeTextFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         continued = true;
+         getAnalyzeTextFrame(context).continued = true;
          return PR_CONTINUE;
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.continued = false;
-         theCopy.capSubstr = theCopy.noMatchStr = null;
-         if (matchChildren != null) {
-            theCopy.matchChildren =
-               new MatchFactory.Instance[matchChildren.length];
-            for (int i=0; i<matchChildren.length; i++) {
-               theCopy.matchChildren[i] =
-                  (MatchFactory.Instance) matchChildren[i].deepCopy(copies);
-            }
-         }
-         if (noMatchChild != null)
-            theCopy.noMatchChild = (NodeBase) noMatchChild.deepCopy(copies);
-         if (successor != null)
-            theCopy.successor = successor.deepCopy(copies);
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-      }
-
    }
 }
@@ -32,10 +32,7 @@ import net.sf.joost.stx.Value;
 import net.sf.joost.util.VariableNotFoundException;
 import net.sf.joost.util.VariableUtils;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -51,6 +48,8 @@ import org.xml.sax.SAXParseException;
 
 final public class AssignFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -86,11 +85,19 @@ final public class AssignFactory extends FactoryBase
    /** Represents an instance of the <code>assign</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       public String varName, expName;
       private Tree select;
       private String errorMessage;
 
-      private boolean scopeDetermined = false;
+      /** The slot of the variable, either in the local variables or in
+          the variables of {@link #groupScope} */
+      private int slot;
+
+      // local variables are determined while parsing, group variables on
+      // first use
+      private volatile boolean scopeDetermined;
       private GroupBase groupScope = null;
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
@@ -103,6 +110,8 @@ final public class AssignFactory extends FactoryBase
          this.expName = expName;
          this.select = select;
          this.errorMessage = "('" + qName + "' started in line " + lineNo + ")";
+         slot = context.getLocalVariableSlot(expName);
+         scopeDetermined = (slot != -1);
       }
 
 
@@ -155,8 +164,9 @@ final public class AssignFactory extends FactoryBase
          throws SAXException
       {
          if (!scopeDetermined) {
+            GroupBase group;
             try {
-               groupScope = VariableUtils.findVariableScope(context, expName);
+               group = VariableUtils.findVariableScope(context, expName);
             }
             catch (VariableNotFoundException e) {
                context.errorHandler.error(
@@ -164,26 +174,17 @@ final public class AssignFactory extends FactoryBase
                   publicId, systemId, lineNo, colNo);
                return; // if the errorHandler returns
             }
+            slot = group.getVariableSlot(expName);
+            groupScope = group;
             scopeDetermined = true;
          }
 
-         Hashtable vars = (groupScope == null)
+         Object[] vars = (groupScope == null)
             ? context.localVars
-            : (Hashtable)((Stack)context.groupVars.get(groupScope)).peek();
+            : groupScope.getVariables(context);
 
          // assign new value
-         vars.put(expName, v);
-      }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (groupScope != null)
-            theCopy.groupScope = (GroupBase) groupScope.deepCopy(copies);
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
+         vars[slot] = v;
       }
 
    }
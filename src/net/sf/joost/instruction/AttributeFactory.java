@@ -29,7 +29,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 
@@ -47,6 +46,8 @@ import org.xml.sax.SAXParseException;
 
 final public class AttributeFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -84,9 +85,16 @@ final public class AttributeFactory extends FactoryBase
    /** Represents an instance of the <code>attribute</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree name, namespace, select;
       private Hashtable nsSet;
-      private StringEmitter strEmitter;
+
+      /** The attribute name, determined in advance if it is constant */
+      private String attName, attUri, attLocal;
+
+      /** The value of {@link #select}, determined in advance if constant */
+      private String value;
 
       protected Instance(String elementName, NodeBase parent,
                          ParseContext context,
@@ -99,14 +107,51 @@ final public class AttributeFactory extends FactoryBase
          this.name = name;
          this.namespace = namespace;
          this.select = select;
-         init();
       }
 
 
-      private void init()
+      protected Frame createFrame()
       {
-         strEmitter = new StringEmitter(new StringBuffer(),
-               "('" + qName + "' started in line " + lineNo + ")");
+         return new StringEmitterFrame();
+      }
+
+
+      /**
+       * Determines the attribute name and the value of the
+       * <code>select</code> attribute in advance if they are constant
+       */
+      public boolean compile(int pass, ParseContext context)
+      {
+         try {
+            if (name.isConstant() &&
+                (namespace == null || namespace.isConstant())) {
+               String aName = name.evaluate(null, -1).getString();
+               String aUri = namespace != null
+                  ? namespace.evaluate(null, -1).getString() : null;
+               int colon = aName.indexOf(':');
+               if (colon != -1) {
+                  if (aUri == null)
+                     aUri = (String)nsSet.get(aName.substring(0, colon));
+                  // an error will be reported at run time
+                  if (aUri != null && !aUri.equals("")) {
+                     attUri = aUri;
+                     attLocal = aName.substring(colon+1);
+                     attName = aName;
+                  }
+               }
+               else if (aUri == null || aUri.equals("")) {
+                  attUri = "";
+                  attLocal = attName = aName;
+               }
+            }
+            if (select != null && select.isConstant())
+               value = select.evaluate(null, -1).getStringValue();
+         }
+         catch (SAXException ex) {
+            // don't report the error now, this instruction may never
+            // be reached; the run time evaluation will report it again
+         }
+         return false;
       }
 
 
@@ -118,6 +163,8 @@ final public class AttributeFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
+         StringEmitterFrame frame = (StringEmitterFrame)getFrame(context);
+         StringEmitter strEmitter = frame.strEmitter;
          // check for nesting of this stx:attribute
          if (context.emitter.isEmitterActive(strEmitter)) {
             context.errorHandler.error(
@@ -132,47 +179,50 @@ final public class AttributeFactory extends FactoryBase
             context.pushEmitter(strEmitter);
          }
 
-         String attName, attUri, attLocal;
-         // determine attribute name
-         attName = name.evaluate(context, this).getString();
-         int colon = attName.indexOf(':');
-         if (colon != -1) { // prefixed name
-            String prefix = attName.substring(0, colon);
-            attLocal = attName.substring(colon+1);
-            if (namespace != null) { // namespace attribute present
-               attUri = namespace.evaluate(context, this).getString();
-               if (attUri.equals("")) {
-                  context.errorHandler.error(
-                     "Can't put attribute '" + attName +
-                     "' into the null namespace",
-                     publicId, systemId, lineNo, colNo);
-                  return PR_CONTINUE; // if the errorHandler returns
+         String attName = this.attName, attUri = this.attUri,
+                attLocal = this.attLocal;
+         if (attName == null) {
+            // determine attribute name
+            attName = name.evaluate(context, this).getString();
+            int colon = attName.indexOf(':');
+            if (colon != -1) { // prefixed name
+               String prefix = attName.substring(0, colon);
+               attLocal = attName.substring(colon+1);
+               if (namespace != null) { // namespace attribute present
+                  attUri = namespace.evaluate(context, this).getString();
+                  if (attUri.equals("")) {
+                     context.errorHandler.error(
+                        "Can't put attribute '" + attName +
+                        "' into the null namespace",
+                        publicId, systemId, lineNo, colNo);
+                     return PR_CONTINUE; // if the errorHandler returns
+                  }
                }
-            }
-            else { // no namespace attribute
-               // look into the set of in-scope namespaces
-               // (of the transformation sheet)
-               attUri = (String)nsSet.get(prefix);
-               if (attUri == null) {
-                  context.errorHandler.error(
-                     "Attempt to create attribute '" + attName +
-                     "' with undeclared prefix '" + prefix + "'",
-                     publicId, systemId, lineNo, colNo);
-                  return PR_CONTINUE; // if the errorHandler returns
+               else { // no namespace attribute
+                  // look into the set of in-scope namespaces
+                  // (of the transformation sheet)
+                  attUri = (String)nsSet.get(prefix);
+                  if (attUri == null) {
+                     context.errorHandler.error(
+                        "Attempt to create attribute '" + attName +
+                        "' with undeclared prefix '" + prefix + "'",
+                        publicId, systemId, lineNo, colNo);
+                     return PR_CONTINUE; // if the errorHandler returns
+                  }
                }
             }
-         }
-         else { // unprefixed name
-            attLocal = attName;
-            attUri = "";
-            if (namespace != null) { // namespace attribute present
-               attUri = namespace.evaluate(context, this).getString();
-               if (!attUri.equals("")) {
-                  context.errorHandler.error(
-                     "Can't put attribute '" + attName +
-                     "' into the non-null namespace '" + attUri + "'",
-                     publicId, systemId, lineNo, colNo);
-                  return PR_CONTINUE; // if the errorHandler returns
+            else { // unprefixed name
+               attLocal = attName;
+               attUri = "";
+               if (namespace != null) { // namespace attribute present
+                  attUri = namespace.evaluate(context, this).getString();
+                  if (!attUri.equals("")) {
+                     context.errorHandler.error(
+                        "Can't put attribute '" + attName +
+                        "' into the non-null namespace '" + attUri + "'",
+                        publicId, systemId, lineNo, colNo);
+                     return PR_CONTINUE; // if the errorHandler returns
+                  }
                }
             }
          }
@@ -180,12 +230,14 @@ final public class AttributeFactory extends FactoryBase
          if (select != null) {
             context.emitter.addAttribute(
                attUri, attName, attLocal,
-               select.evaluate(context, this).getStringValue(), this);
+               value != null ? value
+                             : select.evaluate(context, this).getStringValue(),
+               this);
          }
          else {
-            localFieldStack.push(attUri);
-            localFieldStack.push(attLocal);
-            localFieldStack.push(attName);
+            frame.localFieldStack.push(attUri);
+            frame.localFieldStack.push(attLocal);
+            frame.localFieldStack.push(attName);
          }
 
          return PR_CONTINUE;
@@ -199,29 +251,16 @@ final public class AttributeFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         String attName = (String)localFieldStack.pop();
-         String attLocal = (String)localFieldStack.pop();
-         String attUri = (String)localFieldStack.pop();
+         StringEmitterFrame frame = (StringEmitterFrame)getFrame(context);
+         String attName = (String)frame.localFieldStack.pop();
+         String attLocal = (String)frame.localFieldStack.pop();
+         String attUri = (String)frame.localFieldStack.pop();
          context.popEmitter();
          context.emitter.addAttribute(attUri, attName, attLocal,
-                                      strEmitter.getBuffer().toString(),
+                                      frame.buffer.toString(),
                                       this);
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-         if (name != null)
-            theCopy.name = name.deepCopy(copies);
-         if (namespace != null)
-            theCopy.namespace = namespace.deepCopy(copies);
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-      }
-
    }
 }
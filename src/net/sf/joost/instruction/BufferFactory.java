@@ -28,9 +28,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-import java.util.Hashtable;
 import java.util.HashSet;
-import java.util.Stack;
 
 import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.stx.Context;
@@ -46,6 +44,8 @@ import net.sf.joost.stx.ParseContext;
 
 final public class BufferFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -81,13 +81,17 @@ final public class BufferFactory extends FactoryBase
    /** Represents an instance of the <code>buffer</code> element. */
    final public class Instance extends VariableBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String varName;
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          String varName, String expName)
+         throws SAXParseException
       {
          super(qName, parent, context, expName, false, true);
          this.varName = varName;
+         declare("Buffer", varName, context);
       }
       
 
@@ -98,27 +102,17 @@ final public class BufferFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
-         Hashtable varTable;
+         Object[] vars;
          if (parent instanceof GroupBase) // group scope
-            varTable = (Hashtable)((Stack)context.groupVars.get(parent))
-                                          .peek();
-         
+            vars = ((GroupBase)parent).getVariables(context);
          else
-            varTable = context.localVars;
+            vars = context.localVars;
 
-         if (varTable.get(expName) != null) {
-            context.errorHandler.error(
-               "Buffer '" + varName + "' already declared",
-               publicId, systemId, lineNo, colNo);
-            return PR_CONTINUE; // if the errorHandler returns
-         }
-
-         BufferEmitter buffer = new BufferEmitter();
+         BufferEmitter buffer =
+            new BufferEmitter(context.bufferSpillThreshold,
+                              context.spilledBuffers);
          context.pushEmitter(buffer);
-         varTable.put(expName, context.emitter);
-
-         if (varTable == context.localVars)
-            parent.declareVariable(expName);
+         vars[slot] = context.emitter;
 
          return PR_CONTINUE;
       }
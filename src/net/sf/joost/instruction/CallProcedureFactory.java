@@ -27,7 +27,6 @@ package net.sf.joost.instruction;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -44,6 +43,8 @@ import org.xml.sax.SAXParseException;
 
 public class CallProcedureFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -82,6 +83,8 @@ public class CallProcedureFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
       String procQName, procExpName;
       ProcedureFactory.Instance procedure = null;
 
@@ -136,33 +139,15 @@ public class CallProcedureFactory extends FactoryBase
 
 
       /**
-       * Adjust the return address of the procedure.
+       * Pass the return address to the procedure.
        */
       public short process(Context context)
          throws SAXException
       {
          super.process(context);
 
-         localFieldStack.push(procedure.nodeEnd.next);
-         procedure.nodeEnd.next = nodeEnd;
+         procedure.getFrame(context).localFieldStack.push(nodeEnd);
          return PR_CONTINUE;
       }
-
-      public short processEnd(Context context)
-         throws SAXException
-      {
-         procedure.nodeEnd.next =
-            (AbstractInstruction)localFieldStack.pop();
-         return super.processEnd(context);
-      }
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (procedure != null)
-            theCopy.procedure =
-               (ProcedureFactory.Instance) procedure.deepCopy(copies);
-      }
    }
 }
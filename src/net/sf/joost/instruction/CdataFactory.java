@@ -24,13 +24,10 @@
 
 package net.sf.joost.instruction;
 
-import net.sf.joost.emitter.StringEmitter;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
-
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -45,6 +42,8 @@ import org.xml.sax.SAXParseException;
 
 final public class CdataFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return <code>"cdata"</code> */
    public String getName()
    {
@@ -63,21 +62,17 @@ final public class CdataFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends NodeBase
    {
-      private StringEmitter strEmitter;
-      private StringBuffer buffer;
+      private static final long serialVersionUID = 1L;
 
       public Instance(String qName, NodeBase parent, ParseContext context)
       {
          super(qName, parent, context, true);
-         init();
       }
 
 
-      private void init()
+      protected Frame createFrame()
       {
-         buffer = new StringBuffer();
-         strEmitter = new StringEmitter(buffer,
-                         "('" + qName + "' started in line " + lineNo + ")");
+         return new StringEmitterFrame();
       }
 
 
@@ -87,15 +82,16 @@ final public class CdataFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         if (context.emitter.isEmitterActive(strEmitter)) {
+         StringEmitterFrame frame = (StringEmitterFrame)getFrame(context);
+         if (context.emitter.isEmitterActive(frame.strEmitter)) {
             context.errorHandler.error(
                "Can't create nested CDATA section here",
                publicId, systemId, lineNo, colNo);
             return PR_CONTINUE; // if the errorHandler returns
          }
          super.process(context);
-         buffer.setLength(0);
-         context.pushEmitter(strEmitter);
+         frame.buffer.setLength(0);
+         context.pushEmitter(frame.strEmitter);
          return PR_CONTINUE;
       }
 
@@ -107,6 +103,7 @@ final public class CdataFactory extends FactoryBase
          throws SAXException
       {
          context.popEmitter();
+         StringBuffer buffer = ((StringEmitterFrame)getFrame(context)).buffer;
          Emitter emitter = context.emitter;
          emitter.startCDATA(this);
          emitter.characters(buffer.toString().toCharArray(),
@@ -115,13 +112,5 @@ final public class CdataFactory extends FactoryBase
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-      }
-
    }
 }
@@ -39,6 +39,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ChooseFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return <code>"choose"</code> */
    public String getName()
    {
@@ -58,6 +60,8 @@ final public class ChooseFactory extends FactoryBase
    /** Represents an instance of the <code>choose</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private boolean otherwisePresent;
 
       protected Instance(String qName, NodeBase parent, ParseContext context)
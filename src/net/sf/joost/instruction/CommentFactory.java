@@ -24,12 +24,10 @@
 
 package net.sf.joost.instruction;
 
-import net.sf.joost.emitter.StringEmitter;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -46,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 public class CommentFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -75,9 +75,9 @@ public class CommentFactory extends FactoryBase
    /** Represents an instance of the <code>comment</code> element. */
    public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree select;
-      private StringEmitter strEmitter;
-      private StringBuffer buffer;
 
       public Instance(String qName, NodeBase parent, ParseContext context,
                       Tree select)
@@ -86,15 +86,12 @@ public class CommentFactory extends FactoryBase
                // this element must be empty if there is a select attribute
                select == null);
          this.select = select;
-         init();
       }
 
 
-      private void init()
+      protected Frame createFrame()
       {
-         buffer = new StringBuffer();
-         strEmitter = new StringEmitter(buffer,
-                         "('" + qName + "' started in line " + lineNo + ")");
+         return new StringEmitterFrame();
       }
 
 
@@ -108,15 +105,16 @@ public class CommentFactory extends FactoryBase
          if (select == null) {
             // we have contents to be processed
             super.process(context);
+            StringEmitterFrame frame = (StringEmitterFrame)getFrame(context);
             // check for nesting of this stx:comment instructions
-            if (context.emitter.isEmitterActive(strEmitter)) {
+            if (context.emitter.isEmitterActive(frame.strEmitter)) {
                context.errorHandler.error(
       	          "Can't create nested comment here",
                   publicId, systemId, lineNo, colNo);
                return PR_CONTINUE; // if the errorHandler returns
             }
-            buffer.setLength(0);
-            context.pushEmitter(strEmitter);
+            frame.buffer.setLength(0);
+            context.pushEmitter(frame.strEmitter);
          }
          else {
             String comment = select.evaluate(context, this).getStringValue();
@@ -145,7 +143,7 @@ public class CommentFactory extends FactoryBase
       {
          context.popEmitter();
 
-         emitComment(buffer, context);
+         emitComment(((StringEmitterFrame)getFrame(context)).buffer, context);
 
          // It would be sensible to clear the buffer here,
          // but setLength(0) doesn't really free any memory ...
@@ -189,15 +187,5 @@ public class CommentFactory extends FactoryBase
                                  0, comment.length(), this);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-      }
-
    }
 }
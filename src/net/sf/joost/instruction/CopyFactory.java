@@ -30,7 +30,6 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.apache.commons.logging.Log;
@@ -48,6 +47,8 @@ import org.xml.sax.helpers.AttributesImpl;
 
 final public class CopyFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element. */
    private HashSet attrNames;
 
@@ -87,6 +88,8 @@ final public class CopyFactory extends FactoryBase
    /** Represents an instance of the <code>copy</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       /** the pattern in the <code>attributes</code> attribute,
           <code>null</code> if this attribute is missing */
       private Tree attPattern;
@@ -134,7 +137,7 @@ final public class CopyFactory extends FactoryBase
          switch(event.type) {
          case SAXEvent.ROOT:
             super.process(context);
-            next = contents;
+            context.jumpTo(contents);
             break;
          case SAXEvent.ELEMENT: {
             super.process(context);
@@ -161,35 +164,35 @@ final public class CopyFactory extends FactoryBase
                   context.ancestorStack.pop();
                }
             }
-            next = contents;
+            context.jumpTo(contents);
             break;
          }
          case SAXEvent.TEXT:
-            context.emitter.characters(event.value.toCharArray(),
-                                       0, event.value.length(), this);
-            next = successor;
+            context.emitter.characters(event.getChars(),
+                                       0, event.getLength(), this);
+            context.jumpTo(successor);
             break;
          case SAXEvent.CDATA:
             context.emitter.startCDATA(this);
-            context.emitter.characters(event.value.toCharArray(),
-                                       0, event.value.length(), this);
+            context.emitter.characters(event.getChars(),
+                                       0, event.getLength(), this);
             context.emitter.endCDATA();
-            next = successor;
+            context.jumpTo(successor);
             break;
          case SAXEvent.PI:
             context.emitter.processingInstruction(event.qName, event.value,
                                                   this);
-            next = successor;
+            context.jumpTo(successor);
             break;
          case SAXEvent.COMMENT:
             context.emitter.comment(event.value.toCharArray(),
                                     0, event.value.length(), this);
-            next = successor;
+            context.jumpTo(successor);
             break;
          case SAXEvent.ATTRIBUTE:
             context.emitter.addAttribute(event.uri, event.qName, event.lName,
                                          event.value, this);
-            next = successor;
+            context.jumpTo(successor);
             break;
          default:
             if (log != null)
@@ -213,18 +216,5 @@ final public class CopyFactory extends FactoryBase
                                        this);
          return super.processEnd(context);
       }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (contents != null)
-            theCopy.contents = contents.deepCopy(copies);
-         if (successor != null)
-            theCopy.successor = successor.deepCopy(copies);
-         if (attPattern != null)
-            theCopy.attPattern = attPattern.deepCopy(copies);
-      }
    }
 }
@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -45,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 public class DoctypeFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -80,6 +81,8 @@ public class DoctypeFactory extends FactoryBase
    /** Represents an instance of the <code>doctype</code> element. */
    public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree nameAVT, publicAVT, systemAVT;
 
       public Instance(String qName, NodeBase parent, ParseContext context,
@@ -109,18 +112,5 @@ public class DoctypeFactory extends FactoryBase
          return PR_CONTINUE;
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (nameAVT != null)
-            theCopy.nameAVT = nameAVT.deepCopy(copies);
-         if (publicAVT != null)
-            theCopy.publicAVT = publicAVT.deepCopy(copies);
-         if (systemAVT != null)
-            theCopy.systemAVT = systemAVT.deepCopy(copies);
-      }
-
    }
 }
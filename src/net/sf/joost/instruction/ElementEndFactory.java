@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 
@@ -46,6 +45,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ElementEndFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** Allowed attributes for this element. */
    private HashSet attrNames;
 
@@ -81,6 +82,8 @@ final public class ElementEndFactory extends FactoryBase
    /** Represents an instance of the <code>end-element</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree name, namespace;
       private Hashtable nsSet;
 
@@ -146,16 +149,5 @@ final public class ElementEndFactory extends FactoryBase
          return PR_CONTINUE;
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (name != null)
-            theCopy.name = name.deepCopy(copies);
-         if (namespace != null)
-            theCopy.namespace = namespace.deepCopy(copies);
-      }
-
    }
 }
@@ -28,9 +28,9 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -47,6 +47,8 @@ import org.xml.sax.helpers.AttributesImpl;
 
 final public class ElementFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -80,6 +82,8 @@ final public class ElementFactory extends FactoryBase
    /** Represents an instance of the <code>element</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree name, namespace;
       private Hashtable nsSet;
 
@@ -144,6 +148,7 @@ final public class ElementFactory extends FactoryBase
 
          context.emitter.startElement(elUri, elLocal, elName,
                                       new AttributesImpl(), null, this);
+         Stack localFieldStack = getFrame(context).localFieldStack;
          localFieldStack.push(elUri);
          localFieldStack.push(elLocal);
          localFieldStack.push(elName);
@@ -158,22 +163,12 @@ final public class ElementFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
+         Stack localFieldStack = getFrame(context).localFieldStack;
          String elName = (String)localFieldStack.pop();
          String elLocal = (String)localFieldStack.pop();
          String elUri = (String)localFieldStack.pop();
          context.emitter.endElement(elUri, elLocal, elName, nodeEnd);
          return super.processEnd(context);
       }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (name != null)
-            theCopy.name = name.deepCopy(copies);
-         if (namespace != null)
-            theCopy.namespace = namespace.deepCopy(copies);
-      }
    }
 }
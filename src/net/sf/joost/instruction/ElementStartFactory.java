@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 
@@ -47,6 +46,8 @@ import org.xml.sax.helpers.AttributesImpl;
 
 final public class ElementStartFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -80,6 +81,8 @@ final public class ElementStartFactory extends FactoryBase
    /** Represents an instance of the <code>start-element</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree name, namespace;
       private Hashtable nsSet;
 
@@ -144,16 +147,5 @@ final public class ElementStartFactory extends FactoryBase
 
          return PR_CONTINUE;
       }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (name != null)
-            theCopy.name = name.deepCopy(copies);
-         if (namespace != null)
-            theCopy.namespace = namespace.deepCopy(copies);
-      }
    }
 }
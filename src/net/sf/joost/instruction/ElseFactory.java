@@ -40,6 +40,8 @@ import org.xml.sax.SAXParseException;
 
 public class ElseFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return <code>"else"</code> */
    public String getName()
    {
@@ -66,6 +68,8 @@ public class ElseFactory extends FactoryBase
     */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       public Instance(String qName, NodeBase parent, ParseContext context)
       {
          super(qName, parent, context, true);
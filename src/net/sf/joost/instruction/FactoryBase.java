@@ -24,6 +24,7 @@
 
 package net.sf.joost.instruction;
 
+import java.io.Serializable;
 import java.io.StringReader;
 import java.util.HashSet;
 
@@ -50,8 +51,10 @@ import org.xml.sax.SAXParseException;
  * @author Oliver Becker
  */
 
-public abstract class FactoryBase implements Constants
+public abstract class FactoryBase implements Constants, Serializable
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return the local name of this STX element */
    public abstract String getName();
 
@@ -255,6 +258,9 @@ public abstract class FactoryBase implements Constants
                e.getMessage() + "Found '" + lexer.last.value + "'.",
                context.locator);
       }
+      // node tests in patterns determine the context position
+      pattern.requestPositions(context.getPositionIndex());
+      pattern.requestDescendantSlots(context.getDescendantIndex());
       return pattern;
    }
 
@@ -29,10 +29,8 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Stack;
-import java.util.Vector;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -48,6 +46,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ForEachFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -83,40 +83,57 @@ final public class ForEachFactory extends FactoryBase
    /** Represents an instance of the <code>for-each-item</code> element. */
    final public class Instance extends NodeBase
    {
-      private String varName, expName;
+      private static final long serialVersionUID = 1L;
+
       private Tree select;
 
-      /**
-       * Stack that stores the remaining sequence of the select attribute
-       * in case this for-each-item was interrupted via
-       * <code>stx:process-<em>xxx</em></code>
-       */
-      private Stack resultStack = new Stack();
+      /** The slot of the declared variable */
+      private int slot;
 
       private AbstractInstruction contents, successor;
 
 
-      /**
-       * Determines whether this instruction is encountered the first time
-       * (<code>false</code>; i.e. the <code>select</code> attribute needs
-       * to be evaluated) or during the processing (<code>true</code>;
-       * i.e. this is part of the loop)
-       */
-      private boolean continued = false;
+      /** The run-time state of a <code>stx:for-each-item</code> */
+      private final class ForEachFrame extends Frame
+      {
+         /**
+          * Stack that stores the remaining sequence of the select attribute
+          * in case this for-each-item was interrupted via
+          * <code>stx:process-<em>xxx</em></code>
+          */
+         Stack resultStack = new Stack();
+
+         /**
+          * Determines whether this instruction is encountered the first
+          * time (<code>false</code>; i.e. the <code>select</code> attribute
+          * needs to be evaluated) or during the processing
+          * (<code>true</code>; i.e. this is part of the loop)
+          */
+         boolean continued = false;
+      }
 
 
       // Constructor
       protected Instance(final String qName, NodeBase parent,
                          ParseContext context,
                          String varName, String expName, Tree select)
+         throws SAXParseException
       {
          super(qName, parent, context, true);
-         this.varName = varName;
-         this.expName = expName;
          this.select = select;
 
-         // this instruction declares a local variable
-         scopedVariables = new Vector();
+         // this instruction declares a local variable for its contents
+         slot = context.declareLocalVariable(expName, this);
+         if (slot == -1)
+            throw new SAXParseException(
+               "Variable '" + varName + "' already declared",
+               publicId, systemId, lineNo, colNo);
+      }
+
+
+      protected Frame createFrame()
+      {
+         return new ForEachFrame();
       }
 
 
@@ -136,73 +153,49 @@ final public class ForEachFactory extends FactoryBase
 
 
       /**
-       * If {@link #continued} is <code>true</code> then take the next
-       * item from a previously computed sequence, otherwise evaluate
+       * If {@link ForEachFrame#continued} is <code>true</code> then take the
+       * next item from a previously computed sequence, otherwise evaluate
        * the <code>select</code> attribute and take the first item.
        */
       public short process(Context context)
          throws SAXException
       {
+         ForEachFrame frame = (ForEachFrame) getFrame(context);
          Value selectResult;
-         if (continued) {
-            selectResult = (Value)resultStack.pop();
-            continued = false;
+         if (frame.continued) {
+            selectResult = (Value)frame.resultStack.pop();
+            frame.continued = false;
          }
-         else {
-            // perform this check only once per for-each-item
-            if (context.localVars.get(expName) != null) {
-               context.errorHandler.fatalError(
-                  "Variable '" + varName + "' already declared",
-                  publicId, systemId, lineNo, colNo);
-               return PR_ERROR;// if the errorHandler returns
-            }
-
+         else
             selectResult = select.evaluate(context, this);
-         }
 
          if (selectResult == null || selectResult.type == Value.EMPTY) {
             // for-each-item finished (empty sequence left)
-            next = successor;
+            context.jumpTo(successor);
             return PR_CONTINUE;
          }
          else {
-            super.process(context); // enter new scope for local variables
-            resultStack.push(selectResult.next);
-            selectResult.next = null;
+            super.process(context);
+            // the rest of the sequence shares the items of selectResult
+            frame.resultStack.push(selectResult.getNext());
 
-            context.localVars.put(expName, selectResult);
-            declareVariable(expName);
+            context.localVars[slot] = selectResult.itemAt(0);
 
-            next = contents;
-            return PR_CONTINUE;
+            return PR_CONTINUE; // continue with contents
          }
       }
 
 
       /**
-       * Sets {@link #continued} to <code>true</code> to signal the loop.
+       * Sets {@link ForEachFrame#continued} to <code>true</code> to signal
+       * the loop.
        */
       public short processEnd(Context context)
          throws SAXException
       {
-         continued = true;
+         ((ForEachFrame) getFrame(context)).continued = true;
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (contents != null)
-            theCopy.contents = contents.deepCopy(copies);
-         if (successor != null)
-            theCopy.successor = successor.deepCopy(copies);
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-         theCopy.continued = false;
-         theCopy.resultStack = new Stack();
-      }
-
    }
 }
@@ -30,9 +30,7 @@ import net.sf.joost.stx.Processor;
 
 import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Stack;
 import java.util.Vector;
 
 import org.xml.sax.SAXException;
@@ -51,6 +49,8 @@ import org.xml.sax.SAXParseException;
 
 abstract public class GroupBase extends NodeBase
 {
+   private static final long serialVersionUID = 1L;
+
    // attributes from stx:transform / stx:group
 
    /** The rule how to process unmatched events
@@ -94,6 +94,12 @@ abstract public class GroupBase extends NodeBase
    /** The templates from {@link #containedGroupTemplates} as array */
    public TemplateFactory.Instance[] groupTemplates;
 
+   /** Dispatch index for {@link #visibleTemplates} */
+   public TemplateIndex visibleTemplateIndex;
+
+   /** Dispatch index for {@link #groupTemplates} */
+   public TemplateIndex groupTemplateIndex;
+
    /**
     * Table of all contained public and global procedures in this group
     * Used only temporarily during compiling the transformation sheet.
@@ -128,6 +134,12 @@ abstract public class GroupBase extends NodeBase
    /** Group variables  */
    private VariableBase[] groupVariables;
 
+   /**
+    * The slots of the group variables, key = expanded name,
+    * value = slot as Integer. This table is read-only after parsing.
+    */
+   private Hashtable variableSlots = new Hashtable();
+
    /** Expanded name of this group */
    public String groupName;
 
@@ -159,6 +171,22 @@ abstract public class GroupBase extends NodeBase
    }
 
 
+   /** The run-time state of a group */
+   private static final class GroupFrame extends Frame
+   {
+      /** The group variables of the current recursion level, indexed by
+          slot; the variables of the outer levels are stored in
+          {@link #localFieldStack} */
+      Object[] variables;
+   }
+
+
+   protected Frame createFrame()
+   {
+      return new GroupFrame();
+   }
+
+
    public void insert(NodeBase node)
       throws SAXParseException
    {
@@ -167,9 +195,48 @@ abstract public class GroupBase extends NodeBase
    }
 
 
+   /**
+    * Assigns a slot to a group variable of this group.
+    * @param expName the expanded name of the variable
+    * @return the slot, or <code>-1</code> if there's already a group
+    *         variable with this name
+    */
+   int declareVariable(String expName)
+   {
+      if (variableSlots.containsKey(expName))
+         return -1;
+      int slot = variableSlots.size();
+      variableSlots.put(expName, new Integer(slot));
+      return slot;
+   }
+
+
+   /**
+    * @return the slot of the group variable <code>expName</code> in
+    *         this group, or <code>-1</code> if this group doesn't declare
+    *         such a variable
+    */
+   public int getVariableSlot(String expName)
+   {
+      Integer slot = (Integer)variableSlots.get(expName);
+      return slot != null ? slot.intValue() : -1;
+   }
+
+
+   /**
+    * @return the group variables of the current recursion level,
+    *         indexed by slot
+    */
+   public Object[] getVariables(Context context)
+   {
+      return ((GroupFrame)getFrame(context)).variables;
+   }
+
+
    /**
     * Determines the visible templates for this group in pass 0 and the
-    * array of group templates in pass 1.
+    * array of group templates as well as the template dispatch indexes
+    * in pass 1.
     * @exception SAXException if conflicts were encountered
     */
    public boolean compile(int pass, ParseContext context)
@@ -182,6 +249,7 @@ abstract public class GroupBase extends NodeBase
          containedGroupTemplates.toArray(groupTemplates);
          Arrays.sort(groupTemplates);
          containedGroupTemplates = null; // for garbage collection
+         createTemplateIndexes();
          return false; // done
       }
 
@@ -324,6 +392,17 @@ abstract public class GroupBase extends NodeBase
    }
 
 
+   /**
+    * Creates the dispatch indexes for {@link #visibleTemplates} and
+    * {@link #groupTemplates}.
+    */
+   private void createTemplateIndexes()
+   {
+      visibleTemplateIndex = new TemplateIndex(visibleTemplates);
+      groupTemplateIndex = new TemplateIndex(groupTemplates);
+   }
+
+
    /**
     * Initializes recursively the group variables of this group and
     * all contained sub-groups (breadth first).
@@ -344,27 +423,34 @@ abstract public class GroupBase extends NodeBase
    public void enterRecursionLevel(Context context)
       throws SAXException
    {
+      GroupFrame frame = (GroupFrame)getFrame(context);
       // shadowed variables, needed if keep-value="yes"
-      Hashtable shadowed = null;
+      Object[] shadowed = null;
       if (context.ancestorStack.isEmpty())
-         context.groupVars.put(this, new Stack());
+         frame.localFieldStack.clear();
       else
-         shadowed = (Hashtable)((Stack)context.groupVars.get(this)).peek();
+         shadowed = frame.variables;
+      frame.localFieldStack.push(shadowed);
 
       // new variable instances
-      Hashtable varTable = new Hashtable();
-      ((Stack)context.groupVars.get(this)).push(varTable);
+      Object[] vars = frame.variables = new Object[variableSlots.size()];
 
       context.currentGroup = this;
-      for (int i=0; i<groupVariables.length; i++)
-         if (groupVariables[i].keepValue && shadowed !=null)
-            varTable.put(groupVariables[i].expName,
-                         shadowed.get(groupVariables[i].expName));
+      Object[] localVars = context.localVars;
+      for (int i=0; i<groupVariables.length; i++) {
+         VariableBase var = groupVariables[i];
+         if (var.keepValue && shadowed != null)
+            vars[var.slot] = shadowed[var.slot];
          else {
-            for (AbstractInstruction inst = groupVariables[i];
-                 inst != null; inst = inst.next)
+            context.localVars = var.localVarCount == 0
+               ? TemplateBase.NO_LOCAL_VARS
+               : new Object[var.localVarCount];
+            for (AbstractInstruction inst = var;
+                 inst != null; inst = inst.getNext(context))
                inst.process(context);
          }
+      }
+      context.localVars = localVars;
    }
 
 
@@ -374,7 +460,8 @@ abstract public class GroupBase extends NodeBase
     */
    public void exitRecursionLevel(Context context)
    {
-      ((Stack)context.groupVars.get(this)).pop();
+      GroupFrame frame = (GroupFrame)getFrame(context);
+      frame.variables = (Object[])frame.localFieldStack.pop();
    }
 
 
@@ -458,53 +545,4 @@ abstract public class GroupBase extends NodeBase
    {
       return visibleTemplates;
    }
-
-
-   protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-   {
-      super.onDeepCopy(copy, copies);
-      GroupBase theCopy = (GroupBase) copy;
-      if (containedGroups != null) {
-         theCopy.containedGroups = (GroupBase[]) copies.get(containedGroups);
-         if (theCopy.containedGroups == null) {
-            theCopy.containedGroups = new GroupBase[containedGroups.length];
-            for (int i=0; i<containedGroups.length; i++) {
-               theCopy.containedGroups[i] =
-                     (GroupBase) containedGroups[i].deepCopy(copies);
-            }
-         }
-      }
-      if (groupVariables != null) {
-         theCopy.groupVariables = (VariableBase[]) copies.get(groupVariables);
-         if (theCopy.groupVariables == null) {
-            theCopy.groupVariables = new VariableBase[groupVariables.length];
-            for (int i=0; i<groupVariables.length; i++) {
-               theCopy.groupVariables[i] =
-                     (VariableBase) groupVariables[i].deepCopy(copies);
-            }
-         }
-      }
-      if (groupTemplates != null) {
-         theCopy.groupTemplates = deepTemplateArrayCopy(groupTemplates, copies);
-      }
-      if (visibleTemplates != null) {
-         theCopy.visibleTemplates =
-            deepTemplateArrayCopy(visibleTemplates, copies);
-      }
-      if (parentGroup != null) {
-         theCopy.parentGroup = (GroupBase) parentGroup.deepCopy(copies);
-      }
-      if (namedGroups != null) {
-         theCopy.namedGroups = deepHashtableCopy(namedGroups, copies);
-      }
-      if (visibleProcedures != null) {
-         theCopy.visibleProcedures = deepHashtableCopy(visibleProcedures, copies);
-      }
-      if (globalProcedures != null) {
-         theCopy.globalProcedures = deepHashtableCopy(globalProcedures, copies);
-      }
-      if (groupProcedures != null) {
-         theCopy.groupProcedures = deepHashtableCopy(groupProcedures, copies);
-      }
-   }
 }
@@ -43,6 +43,8 @@ import org.xml.sax.SAXParseException;
 
 final public class GroupFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed values for the <code>pass-through</code> attribute */
    private static final String[] PASS_THROUGH_VALUES =
    { "none", "text", "all", "inherit" };
@@ -157,6 +159,8 @@ final public class GroupFactory extends FactoryBase
    /** Represents an instance of the <code>group</code> element. */
    final public class Instance extends GroupBase
    {
+      private static final long serialVersionUID = 1L;
+
       // Constructor
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          String groupName, byte passThrough,
@@ -179,6 +183,9 @@ final public class GroupFactory extends FactoryBase
              node instanceof GroupBase ||    // group, transform (= include)
              node instanceof VariableBase)   // variable, param, buffer
             super.insert(node);
+         else if (node instanceof KeyFactory.Instance) {
+            // nothing to do in this case
+         }
          else
             throw new SAXParseException(
               "'" + node.qName + "' not allowed as child of '" + qName + "'", 
@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -45,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 final public class IfFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -75,6 +76,8 @@ final public class IfFactory extends FactoryBase
    /** Represents an instance of the <code>if</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       /** the parsed <code>select</code> expression */
       private Tree test;
 
@@ -114,36 +117,23 @@ final public class IfFactory extends FactoryBase
 
       /**
        * Evaluates the expression given in the test attribute and
-       * change the value of the <code>next</code> instruction.
+       * determine the next instruction.
        */
       public short process(Context context)
          throws SAXException
       {
          if (test.evaluate(context, this).getBooleanValue()) {
             super.process(context);
-            next = trueNext;
+            context.jumpTo(trueNext);
          }
          else {
             // skip if instruction
-            next = falseNext;
+            context.jumpTo(falseNext);
          }
          return PR_CONTINUE;
       }
 
 
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (test != null)
-            theCopy.test = test.deepCopy(copies);
-         if (trueNext != null)
-            theCopy.trueNext = trueNext.deepCopy(copies);
-         if (falseNext != null)
-            theCopy.falseNext = falseNext.deepCopy(copies);
-      }
-
-
       //
       // for debugging
       //
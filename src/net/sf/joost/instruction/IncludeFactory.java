@@ -53,6 +53,8 @@ import org.xml.sax.XMLReader;
 
 final public class IncludeFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -101,11 +103,13 @@ final public class IncludeFactory extends FactoryBase
             SAXSource saxSource = TrAXHelper.getSAXSource(source, null);
             reader = saxSource.getXMLReader();
             iSource = saxSource.getInputSource();
+            pContext.addIncludedSheet(null);
          }
          else {
             iSource = new InputSource(
                new URL(new URL(pContext.locator.getSystemId()), hrefAtt)
                   .toExternalForm());
+            pContext.addIncludedSheet(iSource.getSystemId());
          }
          if (reader == null)
             reader = Processor.createXMLReader();
@@ -0,0 +1,277 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.instruction;
+
+import java.util.HashSet;
+import java.util.Hashtable;
+
+import net.sf.joost.OptionalLog;
+import net.sf.joost.emitter.BufferContents;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Emitter;
+import net.sf.joost.stx.KeyIndex;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.PositionIndex;
+import net.sf.joost.stx.SortBuffer;
+import net.sf.joost.stx.Value;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Factory for <code>key</code> elements, which are represented by the
+ * inner Instance class. <code>key</code> is an extension element that
+ * belongs to the Joost namespace {@link net.sf.joost.Constants#JOOST_EXT_NS}.
+ * It declares a hash index over the elements of a group buffer, which
+ * will be queried by the extension function <code>joost:key()</code>
+ * (see {@link net.sf.joost.stx.function.Key}).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+
+final public class KeyFactory extends FactoryBase
+{
+   private static final long serialVersionUID = 1L;
+
+   private static Log log = OptionalLog.getLog(KeyFactory.class);
+
+   /** allowed attributes for this element */
+   private HashSet attrNames;
+
+   // Constructor
+   public KeyFactory()
+   {
+      attrNames = new HashSet();
+      attrNames.add("name");
+      attrNames.add("buffer");
+      attrNames.add("match");
+      attrNames.add("use");
+   }
+
+   /** @return <code>"key"</code> */
+   public String getName()
+   {
+      return "key";
+   }
+
+   public NodeBase createNode(NodeBase parent, String qName, Attributes attrs,
+                              ParseContext context) throws SAXParseException
+   {
+      // check parent
+      if (!(parent instanceof GroupBase))
+         throw new SAXParseException("'" + qName + "' not allowed as child " +
+                                     "of '" + (parent != null ? parent.qName
+                                                              : "") + "'",
+                                     context.locator);
+
+      String nameAtt = getRequiredAttribute(qName, attrs, "name", context);
+      String expName = getExpandedName(nameAtt, context);
+
+      String bufferAtt = getRequiredAttribute(qName, attrs, "buffer",
+                                              context);
+      // buffers are special variables with an "@" prefix
+      String bufName = "@" + getExpandedName(bufferAtt, context);
+
+      Tree matchPattern = parseRequiredPattern(qName, attrs, "match",
+                                               context);
+      Tree useExpr = parseRequiredExpr(qName, attrs, "use", context);
+
+      checkAttributes(qName, attrs, attrNames, context);
+
+      Hashtable keys = context.getKeys();
+      NodeBase other = (NodeBase)keys.get(expName);
+      if (other != null)
+         throw new SAXParseException("Key '" + nameAtt +
+                                     "' already defined in line " +
+                                     other.lineNo +
+                                     (other.systemId != null
+                                         ? (" of " + other.systemId) : ""),
+                                     context.locator);
+
+      Instance key = new Instance(qName, parent, context, nameAtt,
+                                  bufferAtt, bufName, matchPattern, useExpr);
+      keys.put(expName, key);
+      return key;
+   }
+
+   /* -------------------------------------------------------------------- */
+
+   /** Represents an instance of the <code>key</code> element. */
+   final public class Instance extends NodeBase
+   {
+      private static final long serialVersionUID = 1L;
+
+      private String keyName, bufferName, bufExpName;
+
+      /** the pattern that selects the indexed elements */
+      private Tree match;
+
+      /** the expression that computes the keys of an element */
+      private Tree use;
+
+      /** the position counter slots of the sheet, needed by
+          {@link #match} */
+      private PositionIndex positionIndex;
+
+      /** the group that declares the buffer, determined in
+          {@link #compile} */
+      private GroupBase bufferGroup;
+
+      /** the slot of the buffer in the variables of {@link #bufferGroup} */
+      private int bufferSlot;
+
+
+      /** The run-time state of a <code>joost:key</code> */
+      private final class KeyFrame extends Frame
+      {
+         /** the index for the current contents of the buffer,
+             <code>null</code> if not built yet */
+         KeyIndex index;
+      }
+
+
+      // Constructor
+      protected Instance(String qName, NodeBase parent, ParseContext context,
+                         String keyName, String bufferName,
+                         String bufExpName, Tree match, Tree use)
+      {
+         super(qName, parent, context, false);
+         this.keyName = keyName;
+         this.bufferName = bufferName;
+         this.bufExpName = bufExpName;
+         this.match = match;
+         this.use = use;
+         positionIndex = context.getPositionIndex();
+      }
+
+
+      protected Frame createFrame()
+      {
+         return new KeyFrame();
+      }
+
+
+      // for debugging
+      public String toString()
+      {
+         return "key " + keyName + " (" + lineNo + ") ";
+      }
+
+
+      /**
+       * Determines the group of the buffer, after the whole sheet has
+       * been parsed (the buffer may be declared after this key)
+       */
+      public boolean compile(int pass, ParseContext context)
+         throws SAXException
+      {
+         if (pass == 0)
+            return true;
+
+         for (GroupBase group = (GroupBase)parent; group != null;
+              group = group.parentGroup) {
+            int slot = group.getVariableSlot(bufExpName);
+            if (slot != -1) {
+               bufferGroup = group;
+               bufferSlot = slot;
+               return false;
+            }
+         }
+         throw new SAXParseException("Key '" + keyName +
+                                     "' refers to an undeclared group " +
+                                     "buffer '" + bufferName + "'",
+                                     publicId, systemId, lineNo, colNo);
+      }
+
+
+      /**
+       * Looks up the elements of the buffer for one or more keys. The index
+       * will be built on the first call after the buffer has been filled.
+       * @param context the current context
+       * @param keys the key values
+       * @return the matching elements in document order
+       */
+      public Value lookup(Context context, Value keys)
+         throws SAXException
+      {
+         Emitter buffer =
+            (Emitter)bufferGroup.getVariables(context)[bufferSlot];
+         if (buffer == null) {
+            context.errorHandler.error(
+               "Can't use the key '" + keyName + "' before its buffer '" +
+               bufferName + "' has been declared",
+               publicId, systemId, lineNo, colNo);
+            // if the error handler returns
+            return Value.VAL_EMPTY;
+         }
+         if (buffer.contH instanceof SortBuffer)
+            ((SortBuffer)buffer.contH).sort();
+         BufferContents contents =
+            ((BufferEmitter)buffer.contH).getContents();
+
+         KeyFrame frame = (KeyFrame)getFrame(context);
+         if (frame.index == null || frame.index.getContents() != contents) {
+            // the buffer has been filled (again)
+            NodeBase instruction = context.currentInstruction;
+            GroupBase group = context.currentGroup;
+            context.currentInstruction = this;
+            context.currentGroup = (GroupBase)parent;
+            try {
+               frame.index = new KeyIndex(contents, match, use,
+                                          positionIndex, context);
+            }
+            finally {
+               context.currentInstruction = instruction;
+               context.currentGroup = group;
+            }
+            if (log != null && log.isDebugEnabled())
+               log.debug("Key '" + keyName + "': indexed " +
+                         frame.index.getNodeCount() + " elements with " +
+                         frame.index.getKeyCount() + " keys, about " +
+                         frame.index.getSize() + " bytes");
+         }
+         return frame.index.get(keys);
+      }
+
+
+      public boolean processable()
+      {
+         return false;
+      }
+
+      // Mustn't be called
+      public short process(Context c)
+         throws SAXException
+      {
+         throw new SAXParseException("process called for " + qName,
+                                     publicId, systemId, lineNo, colNo);
+      }
+   }
+}
@@ -25,15 +25,21 @@
 package net.sf.joost.instruction;
 
 import net.sf.joost.Constants;
+import net.sf.joost.emitter.SerializedFragment;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamespaceScope;
 import net.sf.joost.stx.ParseContext;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.AttributesImpl;
@@ -47,8 +53,10 @@ import org.xml.sax.helpers.NamespaceSupport;
  * @author Oliver Becker
 */
 
-final public class LitElementFactory
+final public class LitElementFactory implements Serializable
 {
+   private static final long serialVersionUID = 1L;
+
    public NodeBase createNode(NodeBase parent, String uri, String lName,
                               String qName, Attributes attrs,
                               ParseContext context, Hashtable newNamespaces)
@@ -84,13 +92,19 @@ final public class LitElementFactory
 
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String uri;
       private String lName;
-      private AttributesImpl attrs;
+      private transient AttributesImpl attrs;
       private Tree[] avtList;
       // the namespaces that possibly need a declaration in the output
       private Hashtable namespaces;
       private Hashtable namespaceAliases;
+      // the final namespaces, created from #namespaces after compilation
+      private NamespaceScope namespaceScope;
+      // the contents of this element if they are constant, otherwise null
+      private SerializedFragment fragment;
 
       protected Instance(String uri, String lName, String qName,
                          Attributes attrs, Tree[] avtList,
@@ -129,6 +143,50 @@ final public class LitElementFactory
       }
 
 
+      /**
+       * Writes the attributes, which are not serializable as an
+       * <code>AttributesImpl</code> object.
+       */
+      private void writeObject(ObjectOutputStream out)
+         throws IOException
+      {
+         out.defaultWriteObject();
+         int length = attrs.getLength();
+         out.writeInt(length);
+         for (int i=0; i<length; i++) {
+            out.writeUTF(attrs.getURI(i));
+            out.writeUTF(attrs.getLocalName(i));
+            out.writeUTF(attrs.getQName(i));
+            out.writeUTF(attrs.getType(i));
+            out.writeObject(attrs.getValue(i));
+         }
+      }
+
+      private void readObject(ObjectInputStream in)
+         throws IOException, ClassNotFoundException
+      {
+         in.defaultReadObject();
+         attrs = new AttributesImpl();
+         for (int i=in.readInt(); i>0; i--)
+            attrs.addAttribute(in.readUTF(), in.readUTF(), in.readUTF(),
+                               in.readUTF(), (String)in.readObject());
+      }
+
+
+      /** The run-time state of a literal result element */
+      private final class LitElementFrame extends Frame
+      {
+         /** A copy of the attributes that receives the AVT values */
+         AttributesImpl attrs = new AttributesImpl(Instance.this.attrs);
+      }
+
+
+      protected Frame createFrame()
+      {
+         return new LitElementFrame();
+      }
+
+
       /**
        * Determine constant attribute values and apply all declared namespaces
        * aliases (<code>stx:namespace-alias</code>)
@@ -156,9 +214,12 @@ final public class LitElementFactory
             return true;
          }
 
-         if (namespaceAliases.size() == 0)
+         if (namespaceAliases.size() == 0) {
             // no aliases declared
+            namespaceScope = NamespaceScope.fromTable(namespaces);
+            fragment = createFragment();
             return false;
+         }
 
          // Change namespace URI of this element
          String toNS = (String)namespaceAliases.get(uri);
@@ -215,10 +276,90 @@ final public class LitElementFactory
             }
          }
 
+         namespaceScope = NamespaceScope.fromTable(namespaces);
+         fragment = createFragment();
          return false;
       }
 
 
+      /**
+       * Creates a {@link SerializedFragment} for the contents of this
+       * element if these contents consist of literal elements with constant
+       * attributes and text only, and if none of the contained elements
+       * needs a namespace declaration of its own. The children have been
+       * compiled already, since this is called in the last pass.
+       * @return the fragment or <code>null</code>
+       */
+      private SerializedFragment createFragment()
+      {
+         if (next == nodeEnd)
+            return null; // empty element
+
+         // the namespaces declared by this element
+         Hashtable known = new Hashtable();
+         if (namespaceScope != null)
+            for (int i=0; i<namespaceScope.size(); i++)
+               known.put(namespaceScope.getPrefix(i),
+                         namespaceScope.getURI(i));
+         known.put(getPrefix(qName), uri);
+
+         for (AbstractInstruction inst = next; inst != nodeEnd;
+              inst = inst.next) {
+            if (inst instanceof TextNode)
+               continue;
+            if (inst instanceof NodeBase.End) {
+               // the start tag has been checked already
+               if (!(inst.getNode() instanceof Instance))
+                  return null;
+               continue;
+            }
+            if (!(inst instanceof Instance))
+               return null;
+            Instance child = (Instance)inst;
+            if (child.avtList.length != 0 ||
+                !child.uri.equals(known.get(getPrefix(child.qName))))
+               return null;
+            NamespaceScope scope = child.namespaceScope;
+            if (scope != null)
+               for (int i=0; i<scope.size(); i++)
+                  if (!scope.getURI(i).equals(known.get(scope.getPrefix(i))))
+                     return null;
+         }
+
+         return new SerializedFragment() {
+            protected void emit(ContentHandler handler)
+               throws SAXException
+            {
+               for (AbstractInstruction inst = next; inst != nodeEnd;
+                    inst = inst.next) {
+                  if (inst instanceof TextNode) {
+                     String text = ((TextNode)inst).getContents();
+                     handler.characters(text.toCharArray(), 0,
+                                        text.length());
+                  }
+                  else if (inst instanceof Instance) {
+                     Instance child = (Instance)inst;
+                     handler.startElement(child.uri, child.lName,
+                                          child.qName, child.attrs);
+                  }
+                  else {
+                     Instance child = (Instance)inst.getNode();
+                     handler.endElement(child.uri, child.lName, child.qName);
+                  }
+               }
+            }
+         };
+      }
+
+
+      /** @return the prefix of <code>qName</code>, "" if unprefixed */
+      private String getPrefix(String qName)
+      {
+         int colon = qName.indexOf(':');
+         return colon != -1 ? qName.substring(0, colon) : "";
+      }
+
+
       /**
        * Emits the start tag of this literal element to the emitter
        */
@@ -226,16 +367,21 @@ final public class LitElementFactory
          throws SAXException
       {
          super.process(context);
-         // attrs is not cloned at the moment (see onDeepCopy(..)), so a
-         // synchronization is necessary
-         synchronized (attrs) {
+         AttributesImpl attrs = this.attrs;
+         if (avtList.length != 0) {
+            // attrs is shared and mustn't be modified, use the copy from
+            // the frame (the emitter copies the attributes in turn)
+            attrs = ((LitElementFrame)getFrame(context)).attrs;
             for (int i=0; i<avtList.length; i++)
                if (avtList[i] != null)
                   attrs.setValue(i, avtList[i].evaluate(context, this)
                                               .getString());
-            context.emitter.startElement(uri, lName, qName, attrs, namespaces,
-                                         this);
          }
+         context.emitter.startElement(uri, lName, qName, attrs,
+                                      namespaceScope, this);
+         if (fragment != null && context.emitter.fragment(fragment, this))
+            // the contents have been written, continue with the end tag
+            context.jumpTo(nodeEnd);
          return PR_CONTINUE;
       }
 
@@ -260,17 +406,6 @@ final public class LitElementFactory
       }
 
 
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.avtList = new Tree[avtList.length];
-         for (int i=0; i<avtList.length; i++)
-            if (avtList[i] != null)
-               theCopy.avtList[i] = avtList[i].deepCopy(copies);
-      }
-
-
       //
       // for debugging
       //
@@ -24,11 +24,13 @@
 
 package net.sf.joost.instruction;
 
+import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegularExpression;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Stack;
 
@@ -47,6 +49,8 @@ import org.xml.sax.SAXParseException;
 
 final public class MatchFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -88,6 +92,8 @@ final public class MatchFactory extends FactoryBase
    /** Represents an instance of the <code>match</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       /**
        * The AVT in the <code>regex</code> attribute; it will be evaluated in
        * the <code>stx:analyze-text</code> parent
@@ -100,6 +106,12 @@ final public class MatchFactory extends FactoryBase
        */
       protected Tree flags;
 
+      /**
+       * The compiled regular expression if both AVTs are constant,
+       * <code>null</code> otherwise
+       */
+      RegularExpression compiledRegex;
+
       /** The parent */
       private AnalyzeTextFactory.Instance analyzeText;
 
@@ -118,6 +130,17 @@ final public class MatchFactory extends FactoryBase
          throws SAXException
       {
          nodeEnd.next = analyzeText.nodeEnd; // back to stx:analyze-text
+
+         if (regex.isConstant() && (flags == null || flags.isConstant())) {
+            try {
+               compiledRegex = new JRegularExpression(
+                  regex.evaluate(null, -1).getString(), true,
+                  flags != null ? flags.evaluate(null, -1).getString() : "");
+            }
+            catch (EvalException e) {
+               // invalid expression, will be reported at run-time
+            }
+         }
          return false;
       }
 
@@ -127,8 +150,8 @@ final public class MatchFactory extends FactoryBase
       {
          super.process(context);
          // store value for the regex-group function
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP))
-                                  .push(analyzeText.capSubstr);
+         ((Stack)context.localVars[analyzeText.regexGroupSlot])
+                  .push(analyzeText.getAnalyzeTextFrame(context).capSubstr);
          return PR_CONTINUE;
       }
 
@@ -136,25 +159,11 @@ final public class MatchFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP)).pop();
+         ((Stack)context.localVars[analyzeText.regexGroupSlot]).pop();
          return super.processEnd(context);
       }
 
 
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (analyzeText != null)
-            theCopy.analyzeText =
-               (AnalyzeTextFactory.Instance) analyzeText.deepCopy(copies);
-         if (flags != null)
-            theCopy.flags = flags.deepCopy(copies);
-         if (regex != null)
-            theCopy.regex = regex.deepCopy(copies);
-      }
-
-
       //
       // for debugging
       //
@@ -33,7 +33,6 @@ import net.sf.joost.stx.ParseContext;
 import net.sf.joost.trax.SourceLocatorImpl;
 
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.xml.transform.TransformerException;
@@ -52,6 +51,8 @@ import org.xml.sax.SAXParseException;
 
 final public class MessageFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -109,13 +110,20 @@ final public class MessageFactory extends FactoryBase
    /** Represents an instance of the <code>message</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree select, terminate;
       private Log log;
       private int level;
 
-      private StringBuffer buffer; // used only when log != null
 
-      private StxEmitter emitter; // initialized on first processing
+      /** The run-time state of a <code>stx:message</code> */
+      private final class MessageFrame extends Frame
+      {
+         StringBuffer buffer; // used only when log != null
+
+         StxEmitter emitter; // initialized on first processing
+      }
 
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
@@ -133,6 +141,12 @@ final public class MessageFactory extends FactoryBase
       }
 
 
+      protected Frame createFrame()
+      {
+         return new MessageFrame();
+      }
+
+
       /**
        * Activate the object {@link Context#messageEmitter} for the contents
        * of this element. If this object is <code>null</code> this method
@@ -143,13 +157,15 @@ final public class MessageFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
+         MessageFrame frame = (MessageFrame)getFrame(context);
+         StxEmitter emitter = frame.emitter;
          if (emitter == null) {
             // create proper StreamEmitter only once
             try {
                if (log != null) {
                   // Create emitter with a StringWriter
                   StringWriter writer = new StringWriter();
-                  buffer = writer.getBuffer();
+                  frame.buffer = writer.getBuffer();
                   StreamEmitter se = StreamEmitter.newEmitter(
                      writer,
                      // Note: encoding parameter is irrelevant here
@@ -168,6 +184,7 @@ final public class MessageFactory extends FactoryBase
                else
                   // use global message emitter
                   emitter = context.messageEmitter;
+               frame.emitter = emitter;
             }
             catch (java.io.IOException ex) {
                context.errorHandler.fatalError(ex.toString(),
@@ -219,6 +236,7 @@ final public class MessageFactory extends FactoryBase
          throws SAXException
       {
          if (log != null) {
+            StringBuffer buffer = ((MessageFrame)getFrame(context)).buffer;
             // include locator info for logging
             StringBuffer sb =
                new StringBuffer(systemId).append(':').append(lineNo)
@@ -252,18 +270,5 @@ final public class MessageFactory extends FactoryBase
                publicId, systemId, lineNo, colNo);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.buffer = null;
-         theCopy.emitter = null;
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-         if (terminate != null)
-            theCopy.terminate = terminate.deepCopy(copies);
-      }
-
    }
 }
@@ -43,6 +43,8 @@ import org.xml.sax.SAXParseException;
 
 final public class NSAliasFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -147,6 +149,8 @@ final public class NSAliasFactory extends FactoryBase
     */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       protected Instance(String qName, NodeBase parent, ParseContext context)
       {
          super(qName, parent, context, false);
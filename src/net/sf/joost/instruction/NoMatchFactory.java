@@ -27,7 +27,6 @@ package net.sf.joost.instruction;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.Stack;
 
 import org.xml.sax.Attributes;
@@ -43,6 +42,8 @@ import org.xml.sax.SAXParseException;
  */
 public class NoMatchFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return <code>"no-match"</code> */
    public String getName()
    {
@@ -67,6 +68,8 @@ public class NoMatchFactory extends FactoryBase
    /** Represents an instance of the <code>no-match</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       /** The parent */
       AnalyzeTextFactory.Instance analyzeText;
 
@@ -81,14 +84,17 @@ public class NoMatchFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
+         AnalyzeTextFactory.Instance.AnalyzeTextFrame atFrame =
+            analyzeText.getAnalyzeTextFrame(context);
          // store value for the regex-group function
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP))
-                                  .push(analyzeText.noMatchStr);
+         ((Stack)context.localVars[analyzeText.regexGroupSlot])
+                                  .push(atFrame.noMatchStr);
          // The next instruction has been set in stx:analyze-text, but
          // this stx:no-match may be interrupted by stx:process-xxx,
          // i.e. we need to store the info of a following stx:match here:
-         localFieldStack.push(nodeEnd.next);
-         localFieldStack.push(analyzeText.capSubstr);
+         Stack localFieldStack = getFrame(context).localFieldStack;
+         localFieldStack.push(atFrame.noMatchSuccessor);
+         localFieldStack.push(atFrame.capSubstr);
          return PR_CONTINUE;
       }
 
@@ -96,21 +102,16 @@ public class NoMatchFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP)).pop();
+         ((Stack)context.localVars[analyzeText.regexGroupSlot]).pop();
          // restore the values for the following stx:match
-         analyzeText.capSubstr = (String[])localFieldStack.pop();
-         nodeEnd.next = (AbstractInstruction)localFieldStack.pop();
-         return super.processEnd(context);
-      }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (analyzeText != null)
-            theCopy.analyzeText =
-               (AnalyzeTextFactory.Instance) analyzeText.deepCopy(copies);
+         Stack localFieldStack = getFrame(context).localFieldStack;
+         analyzeText.getAnalyzeTextFrame(context).capSubstr =
+            (String[])localFieldStack.pop();
+         AbstractInstruction successor =
+            (AbstractInstruction)localFieldStack.pop();
+         short ret = super.processEnd(context);
+         context.jumpTo(successor);
+         return ret;
       }
 
    }
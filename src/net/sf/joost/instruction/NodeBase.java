@@ -25,12 +25,11 @@
 package net.sf.joost.instruction;
 
 import net.sf.joost.Constants;
+import net.sf.joost.emitter.StringEmitter;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.Stack;
-import java.util.Vector;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -45,6 +44,8 @@ import org.xml.sax.SAXParseException;
 public abstract class NodeBase
    extends AbstractInstruction implements Constants
 {
+   private static final long serialVersionUID = 1L;
+
    //
    // Inner classes
    //
@@ -57,6 +58,8 @@ public abstract class NodeBase
     */
    public final class End extends AbstractInstruction
    {
+      private static final long serialVersionUID = 1L;
+
       /**
        * The appropriate start tag.
        */
@@ -85,14 +88,6 @@ public abstract class NodeBase
          return start.processEnd(context);
       }
 
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         End theCopy = (End) copy;
-         if (start != null)
-            theCopy.start = (NodeBase) start.deepCopy(copies);
-      }
-
       // for debugging
       public String toString()
       {
@@ -102,6 +97,35 @@ public abstract class NodeBase
    }; // inner class End
 
 
+   /**
+    * The run-time state of a node. The nodes of a compiled transformation
+    * sheet are never modified while processing; every {@link Context} keeps
+    * its own frame for each node instead (see {@link NodeBase#getFrame}).
+    * Derived classes may extend this class if they need further fields.
+    */
+   public static class Frame
+   {
+      /** Stack for storing local fields from this or derived classes */
+      public final Stack localFieldStack = new Stack();
+   }
+
+
+   /**
+    * A frame that provides a {@link StringEmitter} for collecting the
+    * contents of a node, used by several derived classes.
+    */
+   protected class StringEmitterFrame extends Frame
+   {
+      /** the buffer of {@link #strEmitter} */
+      final StringBuffer buffer = new StringBuffer();
+
+      final StringEmitter strEmitter =
+         new StringEmitter(buffer,
+                           "('" + qName + "' started in line " +
+                           lineNo + ")");
+   }
+
+
 
    // ---------------------------------------------------------------------
 
@@ -141,12 +165,9 @@ public abstract class NodeBase
     */
    public boolean preserveSpace;
 
-   /** The names of local declared variables of this element,
-       available only if this node has stx:variable children */
-   protected Vector scopedVariables;
-
-   /** Stack for storing local fields from this or derived classes */
-   protected Stack localFieldStack = new Stack();
+   /** The index of the run-time frame of this node
+       in {@link Context#frames} */
+   public final int frameIndex;
 
 
 
@@ -169,6 +190,7 @@ public abstract class NodeBase
    {
       this.qName = qName;
       this.parent = parent;
+      frameIndex = context.allocateFrameIndex();
       if (context.locator != null) {
          publicId = context.locator.getPublicId();
          systemId = context.locator.getSystemId();
@@ -221,10 +243,6 @@ public abstract class NodeBase
       lastChild.next = node;
       // adjust lastChild
       lastChild = newLast;
-
-      // create vector for variable names if necessary
-      if (node instanceof VariableBase && scopedVariables == null)
-         scopedVariables = new Vector();
    }
 
 
@@ -271,22 +289,36 @@ public abstract class NodeBase
     */
    protected final void mayDropEnd()
    {
-      if (scopedVariables == null) {
-         lastChild.next = nodeEnd.next;
-         if (parent.lastChild == nodeEnd)
-            parent.lastChild = lastChild;
-         nodeEnd = lastChild;
-      }
+      lastChild.next = nodeEnd.next;
+      if (parent.lastChild == nodeEnd)
+         parent.lastChild = lastChild;
+      nodeEnd = lastChild;
    }
 
 
    /**
-    * Store the name of a variable as local for this node.
-    * @param name the variable name
+    * Returns the run-time frame of this node in the given context,
+    * creates it if necessary.
+    * @param context the current context
+    * @return the frame for this node
     */
-   protected final void declareVariable(String name)
+   protected final Frame getFrame(Context context)
    {
-      scopedVariables.addElement(name);
+      Frame frame = context.frames[frameIndex];
+      if (frame == null)
+         frame = context.frames[frameIndex] = createFrame();
+      return frame;
+   }
+
+
+   /**
+    * Creates a new run-time frame for this node. To be overridden in
+    * derived classes that need a specialized frame.
+    * @return a new frame
+    */
+   protected Frame createFrame()
+   {
+      return new Frame();
    }
 
 
@@ -301,24 +333,20 @@ public abstract class NodeBase
 
 
    /**
-    * Save local variables if needed.
+    * Processes this node. This instance does nothing.
     * @return {@link Constants#PR_CONTINUE}
     * @exception SAXException if an error occurs (in a derived class)
     */
    public short process(Context context)
       throws SAXException
    {
-      if (scopedVariables != null) {
-         // store list of local variables (from another instantiation)
-         localFieldStack.push(scopedVariables.clone());
-         scopedVariables.clear();
-      }
       return PR_CONTINUE;
    }
 
    /**
-    * Called when the end tag will be processed. This instance removes
-    * local variables declared in this node.
+    * Called when the end tag will be processed. This instance does nothing.
+    * (Local variables don't need to be removed at the end of their scope,
+    * because their slots are accessible only from within the scope.)
     * @param context the current context
     * @return {@link Constants#PR_CONTINUE}
     * @exception SAXException if an error occurs (in a derived class)
@@ -326,13 +354,6 @@ public abstract class NodeBase
    protected short processEnd(Context context)
       throws SAXException
    {
-      if (scopedVariables != null) {
-         // remove all local variables
-         Object[] objs = scopedVariables.toArray();
-         for (int i=0; i<objs.length; i++)
-            context.localVars.remove(objs[i]);
-         scopedVariables = (Vector)localFieldStack.pop();
-      }
       return PR_CONTINUE;
    }
 
@@ -345,25 +366,6 @@ public abstract class NodeBase
        return this.nodeEnd;
    }
 
-   protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-   {
-      super.onDeepCopy(copy, copies);
-      NodeBase theCopy = (NodeBase) copy;
-      theCopy.localFieldStack = (Stack) copies.get(localFieldStack);
-      if (theCopy.localFieldStack == null) {
-         theCopy.localFieldStack = new Stack();
-         copies.put(localFieldStack, theCopy.localFieldStack);
-      }
-      if (lastChild != null)
-         theCopy.lastChild = lastChild.deepCopy(copies);
-      if (nodeEnd != null)
-         theCopy.nodeEnd = nodeEnd.deepCopy(copies);
-      if (parent != null)
-         theCopy.parent = (NodeBase) parent.deepCopy(copies);
-      if (scopedVariables != null)
-         theCopy.scopedVariables = new Vector();
-   }
-
 
    // for debugging
    public String toString()
@@ -39,6 +39,8 @@ import org.xml.sax.SAXParseException;
  */
 public class OtherwiseFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return <code>"otherwise"</code> */
    public String getName()
    {
@@ -63,6 +65,8 @@ public class OtherwiseFactory extends FactoryBase
    /** Represents an instance of the <code>otherwise</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       public Instance(String qName, NodeBase parent, ParseContext context)
       {
          super(qName, parent, context, true);
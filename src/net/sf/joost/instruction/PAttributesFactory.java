@@ -44,6 +44,8 @@ import net.sf.joost.stx.SAXEvent;
 
 public class PAttributesFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -76,6 +78,8 @@ public class PAttributesFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
       // Constructor
       public Instance(String qName, NodeBase parent, ParseContext context,
                       String groupQName)
@@ -26,13 +26,13 @@ package net.sf.joost.instruction;
 
 import net.sf.joost.stx.BufferReader;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.util.VariableNotFoundException;
 import net.sf.joost.util.VariableUtils;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.xml.transform.sax.TransformerHandler;
@@ -51,6 +51,8 @@ import org.xml.sax.SAXParseException;
 
 public class PBufferFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -108,8 +110,17 @@ public class PBufferFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String bufName, expName;
-      private boolean scopeDetermined = false;
+
+      /** The slot of the buffer, either in the local variables or in
+          the variables of {@link #groupScope} */
+      private int slot;
+
+      // local buffers are determined while parsing, group buffers on
+      // first use
+      private volatile boolean scopeDetermined;
       private GroupBase groupScope = null;
 
       // Constructor
@@ -121,12 +132,14 @@ public class PBufferFactory extends FactoryBase
          super(qName, parent, context, groupQName, method, src);
          this.bufName = bufName;
          this.expName = expName;
+         slot = context.getLocalVariableSlot(expName);
+         scopeDetermined = (slot != -1);
       }
 
 
       public short process(Context context) throws SAXException
       {
-         this.localFieldStack.push(context.targetGroup);
+         getFrame(context).localFieldStack.push(context.targetGroup);
          return super.process(context);
       }
 
@@ -140,8 +153,9 @@ public class PBufferFactory extends FactoryBase
          context.currentInstruction = this;
 
          if (!scopeDetermined) {
+            GroupBase group;
             try {
-               groupScope = VariableUtils.findVariableScope(context, expName);
+               group = VariableUtils.findVariableScope(context, expName);
             }
             catch (VariableNotFoundException e) {
                context.errorHandler.error(
@@ -150,10 +164,15 @@ public class PBufferFactory extends FactoryBase
                // if the error handler returns
                return PR_ERROR;
             }
+            slot = group.getVariableSlot(expName);
+            groupScope = group;
             scopeDetermined = true;
          }
 
-         BufferReader br = new BufferReader(context, expName, groupScope,
+         Object[] vars = (groupScope == null)
+            ? context.localVars
+            : groupScope.getVariables(context);
+         BufferReader br = new BufferReader(context, (Emitter)vars[slot],
                                             publicId, systemId);
 
          if (filter != null) {
@@ -208,19 +227,11 @@ public class PBufferFactory extends FactoryBase
             // restore current group
             context.currentGroup = prevGroup;
          }
-         context.targetGroup = (GroupBase) localFieldStack.pop();
+         context.targetGroup =
+            (GroupBase) getFrame(context).localFieldStack.pop();
 
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (groupScope != null)
-            theCopy.groupScope = (GroupBase) groupScope.deepCopy(copies);
-      }
-
    }
 }
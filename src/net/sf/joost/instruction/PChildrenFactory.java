@@ -31,6 +31,7 @@ import org.xml.sax.SAXParseException;
 import java.util.HashSet;
 
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParallelHandler;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
 
@@ -38,15 +39,24 @@ import net.sf.joost.stx.SAXEvent;
 /** 
  * Factory for <code>process-children</code> elements, which are represented 
  * by the inner Instance class. 
+ * The extension attribute <code>joost:parallel</code> (a number of threads
+ * or <code>yes</code> for one thread per processor) requests the parallel
+ * processing of the children in chunks of <code>joost:chunk-size</code>
+ * elements (see {@link ParallelHandler}).
  * @version $Revision: 2.4 $ $Date: 2007/11/25 14:18:01 $
  * @author Oliver Becker
  */
 
 public class PChildrenFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
+   /** default value of <code>joost:chunk-size</code> */
+   private static final int DEFAULT_CHUNK_SIZE = 100;
+
    // Constructor
    public PChildrenFactory()
    {
@@ -86,21 +96,72 @@ public class PChildrenFactory extends FactoryBase
 
       checkAttributes(qName, attrs, attrNames, context);
 
+      // extension attributes, threads == 0 means one thread per processor
+      int threads = -1, chunkSize = DEFAULT_CHUNK_SIZE;
+      int index = attrs.getIndex(JOOST_EXT_NS, "parallel");
+      if (index != -1) {
+         if (filterMethodAtt != null)
+            throw new SAXParseException(
+               "It's not allowed to use both 'filter-method' and '" +
+               attrs.getQName(index) + "' attributes",
+               context.locator);
+         threads = "yes".equals(attrs.getValue(index).trim())
+                   ? 0 : getPositiveNumber(attrs, index, context);
+      }
+      index = attrs.getIndex(JOOST_EXT_NS, "chunk-size");
+      if (index != -1)
+         chunkSize = getPositiveNumber(attrs, index, context);
+
       return new Instance(qName, parent, context, groupAtt, 
-                          filterMethodAtt, filterSrcAtt);
+                          filterMethodAtt, filterSrcAtt, threads, chunkSize);
+   }
+
+
+   /**
+    * @return the value of the attribute at position <code>index</code>
+    * @exception SAXParseException if this value isn't a positive integer
+    */
+   private static int getPositiveNumber(Attributes attrs, int index,
+                                        ParseContext context)
+      throws SAXParseException
+   {
+      String value = attrs.getValue(index).trim();
+      try {
+         int number = Integer.parseInt(value);
+         if (number > 0)
+            return number;
+      }
+      catch (NumberFormatException e) {
+         // reported below
+      }
+      throw new SAXParseException(
+         "Value of attribute '" + attrs.getQName(index) +
+         "' must be a positive integer (found '" + value + "')",
+         context.locator);
    }
 
 
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
+      /** the number of threads for a parallel processing, -1 for none */
+      private int threads;
+
+      /** the number of elements per chunk in a parallel processing */
+      private int chunkSize;
+
       // Constructor
       public Instance(String qName, NodeBase parent, 
                       ParseContext context,
-                      String groupQName, String method, String src)
+                      String groupQName, String method, String src,
+                      int threads, int chunkSize)
          throws SAXParseException
       {
          super(qName, parent, context, groupQName, method, src);
+         this.threads = threads;
+         this.chunkSize = chunkSize;
       }
 
 
@@ -122,6 +183,14 @@ public class PChildrenFactory extends FactoryBase
                if (context.targetHandler == null)
                   return PR_ERROR;
             }
+            else if (threads != -1) {
+               // process the children on worker threads
+               context.targetHandler = new ParallelHandler(
+                  context, this,
+                  threads != 0 ? threads
+                               : Runtime.getRuntime().availableProcessors(),
+                  chunkSize);
+            }
             return PR_CHILDREN;
          }
          else
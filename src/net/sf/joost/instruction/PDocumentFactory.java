@@ -25,6 +25,7 @@
 package net.sf.joost.instruction;
 
 import net.sf.joost.OptionalLog;
+import net.sf.joost.emitter.BufferContents;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
@@ -33,7 +34,6 @@ import net.sf.joost.stx.Value;
 import net.sf.joost.trax.TrAXHelper;
 
 import java.net.URL;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import javax.xml.transform.Source;
@@ -50,6 +50,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.LocatorImpl;
 
 
 /**
@@ -61,6 +62,8 @@ import org.xml.sax.ext.LexicalHandler;
 
 public class PDocumentFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -122,6 +125,8 @@ public class PDocumentFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree href, baseUri;
 
       // Constructor
@@ -188,8 +193,8 @@ public class PDocumentFactory extends FactoryBase
                XMLReader reader;
                InputSource iSource;
                Source source;
-               nextVal = v.next;
-               v.next = null;
+               BufferContents cached = null;
+               nextVal = v.getNext();
                String hrefURI = v.getStringValue();
                // ask URI resolver if present
                if (context.uriResolver != null &&
@@ -223,6 +228,22 @@ public class PDocumentFactory extends FactoryBase
                   iSource = new InputSource(
                      new URL(new URL(base), hrefURI).toExternalForm());
                   reader = defaultReader;
+                  if (context.documentCache != null)
+                     // null if the document is too large for the cache
+                     cached = context.documentCache.getDocument(
+                        iSource.getSystemId(), context.errorHandler);
+               }
+
+               if (cached != null) {
+                  // replay the events instead of parsing the document
+                  LocatorImpl locator = new LocatorImpl();
+                  locator.setSystemId(iSource.getSystemId());
+                  contH.setDocumentLocator(locator);
+                  contH.startDocument();
+                  cached.parse(contH, lexH);
+                  contH.endDocument();
+                  v = nextVal;
+                  continue;
                }
 
                if (reader == null) { // i.e. defaultReader == null
@@ -262,16 +283,5 @@ public class PDocumentFactory extends FactoryBase
          context.locator = prevLoc;
          return PR_CONTINUE;
       }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (baseUri != null)
-            theCopy.baseUri = baseUri.deepCopy(copies);
-         if (href != null)
-            theCopy.href = href.deepCopy(copies);
-      }
    }
 }
@@ -24,12 +24,10 @@
 
 package net.sf.joost.instruction;
 
-import net.sf.joost.emitter.StringEmitter;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -46,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 final public class PIFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -82,10 +82,9 @@ final public class PIFactory extends FactoryBase
     */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree name, select;
-      private StringEmitter strEmitter;
-      private StringBuffer buffer;
-      private String piName;
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          Tree name, Tree select)
@@ -95,15 +94,19 @@ final public class PIFactory extends FactoryBase
                select == null);
          this.name = name;
          this.select = select;
-         init();
       }
 
 
-      private void init()
+      /** The run-time state of a <code>stx:processing-instruction</code> */
+      private final class PIFrame extends StringEmitterFrame
+      {
+         String piName;
+      }
+
+
+      protected Frame createFrame()
       {
-         buffer = new StringBuffer();
-         strEmitter = new StringEmitter(buffer,
-                         "('" + qName + "' started in line " + lineNo + ")");
+         return new PIFrame();
       }
 
 
@@ -113,20 +116,22 @@ final public class PIFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         piName = name.evaluate(context, this).getString();
+         String piName = name.evaluate(context, this).getString();
          // TO DO: is this piName valid?
 
          if (select == null) {
             super.process(context);
+            PIFrame frame = (PIFrame)getFrame(context);
             // check for nesting of this stx:processing-instruction
-            if (context.emitter.isEmitterActive(strEmitter)) {
+            if (context.emitter.isEmitterActive(frame.strEmitter)) {
                context.errorHandler.error(
                   "Can't create nested processing instruction here",
                   publicId, systemId, lineNo, colNo);
                return PR_CONTINUE; // if the errorHandler returns
             }
-            buffer.setLength(0);
-            context.pushEmitter(strEmitter);
+            frame.piName = piName;
+            frame.buffer.setLength(0);
+            context.pushEmitter(frame.strEmitter);
          }
          else {
             String pi = select.evaluate(context, this).getStringValue();
@@ -151,6 +156,8 @@ final public class PIFactory extends FactoryBase
          throws SAXException
       {
          context.popEmitter();
+         PIFrame frame = (PIFrame)getFrame(context);
+         StringBuffer buffer = frame.buffer;
          int index = buffer.length();
          if (index != 0) {
             // are there any "?>" in the pi data?
@@ -158,22 +165,11 @@ final public class PIFactory extends FactoryBase
             while ((index = str.lastIndexOf("?>", --index)) != -1)
                buffer.insert(index+1, ' ');
          }
-         context.emitter.processingInstruction(piName, buffer.toString(),
+         context.emitter.processingInstruction(frame.piName,
+                                               buffer.toString(),
                                                this);
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-         if (name != null)
-            theCopy.name = name.deepCopy(copies);
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-      }
-
    }
 }
@@ -43,6 +43,8 @@ import net.sf.joost.stx.ParseContext;
 
 public class PSelfFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -93,6 +95,8 @@ public class PSelfFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
       // Constructor
       public Instance(String qName, NodeBase parent, ParseContext context,
                       String groupQName, String method, String src)
@@ -29,7 +29,6 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -46,6 +45,8 @@ import org.xml.sax.SAXParseException;
 
 public class PSiblingsFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -85,6 +86,8 @@ public class PSiblingsFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree whilePattern, untilPattern;
       private GroupBase parentGroup;
 
@@ -151,18 +154,5 @@ public class PSiblingsFactory extends FactoryBase
                                    false));
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (parentGroup != null)
-            theCopy.parentGroup = (GroupBase) parentGroup.deepCopy(copies);
-         if (untilPattern != null)
-            theCopy.untilPattern = untilPattern.deepCopy(copies);
-         if (whilePattern != null)
-            theCopy.whilePattern = whilePattern.deepCopy(copies);
-      }
-
    }
 }
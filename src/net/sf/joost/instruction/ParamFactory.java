@@ -30,10 +30,7 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -49,6 +46,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ParamFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -101,6 +100,8 @@ final public class ParamFactory extends FactoryBase
    /** Represents an instance of the <code>param</code> element. */
    public class Instance extends VariableBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String varName;
       private Tree select;
       private boolean required;
@@ -123,9 +124,14 @@ final public class ParamFactory extends FactoryBase
 
 
       public boolean compile(int pass, ParseContext context)
+         throws SAXException
       {
-         if (pass == 0)
+         if (pass == 0) {
+            super.compile(pass, context);
+            // the parameter is not visible in its own contents
+            declare("Param", varName, context);
             return true; // nodeEnd not available yet
+         }
 
          contents = next;
          successor = nodeEnd != null ? nodeEnd.next : next;
@@ -159,7 +165,7 @@ final public class ParamFactory extends FactoryBase
             }
             else {
                // use contents
-               next = contents;
+               context.jumpTo(contents);
                super.process(context);
                context.pushEmitter(
                   new StringEmitter(new StringBuffer(),
@@ -170,7 +176,7 @@ final public class ParamFactory extends FactoryBase
          processParam(v, context);
          if (nodeEnd != null) {
             // skip contents, the parameter value is already available
-            next = successor;
+            context.jumpTo(successor);
          }
          return PR_CONTINUE;
       }
@@ -192,37 +198,12 @@ final public class ParamFactory extends FactoryBase
          throws SAXException
       {
          // determine scope
-         Hashtable varTable;
+         Object[] vars;
          if (parent instanceof GroupBase) // global parameter
-            varTable = (Hashtable)((Stack)context.groupVars.get(parent))
-                                          .peek();
+            vars = ((GroupBase)parent).getVariables(context);
          else
-            varTable = context.localVars;
-
-         if (varTable.get(expName) != null) {
-            context.errorHandler.error(
-               "Param '" + varName + "' already declared",
-               publicId, systemId, lineNo, colNo);
-            return; // if the errorHandler returns
-         }
-
-         varTable.put(expName, v);
-
-         if (varTable == context.localVars)
-            parent.declareVariable(expName);
-      }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (contents != null)
-            theCopy.contents = contents.deepCopy(copies);
-         if (successor != null)
-            theCopy.successor = successor.deepCopy(copies);
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
+            vars = context.localVars;
+         vars[slot] = v;
       }
 
    }
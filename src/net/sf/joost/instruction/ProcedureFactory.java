@@ -25,7 +25,7 @@
 package net.sf.joost.instruction;
 
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Stack;
 
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
@@ -44,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 public final class ProcedureFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element. */
    private HashSet attrNames;
 
@@ -110,6 +112,8 @@ public final class ProcedureFactory extends FactoryBase
    public final class Instance 
       extends TemplateBase 
    {
+      private static final long serialVersionUID = 1L;
+
       /** The expanded name of this procedure */
       protected String expName;
 
@@ -138,21 +142,28 @@ public final class ProcedureFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
+         Stack localFieldStack = getFrame(context).localFieldStack;
          localFieldStack.push(context.currentGroup);
-         // save and reset local variables
-         localFieldStack.push(context.localVars.clone());
-         context.localVars.clear();
+         // save local variables (super.process creates new ones)
+         localFieldStack.push(context.localVars);
          return super.process(context);
       }
 
 
+      /**
+       * Restores the state of the caller and returns to the
+       * {@link CallProcedureFactory.Instance} that invoked this procedure.
+       */
       public short processEnd(Context context)
          throws SAXException
       {
          super.processEnd(context);
+         Stack localFieldStack = getFrame(context).localFieldStack;
          // restore local variables
-         context.localVars = (Hashtable)localFieldStack.pop();
+         context.localVars = (Object[])localFieldStack.pop();
          context.currentGroup = (GroupBase)localFieldStack.pop();
+         // return address, pushed by stx:call-procedure
+         context.jumpTo((AbstractInstruction)localFieldStack.pop());
          return PR_CONTINUE;
       }
 
@@ -28,11 +28,11 @@ import net.sf.joost.emitter.EmitterAdapter;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.BufferReader;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.util.VariableNotFoundException;
 import net.sf.joost.util.VariableUtils;
 
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Stack;
 import java.util.Vector;
@@ -51,8 +51,12 @@ import org.xml.sax.SAXParseException;
  */
 public class ProcessBase extends NodeBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** Instruction the clears the parameter stack */
    private class ProcessEnd extends AbstractInstruction {
+      private static final long serialVersionUID = 1L;
+
       private ProcessBase node;
 
       public ProcessEnd(ProcessBase node)
@@ -67,22 +71,20 @@ public class ProcessBase extends NodeBase
 
       public short process(Context ctx)
       {
-         ctx.passedParameters = (Hashtable)node.paramStack.pop();
+         ctx.passedParameters =
+            (Hashtable)((ProcessFrame)node.getFrame(ctx)).paramStack.pop();
          return PR_CONTINUE;
       }
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         ProcessEnd theCopy = (ProcessEnd) copy;
-         theCopy.node = (ProcessBase) node.deepCopy(copies);
-      }
    }
 
 
+   /** The run-time state of a <code>stx:process-<em>xxx</em></code> */
+   private final class ProcessFrame extends Frame
+   {
+      // stack for parameters, used in the subclasses
+      Stack paramStack = new Stack();
+   }
 
-   // stack for parameters, used in the subclasses
-   private Stack paramStack = new Stack();
 
    protected Vector children = new Vector();
 
@@ -96,7 +98,10 @@ public class ProcessBase extends NodeBase
    protected String useBufQName, useBufExpName;
    protected Tree filter;
    private Tree hrefTree;
-   private boolean bufScopeDetermined = false;
+   // the buffer in filter-src: local buffers are determined while
+   // parsing, group buffers on first use
+   private int bufSlot;
+   private volatile boolean bufScopeDetermined;
    private GroupBase bufGroupScope = null;
 
    // Constructor
@@ -136,6 +141,8 @@ public class ProcessBase extends NodeBase
             useBufQName = src.substring(7, src.length()-1).trim();
             useBufExpName = "@" +
                             FactoryBase.getExpandedName(useBufQName, context);
+            bufSlot = context.getLocalVariableSlot(useBufExpName);
+            bufScopeDetermined = (bufSlot != -1);
          }
          else
             throw new SAXParseException(
@@ -195,6 +202,12 @@ public class ProcessBase extends NodeBase
    }
 
 
+   protected Frame createFrame()
+   {
+      return new ProcessFrame();
+   }
+
+
    /**
     * Determine target group
     */
@@ -236,7 +249,8 @@ public class ProcessBase extends NodeBase
    {
       context.targetGroup = targetGroup;
 
-      paramStack.push(context.passedParameters);
+      ((ProcessFrame)getFrame(context)).paramStack.push(
+         context.passedParameters);
       context.passedParameters = new Hashtable();
       return PR_CONTINUE;
    }
@@ -256,14 +270,19 @@ public class ProcessBase extends NodeBase
       try {
          if (useBufExpName != null) {
             if (!bufScopeDetermined) {
-               bufGroupScope =
+               GroupBase group =
                   VariableUtils.findVariableScope(context, useBufExpName);
+               bufSlot = group.getVariableSlot(useBufExpName);
+               bufGroupScope = group;
                bufScopeDetermined = true;
             }
+            Object[] vars = (bufGroupScope == null)
+               ? context.localVars
+               : bufGroupScope.getVariables(context);
             handler =
                context.defaultTransformerHandlerResolver.resolve(
                      filterMethod,
-                     new BufferReader(context, useBufExpName, bufGroupScope,
+                     new BufferReader(context, (Emitter)vars[bufSlot],
                                       publicId, systemId),
                      context.uriResolver,
                      context.errorHandler.errorListener,
@@ -312,25 +331,4 @@ public class ProcessBase extends NodeBase
    }
 
 
-   protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-   {
-      super.onDeepCopy(copy, copies);
-      ProcessBase theCopy = (ProcessBase) copy;
-      theCopy.paramStack = new Stack();
-      if (bufGroupScope != null)
-         theCopy.bufGroupScope = (GroupBase) bufGroupScope.deepCopy(copies);
-      if (targetGroup != null)
-         theCopy.targetGroup = (GroupBase) targetGroup.deepCopy(copies);
-      theCopy.children = new Vector();
-      for (int i=0; i<children.size(); i++) {
-         theCopy.children.add(
-               ((AbstractInstruction)children.get(i)).deepCopy(copies));
-      }
-      if (filter != null)
-         theCopy.filter = filter.deepCopy(copies);
-      if (hrefTree != null)
-         theCopy.hrefTree = hrefTree.deepCopy(copies);
-   }
-
-
 }
@@ -25,13 +25,13 @@
 package net.sf.joost.instruction;
 
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.util.VariableNotFoundException;
+import net.sf.joost.util.VariableUtils;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -47,6 +47,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ResultBufferFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -85,9 +87,20 @@ final public class ResultBufferFactory extends FactoryBase
    /** Represents an instance of the <code>result-buffer</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String bufName, expName;
       private boolean clear;
 
+      /** The slot of the buffer, either in the local variables or in
+          the variables of {@link #groupScope} */
+      private int slot;
+
+      // local buffers are determined while parsing, group buffers on
+      // first use
+      private volatile boolean scopeDetermined;
+      private GroupBase groupScope = null;
+
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          String bufName, String expName, boolean clear)
       {
@@ -95,6 +108,8 @@ final public class ResultBufferFactory extends FactoryBase
          this.bufName = bufName;
          this.expName = expName;
          this.clear = clear;
+         slot = context.getLocalVariableSlot(expName);
+         scopeDetermined = (slot != -1);
       }
       
 
@@ -106,23 +121,28 @@ final public class ResultBufferFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
-         Object emitter = context.localVars.get(expName);
-         if (emitter == null) {
-            GroupBase group = context.currentGroup;
-            while (emitter == null && group != null) {
-               emitter = ((Hashtable)((Stack)context.groupVars.get(group))
-                                            .peek()).get(expName);
-               group = group.parentGroup;
+         if (!scopeDetermined) {
+            GroupBase group;
+            try {
+               group = VariableUtils.findVariableScope(context, expName);
             }
+            catch (VariableNotFoundException e) {
+               context.errorHandler.error(
+                  "Can't fill an undeclared buffer '" + bufName + "'",
+                  publicId, systemId, lineNo, colNo);
+               return PR_CONTINUE;
+            }
+            slot = group.getVariableSlot(expName);
+            groupScope = group;
+            scopeDetermined = true;
          }
-         if (emitter == null) {
-            context.errorHandler.error(
-               "Can't fill an undeclared buffer '" + bufName + "'",
-               publicId, systemId, lineNo, colNo);
-            return PR_CONTINUE;
-         }
-         
-         BufferEmitter buffer = (BufferEmitter) ((Emitter)emitter).contH;
+
+         Object[] vars = (groupScope == null)
+            ? context.localVars
+            : groupScope.getVariables(context);
+         Emitter emitter = (Emitter)vars[slot];
+
+         BufferEmitter buffer = (BufferEmitter)emitter.contH;
          if (context.emitter.isEmitterActive(buffer)) {
             context.errorHandler.error(
                "Buffer '" + bufName + "' acts already as result buffer",
@@ -133,7 +153,7 @@ final public class ResultBufferFactory extends FactoryBase
          if (clear)
             buffer.clear();
          
-         context.pushEmitter((Emitter) emitter);
+         context.pushEmitter(emitter);
          return PR_CONTINUE;
       }
 
@@ -33,7 +33,6 @@ import net.sf.joost.trax.TrAXHelper;
 
 import java.io.Writer;
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Properties;
 
@@ -55,6 +54,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ResultDocumentFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -107,6 +108,8 @@ final public class ResultDocumentFactory extends FactoryBase
    /** Represents an instance of the <code>result-document</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree href;
       private String encoding, method;
       private boolean append;
@@ -130,6 +133,7 @@ final public class ResultDocumentFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
+         String encoding = this.encoding;
          if (encoding == null) // no encoding attribute specified
             // use global encoding att
             encoding = context.currentProcessor.getOutputEncoding();
@@ -160,7 +164,7 @@ final public class ResultDocumentFactory extends FactoryBase
                   if (append && (emitter instanceof StreamEmitter)) {
                      ((StreamEmitter) emitter).setOmitXmlDeclaration(true);
                   }
-                  localFieldStack.push(result);
+                  getFrame(context).localFieldStack.push(result);
                }
             }
 
@@ -173,7 +177,7 @@ final public class ResultDocumentFactory extends FactoryBase
                StreamEmitter se = StreamEmitter.newEmitter(osw, encoding, props);
                if (append)
                   se.setOmitXmlDeclaration(true);
-               localFieldStack.push(osw);
+               getFrame(context).localFieldStack.push(osw);
                emitter = se;
             }
          }
@@ -204,7 +208,7 @@ final public class ResultDocumentFactory extends FactoryBase
       {
          context.emitter.endDocument(nodeEnd);
          context.popEmitter();
-         Object object = localFieldStack.pop();
+         Object object = getFrame(context).localFieldStack.pop();
          try {
             if (object instanceof Writer) {
                ((Writer)object).close();
@@ -227,14 +231,5 @@ final public class ResultDocumentFactory extends FactoryBase
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (href != null)
-            theCopy.href = href.deepCopy(copies);
-      }
-
    }
 }
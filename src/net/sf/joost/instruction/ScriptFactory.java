@@ -48,6 +48,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ScriptFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -106,6 +108,8 @@ final public class ScriptFactory extends FactoryBase
    /** Represents an instance of the <code>script</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       /** namespace prefix from prefix attribute of the script element */
       private String prefix;
       
@@ -0,0 +1,210 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.instruction;
+
+import java.util.HashSet;
+import java.util.Vector;
+
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.SortBuffer;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Factory for <code>sort-buffer</code> elements, which are represented by
+ * the inner Instance class. <code>sort-buffer</code> is an extension
+ * element that belongs to the Joost namespace
+ * {@link net.sf.joost.Constants#JOOST_EXT_NS}. It declares a group buffer
+ * whose records (the elements at its top level) will be sorted by the
+ * keys given in its <code>joost:sort-key</code> children when the buffer
+ * is processed (see {@link SortBuffer}).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+
+final public class SortBufferFactory extends FactoryBase
+{
+   private static final long serialVersionUID = 1L;
+
+   /** allowed attributes for this element */
+   private HashSet attrNames;
+
+   // Constructor
+   public SortBufferFactory()
+   {
+      attrNames = new HashSet();
+      attrNames.add("name");
+      attrNames.add("run-size");
+   }
+
+   /** @return <code>"sort-buffer"</code> */
+   public String getName()
+   {
+      return "sort-buffer";
+   }
+
+   public NodeBase createNode(NodeBase parent, String qName, Attributes attrs,
+                              ParseContext context) throws SAXParseException
+   {
+      // the keys are evaluated in the scope of the group
+      if (!(parent instanceof GroupBase))
+         throw new SAXParseException("'" + qName + "' not allowed as child " +
+                                     "of '" + (parent != null ? parent.qName
+                                                              : "") + "'",
+                                     context.locator);
+
+      String nameAtt = getRequiredAttribute(qName, attrs, "name", context);
+      // buffers are special variables with an "@" prefix
+      String bufName = "@" + getExpandedName(nameAtt, context);
+
+      int runSize = 0;
+      String runSizeAtt = attrs.getValue("run-size");
+      if (runSizeAtt != null) {
+         try {
+            runSize = Integer.parseInt(runSizeAtt.trim());
+         }
+         catch (NumberFormatException e) {
+            // reported below
+         }
+         if (runSize <= 0)
+            throw new SAXParseException(
+               "Value of attribute 'run-size' must be a positive integer " +
+               "(found '" + runSizeAtt + "')",
+               context.locator);
+      }
+
+      checkAttributes(qName, attrs, attrNames, context);
+
+      return new Instance(qName, parent, context, nameAtt, bufName, runSize);
+   }
+
+   /* -------------------------------------------------------------------- */
+
+   /** Represents an instance of the <code>sort-buffer</code> element. */
+   final public class Instance extends VariableBase
+   {
+      private static final long serialVersionUID = 1L;
+
+      private String varName;
+
+      /** the run size, 0 for the default */
+      private int runSize;
+
+      /** the <code>joost:sort-key</code> children */
+      private Vector sortKeys = new Vector();
+
+      // the sort keys, split up for the SortBuffer
+      private Tree[] keys;
+      private boolean[] numeric, descending;
+
+      protected Instance(String qName, NodeBase parent, ParseContext context,
+                         String varName, String expName, int runSize)
+         throws SAXParseException
+      {
+         super(qName, parent, context, expName, false, true);
+         this.varName = varName;
+         this.runSize = runSize;
+         declare("Buffer", varName, context);
+      }
+
+
+      /**
+       * Takes care that only <code>joost:sort-key</code> elements can be
+       * children of <code>sort-buffer</code>.
+       */
+      public void insert(NodeBase node)
+         throws SAXParseException
+      {
+         if (!(node instanceof SortKeyFactory.Instance))
+            throw new SAXParseException(
+               "'" + qName + "' may only contain sort keys " +
+               "(encountered '" + node.qName + "')",
+               node.publicId, node.systemId, node.lineNo, node.colNo);
+         // not part of the execution chain
+         sortKeys.addElement(node);
+      }
+
+
+      public boolean compile(int pass, ParseContext context)
+         throws SAXException
+      {
+         super.compile(pass, context);
+         int count = sortKeys.size();
+         if (count == 0)
+            throw new SAXParseException(
+               "'" + qName + "' must contain at least one sort key",
+               publicId, systemId, lineNo, colNo);
+         keys = new Tree[count];
+         numeric = new boolean[count];
+         descending = new boolean[count];
+         for (int i=0; i<count; i++) {
+            SortKeyFactory.Instance key =
+               (SortKeyFactory.Instance)sortKeys.elementAt(i);
+            keys[i] = key.select;
+            numeric[i] = key.numeric;
+            descending[i] = key.descending;
+         }
+         sortKeys = null;
+         return false;
+      }
+
+
+      /**
+       * Declares a sort buffer
+       */
+      public short process(Context context)
+         throws SAXException
+      {
+         super.process(context);
+         Object[] vars = ((GroupBase)parent).getVariables(context);
+
+         int size = runSize;
+         if (size == 0)
+            size = context.bufferSpillThreshold > 0
+                   ? context.bufferSpillThreshold
+                   : SortBuffer.DEFAULT_RUN_SIZE;
+         SortBuffer buffer = new SortBuffer(keys, numeric, descending,
+                                            size, context, this,
+                                            (GroupBase)parent);
+         context.pushEmitter(buffer);
+         vars[slot] = context.emitter;
+
+         return PR_CONTINUE;
+      }
+
+
+      public short processEnd(Context context)
+         throws SAXException
+      {
+         context.popEmitter();
+         return super.processEnd(context);
+      }
+   }
+}
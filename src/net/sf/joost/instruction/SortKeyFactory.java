@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.instruction;
+
+import java.util.HashSet;
+
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.ParseContext;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Factory for <code>sort-key</code> elements, which are represented by the
+ * inner Instance class. <code>sort-key</code> is an extension element that
+ * belongs to the Joost namespace {@link net.sf.joost.Constants#JOOST_EXT_NS}
+ * and may appear only as child of <code>joost:sort-buffer</code>.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+
+final public class SortKeyFactory extends FactoryBase
+{
+   private static final long serialVersionUID = 1L;
+
+   /** allowed attributes for this element */
+   private HashSet attrNames;
+
+   /** allowed values for the <code>order</code> attribute */
+   private static final String[] ORDER_VALUES =
+      { "ascending", "descending" };
+
+   /** allowed values for the <code>data-type</code> attribute */
+   private static final String[] DATA_TYPE_VALUES = { "text", "number" };
+
+   // Constructor
+   public SortKeyFactory()
+   {
+      attrNames = new HashSet();
+      attrNames.add("select");
+      attrNames.add("order");
+      attrNames.add("data-type");
+   }
+
+   /** @return <code>"sort-key"</code> */
+   public String getName()
+   {
+      return "sort-key";
+   }
+
+   public NodeBase createNode(NodeBase parent, String qName, Attributes attrs,
+                              ParseContext context) throws SAXParseException
+   {
+      // check parent
+      if (!(parent instanceof SortBufferFactory.Instance))
+         throw new SAXParseException("'" + qName + "' not allowed as child " +
+                                     "of '" + (parent != null ? parent.qName
+                                                              : "") + "'",
+                                     context.locator);
+
+      Tree selectExpr = parseRequiredExpr(qName, attrs, "select", context);
+      boolean descending =
+         getEnumAttValue("order", attrs, ORDER_VALUES, context) == 1;
+      boolean numeric =
+         getEnumAttValue("data-type", attrs, DATA_TYPE_VALUES, context) == 1;
+
+      checkAttributes(qName, attrs, attrNames, context);
+
+      return new Instance(qName, parent, context, selectExpr, numeric,
+                          descending);
+   }
+
+   /* -------------------------------------------------------------------- */
+
+   /** Represents an instance of the <code>sort-key</code> element. */
+   final public class Instance extends NodeBase
+   {
+      private static final long serialVersionUID = 1L;
+
+      /** the expression that computes the key of a record */
+      final Tree select;
+
+      /** whether the keys will be compared as numbers */
+      final boolean numeric;
+
+      /** whether the records will be sorted in descending order */
+      final boolean descending;
+
+      // Constructor
+      protected Instance(String qName, NodeBase parent, ParseContext context,
+                         Tree select, boolean numeric, boolean descending)
+      {
+         super(qName, parent, context, false);
+         this.select = select;
+         this.numeric = numeric;
+         this.descending = descending;
+      }
+
+      public boolean processable()
+      {
+         return false;
+      }
+
+      // Mustn't be called
+      public short process(Context c)
+         throws SAXException
+      {
+         throw new SAXParseException("process called for " + qName,
+                                     publicId, systemId, lineNo, colNo);
+      }
+   }
+}
@@ -27,8 +27,6 @@ package net.sf.joost.instruction;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
-
 import org.xml.sax.SAXException;
 
 
@@ -41,6 +39,8 @@ import org.xml.sax.SAXException;
 
 public abstract class TemplateBase extends NodeBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** Visibility values */
    public static final int
       LOCAL_VISIBLE = 0,
@@ -63,6 +63,12 @@ public abstract class TemplateBase extends NodeBase
    /** The parent of this template */
    public GroupBase parentGroup;
 
+   /** The number of slots for local variables in this template */
+   private int localVarCount;
+
+   /** Local variables of templates that don't declare any */
+   static final Object[] NO_LOCAL_VARS = new Object[0];
+
    //
    // Constructor
    //
@@ -75,6 +81,16 @@ public abstract class TemplateBase extends NodeBase
       this.visibility = visibility;
       this.isPublic = isPublic;
       this.newScope = newScope;
+      context.startLocalFrame();
+   }
+
+
+   public boolean compile(int pass, ParseContext context)
+      throws SAXException
+   {
+      if (pass == 0)
+         localVarCount = context.endLocalFrame();
+      return false;
    }
 
 
@@ -86,6 +102,9 @@ public abstract class TemplateBase extends NodeBase
          // initialize group variables
          parentGroup.enterRecursionLevel(context);
       }
+      // new instances of the local variables
+      context.localVars = localVarCount == 0 ? NO_LOCAL_VARS
+                                             : new Object[localVarCount];
       return super.process(context);
    }
 
@@ -98,14 +117,5 @@ public abstract class TemplateBase extends NodeBase
    }
 
 
-   protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-   {
-      super.onDeepCopy(copy, copies);
-      TemplateBase theCopy = (TemplateBase) copy;
-      if (parentGroup != null)
-         theCopy.parentGroup = (GroupBase) parentGroup.deepCopy(copies);
-   }
-
-
 }
 
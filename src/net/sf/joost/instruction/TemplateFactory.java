@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -45,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 public final class TemplateFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element. */
    private HashSet attrNames;
 
@@ -127,6 +128,8 @@ public final class TemplateFactory extends FactoryBase
    /** The inner Instance class */
    public final class Instance extends TemplateBase implements Comparable
    {
+      private static final long serialVersionUID = 1L;
+
       /** The match pattern */
       private Tree match;
 
@@ -225,15 +228,6 @@ public final class TemplateFactory extends FactoryBase
       }
 
 
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (match != null)
-            theCopy.match = match.deepCopy(copies);
-      }
-
-
 
       // for debugging
       public String toString()
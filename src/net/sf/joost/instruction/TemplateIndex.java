@@ -0,0 +1,547 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.instruction;
+
+import net.sf.joost.OptionalLog;
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.SAXEvent;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Vector;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Dispatch index for an array of templates (sorted in descending priority
+ * order). The index is computed once while compiling the transformation
+ * sheet and provides for every event only the templates whose match
+ * pattern can possibly match this event, i.e. the templates whose last
+ * location step accepts the kind and the name of the event.
+ * The returned candidate arrays preserve the order of the original array,
+ * so the first matching candidate is still the template with the highest
+ * priority, and all templates of the same priority that are able to match
+ * the event follow directly (needed for the detection of ambiguous template
+ * rules).
+ * <p>
+ * In addition the index tells whether any of its templates is able to
+ * match a node in the subtree of a given element (see
+ * {@link #mayMatchBelow}), which enables the processor to project away
+ * subtrees that are subject to the default action only.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class TemplateIndex implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** logging object */
+   private static Log log = OptionalLog.getLog(TemplateIndex.class);
+
+   /** An empty array of templates */
+   private static final TemplateFactory.Instance[] NO_TEMPLATES = {};
+
+   /** All templates (the original array) */
+   private TemplateFactory.Instance[] templates;
+
+   /** The last location steps of the match patterns in {@link #templates} */
+   private Tree[] lastSteps;
+
+   /** Candidates for the document node */
+   private TemplateFactory.Instance[] rootTemplates;
+
+   /** Candidates for text nodes */
+   private TemplateFactory.Instance[] textTemplates;
+
+   /** Candidates for CDATA nodes */
+   private TemplateFactory.Instance[] cdataTemplates;
+
+   /** Candidates for comment nodes */
+   private TemplateFactory.Instance[] commentTemplates;
+
+   /** Candidates for processing instructions with an unknown target */
+   private TemplateFactory.Instance[] piTemplates;
+
+   /** Candidates for processing instructions (key=target) */
+   private HashMap piTargetMap;
+
+   /** Candidates for elements */
+   private NameIndex elementIndex;
+
+   /** Candidates for attributes */
+   private NameIndex attributeIndex;
+
+   /**
+    * The match patterns that start at the document node and consist of
+    * child steps only, i.e. patterns that match nodes at a fixed depth
+    */
+   private Tree[] anchoredPatterns;
+
+   /**
+    * The anchored prefixes (see {@link #isAnchored}) of match patterns
+    * that contain descendant steps: a pattern <code>P//R</code> matches
+    * only nodes that have an ancestor matched by <code>P</code>
+    */
+   private Tree[] descendantPrefixes;
+
+   /**
+    * <code>true</code> if there is a template that may match a node (other
+    * than an attribute) at any depth
+    */
+   private boolean matchesAtAnyDepth;
+
+
+
+   // **********************************************************************
+   /**
+    * Inner class that contains the candidate templates for a node kind
+    * that has a name (elements and attributes).
+    */
+   private final class NameIndex implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Candidates for an explicitly named node: a map with the URI as key,
+       * whose values are in turn maps with the local name as key and the
+       * candidate array as value
+       */
+      private HashMap nameMap = new HashMap();
+
+      /** Candidates for names whose local name appears only in
+          <code>*:lname</code> tests (key=local name) */
+      private HashMap lNameMap = new HashMap();
+
+      /** Candidates for names whose URI appears only in
+          <code>prefix:*</code> tests (key=URI) */
+      private HashMap uriMap = new HashMap();
+
+      /** Candidates for names that are not mentioned in any name test */
+      private TemplateFactory.Instance[] generic;
+
+      /**
+       * Constructs the index for a named node kind.
+       * @param eventType either {@link SAXEvent#ELEMENT} or
+       *        {@link SAXEvent#ATTRIBUTE}
+       * @param nameTest the type of the tree that denotes a full name test
+       * @param uriWildcard the type of the tree that denotes a
+       *        <code>*:lname</code> test
+       * @param localWildcard the type of the tree that denotes a
+       *        <code>prefix:*</code> test
+       */
+      NameIndex(int eventType, int nameTest, int uriWildcard,
+                int localWildcard)
+      {
+         HashSet names = new HashSet(); // contains {uri, lName} arrays
+         HashSet lNames = new HashSet();
+         HashSet uris = new HashSet();
+         for (int i=0; i<lastSteps.length; i++) {
+            Tree step = lastSteps[i];
+            if (step.type == nameTest) {
+               HashMap lNameTable = (HashMap)nameMap.get(step.uri);
+               if (lNameTable == null)
+                  nameMap.put(step.uri, lNameTable = new HashMap());
+               lNameTable.put(step.lName, null); // computed below
+            }
+            else if (step.type == uriWildcard)
+               lNames.add(step.lName);
+            else if (step.type == localWildcard)
+               uris.add(step.uri);
+         }
+
+         // combinations of uri wildcards and local wildcards
+         for (Iterator u = uris.iterator(); u.hasNext(); ) {
+            Object uri = u.next();
+            HashMap lNameTable = (HashMap)nameMap.get(uri);
+            if (lNameTable == null)
+               nameMap.put(uri, lNameTable = new HashMap());
+            for (Iterator l = lNames.iterator(); l.hasNext(); )
+               lNameTable.put(l.next(), null);
+         }
+
+         // compute the candidates
+         for (Iterator u = nameMap.keySet().iterator(); u.hasNext(); ) {
+            String uri = (String)u.next();
+            HashMap lNameTable = (HashMap)nameMap.get(uri);
+            Object[] keys = lNameTable.keySet().toArray();
+            for (int i=0; i<keys.length; i++)
+               lNameTable.put(keys[i],
+                              collect(eventType, uri, (String)keys[i]));
+         }
+         for (Iterator l = lNames.iterator(); l.hasNext(); ) {
+            String lName = (String)l.next();
+            lNameMap.put(lName, collect(eventType, null, lName));
+         }
+         for (Iterator u = uris.iterator(); u.hasNext(); ) {
+            String uri = (String)u.next();
+            uriMap.put(uri, collect(eventType, uri, null));
+         }
+         generic = collect(eventType, null, null);
+      }
+
+      /**
+       * @return the candidate templates for a node with the given name
+       */
+      TemplateFactory.Instance[] getCandidates(String uri, String lName)
+      {
+         HashMap lNameTable = (HashMap)nameMap.get(uri);
+         Object candidates;
+         if (lNameTable != null &&
+             (candidates = lNameTable.get(lName)) != null)
+            return (TemplateFactory.Instance[])candidates;
+         // Note: if both maps contained an entry then there would be an
+         // entry in nameMap, too
+         if ((candidates = lNameMap.get(lName)) != null)
+            return (TemplateFactory.Instance[])candidates;
+         if ((candidates = uriMap.get(uri)) != null)
+            return (TemplateFactory.Instance[])candidates;
+         return generic;
+      }
+   } // inner class NameIndex
+
+   // **********************************************************************
+
+
+
+   /**
+    * Constructs the dispatch index for an array of templates.
+    * @param templates the templates sorted in descending priority order
+    */
+   public TemplateIndex(TemplateFactory.Instance[] templates)
+   {
+      this.templates = templates;
+      lastSteps = new Tree[templates.length];
+      HashSet piTargets = new HashSet();
+      for (int i=0; i<templates.length; i++) {
+         lastSteps[i] = getLastStep(templates[i].getMatchPattern());
+         if (lastSteps[i].type == Tree.PI_TEST &&
+             lastSteps[i].value != null)
+            piTargets.add(lastSteps[i].value);
+      }
+
+      rootTemplates = collect(SAXEvent.ROOT, null, null);
+      textTemplates = collect(SAXEvent.TEXT, null, null);
+      cdataTemplates = collect(SAXEvent.CDATA, null, null);
+      commentTemplates = collect(SAXEvent.COMMENT, null, null);
+      piTemplates = collect(SAXEvent.PI, null, null);
+      piTargetMap = new HashMap();
+      for (Iterator t = piTargets.iterator(); t.hasNext(); ) {
+         String target = (String)t.next();
+         piTargetMap.put(target, collect(SAXEvent.PI, null, target));
+      }
+      elementIndex = new NameIndex(SAXEvent.ELEMENT, Tree.NAME_TEST,
+                                   Tree.URI_WILDCARD, Tree.LOCAL_WILDCARD);
+      attributeIndex = new NameIndex(SAXEvent.ATTRIBUTE, Tree.ATTR,
+                                     Tree.ATTR_URI_WILDCARD,
+                                     Tree.ATTR_LOCAL_WILDCARD);
+
+      Vector anchored = new Vector();
+      Vector prefixes = new Vector();
+      for (int i=0; i<templates.length; i++) {
+         switch (lastSteps[i].type) {
+         case Tree.ATTR:
+         case Tree.ATTR_URI_WILDCARD:
+         case Tree.ATTR_LOCAL_WILDCARD:
+         case Tree.ATTR_WILDCARD:
+            // attributes are reached only via stx:process-attributes
+            break;
+         default:
+            Tree pattern = templates[i].getMatchPattern();
+            Tree prefix;
+            if (isAnchored(pattern))
+               anchored.addElement(pattern);
+            else if ((prefix = getAnchoredPrefix(pattern)) != null)
+               prefixes.addElement(prefix);
+            else if (!matchesAtAnyDepth) {
+               matchesAtAnyDepth = true;
+               if (log != null && log.isDebugEnabled())
+                  log.debug("The template in line " + templates[i].lineNo +
+                           " of " + templates[i].systemId +
+                           " may match at any depth, subtrees won't be " +
+                           "projected");
+            }
+         }
+      }
+      anchoredPatterns = new Tree[anchored.size()];
+      anchored.toArray(anchoredPatterns);
+      descendantPrefixes = new Tree[prefixes.size()];
+      prefixes.toArray(descendantPrefixes);
+   }
+
+
+   /**
+    * @return whether <code>pattern</code> starts at the document node and
+    *         consists of child steps only
+    */
+   private static boolean isAnchored(Tree pattern)
+   {
+      while (pattern.type == Tree.CHILD)
+         pattern = pattern.left;
+      return pattern.type == Tree.ROOT;
+   }
+
+
+   /**
+    * Determines the path in front of the first descendant step of a match
+    * pattern, for example <code>/a/b</code> for <code>/a/b//c/d</code>.
+    * @return this path if it is anchored (see {@link #isAnchored}),
+    *         <code>null</code> otherwise
+    */
+   private static Tree getAnchoredPrefix(Tree pattern)
+   {
+      Tree prefix = null;
+      for (; pattern.type == Tree.CHILD || pattern.type == Tree.DESC;
+           pattern = pattern.left)
+         if (pattern.type == Tree.DESC)
+            prefix = pattern.left;
+      return prefix != null && isAnchored(prefix) ? prefix : null;
+   }
+
+
+   /**
+    * Determines the last location step of a match pattern, i.e. the
+    * node test that must be satisfied by the current node.
+    * @param pattern the match pattern (without a union)
+    * @return the node test of the last step, or the pattern itself if
+    *         there is no such step
+    */
+   private static Tree getLastStep(Tree pattern)
+   {
+      Tree step = pattern;
+      while ((step.type == Tree.CHILD || step.type == Tree.DESC) &&
+             step.right != null)
+         step = step.right;
+      if (step.type == Tree.PREDICATE && step.left != null)
+         step = step.left;
+      return step;
+   }
+
+
+   /**
+    * Determines whether a node test may match a node.
+    * @param step the node test
+    * @param eventType the type of the node (see {@link SAXEvent})
+    * @param uri the URI of the node name, <code>null</code> stands for a
+    *        URI that doesn't appear in any name test
+    * @param lName the local name of the node (or the target of a
+    *        processing instruction), <code>null</code> stands for a
+    *        name that doesn't appear in any name test
+    * @return <code>false</code> if the node test cannot match the node,
+    *         <code>true</code> otherwise
+    */
+   private static boolean accepts(Tree step, int eventType,
+                                  String uri, String lName)
+   {
+      switch (step.type) {
+      case Tree.ROOT:
+         return eventType == SAXEvent.ROOT;
+      case Tree.NAME_TEST:
+         return eventType == SAXEvent.ELEMENT && uri != null &&
+                lName != null && uri.equals(step.uri) &&
+                lName.equals(step.lName);
+      case Tree.URI_WILDCARD:
+         return eventType == SAXEvent.ELEMENT && lName != null &&
+                lName.equals(step.lName);
+      case Tree.LOCAL_WILDCARD:
+         return eventType == SAXEvent.ELEMENT && uri != null &&
+                uri.equals(step.uri);
+      case Tree.WILDCARD:
+         return eventType == SAXEvent.ELEMENT;
+      case Tree.ATTR:
+         return eventType == SAXEvent.ATTRIBUTE && uri != null &&
+                lName != null && uri.equals(step.uri) &&
+                lName.equals(step.lName);
+      case Tree.ATTR_URI_WILDCARD:
+         return eventType == SAXEvent.ATTRIBUTE && lName != null &&
+                lName.equals(step.lName);
+      case Tree.ATTR_LOCAL_WILDCARD:
+         return eventType == SAXEvent.ATTRIBUTE && uri != null &&
+                uri.equals(step.uri);
+      case Tree.ATTR_WILDCARD:
+         return eventType == SAXEvent.ATTRIBUTE;
+      case Tree.NODE_TEST:
+         return eventType != SAXEvent.ROOT &&
+                eventType != SAXEvent.ATTRIBUTE;
+      case Tree.TEXT_TEST:
+         return eventType == SAXEvent.TEXT || eventType == SAXEvent.CDATA;
+      case Tree.CDATA_TEST:
+         return eventType == SAXEvent.CDATA;
+      case Tree.COMMENT_TEST:
+         return eventType == SAXEvent.COMMENT;
+      case Tree.PI_TEST:
+         return eventType == SAXEvent.PI &&
+                (step.value == null ||
+                 (lName != null && lName.equals(step.value)));
+      default:
+         // unknown kind of pattern: always a candidate
+         return true;
+      }
+   }
+
+
+   /**
+    * Collects all templates that may match a node.
+    * @return the candidate templates in their original order
+    * @see #accepts
+    */
+   private TemplateFactory.Instance[] collect(int eventType,
+                                              String uri, String lName)
+   {
+      Vector v = new Vector();
+      for (int i=0; i<templates.length; i++)
+         if (accepts(lastSteps[i], eventType, uri, lName))
+            v.addElement(templates[i]);
+      if (v.isEmpty())
+         return NO_TEMPLATES;
+      TemplateFactory.Instance[] candidates =
+         new TemplateFactory.Instance[v.size()];
+      v.toArray(candidates);
+      return candidates;
+   }
+
+
+   /**
+    * Returns the templates that may match a node.
+    * @param event the node
+    * @return an array (that must not be modified) containing the candidate
+    *         templates in descending priority order
+    */
+   public TemplateFactory.Instance[] getCandidates(SAXEvent event)
+   {
+      switch (event.type) {
+      case SAXEvent.ELEMENT:
+         return elementIndex.getCandidates(event.uri, event.lName);
+      case SAXEvent.TEXT:
+         return textTemplates;
+      case SAXEvent.CDATA:
+         return cdataTemplates;
+      case SAXEvent.ATTRIBUTE:
+         return attributeIndex.getCandidates(event.uri, event.lName);
+      case SAXEvent.COMMENT:
+         return commentTemplates;
+      case SAXEvent.PI:
+         Object candidates = piTargetMap.get(event.qName);
+         return candidates != null ? (TemplateFactory.Instance[])candidates
+                                   : piTemplates;
+      case SAXEvent.ROOT:
+         return rootTemplates;
+      default:
+         return templates;
+      }
+   }
+
+
+   /**
+    * Determines whether a template of this index may match a node in the
+    * subtree of an element on the ancestor stack. Predicates are not
+    * evaluated, they are simply assumed to be true.
+    * @param context the current context
+    * @param top the position of the element on the ancestor stack
+    * @return <code>false</code> if no template can match a descendant of
+    *         the element, <code>true</code> otherwise
+    */
+   public boolean mayMatchBelow(Context context, int top)
+      throws SAXException
+   {
+      if (matchesAtAnyDepth)
+         return true;
+      for (int i=0; i<anchoredPatterns.length; i++)
+         if (mayMatchBelow(anchoredPatterns[i], context, top))
+            return true;
+      for (int i=0; i<descendantPrefixes.length; i++)
+         if (mayMatchWithin(descendantPrefixes[i], context, top))
+            return true;
+      return false;
+   }
+
+
+   /**
+    * @param path an anchored path (see {@link #isAnchored})
+    * @return whether <code>path</code> may match a descendant of the
+    *         node at position <code>top</code> of the ancestor stack
+    */
+   private static boolean mayMatchBelow(Tree path, Context context, int top)
+      throws SAXException
+   {
+      // the parent of a matching node is either the node at top
+      // or one of its descendants
+      for (; path.type == Tree.CHILD; path = path.left)
+         if (mayMatchAt(path.left, context, top))
+            return true;
+      return false;
+   }
+
+
+   /**
+    * @param prefix an anchored path (see {@link #isAnchored})
+    * @return whether a descendant of the node at position <code>top</code>
+    *         of the ancestor stack may have an ancestor matched by
+    *         <code>prefix</code>
+    */
+   private static boolean mayMatchWithin(Tree prefix, Context context,
+                                         int top)
+      throws SAXException
+   {
+      // the matched ancestor is either an ancestor-or-self of the node
+      // at top or one of its descendants
+      for (int i=top; i>0; i--)
+         if (mayMatchAt(prefix, context, i))
+            return true;
+      return mayMatchBelow(prefix, context, top);
+   }
+
+
+   /**
+    * @param path an anchored path (see {@link #isAnchored})
+    * @return whether <code>path</code> may match the node at position
+    *         <code>top</code> of the ancestor stack
+    */
+   private static boolean mayMatchAt(Tree path, Context context, int top)
+      throws SAXException
+   {
+      for (; path.type == Tree.CHILD; path = path.left, top--) {
+         Tree step = path.right;
+         if (step.type == Tree.PREDICATE)
+            step = step.left;
+         if (top < 2 || !step.matches(context, top, false))
+            return false;
+      }
+      return path.matches(context, top, false); // the root
+   }
+
+
+   /**
+    * @return all templates of this index
+    */
+   public TemplateFactory.Instance[] getTemplates()
+   {
+      return templates;
+   }
+}
@@ -31,7 +31,6 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -48,6 +47,8 @@ import org.xml.sax.SAXParseException;
 
 public class TextFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -87,16 +88,51 @@ public class TextFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends NodeBase
    {
-      /** a StreamEmitter or a StringEmitter */
-      private StxEmitter stxEmitter;
+      private static final long serialVersionUID = 1L;
 
-      /** the buffer of the StringWriter or the StringEmitter resp. */
-      private StringBuffer buffer;
+      private int markup;
 
-      /** levels of recursive calls */
-      private int recursionLevel;
+      /**
+       * The constant result if this element contains only text,
+       * <code>null</code> otherwise
+       */
+      private char[] text;
 
-      private int markup;
+
+      /** The run-time state of a <code>stx:text</code> */
+      private final class TextFrame extends Frame
+      {
+         /** a StreamEmitter or a StringEmitter */
+         StxEmitter stxEmitter;
+
+         /** the buffer of the StringWriter or the StringEmitter resp. */
+         StringBuffer buffer;
+
+         /** levels of recursive calls */
+         int recursionLevel = 0;
+
+         TextFrame()
+         {
+            if (markup == SERIALIZE_MARKUP) {
+               // use our StreamEmitter with a StringWriter
+               StringWriter w = new StringWriter();
+               buffer = w.getBuffer();
+               stxEmitter = StreamEmitter.newXMLEmitter(w);
+            }
+            else {
+               // use our StringEmitter
+               buffer = new StringBuffer();
+               stxEmitter = new StringEmitter(
+                  buffer,
+                  markup == NO_MARKUP
+                     ? "('" + qName +
+                       "' with the 'markup' attribute set to '" +
+                       MARKUP_VALUES[NO_MARKUP] + "' started in line " +
+                       lineNo + ")"
+                     : null);
+            }
+         }
+      }
 
 
       public Instance(String qName, NodeBase parent, ParseContext context,
@@ -104,42 +140,49 @@ public class TextFactory extends FactoryBase
       {
          super(qName, parent, context, true);
          this.markup = markup;
-         init();
       }
 
 
-      private void init()
+      protected Frame createFrame()
       {
-         if (markup == SERIALIZE_MARKUP) {
-            // use our StreamEmitter with a StringWriter
-            StringWriter w = new StringWriter();
-            buffer = w.getBuffer();
-            stxEmitter = StreamEmitter.newXMLEmitter(w);
-         }
-         else {
-            // use our StringEmitter
-            buffer = new StringBuffer();
-            stxEmitter = new StringEmitter(
-               buffer,
-               markup == NO_MARKUP
-                  ? "('" + qName +
-                    "' with the 'markup' attribute set to '" +
-                    MARKUP_VALUES[NO_MARKUP] + "' started in line " +
-                    lineNo + ")"
-                  : null);
-         }
-         recursionLevel = 0;
+         return new TextFrame();
       }
 
 
+      /**
+       * Determines the constant result if this element contains only text
+       */
+      public boolean compile(int pass, ParseContext context)
+      {
+         if (markup == SERIALIZE_MARKUP)
+            return false; // needs the escaping of the StreamEmitter
+
+         StringBuffer buffer = new StringBuffer();
+         for (AbstractInstruction inst = next; inst != nodeEnd;
+              inst = inst.next) {
+            if (!(inst instanceof TextNode))
+               return false;
+            buffer.append(((TextNode)inst).getContents());
+         }
+         text = buffer.toString().toCharArray();
+         return false;
+      }
+
 
       public short process(Context context)
          throws SAXException
       {
+         if (text != null) {
+            // skip the children, processEnd emits the text
+            context.jumpTo(nodeEnd);
+            return PR_CONTINUE;
+         }
+
          super.process(context);
-         if (recursionLevel++ == 0) { // outermost invocation
-            buffer.setLength(0);
-            context.pushEmitter(stxEmitter);
+         TextFrame frame = (TextFrame)getFrame(context);
+         if (frame.recursionLevel++ == 0) { // outermost invocation
+            frame.buffer.setLength(0);
+            context.pushEmitter(frame.stxEmitter);
          }
          return PR_CONTINUE;
       }
@@ -148,21 +191,20 @@ public class TextFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         if (--recursionLevel == 0) { // outermost invocation
+         if (text != null) {
+            context.emitter.characters(text, 0, text.length, this);
+            return super.processEnd(context);
+         }
+
+         TextFrame frame = (TextFrame)getFrame(context);
+         if (--frame.recursionLevel == 0) { // outermost invocation
             context.popEmitter();
+            StringBuffer buffer = frame.buffer;
             context.emitter.characters(buffer.toString().toCharArray(),
                                        0, buffer.length(), this);
          }
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-      }
-
    }
 }
@@ -39,12 +39,18 @@ import net.sf.joost.stx.ParseContext;
 
 public class TextNode extends NodeBase
 {
+   private static final long serialVersionUID = 1L;
+
    private String string;
 
+   /** The characters of {@link #string}, shared by all executions */
+   private char[] chars;
+
    public TextNode(String s, NodeBase parent, ParseContext context)
    {
       super("", parent, context, false);
       string = s;
+      chars = s.toCharArray();
    }
 
 
@@ -54,8 +60,7 @@ public class TextNode extends NodeBase
    public short process(Context context)
       throws SAXException
    {
-      context.emitter.characters(string.toCharArray(), 0, string.length(), 
-                                 this);
+      context.emitter.characters(chars, 0, chars.length, this);
       return PR_CONTINUE;
    }
 
@@ -29,7 +29,9 @@ import java.util.Hashtable;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
+import net.sf.joost.stx.DescendantIndex;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.PositionIndex;
 import net.sf.joost.stx.Processor;
 
 import org.xml.sax.Attributes;
@@ -45,6 +47,8 @@ import org.xml.sax.SAXParseException;
 
 public class TransformFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed values for the <code>pass-through</code> attribute */
    private static final String[] PASS_THROUGH_VALUES =
    { "none", "text", "all" };
@@ -186,6 +190,8 @@ public class TransformFactory extends FactoryBase
    /** Represents an instance of the <code>transform</code> element. */
    final public class Instance extends GroupBase
    {
+      private static final long serialVersionUID = 1L;
+
       /** mapping table for <code>stx:namespace-alias</code> instructions */
       public Hashtable namespaceAliases;
 
@@ -199,6 +205,16 @@ public class TransformFactory extends FactoryBase
       // STX sheet to the calling Parser object
       public Vector compilableNodes;
 
+      /** The number of run-time frames needed for processing this sheet,
+          see {@link NodeBase#frameIndex} */
+      public int frameCount;
+
+      /** The position counters needed for processing this sheet */
+      public PositionIndex positionIndex;
+
+      /** The descendant steps of the patterns in this sheet */
+      public DescendantIndex descendantIndex;
+
       // Constructor
       public Instance(NodeBase parent, String qName, ParseContext context,
                       String outputEncoding, String outputMethod,
@@ -260,7 +276,8 @@ public class TransformFactory extends FactoryBase
              node instanceof VariableBase)   // param, variable, buffer
             super.insert(node);
          else if (node instanceof NSAliasFactory.Instance || 
-                  node instanceof ScriptFactory.Instance) {
+                  node instanceof ScriptFactory.Instance ||
+                  node instanceof KeyFactory.Instance) {
             // nothing to do in this case
          }
          else
@@ -29,7 +29,6 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -46,6 +45,8 @@ import org.xml.sax.SAXParseException;
 
 final public class ValueOfFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -79,6 +80,8 @@ final public class ValueOfFactory extends FactoryBase
    /** Represents an instance of the <code>value-of</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree select, separator;
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
@@ -99,7 +102,7 @@ final public class ValueOfFactory extends FactoryBase
       {
          Value v = select.evaluate(context, this);
          String s;
-         if (v.next == null)
+         if (!v.hasNext())
             s = v.getStringValue();
          else {
             // create a string from a sequence
@@ -109,15 +112,10 @@ final public class ValueOfFactory extends FactoryBase
                : " "; // default value
             // use a string buffer for creating the result
             StringBuffer sb = new StringBuffer();
-            Value nextVal = v.next;
-            v.next = null;
-            sb.append(v.getStringValue());
-            while (nextVal != null) {
+            sb.append(v.stringAt(0));
+            for (int i=1, count=v.count(); i<count; i++) {
                sb.append(sep);
-               v = nextVal;
-               nextVal = v.next;
-               v.next = null;
-               sb.append(v.getStringValue());
+               sb.append(v.stringAt(i));
             }
             s = sb.toString();
          }
@@ -125,16 +123,5 @@ final public class ValueOfFactory extends FactoryBase
          return PR_CONTINUE;
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-         if (separator != null)
-            theCopy.separator = separator.deepCopy(copies);
-      }
-
    }
 }
@@ -26,6 +26,9 @@ package net.sf.joost.instruction;
 
 import net.sf.joost.stx.ParseContext;
 
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
 
 /**
  * Common base class for variables, parameters, and buffers.
@@ -34,9 +37,22 @@ import net.sf.joost.stx.ParseContext;
  */
 public class VariableBase extends NodeBase
 {
+   private static final long serialVersionUID = 1L;
+
    protected String expName;
    protected boolean keepValue;
 
+   /**
+    * The slot of this variable, either in the local variables of the
+    * current template or in the group variables of the parent group
+    * (if the parent is a group)
+    */
+   protected int slot = -1;
+
+   /** The number of local variable slots needed while processing the
+       contents of a group variable */
+   int localVarCount;
+
    public VariableBase(String qName, NodeBase parent, ParseContext context,
                        String expName, boolean keepValue,
                        boolean mayHaveChildren)
@@ -44,5 +60,41 @@ public class VariableBase extends NodeBase
       super(qName, parent, context, mayHaveChildren);
       this.expName = expName;
       this.keepValue = keepValue;
+      if (parent instanceof GroupBase)
+         // the contents of a group variable has its own local variables
+         context.startLocalFrame();
+   }
+
+
+   public boolean compile(int pass, ParseContext context)
+      throws SAXException
+   {
+      if (pass == 0 && parent instanceof GroupBase)
+         localVarCount = context.endLocalFrame();
+      return false;
+   }
+
+
+   /**
+    * Assigns a {@link #slot} to this variable.
+    * @param kind the kind of this variable (for the error message)
+    * @param varName the qualified name of this variable
+    *        (for the error message)
+    * @param context the parse context
+    * @exception SAXParseException if there's already a variable with
+    *            the same name in the same scope
+    */
+   protected final void declare(String kind, String varName,
+                                ParseContext context)
+      throws SAXParseException
+   {
+      if (parent instanceof GroupBase)
+         slot = ((GroupBase)parent).declareVariable(expName);
+      else
+         slot = context.declareLocalVariable(expName, parent);
+      if (slot == -1)
+         throw new SAXParseException(
+            kind + " '" + varName + "' already declared",
+            publicId, systemId, lineNo, colNo);
    }
 }
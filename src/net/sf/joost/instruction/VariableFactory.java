@@ -30,10 +30,7 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -49,6 +46,8 @@ import org.xml.sax.SAXParseException;
 
 final public class VariableFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -95,6 +94,8 @@ final public class VariableFactory extends FactoryBase
    /** Represents an instance of the <code>variable</code> element. */
    public class Instance extends VariableBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String varName;
       private Tree select;
       private String errorMessage;
@@ -117,6 +118,19 @@ final public class VariableFactory extends FactoryBase
       }
 
 
+      /**
+       * Declares this variable after its contents has been parsed
+       * (the variable is not visible in its own contents)
+       */
+      public boolean compile(int pass, ParseContext context)
+         throws SAXException
+      {
+         super.compile(pass, context);
+         declare("Variable", varName, context);
+         return false;
+      }
+
+
       public short process(Context context)
          throws SAXException
       {
@@ -152,34 +166,11 @@ final public class VariableFactory extends FactoryBase
 
       /** Declares a variable */
       private void processVar(Value v, Context context)
-         throws SAXException
       {
          // determine scope
-         Hashtable varTable;
-         if (isGroupVar)
-            varTable = (Hashtable)((Stack)context.groupVars.get(parent))
-                                          .peek();
-         else {
-            varTable = context.localVars;
-            parent.declareVariable(expName);
-         }
-
-         if (varTable.get(expName) != null) {
-            context.errorHandler.error(
-               "Variable '" + varName + "' already declared",
-               publicId, systemId, lineNo, colNo);
-            return; // if the errorHandler returns
-         }
-         varTable.put(expName, v);
-      }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
+         Object[] vars = isGroupVar ? ((GroupBase)parent).getVariables(context)
+                                    : context.localVars;
+         vars[slot] = v;
       }
    }
 }
@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -45,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 final public class WhenFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -84,6 +85,8 @@ final public class WhenFactory extends FactoryBase
    /** Represents an instance of the <code>when</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree test;
 
       private AbstractInstruction trueNext, falseNext;
@@ -121,27 +124,14 @@ final public class WhenFactory extends FactoryBase
       {
          if (test.evaluate(context, this).getBooleanValue()) {
             super.process(context);
-            next = trueNext;
+            context.jumpTo(trueNext);
          }
          else
-            next = falseNext;
+            context.jumpTo(falseNext);
          return PR_CONTINUE;
       }
 
 
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (test != null)
-            theCopy.test = test.deepCopy(copies);
-         if (trueNext != null)
-            theCopy.trueNext = trueNext.deepCopy(copies);
-         if (falseNext != null)
-            theCopy.falseNext = falseNext.deepCopy(copies);
-      }
-
-
       //
       // for debugging
       //
@@ -28,7 +28,6 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
 import java.util.HashSet;
 
 import org.xml.sax.Attributes;
@@ -45,6 +44,8 @@ import org.xml.sax.SAXParseException;
 
 final public class WhileFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -75,6 +76,8 @@ final public class WhileFactory extends FactoryBase
    /** Represents an instance of the <code>while</code> element. */
    final public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private Tree test;
       private AbstractInstruction contents, successor;
 
@@ -111,25 +114,12 @@ final public class WhileFactory extends FactoryBase
       {
          if (test.evaluate(context, this).getBooleanValue()) {
             super.process(context);
-            next = contents;
+            context.jumpTo(contents);
          }
          else
-            next = successor;
+            context.jumpTo(successor);
          return PR_CONTINUE;
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (contents != null)
-            theCopy.contents = contents.deepCopy(copies);
-         if (successor != null)
-            theCopy.successor = successor.deepCopy(copies);
-         if (test != null)
-            theCopy.test = test.deepCopy(copies);
-      }
-
    }
 }
@@ -30,7 +30,6 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Vector;
 
@@ -48,6 +47,8 @@ import org.xml.sax.SAXParseException;
 
 final public class WithParamFactory extends FactoryBase
 {
+   private static final long serialVersionUID = 1L;
+
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -99,6 +100,8 @@ final public class WithParamFactory extends FactoryBase
    /** Represents an instance of the <code>with-param</code> element. */
    public class Instance extends NodeBase
    {
+      private static final long serialVersionUID = 1L;
+
       private String expName;
       private Tree select;
       private String errorMessage;
@@ -146,14 +149,5 @@ final public class WithParamFactory extends FactoryBase
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         if (select != null)
-            theCopy.select = select.deepCopy(copies);
-      }
-
    }
 }
@@ -29,17 +29,22 @@ import net.sf.joost.TransformerHandlerResolver;
 import net.sf.joost.plugins.attributes.Attribute;
 import net.sf.joost.plugins.attributes.BooleanAttribute;
 import net.sf.joost.plugins.attributes.StringAttribute;
+import net.sf.joost.trax.TemplatesCache;
 import net.sf.joost.trax.TrAXConstants;
 import net.sf.joost.trax.TransformerFactoryImpl;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Properties;
+import java.util.Vector;
+import java.util.WeakHashMap;
 
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -80,8 +85,10 @@ import org.xml.sax.XMLReader;
  * &lt;stx:with-param name="http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-URL" select="'true'" /&gr; )
  *
  * <li>http://stx.sourceforge.net/2002/ns/trax-filter:REUSE-TH-URL
- * If set to true it will cache instantiated transformer objects
- * and will reuse them each time same HREF is asked to be resolved.
+ * If set to true it will cache the compiled transformation sheet (the TrAX
+ * Templates object) and will reuse it each time same HREF is asked to be
+ * resolved. Every call still gets its own transformer handler, so the
+ * sheet may be used by concurrent threads.
  * This implied mainly for filter-src=url(...).
  * Possible values are true or false, false by default.</li>
  *
@@ -91,6 +98,15 @@ import org.xml.sax.XMLReader;
  * to have only one buffer() in your transformation.
  * Possible values are true or false, false by default.</li>
  *
+ * <li>http://stx.sourceforge.net/2002/ns/trax-filter:TEMPLATES-CACHE-SIZE
+ * The maximal number of compiled sheets kept for REUSE-TH-URL and
+ * REUSE-TH-BUFFER; the least recently used sheet will be evicted.
+ * The cache is shared by all transformations, see
+ * {@link #getTemplatesCache} for its statistics. Sheets compiled with
+ * different URIResolvers are cached separately, because the URIResolver
+ * determines the included sheets.
+ * Possible values are positive integers, 32 by default.</li>
+ *
  * <li>http://stx.sourceforge.net/2002/ns/trax-filter:FACTORY
  * Specifies what TrAX factory is to be used. This is necessary when you want to
  * specify factory different than build-in ones such as Xalan's XTLTC for instance.
@@ -147,6 +163,12 @@ public class THResolver implements TransformerHandlerResolver, Constants {
          System.getProperty(FILTER_ATTR_NS + ":REUSE-TH-BUFFER", "false"),
          attrs);
 
+   /** maximal number of compiled sheets in {@link #templatesCache} */
+   public static final StringAttribute TEMPLATES_CACHE_SIZE =
+      new StringAttribute("TEMPLATES-CACHE-SIZE",
+         System.getProperty(FILTER_ATTR_NS + ":TEMPLATES-CACHE-SIZE", "32"),
+         attrs);
+
    /**
     * if specified this class will be used as TransformerFactory for creating TH
     */
@@ -164,11 +186,32 @@ public class THResolver implements TransformerHandlerResolver, Constants {
          System.getProperty(FILTER_ATTR_NS + ":THREAT-URL-AS-SYSTEM_ID", "false"),
          attrs);
 
-   /** all XMLReader-based TH are reused under this hashtable key */
+   /** all XMLReader-based sheets are reused under this cache key */
    private static final String XMLREADER_KEY = "_XMLREADER";
 
-   /** cached TrAX TH */
-   private static Hashtable cachedTH = new Hashtable(5);
+   /**
+    * cached compiled sheets, the keys consist of the factory key (see
+    * {@link #getFactoryKey}), the URIResolver (see {@link #getResolverId})
+    * and the resolved href
+    */
+   private static TemplatesCache templatesCache =
+      new TemplatesCache(getTemplatesCacheSize());
+
+   /**
+    * TrAX factories for creating transformer handlers from cached sheets,
+    * the keys are factory keys (see {@link #getFactoryKey});
+    * a factory is locked while it is being used
+    */
+   private static Hashtable cachedFactories = new Hashtable(5);
+
+   /**
+    * the identifiers of the URIResolvers that have been used for compiling
+    * cached sheets, see {@link #getResolverId}
+    */
+   private static WeakHashMap resolverIds = new WeakHashMap();
+
+   /** the last identifier assigned in {@link #resolverIds} */
+   private static int lastResolverId = 0;
 
    /** supported URI methods */
    private static final String[] METHODS = { STX_METHOD, XSLT_METHOD, TRAX_METHOD };
@@ -212,50 +255,48 @@ public class THResolver implements TransformerHandlerResolver, Constants {
 
       setFilterAttributes( params );
 
-      TransformerHandler th = null;
-
-      // reuse th if available
-      th = getReusableHrefTH(method, href);
-
-      // new transformer if non available
-      if (th == null) {
-         // prepare the source
-         Source source = null;
-         try {
-            // use custom URIResolver if present
-            if (uriResolver != null) {
-               source = uriResolver.resolve(href, base);
+      // prepare the source
+      Source source = null;
+      try {
+         // use custom URIResolver if present
+         if (uriResolver != null) {
+            source = uriResolver.resolve(href, base);
+         }
+         if (source == null) {
+            if (HREF_IS_SYSTEM_ID.booleanValue()) {
+               // systemId
+               if (DEBUG)
+                  log.debug("resolve(url): new source out of systemId='"
+                        + href + "'");
+               source = new StreamSource(href);
             }
-            if (source == null) {
-               if (HREF_IS_SYSTEM_ID.booleanValue()) {
-                  // systemId
-                  if (DEBUG)
-                     log.debug("resolve(url): new source out of systemId='"
-                           + href + "'");
-                  source = new StreamSource(href);
-               }
-               else {
-                  // file
-                  String url = new URL(new URL(base), href).toExternalForm();
-                  if (DEBUG)
-                     log.debug("resolve(url): new source out of file='" + url
-                               + "'");
-                  source = new StreamSource(url);
-               }
+            else {
+               // file
+               String url = new URL(new URL(base), href).toExternalForm();
+               if (DEBUG)
+                  log.debug("resolve(url): new source out of file='" + url
+                            + "'");
+               source = new StreamSource(url);
             }
          }
-         catch (MalformedURLException muex) {
-            throw new SAXException(muex);
-         }
-         catch (TransformerException tex) {
-            throw new SAXException(tex);
-         }
-
-         th = newTHOutOfTrAX(method, source, params, errorListener, uriResolver);
-
-         // cache the instance if required
-         cacheHrefTH(method, href, th);
       }
+      catch (MalformedURLException muex) {
+         throw new SAXException(muex);
+      }
+      catch (TransformerException tex) {
+         throw new SAXException(tex);
+      }
+
+      TransformerHandler th;
+      String systemId;
+      if (REUSE_TH_URL.booleanValue() &&
+          (systemId = TemplatesCache.getSystemId(source)) != null)
+         // reuse the compiled sheet if available
+         th = newTHOutOfCache(method, source, systemId, systemId, params,
+                              errorListener, uriResolver);
+      else
+         th = newTHOutOfTrAX(method, source, params, errorListener,
+                             uriResolver);
 
       prepareTh(th, params);
       return th;
@@ -282,23 +323,19 @@ public class THResolver implements TransformerHandlerResolver, Constants {
 
       setFilterAttributes( params );
 
-      TransformerHandler th = null;
-
-      // reuse th if available
-      th = getReusableXmlReaderTH(method);
-
-      // new transformer if non available
-      if (th == null) {
-         // prepare the source
-         if (DEBUG)
-            log.debug("resolve(buffer): new source out of buffer");
-         Source source = new SAXSource(reader, new InputSource());
-
-         th = newTHOutOfTrAX(method, source, params, errorListener, uriResolver);
+      // prepare the source
+      if (DEBUG)
+         log.debug("resolve(buffer): new source out of buffer");
+      Source source = new SAXSource(reader, new InputSource());
 
-         // cache the instance if required
-         cacheBufferTH( method, th );
-      }
+      TransformerHandler th;
+      if (REUSE_TH_BUFFER.booleanValue())
+         // reuse the compiled sheet if available
+         th = newTHOutOfCache(method, source, XMLREADER_KEY, null, params,
+                              errorListener, uriResolver);
+      else
+         th = newTHOutOfTrAX(method, source, params, errorListener,
+                             uriResolver);
 
       prepareTh( th, params );
       return th;
@@ -317,60 +354,131 @@ public class THResolver implements TransformerHandlerResolver, Constants {
    }
 
    /**
-    * Lookup in the hashtable for cached TH instance based on href.
-    * Takes into account if caching flag is on.
-    * @param method
-    * @param href
-    * @return TH or null
+    * @return the cache of compiled sheets that is used if
+    *  {@link #REUSE_TH_URL} or {@link #REUSE_TH_BUFFER} is set; it provides
+    *  hit, miss and compile time statistics
     */
-   protected TransformerHandler getReusableHrefTH(String method, String href)
+   public static TemplatesCache getTemplatesCache()
    {
-      if (DEBUG)
-         log.debug("getReusableHrefTH(): href="+href);
+      return templatesCache;
+   }
 
-      if (REUSE_TH_URL.booleanValue())
-         return (TransformerHandler) cachedTH.get(method + href);
-      return null;
+   /** @return the value of {@link #TEMPLATES_CACHE_SIZE} */
+   private static int getTemplatesCacheSize()
+   {
+      String size = TEMPLATES_CACHE_SIZE.getValueStr();
+      try {
+         int value = Integer.parseInt(size);
+         if (value > 0)
+            return value;
+      }
+      catch (NumberFormatException ex) {
+      }
+      throw new IllegalArgumentException(
+         TEMPLATES_CACHE_SIZE + ": not a positive integer: " + size);
    }
 
    /**
-    * cache this TH instance if flags says so
-    * @param th
+    * Creates a TH instance for a compiled sheet from the cache, compiles
+    * the sheet and puts it into the cache if necessary
+    * @param method
+    * @param source
+    * @param key the cache key of the source (within the factory)
+    * @param systemId the resolved system identifier of the source,
+    *        <code>null</code> for buffers
+    * @return TH
     */
-   protected void cacheHrefTH( String method, String href, TransformerHandler th ) {
-      if (DEBUG)
-         log.debug("cacheHrefTH()");
+   protected TransformerHandler newTHOutOfCache(String method, Source source,
+                                                String key, String systemId,
+                                                Hashtable params,
+                                                ErrorListener errorListener,
+                                                URIResolver uriResolver)
+      throws SAXException
+   {
+      String factoryKey = getFactoryKey(method, params);
+      key = factoryKey + getResolverId(uriResolver) + '\n' + key;
+      SAXTransformerFactory saxtf =
+         (SAXTransformerFactory)cachedFactories.get(factoryKey);
+      if (saxtf == null) {
+         saxtf = newTraxFactory(method, params);
+         cachedFactories.put(factoryKey, saxtf);
+      }
 
-      if (REUSE_TH_URL.booleanValue())
-         cachedTH.put(method + href, th);
+      try {
+         Templates templates = templatesCache.get(key);
+         if (templates == null) {
+            if (DEBUG)
+               log.debug("newTHOutOfCache(): compiling " + key);
+            TemplatesCache.Compilation compilation =
+               templatesCache.startCompilation(systemId);
+            synchronized (saxtf) {
+               setupTransformerFactory(saxtf, errorListener, uriResolver);
+               templates = saxtf.newTemplates(source);
+            }
+            // concurrent threads may compile the same sheet, the last wins
+            templatesCache.put(key, compilation, templates);
+         }
+         TransformerHandler th;
+         synchronized (saxtf) {
+            th = saxtf.newTransformerHandler(templates);
+         }
+         setupTransformer(th.getTransformer(), errorListener, uriResolver);
+         return th;
+      }
+      catch (TransformerConfigurationException ex) {
+         throw new SAXException(ex);
+      }
    }
 
    /**
-    * Lookup in the hashtable for cached TH instance based on XmlReader.
-    * Takes into account if caching flag is on.
+    * Determines the key for the TrAX factory that will be used for a
+    * method, consisting of the method, {@link #FACTORY}, and the attributes
+    * for the factory in <code>params</code>
     * @param method
-    * @return TH or null
+    * @param params
+    * @return the key
     */
-   protected TransformerHandler getReusableXmlReaderTH(String method)
+   private String getFactoryKey(String method, Hashtable params)
    {
-      if (DEBUG)
-         log.debug("getReusableXmlReaderTH()");
-
-      if (REUSE_TH_BUFFER.booleanValue())
-         return (TransformerHandler) cachedTH.get(method + XMLREADER_KEY);
-      return null;
+      // sort the attributes, the order in params is arbitrary
+      Vector names = new Vector();
+      for (Enumeration e = params.keys(); e.hasMoreElements(); ) {
+         String key = (String)e.nextElement();
+         if (key.startsWith(tmp_TRAX_ATTR_NS))
+            names.addElement(key);
+      }
+      String[] sorted = new String[names.size()];
+      names.copyInto(sorted);
+      Arrays.sort(sorted);
+
+      StringBuffer key = new StringBuffer(method);
+      key.append('\n').append(FACTORY.getValueStr());
+      for (int i=0; i<sorted.length; i++)
+         key.append('\n').append(sorted[i]).append('=')
+            .append(params.get(sorted[i]));
+      return key.append("\n\n").toString();
    }
 
    /**
-    * cache this TH instance if flags says so
-    * @param th
+    * Determines the part of the cache key for the URIResolver that
+    * will be used for compiling a sheet. Every URIResolver object gets its
+    * own identifier, even if it is an instance of the same class as
+    * another one.
+    * @param uriResolver the URIResolver, may be <code>null</code>
+    * @return the identifier
     */
-   protected void cacheBufferTH( String method, TransformerHandler th ) {
-      if (DEBUG)
-         log.debug("cacheBufferTH()");
-
-      if (REUSE_TH_BUFFER.booleanValue())
-         cachedTH.put(method + XMLREADER_KEY, th);
+   private static String getResolverId(URIResolver uriResolver)
+   {
+      if (uriResolver == null)
+         return "0";
+      synchronized (resolverIds) {
+         Integer id = (Integer)resolverIds.get(uriResolver);
+         if (id == null) {
+            id = new Integer(++lastResolverId);
+            resolverIds.put(uriResolver, id);
+         }
+         return id.toString();
+      }
    }
 
    /**
@@ -388,6 +496,33 @@ public class THResolver implements TransformerHandlerResolver, Constants {
       if (DEBUG)
          log.debug("newTHOutOfTrAX()");
 
+      SAXTransformerFactory saxtf = newTraxFactory(method, params);
+      setupTransformerFactory(saxtf, errorListener, uriResolver);
+
+      try {
+         if (DEBUG)
+            log.debug("newTHOutOfTrAX(): creating factory's TH");
+         // TrAX way to create TH
+         TransformerHandler th = saxtf.newTransformerHandler(source);
+         setupTransformer(th.getTransformer(), errorListener, uriResolver);
+         return th;
+      }
+      catch (TransformerConfigurationException ex) {
+         throw new SAXException(ex);
+      }
+
+   }
+
+   /**
+    * Creates a new TrAX factory for a method and sets its attributes
+    * @param method
+    * @param params
+    * @return the factory
+    */
+   private SAXTransformerFactory newTraxFactory(String method,
+                                                Hashtable params)
+      throws SAXException
+   {
       SAXTransformerFactory saxtf;
 
       if (FACTORY.getValueStr().length() > 0) {
@@ -396,7 +531,7 @@ public class THResolver implements TransformerHandlerResolver, Constants {
             saxtf = (SAXTransformerFactory) (Class.forName(FACTORY
                   .getValueStr())).newInstance();
             if (DEBUG)
-               log.debug("newTHOutOfTrAX(): use custom TrAX factory "
+               log.debug("newTraxFactory(): use custom TrAX factory "
                      + FACTORY.getValueStr());
          }
          catch (InstantiationException e) {
@@ -413,7 +548,7 @@ public class THResolver implements TransformerHandlerResolver, Constants {
       else if (STX_METHOD.equals(method)) {
          saxtf = new TransformerFactoryImpl();
          if (DEBUG)
-            log.debug("newTHOutOfTrAX(): use default Joost factory "
+            log.debug("newTraxFactory(): use default Joost factory "
                   + saxtf.getClass().toString());
       }
       else {
@@ -456,26 +591,13 @@ public class THResolver implements TransformerHandlerResolver, Constants {
 
 
          if (DEBUG)
-            log.debug("newTHOutOfTrAX(): use default TrAX factory "+
+            log.debug("newTraxFactory(): use default TrAX factory "+
                       saxtf.getClass().toString());
       }
 
       // set factory attributes
       setTraxFactoryAttributes( saxtf, params );
-      setupTransformerFactory(saxtf, errorListener, uriResolver);
-
-      try {
-         if (DEBUG)
-            log.debug("newTHOutOfTrAX(): creating factory's reusable TH");
-         // TrAX way to create TH
-         TransformerHandler th = saxtf.newTransformerHandler(source);
-         setupTransformer(th.getTransformer(), errorListener, uriResolver);
-         return th;
-      }
-      catch (TransformerConfigurationException ex) {
-         throw new SAXException(ex);
-      }
-
+      return saxtf;
    }
 
    private void setupTransformerFactory(TransformerFactory factory,
@@ -586,6 +708,8 @@ public class THResolver implements TransformerHandlerResolver, Constants {
             a.setValue( String.valueOf( params.get( key ) ) );
             if (DEBUG)
                log.debug("setFilterAttributes(): set attribute "+name+"="+params.get(key));
+            if (a == TEMPLATES_CACHE_SIZE)
+               templatesCache.setMaxSize(getTemplatesCacheSize());
          }
       }
    }
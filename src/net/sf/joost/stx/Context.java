@@ -26,10 +26,12 @@ package net.sf.joost.stx;
 
 import net.sf.joost.OutputURIResolver;
 import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.GroupBase;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.instruction.PSiblingsFactory;
 
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Stack;
 
@@ -75,12 +77,14 @@ public final class Context implements Cloneable
    /** Encountered <code>stx:process-siblings</code> instruction */
    public PSiblingsFactory.Instance psiblings;
 
-   /** Hashtable for Stacks of group variables
-       (key=group instance, value=Stack of Hashtables). */
-   public Hashtable groupVars = new Hashtable();
-
-   /** Local defined variables of a template. */
-   public Hashtable localVars = new Hashtable();
+   /**
+    * Local defined variables of the current template, indexed by the slots
+    * that have been allocated while parsing. Every instantiation of a
+    * template gets a new array, so the array may be shared with the
+    * suspended templates on the data stack of the {@link Processor}.
+    * (The group variables are stored in the frames of the groups.)
+    */
+   public Object[] localVars = new Object[0];
 
    /** External parameters passed to the transformation */
    public Hashtable globalParameters = new Hashtable();
@@ -114,6 +118,53 @@ public final class Context implements Cloneable
     */
    public StxEmitter messageEmitter;
 
+   /**
+    * The size in bytes above which the contents of a buffer will be
+    * written to temporary files, 0 keeps all buffers in memory
+    * (see {@link net.sf.joost.emitter.BufferEmitter})
+    */
+   public int bufferSpillThreshold;
+
+   /**
+    * The buffers of the current transformation that have written their
+    * contents to temporary files; these files will be deleted at the end
+    * of the transformation
+    * (see {@link net.sf.joost.emitter.BufferEmitter#clearAll})
+    */
+   public HashSet spilledBuffers = new HashSet();
+
+   /**
+    * The cache for documents processed by <code>stx:process-document</code>,
+    * <code>null</code> if these documents are parsed on every request
+    */
+   public DocumentCache documentCache;
+
+   /**
+    * The run-time frames of the instructions in the transformation sheet,
+    * indexed by {@link NodeBase#frameIndex}. The instructions themselves
+    * don't contain run-time state, so they can be shared by several
+    * concurrent {@link Processor} objects.
+    */
+   public NodeBase.Frame[] frames;
+
+   /** The instruction to continue with, see {@link #jumpTo} */
+   public AbstractInstruction jumpTarget;
+
+   /** Set if {@link #jumpTarget} is valid */
+   public boolean jumpRequested;
+
+   /**
+    * Continue the processing with <code>target</code> instead of the
+    * next instruction of the currently processed instruction.
+    * @param target the next instruction to be processed, may be
+    *        <code>null</code>
+    */
+   public void jumpTo(AbstractInstruction target)
+   {
+      jumpTarget = target;
+      jumpRequested = true;
+   }
+
    /** Instantiate a new emitter object for a new result event stream */
    public void pushEmitter(StxEmitter stxEmitter)
    {
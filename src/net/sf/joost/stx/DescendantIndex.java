@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import net.sf.joost.grammar.Tree;
+
+import java.io.Serializable;
+import java.util.Stack;
+
+import org.xml.sax.SAXException;
+
+
+/**
+ * Matches the left paths of the descendant steps (<code>//</code>) in the
+ * patterns of a transformation sheet incrementally. Whenever an element is
+ * pushed on the ancestor stack, every path is matched once against the
+ * new element. The result is combined with the states of the parent, so
+ * the states of an element tell whether a path matches the element itself
+ * or one of its ancestors. A descendant step then needs to look at the
+ * states of the parent only, instead of walking the whole ancestor stack.
+ * <p>
+ * Only paths without predicates get a slot, because predicates may depend
+ * on variables or positions that change while the element is on the stack.
+ * Slots are allocated while parsing; afterwards an instance is read-only
+ * and may be shared by concurrent transformations.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class DescendantIndex implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** The left paths of the descendant steps, indexed by slot */
+   private Tree[] paths = new Tree[0];
+
+
+   /**
+    * Allocates a slot for the left path of a descendant step.
+    * @param path the path, must not contain predicates
+    * @return the slot
+    */
+   public int requestSlot(Tree path)
+   {
+      Tree[] tmp = new Tree[paths.length+1];
+      System.arraycopy(paths, 0, tmp, 0, paths.length);
+      tmp[paths.length] = path;
+      paths = tmp;
+      return paths.length-1;
+   }
+
+
+   /** @return the number of allocated slots */
+   public int getSlotCount()
+   {
+      return paths.length;
+   }
+
+
+   /**
+    * Determines the states of the element on top of the ancestor stack.
+    * @param context the current context
+    */
+   public void enterElement(Context context)
+      throws SAXException
+   {
+      if (paths.length == 0)
+         return;
+
+      Stack stack = context.ancestorStack;
+      int top = stack.size();
+      SAXEvent parent = (SAXEvent)stack.elementAt(top-2);
+      boolean[] states;
+      if (parent.type == SAXEvent.ELEMENT) {
+         states = parent.descendantStates;
+         if (states == null) // unknown, descendant steps use the stack
+            return;
+      }
+      else
+         states = new boolean[paths.length];
+
+      // the states are shared with the parent unless a path matches
+      boolean shared = parent.type == SAXEvent.ELEMENT;
+      for (int i=0; i<paths.length; i++)
+         if (!states[i] && paths[i].matches(context, top, false)) {
+            if (shared) {
+               boolean[] tmp = new boolean[paths.length];
+               System.arraycopy(states, 0, tmp, 0, paths.length);
+               states = tmp;
+               shared = false;
+            }
+            states[i] = true;
+         }
+      ((SAXEvent)stack.elementAt(top-1)).descendantStates = states;
+   }
+}
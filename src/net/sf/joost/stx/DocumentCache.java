@@ -0,0 +1,242 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.stx;
+
+import net.sf.joost.Constants;
+import net.sf.joost.OptionalLog;
+import net.sf.joost.emitter.BufferContents;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.util.LRUCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+
+/**
+ * Cache for documents that are processed by
+ * <code>stx:process-document</code>. A document is parsed only once and
+ * its events are kept in packed form (see {@link BufferContents}); later
+ * requests replay these events instead of parsing the document again.
+ * The cache is bounded by the memory occupied by the documents, the least
+ * recently used documents will be evicted. If a document is a local file,
+ * its modification time is checked on every request and a changed file is
+ * parsed again.
+ * <p>
+ * An instance is usually shared by all processors created from the same
+ * compiled transformation sheet and may be used by concurrent threads.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class DocumentCache implements Constants
+{
+   private static Log log = OptionalLog.getLog(DocumentCache.class);
+
+   /**
+    * Records the events of a document, ignores comments and processing
+    * instructions in the DTD (like {@link Processor})
+    */
+   private static final class Recorder extends BufferEmitter
+   {
+      private boolean insideDTD;
+
+      public void startDTD(String name, String publicId, String systemId)
+      {
+         insideDTD = true;
+      }
+
+      public void endDTD()
+      {
+         insideDTD = false;
+      }
+
+      public void comment(char[] ch, int start, int length)
+         throws SAXException
+      {
+         if (!insideDTD)
+            super.comment(ch, start, length);
+      }
+
+      public void processingInstruction(String target, String data)
+         throws SAXException
+      {
+         if (!insideDTD)
+            super.processingInstruction(target, data);
+      }
+   }
+
+   /** The cached documents, their sizes are measured in bytes */
+   private final LRUCache cache;
+
+   /**
+    * Documents that didn't fit into the cache, mapped to the
+    * {@link LRUCache.Stamp stamps} of their files; these documents
+    * are parsed directly
+    */
+   private final HashMap tooLarge = new HashMap();
+
+   /** The maximal number of entries in {@link #tooLarge} */
+   private static final int TOO_LARGE_COUNT = 256;
+
+
+   /**
+    * Constructs a cache.
+    * @param maxSize the maximal memory in bytes occupied by the cached
+    *        documents, documents that are larger won't be cached
+    */
+   public DocumentCache(long maxSize)
+   {
+      cache = new LRUCache(maxSize);
+   }
+
+
+   /**
+    * Returns the events of a document, parses the document if it is not in
+    * the cache or if it has been changed.
+    * @param uri the absolute URI of the document
+    * @param errorHandler the error handler for the parser
+    * @return the events of the document, <code>null</code> if the document
+    *         is known to be too large for the cache, so the caller should
+    *         parse it directly
+    * @throws IOException if the document couldn't be read
+    * @throws SAXException if the document couldn't be parsed
+    */
+   public BufferContents getDocument(String uri, ErrorHandler errorHandler)
+      throws IOException, SAXException
+   {
+      synchronized (this) {
+         BufferContents contents = (BufferContents)cache.get(uri);
+         if (contents != null)
+            return contents;
+         LRUCache.Stamp large = (LRUCache.Stamp)tooLarge.get(uri);
+         if (large != null && !large.isStale())
+            return null;
+      }
+
+      // look at the file before parsing it, so a change while parsing
+      // will be detected next time
+      File file = LRUCache.toFile(uri);
+      LRUCache.Stamp stamp =
+         new LRUCache.Stamp(file != null ? new File[] { file }
+                                         : new File[0]);
+
+      // concurrent threads may parse the same document, the last one wins
+      Recorder recorder = new Recorder();
+      XMLReader reader = Processor.createXMLReader();
+      reader.setErrorHandler(errorHandler);
+      reader.setContentHandler(recorder);
+      try {
+         reader.setProperty("http://xml.org/sax/properties/lexical-handler",
+                            recorder);
+      }
+      catch (SAXException ex) {
+         if (log != null)
+            log.warn("Accessing " + reader + ": " + ex);
+      }
+      reader.parse(new InputSource(uri));
+      recorder.filled();
+      BufferContents contents = recorder.getContents().trim();
+
+      synchronized (this) {
+         if (contents.getSize() > cache.getMaxSize()) {
+            if (DEBUG)
+               log.debug("Document too large for the cache: " + uri);
+            if (tooLarge.size() == TOO_LARGE_COUNT)
+               tooLarge.clear();
+            tooLarge.put(uri, stamp);
+         }
+         else
+            cache.put(uri, contents, stamp, contents.getSize());
+      }
+      return contents;
+   }
+
+
+   /** @return the number of cached documents */
+   public synchronized int getDocumentCount()
+   {
+      return cache.getCount();
+   }
+
+
+   /** @return the memory in bytes occupied by the cached documents */
+   public synchronized long getSize()
+   {
+      return cache.getSize();
+   }
+
+
+   /** @return the maximal memory in bytes for the cached documents */
+   public synchronized long getMaxSize()
+   {
+      return cache.getMaxSize();
+   }
+
+
+   /** @return the number of requests that found the document in the cache */
+   public synchronized long getHits()
+   {
+      return cache.getHits();
+   }
+
+
+   /** @return the number of requests that parsed the document */
+   public synchronized long getMisses()
+   {
+      return cache.getMisses();
+   }
+
+
+   /** @return the number of documents evicted because of the size limit */
+   public synchronized long getEvictions()
+   {
+      return cache.getEvictions();
+   }
+
+
+   /** Removes all documents, the statistics will be retained */
+   public synchronized void clear()
+   {
+      cache.clear();
+      tooLarge.clear();
+   }
+
+
+   /** @return a summary of the statistics */
+   public synchronized String toString()
+   {
+      return "DocumentCache[documents=" + cache.getCount() + ", size=" +
+             cache.getSize() + "/" + cache.getMaxSize() + ", hits=" +
+             cache.getHits() + ", misses=" + cache.getMisses() +
+             ", evictions=" + cache.getEvictions() + "]";
+   }
+}
@@ -26,7 +26,9 @@ package net.sf.joost.stx;
 
 import net.sf.joost.Constants;
 import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.SerializedFragment;
 import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.emitter.XmlEmitter;
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.helpers.MutableAttributes;
@@ -38,8 +40,6 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Stack;
 
 import org.xml.sax.Attributes;
@@ -94,6 +94,24 @@ public class Emitter implements Constants
       this.errorHandler = errorHandler;
    }
 
+   /**
+    * Resets this emitter for a new result stream; discards pending events
+    * and the namespace state left by an aborted transformation.
+    */
+   public void reset()
+   {
+      nsSupport.reset();
+      nsDefault = "";
+      nsStack.clear();
+      openedElements.clear();
+      lastUri = lastLName = lastQName = null;
+      lastAttrs = null;
+      lastInstruction = null;
+      insideCDATA = false;
+      dtdAllowed = true;
+   }
+
+
    /** Called from {@link #pushEmitter(StxEmitter)} */
    protected Emitter(Emitter prev, StxEmitter handler)
    {
@@ -232,7 +250,7 @@ public class Emitter implements Constants
     * @param instruction the instruction that causes this method invocation
     */
    public void startElement(String uri, String lName, String qName,
-                            Attributes attrs, Hashtable namespaces,
+                            Attributes attrs, NamespaceScope namespaces,
                             NodeBase instruction)
       throws SAXException
    {
@@ -276,9 +294,9 @@ public class Emitter implements Constants
 
          if (namespaces != null) {
             // does #namespaces contain undeclared namespaces?
-            for (Enumeration e = namespaces.keys(); e.hasMoreElements(); ) {
-               String thePrefix = (String)e.nextElement();
-               String theUri = (String)namespaces.get(thePrefix);
+            for (int i=0; i<namespaces.size(); i++) {
+               String thePrefix = namespaces.getPrefix(i);
+               String theUri = namespaces.getURI(i);
                if ("".equals(thePrefix)) { // default namespace
                   if (!theUri.equals(nsDefault)) {
                      contH.startPrefixMapping("", theUri);
@@ -360,6 +378,39 @@ public class Emitter implements Constants
    }
 
 
+   /**
+    * Emits a constant fragment as a block of serialized characters, which
+    * is possible if the result is a stream that uses the <code>xml</code>
+    * output method.
+    * @param fragment the fragment
+    * @param instruction the instruction that causes this method invocation
+    * @return <code>true</code> if the fragment has been written,
+    *         <code>false</code> if the caller has to emit its events instead
+    */
+   public boolean fragment(SerializedFragment fragment, NodeBase instruction)
+      throws SAXException
+   {
+      if (contH == null)
+         return true; // nothing to emit
+      if (insideCDATA || !(contH instanceof XmlEmitter))
+         return false;
+      if (lastAttrs != null)
+         processLastElement();
+      try {
+         return ((XmlEmitter)contH).writeFragment(fragment);
+      }
+      catch (SAXException ex) {
+         errorHandler.fatalError(ex.getMessage(),
+                                 instruction.publicId,
+                                 instruction.systemId,
+                                 instruction.lineNo,
+                                 instruction.colNo,
+                                 ex);
+         return true;
+      }
+   }
+
+
    /**
     * Emits characters.
     * @param instruction the instruction that causes this method invocation
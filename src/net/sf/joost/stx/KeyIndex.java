@@ -0,0 +1,393 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.stx;
+
+import net.sf.joost.emitter.BufferContents;
+import net.sf.joost.grammar.Tree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Stack;
+import java.util.Vector;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/**
+ * Hash index over the elements of a buffer, built for a
+ * <code>joost:key</code> declaration. The events of the buffer are
+ * replayed once; every element that matches the pattern of the key is
+ * recorded as a node together with the string values of the key
+ * expression, which is evaluated for this element like in a template
+ * (i.e. it sees the element, its attributes and its ancestors). The
+ * string value of a recorded node is the concatenation of all text in its
+ * subtree. Afterwards each lookup costs a hash table access.
+ * <p>
+ * An index belongs to a single transformation and refers to an immutable
+ * {@link BufferContents} object, so it becomes stale (but remains correct
+ * for the old contents) when the buffer is filled again.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class KeyIndex
+{
+   /** estimated sizes in bytes of the objects that make up the index */
+   private static final int NODE_SIZE = 160, ATTRIBUTE_SIZE = 72,
+                            ENTRY_SIZE = 96, STRING_SIZE = 40;
+
+   /** The buffer contents this index has been built from */
+   private final BufferContents contents;
+
+   /** The recorded nodes in document order */
+   private Value[] nodes;
+
+   /**
+    * Maps the string value of a key to the indexes of its nodes in
+    * {@link #nodes}, stored as <code>int[]</code> in ascending order
+    */
+   private final HashMap entries = new HashMap();
+
+   /** The estimated memory occupied by this index */
+   private long size;
+
+
+   /**
+    * Builds the index.
+    * @param contents the contents of the buffer
+    * @param match the pattern that selects the elements
+    * @param use the expression that computes the keys of an element
+    * @param positionIndex the position counter slots of the sheet
+    * @param context the current context, its
+    *        {@link Context#currentInstruction} and
+    *        {@link Context#currentGroup} must have been set for evaluating
+    *        <code>match</code> and <code>use</code>
+    */
+   public KeyIndex(BufferContents contents, Tree match, Tree use,
+                   PositionIndex positionIndex, Context context)
+      throws SAXException
+   {
+      this.contents = contents;
+      Stack ancestorStack = context.ancestorStack;
+      long position = context.position;
+      Builder builder = new Builder(match, use, positionIndex, context);
+      try {
+         context.ancestorStack = builder.eventStack;
+         contents.parse(builder, builder);
+      }
+      finally {
+         context.ancestorStack = ancestorStack;
+         context.position = position;
+      }
+      nodes = new Value[builder.nodes.size()];
+      builder.nodes.toArray(nodes);
+      size += builder.size;
+
+      // trim the node lists
+      for (Iterator it = entries.entrySet().iterator(); it.hasNext(); ) {
+         Map.Entry e = (Map.Entry)it.next();
+         int[] list = (int[])e.getValue();
+         int count = list[0];
+         int[] trimmed = new int[count];
+         System.arraycopy(list, 1, trimmed, 0, count);
+         e.setValue(trimmed);
+         size += ENTRY_SIZE + STRING_SIZE +
+                 2 * ((String)e.getKey()).length() + 4 * count;
+      }
+   }
+
+
+   /** @return the buffer contents this index has been built from */
+   public BufferContents getContents()
+   {
+      return contents;
+   }
+
+   /** @return the number of recorded nodes */
+   public int getNodeCount()
+   {
+      return nodes.length;
+   }
+
+   /** @return the number of distinct keys */
+   public int getKeyCount()
+   {
+      return entries.size();
+   }
+
+   /**
+    * @return an estimate of the memory in bytes occupied by this index,
+    *         not counting the buffer contents
+    */
+   public long getSize()
+   {
+      return size;
+   }
+
+
+   /**
+    * Looks up the nodes for one or more keys.
+    * @param keys the key values; every item is compared by its string
+    *        value
+    * @return the nodes whose key equals one of <code>keys</code>, in
+    *         document order and without duplicates
+    */
+   public Value get(Value keys)
+   {
+      if (keys.type == Value.EMPTY)
+         return Value.VAL_EMPTY;
+      if (!keys.hasNext())
+         return getNodes((int[])entries.get(keys.getStringValue()));
+
+      // merge the node lists of all keys
+      int count = keys.count();
+      int[] merged = new int[0];
+      int length = 0;
+      for (int i=0; i<count; i++) {
+         int[] list = (int[])entries.get(keys.itemAt(i).getStringValue());
+         if (list == null)
+            continue;
+         if (length + list.length > merged.length) {
+            int[] tmp = new int[Math.max(merged.length << 1,
+                                         length + list.length)];
+            System.arraycopy(merged, 0, tmp, 0, length);
+            merged = tmp;
+         }
+         System.arraycopy(list, 0, merged, length, list.length);
+         length += list.length;
+      }
+      Arrays.sort(merged, 0, length);
+      int unique = 0;
+      for (int i=0; i<length; i++)
+         if (unique == 0 || merged[i] != merged[unique-1])
+            merged[unique++] = merged[i];
+      int[] list = new int[unique];
+      System.arraycopy(merged, 0, list, 0, unique);
+      return getNodes(list);
+   }
+
+
+   /** @return the nodes with the indexes <code>list</code> */
+   private Value getNodes(int[] list)
+   {
+      if (list == null || list.length == 0)
+         return Value.VAL_EMPTY;
+      if (list.length == 1)
+         return nodes[list[0]];
+      Sequence.Builder seq = new Sequence.Builder(list.length);
+      for (int i=0; i<list.length; i++)
+         seq.add(nodes[list[i]]);
+      return seq.toValue();
+   }
+
+
+   /** Adds a node index to the list of a key */
+   private void addEntry(String key, int node)
+   {
+      // a list contains its length in the first element
+      int[] list = (int[])entries.get(key);
+      if (list == null) {
+         list = new int[4];
+         entries.put(key, list);
+      }
+      else if (list[list[0]] == node) // key computed twice for this node
+         return;
+      else if (list[0] + 1 == list.length) {
+         int[] tmp = new int[list.length << 1];
+         System.arraycopy(list, 0, tmp, 0, list.length);
+         list = tmp;
+         entries.put(key, list);
+      }
+      list[++list[0]] = node;
+   }
+
+
+   /** A recorded element whose end hasn't been reached yet */
+   private static final class OpenNode
+   {
+      final SAXEvent event;
+
+      /** the size of the ancestor stack for this element */
+      final int depth;
+
+      /** the start of the text of this element in {@link Builder#text} */
+      final int textStart;
+
+      OpenNode(SAXEvent event, int depth, int textStart)
+      {
+         this.event = event;
+         this.depth = depth;
+         this.textStart = textStart;
+      }
+   }
+
+
+   /**
+    * Receives the events of the buffer, maintains the ancestor stack and
+    * records the matching elements.
+    */
+   private final class Builder extends DefaultHandler
+      implements LexicalHandler
+   {
+      private final Tree match, use;
+      private final PositionIndex positionIndex;
+      private final Context context;
+
+      /** the ancestor stack while replaying the buffer */
+      final Stack eventStack = new Stack();
+
+      /** the recorded nodes */
+      final Vector nodes = new Vector();
+
+      /** the estimated memory occupied by the recorded nodes */
+      long size;
+
+      /** the in-scope namespaces of the open elements */
+      private final Stack scopes = new Stack();
+      private NamespaceScope scope = NamespaceScope.ROOT;
+
+      /** the recorded elements that are still open */
+      private final Stack openNodes = new Stack();
+
+      /** the text of the open recorded elements */
+      private final StringBuffer text = new StringBuffer();
+
+      private boolean insideCDATA;
+
+      Builder(Tree match, Tree use, PositionIndex positionIndex,
+              Context context)
+      {
+         this.match = match;
+         this.use = use;
+         this.positionIndex = positionIndex;
+         this.context = context;
+         eventStack.push(SAXEvent.newRoot());
+      }
+
+      public void startPrefixMapping(String prefix, String uri)
+      {
+         scope = scope.declare(prefix, uri);
+      }
+
+      public void startElement(String uri, String lName, String qName,
+                               Attributes attrs)
+         throws SAXException
+      {
+         SAXEvent event = SAXEvent.newElement(uri, lName, qName, attrs,
+                                              false, scope);
+         SAXEvent parent = (SAXEvent)eventStack.peek();
+         parent.enableChildNodes(true);
+         parent.countElement(event.uriCode, event.lNameCode, positionIndex);
+         eventStack.push(event);
+         scopes.push(scope);
+
+         int top = eventStack.size();
+         if (!match.matches(context, top, true))
+            return;
+         Value keys = use.evaluate(context, top);
+         if (keys.type == Value.EMPTY)
+            return;
+         int node = nodes.size();
+         nodes.addElement(new Value(event));
+         size += NODE_SIZE + ATTRIBUTE_SIZE * attrs.getLength();
+         for (int i=0; i<attrs.getLength(); i++)
+            size += 2 * attrs.getValue(i).length();
+         int count = keys.count();
+         for (int i=0; i<count; i++)
+            addEntry(keys.itemAt(i).getStringValue(), node);
+
+         if (openNodes.isEmpty())
+            text.setLength(0);
+         openNodes.push(new OpenNode(event, top, text.length()));
+      }
+
+      public void endElement(String uri, String lName, String qName)
+      {
+         if (!openNodes.isEmpty() &&
+             ((OpenNode)openNodes.peek()).depth == eventStack.size()) {
+            OpenNode open = (OpenNode)openNodes.pop();
+            open.event.value = text.substring(open.textStart);
+            size += STRING_SIZE + 2 * open.event.value.length();
+         }
+         eventStack.pop();
+         scopes.pop();
+         scope = scopes.isEmpty() ? NamespaceScope.ROOT
+                                  : (NamespaceScope)scopes.peek();
+      }
+
+      public void characters(char[] ch, int start, int length)
+      {
+         SAXEvent parent = (SAXEvent)eventStack.peek();
+         parent.enableChildNodes(true);
+         if (insideCDATA)
+            parent.countCDATA(positionIndex);
+         else
+            parent.countText(positionIndex);
+         if (!openNodes.isEmpty())
+            text.append(ch, start, length);
+      }
+
+      public void processingInstruction(String target, String data)
+      {
+         SAXEvent parent = (SAXEvent)eventStack.peek();
+         parent.enableChildNodes(true);
+         parent.countPI(target, positionIndex);
+      }
+
+      public void comment(char[] ch, int start, int length)
+      {
+         SAXEvent parent = (SAXEvent)eventStack.peek();
+         parent.enableChildNodes(true);
+         parent.countComment(positionIndex);
+      }
+
+      public void startCDATA()
+      {
+         insideCDATA = true;
+      }
+
+      public void endCDATA()
+      {
+         insideCDATA = false;
+      }
+
+      public void startDTD(String name, String publicId, String systemId)
+      { }
+
+      public void endDTD()
+      { }
+
+      public void startEntity(String name)
+      { }
+
+      public void endEntity(String name)
+      { }
+   }
+}
@@ -0,0 +1,180 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+
+/**
+ * Sequence whose items are computed on demand. A subclass produces the
+ * items one after another in {@link #nextItem}; {@link #toValue} returns
+ * the sequence as a {@link Value}.
+ * <p>
+ * Stepping through such a value by {@link Value#getNext} computes only
+ * one item in advance, and items that are no longer referenced may be
+ * garbage collected while the rest of the sequence hasn't been computed
+ * yet. Random access (for example {@link Value#count} or
+ * {@link Value#itemAt} with a position other than 0) computes the
+ * remaining items at once and stores them in a {@link Sequence}.
+ * <p>
+ * Like all values, lazily evaluated sequences must not be shared between
+ * concurrent transformations.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public abstract class LazySequence
+{
+   /**
+    * Computes the next item.
+    * @return the next item, a single value and not the empty sequence,
+    *         or <code>null</code> if there are no more items
+    */
+   protected abstract Value nextItem();
+
+
+   /**
+    * @return this sequence as a value; the first two items have been
+    *         computed, a sequence with less than two items is returned
+    *         as an ordinary value
+    */
+   public final Value toValue()
+   {
+      Value first = nextItem();
+      if (first == null)
+         return Value.VAL_EMPTY;
+      Value second = nextItem();
+      if (second == null)
+         return first;
+      return new Value(first, new Cell(this, second));
+   }
+
+
+
+   /**
+    * The state of a value that is an item of a lazily evaluated sequence.
+    */
+   static final class Cell
+   {
+      /**
+       * The source of the following items, <code>null</code> as soon as
+       * the successor of this item has been determined
+       */
+      private LazySequence source;
+
+      /**
+       * The item that follows, computed in advance; replaced by the head
+       * of the rest of the sequence when this has been requested
+       */
+      private Value next;
+
+      /**
+       * All items starting with this one, stored in a {@link Sequence};
+       * <code>null</code> if they haven't been computed yet
+       */
+      private Value items;
+
+
+      private Cell(LazySequence source, Value next)
+      {
+         this.source = source;
+         this.next = next;
+      }
+
+
+      /** @return whether all items have been computed and stored */
+      boolean hasItems()
+      {
+         return items != null;
+      }
+
+
+      /**
+       * @return the rest of the sequence that follows this item
+       */
+      Value getNext()
+      {
+         if (items != null)
+            return items.getNext();
+         if (source != null) {
+            Value following = source.nextItem();
+            if (following != null)
+               next = new Value(next, new Cell(source, following));
+            // else next is the last item
+            source = null;
+         }
+         return next;
+      }
+
+
+      /**
+       * Computes all remaining items.
+       * @param head the value this cell belongs to
+       * @return the items starting with <code>head</code>, stored in a
+       *         {@link Sequence}
+       */
+      Value getItems(Value head)
+      {
+         if (items != null)
+            return items;
+
+         Sequence.Builder builder = new Sequence.Builder();
+         builder.add(head.singleCopy());
+         Cell cell = this;
+         // follow the items that have been requested already
+         while (cell.source == null && cell.items == null) {
+            Value v = cell.next;
+            builder.add(v.singleCopy());
+            cell = v.getCell();
+            if (cell == null) { // v was the last item
+               items = builder.toValue();
+               next = null;
+               return items;
+            }
+         }
+         int frontier = builder.size() - 1; // the position of cell
+         if (cell.items != null) {
+            // the remaining items have been stored already
+            Value rest = cell.items.getNext();
+            if (rest != null)
+               builder.add(rest);
+            items = builder.toValue();
+         }
+         else {
+            // compute all remaining items
+            builder.add(cell.next);
+            for (Value v = cell.source.nextItem(); v != null;
+                 v = cell.source.nextItem())
+               builder.add(v);
+            cell.source = null;
+            items = builder.toValue();
+            if (cell != this) {
+               // other values might refer to cell
+               cell.items = items.subsequence(frontier, builder.size());
+               cell.next = null;
+            }
+         }
+         next = null;
+         return items;
+      }
+   }
+}
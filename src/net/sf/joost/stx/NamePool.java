@@ -0,0 +1,200 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+
+/**
+ * Global pool that assigns integer codes to namespace URIs and local names.
+ * Equal strings always get the same code, so names of nodes and name tests
+ * can be compared by their codes. The codes are dense, starting with 0.
+ * <p>
+ * Looking up a known name doesn't need any synchronization; only adding a
+ * new name locks the pool.
+ * <p>
+ * The codes depend on the order in which the names have been added, so
+ * they are valid in the current VM only. Objects that store codes must
+ * serialize the names instead (see {@link #getName}).
+ * <p>
+ * Names of the sheets are always added, but names of the input are added
+ * only while the pool holds less than {@link #getMaxSize} names; other input
+ * names get {@link #NO_CODE}. Since the name tests of a sheet are encoded
+ * before it processes any input, such a name can't match a name test.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class NamePool
+{
+   /** An entry of the hash table, immutable once constructed */
+   private static final class Entry
+   {
+      final String name;
+      final int code;
+      final Entry next;
+
+      Entry(String name, int code, Entry next)
+      {
+         this.name = name;
+         this.code = code;
+         this.next = next;
+      }
+   }
+
+   /** The hash table, replaced as a whole when it grows */
+   private static volatile Entry[] table = new Entry[256];
+
+   /** The names indexed by their codes, replaced as a whole when it grows */
+   private static volatile String[] names = new String[256];
+
+   /** The number of names in the pool, i.e. the next code */
+   private static int count;
+
+   /** Lock for adding names */
+   private static final Object lock = new Object();
+
+   /** The number of names above which input names won't be added */
+   private static int maxSize = 1 << 16;
+
+   /** The code of an input name that is not in the pool */
+   public static final int NO_CODE = -1;
+
+
+   // no instances
+   private NamePool()
+   { }
+
+
+   /**
+    * Returns the code of a name of a sheet, adds the name to the pool if
+    * necessary.
+    * @param name a namespace URI or a local name
+    * @return the code of <code>name</code>
+    */
+   public static int getCode(String name)
+   {
+      int hash = name.hashCode();
+      Entry[] tab = table;
+      for (Entry e = tab[hash & (tab.length-1)]; e != null; e = e.next)
+         if (e.name == name || e.name.equals(name))
+            return e.code;
+      // not found (or not visible yet)
+      return addName(name, hash, false);
+   }
+
+
+   /**
+    * Returns the code of a name of the input, adds the name to the pool
+    * only if the pool is not full.
+    * @param name a namespace URI or a local name
+    * @return the code of <code>name</code>, {@link #NO_CODE} if
+    *         <code>name</code> is not in the pool
+    */
+   public static int lookupCode(String name)
+   {
+      int hash = name.hashCode();
+      Entry[] tab = table;
+      for (Entry e = tab[hash & (tab.length-1)]; e != null; e = e.next)
+         if (e.name == name || e.name.equals(name))
+            return e.code;
+      return addName(name, hash, true);
+   }
+
+
+   /** @return the number of names above which input names won't be added */
+   public static int getMaxSize()
+   {
+      return maxSize;
+   }
+
+
+   /**
+    * Sets the number of names above which input names won't be added.
+    * Names that are already in the pool keep their codes.
+    */
+   public static void setMaxSize(int size)
+   {
+      maxSize = size;
+   }
+
+
+   /** @return the number of names in the pool */
+   public static int getSize()
+   {
+      synchronized (lock) {
+         return count;
+      }
+   }
+
+
+   /**
+    * Returns the name for a code.
+    * @param code a code returned by {@link #getCode} or {@link #lookupCode}
+    * @return the name
+    */
+   public static String getName(int code)
+   {
+      return names[code];
+   }
+
+
+   private static int addName(String name, int hash, boolean input)
+   {
+      synchronized (lock) {
+         Entry[] tab = table;
+         int index = hash & (tab.length-1);
+         for (Entry e = tab[index]; e != null; e = e.next)
+            if (e.name.equals(name))
+               return e.code;
+         if (input && count >= maxSize)
+            return NO_CODE;
+
+         if (count >= tab.length - (tab.length >> 2)) {
+            // more than 75% filled: build a larger table
+            Entry[] newTab = new Entry[tab.length << 1];
+            for (int i=0; i<tab.length; i++)
+               for (Entry e = tab[i]; e != null; e = e.next) {
+                  int newIndex = e.name.hashCode() & (newTab.length-1);
+                  newTab[newIndex] = new Entry(e.name, e.code, newTab[newIndex]);
+               }
+            tab = newTab;
+            index = hash & (tab.length-1);
+         }
+
+         String[] n = names;
+         if (count == n.length) {
+            n = new String[count << 1];
+            System.arraycopy(names, 0, n, 0, count);
+         }
+
+         // the entry is completely constructed before it becomes visible
+         // for the unsynchronized readers in getCode() and lookupCode()
+         name = name.intern();
+         n[count] = name;
+         names = n;
+         tab[index] = new Entry(name, count, tab[index]);
+         table = tab;
+         return count++;
+      }
+   }
+}
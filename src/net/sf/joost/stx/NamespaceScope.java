@@ -0,0 +1,194 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.io.Serializable;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import org.xml.sax.helpers.NamespaceSupport;
+
+
+/**
+ * Immutable set of in-scope namespaces. Every instance represents a single
+ * prefix mapping and refers to the enclosing scope, so a new object is
+ * needed only when a mapping actually changes. Elements without namespace
+ * declarations simply share the scope of their parent, and the same scope
+ * may be referenced from any number of {@link SAXEvent} objects.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class NamespaceScope implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** The initial scope, containing only the <code>xml</code> prefix */
+   public static final NamespaceScope ROOT =
+      new NamespaceScope(null, "xml", NamespaceSupport.XMLNS);
+
+   /** The enclosing scope, <code>null</code> for {@link #ROOT} */
+   private final NamespaceScope parent;
+
+   /** The mapping of this scope, an empty uri undeclares the prefix */
+   private final String prefix, uri;
+
+   /**
+    * The in-scope mappings as alternating prefix and uri entries,
+    * computed on first access. The array is completely filled before it
+    * is assigned, so sharing a scope between threads is safe.
+    */
+   private volatile String[] mappings;
+
+
+   private NamespaceScope(NamespaceScope parent, String prefix, String uri)
+   {
+      this.parent = parent;
+      this.prefix = prefix;
+      this.uri = uri;
+   }
+
+
+   /**
+    * Creates a scope that declares a prefix in addition to the mappings
+    * of this scope.
+    * @param prefix the prefix, the empty string for the default namespace
+    * @param uri the namespace uri, the empty string undeclares
+    *        <code>prefix</code>
+    * @return the new scope, this object remains unchanged
+    */
+   public NamespaceScope declare(String prefix, String uri)
+   {
+      return new NamespaceScope(this, prefix, uri);
+   }
+
+
+   /**
+    * Creates a scope that contains all mappings of a table, in the
+    * enumeration order of this table.
+    * @param namespaces a table that maps prefixes to uris
+    * @return the new scope, <code>null</code> if <code>namespaces</code>
+    *         is <code>null</code>
+    */
+   public static NamespaceScope fromTable(Hashtable namespaces)
+   {
+      if (namespaces == null)
+         return null;
+      NamespaceScope scope = null;
+      for (Enumeration e = namespaces.keys(); e.hasMoreElements(); ) {
+         String prefix = (String)e.nextElement();
+         scope = new NamespaceScope(scope, prefix,
+                                    (String)namespaces.get(prefix));
+      }
+      return scope;
+   }
+
+
+   /**
+    * @return the uri bound to <code>prefix</code> in this scope,
+    *         <code>null</code> if there is no such binding
+    */
+   public String getURI(String prefix)
+   {
+      for (NamespaceScope s = this; s != null; s = s.parent)
+         if (s.prefix.equals(prefix))
+            return s.uri.length() != 0 ? s.uri : null;
+      return null;
+   }
+
+
+   /** @return the number of prefixes bound in this scope */
+   public int size()
+   {
+      return getMappings().length >> 1;
+   }
+
+
+   /**
+    * @return the prefix at position <code>index</code>,
+    *         <code>0 &lt;= index &lt; size()</code>
+    */
+   public String getPrefix(int index)
+   {
+      return getMappings()[index << 1];
+   }
+
+
+   /**
+    * @return the uri at position <code>index</code>,
+    *         <code>0 &lt;= index &lt; size()</code>
+    */
+   public String getURI(int index)
+   {
+      return getMappings()[(index << 1) + 1];
+   }
+
+
+   /**
+    * Collects the visible mappings, outermost declarations first.
+    */
+   private String[] getMappings()
+   {
+      String[] m = mappings;
+      if (m != null)
+         return m;
+
+      int count = 0;
+      for (NamespaceScope s = this; s != null; s = s.parent)
+         count++;
+      // visit the scopes from the outermost to the innermost
+      NamespaceScope[] chain = new NamespaceScope[count];
+      for (NamespaceScope s = this; s != null; s = s.parent)
+         chain[--count] = s;
+
+      String[] tmp = new String[chain.length << 1];
+      int length = 0;
+      for (int i=0; i<chain.length; i++) {
+         String p = chain[i].prefix;
+         // the innermost mapping of a prefix wins
+         if (getURI(p) == null || isShadowed(chain, i))
+            continue;
+         tmp[length++] = p;
+         tmp[length++] = chain[i].uri;
+      }
+      m = new String[length];
+      System.arraycopy(tmp, 0, m, 0, length);
+      mappings = m;
+      return m;
+   }
+
+
+   /**
+    * @return whether the prefix of <code>chain[index]</code> is declared
+    *         again in an inner scope
+    */
+   private static boolean isShadowed(NamespaceScope[] chain, int index)
+   {
+      String p = chain[index].prefix;
+      for (int i=index+1; i<chain.length; i++)
+         if (chain[i].prefix.equals(p))
+            return true;
+      return false;
+   }
+}
@@ -0,0 +1,581 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.stx;
+
+import net.sf.joost.emitter.BufferContents;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.EmitterAdapter;
+import net.sf.joost.instruction.GroupBase;
+import net.sf.joost.instruction.NodeBase;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Vector;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Transforms the children of a node on several threads. The children are
+ * divided into chunks of a fixed number of elements. Every chunk is stored
+ * in a {@link BufferEmitter} and transformed by one of a pool of worker
+ * threads, each of them with its own {@link Processor}. The results are
+ * buffered as well and passed to the emitter in document order.
+ * <p>
+ * An instance of this class acts as the {@link Context#targetHandler} of a
+ * <code>stx:process-children</code> instruction with a
+ * <code>joost:parallel</code> attribute. It counts the positions of the
+ * children it receives, so every chunk starts with the correct positions.
+ * However, each chunk is transformed independently: group variables start
+ * with their initial values and <code>stx:process-siblings</code> doesn't
+ * reach beyond the end of a chunk.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class ParallelHandler implements TransformerHandler
+{
+   /** A chunk of children, together with its result */
+   private static final class Chunk
+   {
+      /** The ancestor stack, the parent has its own position counters */
+      SAXEvent[] ancestors;
+
+      /** Collects the events of the children, cleared as soon as they
+          have been transformed */
+      BufferEmitter buffer;
+
+      /** The events of the children */
+      BufferContents input;
+
+      /** The result of the transformation */
+      BufferContents output;
+
+      /** Holds {@link #output}, cleared as soon as it has been merged */
+      BufferEmitter result;
+
+      /** The exception or error thrown while transforming the chunk */
+      Throwable error;
+
+      /** Set when the transformation of this chunk has finished */
+      boolean done;
+   }
+
+
+   /** A worker thread */
+   private final class Worker extends Thread
+   {
+      private Processor processor;
+
+      Worker(Processor processor)
+      {
+         super("joost-parallel");
+         this.processor = processor;
+         setDaemon(true);
+      }
+
+      public void run()
+      {
+         Chunk chunk;
+         while ((chunk = nextChunk()) != null) {
+            Throwable error = null;
+            BufferEmitter result = new BufferEmitter(spillThreshold);
+            try {
+               processor.processChunk(chunk.ancestors, group, namespaces,
+                                      params, chunk.input, result,
+                                      instruction);
+               result.filled();
+            }
+            catch (Throwable t) {
+               error = t;
+               result.clear();
+            }
+            chunk.buffer.clear();
+            synchronized (queue) {
+               chunk.input = null;
+               chunk.error = error;
+               if (error == null && !shutdown) {
+                  chunk.output = result.getContents();
+                  chunk.result = result;
+               }
+               else // nobody is going to merge this result
+                  result.clear();
+               chunk.done = true;
+               queue.notifyAll();
+            }
+            if (error != null)
+               return; // the processor may be in an inconsistent state
+         }
+      }
+   }
+
+
+   /** The processor that started the parallel processing */
+   private Processor master;
+
+   /** The <code>stx:process-children</code> instruction */
+   private NodeBase instruction;
+
+   /** Passes the results to the emitter of {@link #master} */
+   private EmitterAdapter adapter;
+
+   /** The ancestors of the children, the parent is {@link #parent} */
+   private SAXEvent[] ancestors;
+
+   /** A copy of the parent that counts the positions of the children */
+   private SAXEvent parent;
+
+   /** The target group for the children */
+   private GroupBase group;
+
+   /** The namespaces in scope for the children */
+   private NamespaceScope namespaces;
+
+   /** The parameters passed to the templates */
+   private Hashtable params;
+
+   /** The position counter slots of the transformation sheet */
+   private PositionIndex positionIndex;
+
+   /** The number of worker threads */
+   private int threadCount;
+
+   /** The number of child elements per chunk */
+   private int chunkSize;
+
+   /** The spill threshold for the buffers, see {@link BufferEmitter} */
+   private int spillThreshold;
+
+   /** The worker threads, created on demand */
+   private Worker[] workers;
+
+   /** The chunks waiting for a worker thread, also used as lock */
+   private LinkedList queue = new LinkedList();
+
+   /** Set when the worker threads have to terminate */
+   private boolean shutdown;
+
+   /** The chunks that have been passed to the workers, in document order */
+   private Vector pending = new Vector();
+
+   /** The chunk currently receiving events */
+   private Chunk current;
+
+   /** The number of child elements in {@link #current} */
+   private int elementCount;
+
+   /** The element depth relative to the parent */
+   private int depth;
+
+   /** Set if there are characters that haven't been counted yet */
+   private boolean textPending;
+
+   /** Set if the pending characters consist of whitespace only */
+   private boolean whitespaceOnly = true;
+
+   /** Set within a CDATA section among the children */
+   private boolean insideCDATA;
+
+   /** Namespace declarations for the next child element */
+   private Vector mappings = new Vector();
+
+   /** The prefixes of {@link #mappings} passed to the current child element */
+   private Vector childPrefixes = new Vector();
+
+   private String systemId;
+
+
+   /**
+    * Constructs a handler for the children of the current node.
+    * @param context the current context
+    * @param instruction the <code>stx:process-children</code> instruction
+    * @param threadCount the number of worker threads
+    * @param chunkSize the number of child elements per chunk
+    */
+   public ParallelHandler(Context context, NodeBase instruction,
+                          int threadCount, int chunkSize)
+   {
+      master = context.currentProcessor;
+      this.instruction = instruction;
+      this.threadCount = threadCount;
+      this.chunkSize = chunkSize;
+      adapter = new EmitterAdapter(context.emitter, instruction);
+      ancestors = new SAXEvent[context.ancestorStack.size()];
+      context.ancestorStack.toArray(ancestors);
+      parent = ancestors[ancestors.length-1].copyWithPositions();
+      group = context.targetGroup;
+      namespaces = master.getInScopeNamespaces();
+      params = context.passedParameters;
+      positionIndex = master.getPositionIndex();
+      spillThreshold = context.bufferSpillThreshold;
+   }
+
+
+   /**
+    * @return the next chunk to be transformed by a worker thread,
+    *         <code>null</code> if the thread has to terminate
+    */
+   private Chunk nextChunk()
+   {
+      synchronized (queue) {
+         while (queue.isEmpty() && !shutdown) {
+            try {
+               queue.wait();
+            }
+            catch (InterruptedException e) {
+               return null;
+            }
+         }
+         return shutdown ? null : (Chunk)queue.removeFirst();
+      }
+   }
+
+
+   /**
+    * Stops all worker threads and clears the buffers of the chunks that
+    * won't be merged. Chunks that are being transformed at the moment
+    * are cleared by their worker thread.
+    */
+   public void abort()
+   {
+      synchronized (queue) {
+         shutdown = true;
+         for (Iterator it = queue.iterator(); it.hasNext(); )
+            ((Chunk)it.next()).buffer.clear();
+         queue.clear();
+         for (int i=0; i<pending.size(); i++) {
+            Chunk chunk = (Chunk)pending.elementAt(i);
+            if (chunk.result != null)
+               chunk.result.clear();
+         }
+         queue.notifyAll();
+      }
+      if (current != null) {
+         current.buffer.clear();
+         current = null;
+      }
+   }
+
+
+   /** @return the chunk for the next event, creates it if necessary */
+   private BufferEmitter getBuffer()
+   {
+      if (current == null) {
+         current = new Chunk();
+         current.ancestors = new SAXEvent[ancestors.length];
+         System.arraycopy(ancestors, 0, current.ancestors, 0,
+                          ancestors.length);
+         current.ancestors[ancestors.length-1] =
+            parent.copyWithPositions();
+         current.buffer = new BufferEmitter(spillThreshold);
+         elementCount = 0;
+      }
+      return current.buffer;
+   }
+
+
+   /**
+    * Passes the current chunk to the worker threads and merges the
+    * results that are available.
+    */
+   private void submitChunk()
+      throws SAXException
+   {
+      if (current == null)
+         return;
+      current.buffer.filled();
+      current.input = current.buffer.getContents();
+
+      if (workers == null) {
+         workers = new Worker[threadCount];
+         for (int i=0; i<threadCount; i++) {
+            workers[i] = new Worker(master.createWorker());
+            workers[i].start();
+         }
+      }
+      synchronized (queue) {
+         queue.addLast(current);
+         queue.notify();
+      }
+      pending.addElement(current);
+      current = null;
+
+      // limit the number of chunks in memory
+      mergeResults(2 * threadCount);
+   }
+
+
+   /**
+    * Passes the results of finished chunks in document order to the
+    * emitter.
+    * @param maxPending the number of unfinished chunks that may remain
+    */
+   private void mergeResults(int maxPending)
+      throws SAXException
+   {
+      while (!pending.isEmpty()) {
+         Chunk chunk = (Chunk)pending.firstElement();
+         synchronized (queue) {
+            while (!chunk.done) {
+               if (pending.size() <= maxPending)
+                  return;
+               try {
+                  queue.wait();
+               }
+               catch (InterruptedException e) {
+                  abort();
+                  throw new SAXException(e);
+               }
+            }
+         }
+         pending.removeElementAt(0);
+
+         if (chunk.error != null) {
+            abort();
+            if (chunk.error instanceof SAXException)
+               throw (SAXException)chunk.error;
+            if (chunk.error instanceof RuntimeException)
+               throw (RuntimeException)chunk.error;
+            if (chunk.error instanceof Error)
+               throw (Error)chunk.error;
+            throw new SAXException(chunk.error.toString());
+         }
+         chunk.output.parse(adapter, adapter);
+         chunk.output = null;
+         chunk.result.clear();
+      }
+   }
+
+
+   /**
+    * Counts pending characters among the children as text node
+    * (like {@link Processor} does)
+    */
+   private void countText()
+   {
+      if (textPending && !(group.stripSpace && whitespaceOnly)) {
+         if (insideCDATA)
+            parent.countCDATA(positionIndex);
+         else
+            parent.countText(positionIndex);
+      }
+      textPending = false;
+      whitespaceOnly = true;
+   }
+
+
+   //
+   // from interface ContentHandler
+   //
+
+   public void setDocumentLocator(Locator locator)
+   { } // ignore
+
+   public void startDocument()
+   { } // nothing to do
+
+   public void endDocument()
+      throws SAXException
+   {
+      countText();
+      submitChunk();
+      mergeResults(0);
+      abort();
+   }
+
+   public void startPrefixMapping(String prefix, String uri)
+      throws SAXException
+   {
+      if (depth > 0)
+         getBuffer().startPrefixMapping(prefix, uri);
+      // skip the declarations of the parent
+      else if (!uri.equals(namespaces.getURI(prefix))) {
+         mappings.addElement(prefix);
+         mappings.addElement(uri);
+      }
+   }
+
+   public void endPrefixMapping(String prefix)
+      throws SAXException
+   {
+      // the end of a declaration of a child element follows its end tag
+      if (depth > 0 || childPrefixes.removeElement(prefix))
+         getBuffer().endPrefixMapping(prefix);
+   }
+
+   public void startElement(String uri, String lName, String qName,
+                            Attributes attrs)
+      throws SAXException
+   {
+      if (depth == 0) {
+         countText();
+         if (elementCount == chunkSize)
+            submitChunk();
+         BufferEmitter buffer = getBuffer();
+         childPrefixes.removeAllElements();
+         for (int i=0; i<mappings.size(); i+=2) {
+            buffer.startPrefixMapping((String)mappings.elementAt(i),
+                                      (String)mappings.elementAt(i+1));
+            childPrefixes.addElement(mappings.elementAt(i));
+         }
+         mappings.removeAllElements();
+         parent.countElement(NamePool.lookupCode(uri),
+                             NamePool.lookupCode(lName), positionIndex);
+         elementCount++;
+      }
+      getBuffer().startElement(uri, lName, qName, attrs);
+      depth++;
+   }
+
+   public void endElement(String uri, String lName, String qName)
+      throws SAXException
+   {
+      depth--;
+      getBuffer().endElement(uri, lName, qName);
+   }
+
+   public void characters(char[] ch, int start, int length)
+      throws SAXException
+   {
+      if (depth == 0) {
+         textPending = true;
+         for (int i=start; whitespaceOnly && i<start+length; i++)
+            if (ch[i] > ' ')
+               whitespaceOnly = false;
+      }
+      getBuffer().characters(ch, start, length);
+   }
+
+   public void ignorableWhitespace(char[] ch, int start, int length)
+      throws SAXException
+   {
+      characters(ch, start, length);
+   }
+
+   public void processingInstruction(String target, String data)
+      throws SAXException
+   {
+      if (depth == 0) {
+         countText();
+         parent.countPI(target, positionIndex);
+      }
+      getBuffer().processingInstruction(target, data);
+   }
+
+   public void skippedEntity(String name)
+   { } // ignore
+
+
+   //
+   // from interface LexicalHandler
+   //
+
+   public void startDTD(String name, String pubId, String sysId)
+   { } // ignore
+
+   public void endDTD()
+   { } // ignore
+
+   public void startEntity(String name)
+   { } // ignore
+
+   public void endEntity(String name)
+   { } // ignore
+
+   public void startCDATA()
+      throws SAXException
+   {
+      if (depth == 0 && group.recognizeCdata) {
+         countText();
+         insideCDATA = true;
+      }
+      getBuffer().startCDATA();
+   }
+
+   public void endCDATA()
+      throws SAXException
+   {
+      if (depth == 0 && group.recognizeCdata) {
+         textPending = true; // even if the section is empty
+         countText();
+         insideCDATA = false;
+      }
+      getBuffer().endCDATA();
+   }
+
+   public void comment(char[] ch, int start, int length)
+      throws SAXException
+   {
+      if (depth == 0) {
+         countText();
+         parent.countComment(positionIndex);
+      }
+      getBuffer().comment(ch, start, length);
+   }
+
+
+   //
+   // from interface DTDHandler
+   //
+
+   public void notationDecl(String name, String publicId, String systemId)
+   { } // ignore
+
+   public void unparsedEntityDecl(String name, String publicId,
+                                  String systemId, String notationName)
+   { } // ignore
+
+
+   //
+   // from interface TransformerHandler
+   //
+
+   /** not used, the result is passed to the current emitter */
+   public void setResult(Result result)
+   { }
+
+   public void setSystemId(String systemId)
+   {
+      this.systemId = systemId;
+   }
+
+   public String getSystemId()
+   {
+      return systemId;
+   }
+
+   /** @return <code>null</code>, there's no Transformer object */
+   public Transformer getTransformer()
+   {
+      return null;
+   }
+}
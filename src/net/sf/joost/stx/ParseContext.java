@@ -24,13 +24,17 @@
 
 package net.sf.joost.stx;
 
+import java.io.File;
 import java.util.Hashtable;
+import java.util.Vector;
 
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.URIResolver;
 
+import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.instruction.TransformFactory;
 import net.sf.joost.stx.function.FunctionFactory;
+import net.sf.joost.util.LRUCache;
 
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.Locator;
@@ -71,6 +75,68 @@ public final class ParseContext
     */
    private FunctionFactory functionFactory;
 
+   /**
+    * The parse context of the principal transformation sheet. Included
+    * sheets share its frame counter (see {@link #allocateFrameIndex}) and
+    * its position index (see {@link #getPositionIndex}), its descendant
+    * index (see {@link #getDescendantIndex}) and its key declarations
+    * (see {@link #getKeys}).
+    */
+   private ParseContext principal = this;
+
+   /** The number of run-time frames allocated so far */
+   private int frameCount;
+
+   /** The position counter slots allocated so far */
+   private PositionIndex positionIndex;
+
+   /** The descendant step slots allocated so far */
+   private DescendantIndex descendantIndex;
+
+   /** The <code>joost:key</code> declarations, see {@link #getKeys} */
+   private Hashtable keys = new Hashtable();
+
+   /**
+    * The system identifiers of all included sheets, contains
+    * <code>null</code> for a sheet that has been provided by the
+    * {@link #uriResolver}
+    */
+   private Vector includedSheets = new Vector();
+
+   /**
+    * The state of the local files of the included sheets when they were
+    * read, see {@link #addIncludedSheet}
+    */
+   private Vector includedFiles = new Vector();
+
+   /** A local variable declaration, see {@link #declareLocalVariable} */
+   private static final class LocalVariable
+   {
+      final String expName;
+      final int slot;
+      final NodeBase scope;
+
+      LocalVariable(String expName, int slot, NodeBase scope)
+      {
+         this.expName = expName;
+         this.slot = slot;
+         this.scope = scope;
+      }
+   }
+
+   /** The local variables visible at the current parse position */
+   private Vector localVariables = new Vector();
+
+   /**
+    * The number of slots allocated in the current local frame,
+    * <code>-1</code> outside of a frame
+    */
+   private int localVarCount = -1;
+
+   /** The slot for the <code>regex-group</code> function in the current
+       local frame, <code>-1</code> if not allocated yet */
+   private int regexGroupSlot;
+
    
    //
    // Constructors
@@ -86,6 +152,7 @@ public final class ParseContext
       uriResolver = pContext.uriResolver;
       parserListener = pContext.parserListener;
       allowExternalFunctions = pContext.allowExternalFunctions;
+      principal = pContext.principal;
    }
    
    
@@ -107,6 +174,172 @@ public final class ParseContext
       errorHandler = new ErrorHandlerImpl(errorListener, true);
    }
 
+   /**
+    * Allocates a new slot in the array of run-time frames.
+    * @return the index of the new slot
+    * @see net.sf.joost.instruction.NodeBase#frameIndex
+    */
+   public int allocateFrameIndex()
+   {
+      return principal.frameCount++;
+   }
+
+   /** @return the number of allocated run-time frames */
+   public int getFrameCount()
+   {
+      return principal.frameCount;
+   }
+
+   /**
+    * @return the position counter slots of the principal transformation
+    *         sheet (constructed if necessary)
+    */
+   public PositionIndex getPositionIndex()
+   {
+      if (principal.positionIndex == null)
+         principal.positionIndex = new PositionIndex();
+      return principal.positionIndex;
+   }
+
+   /**
+    * @return the descendant step slots of the principal transformation
+    *         sheet (constructed if necessary)
+    */
+   public DescendantIndex getDescendantIndex()
+   {
+      if (principal.descendantIndex == null)
+         principal.descendantIndex = new DescendantIndex();
+      return principal.descendantIndex;
+   }
+
+   /**
+    * @return the <code>joost:key</code> declarations of the principal
+    *         transformation sheet, indexed by their expanded names. The
+    *         table is filled while parsing and is read-only afterwards.
+    */
+   public Hashtable getKeys()
+   {
+      return principal.keys;
+   }
+
+   /**
+    * Records a sheet included by <code>stx:include</code>.
+    * @param systemId the system identifier of the sheet, <code>null</code>
+    *        if it has been provided by the {@link #uriResolver}
+    */
+   public void addIncludedSheet(String systemId)
+   {
+      principal.includedSheets.addElement(systemId);
+      // look at the file before parsing it, so a change while parsing
+      // will be detected by the templates cache
+      File file = LRUCache.toFile(systemId);
+      if (file != null)
+         principal.includedFiles.addElement(
+            new LRUCache.Stamp(new File[] { file }));
+   }
+
+   /**
+    * @return the system identifiers of all sheets included so far, see
+    *         {@link #addIncludedSheet}
+    */
+   public Vector getIncludedSheets()
+   {
+      return principal.includedSheets;
+   }
+
+   /**
+    * @return the state of the local files of all sheets included so far
+    *         when they were read, a vector of {@link LRUCache.Stamp}s
+    */
+   public Vector getIncludedFiles()
+   {
+      return principal.includedFiles;
+   }
+
+   /**
+    * Starts a new frame for local variables. Every instantiation of a
+    * template or procedure (and of the contents of a group variable)
+    * gets its own array of local variables, the slots are allocated
+    * while parsing.
+    */
+   public void startLocalFrame()
+   {
+      localVariables.clear();
+      localVarCount = 0;
+      regexGroupSlot = -1;
+   }
+
+   /**
+    * Ends the current frame for local variables.
+    * @return the number of slots needed for this frame
+    */
+   public int endLocalFrame()
+   {
+      int count = localVarCount;
+      localVarCount = -1;
+      return count;
+   }
+
+   /**
+    * Declares a local variable.
+    * @param expName the expanded name of the variable
+    * @param scope the node whose end terminates the visibility
+    *        of the variable
+    * @return the slot of the variable in the current local frame, or
+    *         <code>-1</code> if there's already a visible local variable
+    *         with the same name
+    */
+   public int declareLocalVariable(String expName, NodeBase scope)
+   {
+      if (getLocalVariableSlot(expName) != -1)
+         return -1;
+      LocalVariable var =
+         new LocalVariable(expName, localVarCount++, scope);
+      localVariables.addElement(var);
+      return var.slot;
+   }
+
+   /**
+    * @return the slot of the visible local variable <code>expName</code>,
+    *         <code>-1</code> if there is no such variable
+    */
+   public int getLocalVariableSlot(String expName)
+   {
+      for (int i=localVariables.size()-1; i>=0; i--) {
+         LocalVariable var = (LocalVariable)localVariables.elementAt(i);
+         if (var.expName.equals(expName))
+            return var.slot;
+      }
+      return -1;
+   }
+
+   /**
+    * Removes the local variables whose visibility ends with
+    * <code>node</code>.
+    * @param node the node that has been parsed completely
+    */
+   public void endLocalScope(NodeBase node)
+   {
+      int size;
+      while ((size = localVariables.size()) != 0 &&
+             ((LocalVariable)localVariables.elementAt(size-1)).scope == node)
+         localVariables.removeElementAt(size-1);
+   }
+
+   /**
+    * @return the slot that stores the captured substrings for the
+    *         <code>regex-group</code> function in the current local frame,
+    *         <code>-1</code> outside of a frame
+    */
+   public int getRegexGroupSlot()
+   {
+      if (localVarCount == -1)
+         return -1;
+      if (regexGroupSlot == -1)
+         regexGroupSlot = localVarCount++;
+      return regexGroupSlot;
+   }
+
    public FunctionFactory getFunctionFactory()
    {
       if (functionFactory == null)
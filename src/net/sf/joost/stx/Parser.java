@@ -51,6 +51,7 @@ import net.sf.joost.instruction.GroupBase;
 import net.sf.joost.instruction.GroupFactory;
 import net.sf.joost.instruction.IfFactory;
 import net.sf.joost.instruction.IncludeFactory;
+import net.sf.joost.instruction.KeyFactory;
 import net.sf.joost.instruction.LitElementFactory;
 import net.sf.joost.instruction.MatchFactory;
 import net.sf.joost.instruction.MessageFactory;
@@ -70,6 +71,8 @@ import net.sf.joost.instruction.ProcedureFactory;
 import net.sf.joost.instruction.ResultBufferFactory;
 import net.sf.joost.instruction.ResultDocumentFactory;
 import net.sf.joost.instruction.ScriptFactory;
+import net.sf.joost.instruction.SortBufferFactory;
+import net.sf.joost.instruction.SortKeyFactory;
 import net.sf.joost.instruction.TemplateFactory;
 import net.sf.joost.instruction.TextFactory;
 import net.sf.joost.instruction.TextNode;
@@ -192,7 +195,10 @@ public class Parser implements Constants, ContentHandler // , ErrorHandler
       
       // factories for elements from the Joost namespace
       FactoryBase[] joostFacs = {
-         new ScriptFactory()
+         new ScriptFactory(),
+         new KeyFactory(),
+         new SortBufferFactory(),
+         new SortKeyFactory()
       };
       joostFactories = createFactoryMap(joostFacs);
 
@@ -300,6 +306,10 @@ public class Parser implements Constants, ContentHandler // , ErrorHandler
                }
          }
          compilableNodes = null; // for garbage collection
+         pContext.transformNode.frameCount = pContext.getFrameCount();
+         pContext.transformNode.positionIndex = pContext.getPositionIndex();
+         pContext.transformNode.descendantIndex =
+            pContext.getDescendantIndex();
 
          if (parserListener != null)
             parserListener.parseFinished();
@@ -405,6 +415,7 @@ public class Parser implements Constants, ContentHandler // , ErrorHandler
             processCharacters();
 
          currentNode.setEndLocation(pContext);
+         pContext.endLocalScope(currentNode);
 
          if (currentNode instanceof LitElementFactory.Instance)
             // restore the newly declared namespaces from this element
@@ -0,0 +1,339 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Assigns position counter slots to the node tests of a transformation
+ * sheet. Only node tests that appear in patterns get a slot, and a
+ * {@link SAXEvent} maintains counters only for these slots. If the sheet
+ * neither calls <code>position()</code> nor contains a pattern predicate,
+ * no positions are counted at all.
+ * <p>
+ * Slots are allocated while parsing; afterwards an instance is read-only
+ * and may be shared by concurrent transformations. The tables that are
+ * indexed by name codes are serialized with the names, because the codes
+ * are valid in the current VM only.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class PositionIndex implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** Slots of the kind tests, <code>-1</code> if not needed */
+   int nodeSlot = -1, elementSlot = -1, textSlot = -1, cdataSlot = -1,
+       commentSlot = -1, piSlot = -1;
+
+   /**
+    * Slots for <code>uri:lname</code>, indexed by the code of the local
+    * name; every entry contains pairs of a uri code and a slot
+    * @see NamePool
+    */
+   private transient int[][] nameSlots = new int[0][];
+
+   /** Slots for <code>*:lname</code>, indexed by the code of the local name */
+   private transient int[] localNameSlots = new int[0];
+
+   /** Slots for <code>prefix:*</code>, indexed by the code of the uri */
+   private transient int[] uriSlots = new int[0];
+
+   /** Maps PI targets to slots (<code>processing-instruction('target')</code>) */
+   private HashMap piTargetSlots = new HashMap();
+
+   /** The number of allocated slots */
+   private int slotCount;
+
+   /** Whether positions are requested anywhere in the sheet */
+   private boolean positionsUsed;
+
+
+   /**
+    * Marks the sheet as one that makes use of positions (i.e. the
+    * <code>position()</code> function or a pattern predicate).
+    */
+   public void setPositionsUsed()
+   {
+      positionsUsed = true;
+   }
+
+
+   /**
+    * @return the number of counters needed per parent node, 0 if the sheet
+    *         doesn't use positions
+    */
+   public int getSlotCount()
+   {
+      return positionsUsed ? slotCount : 0;
+   }
+
+
+   //
+   // slot allocation, called while parsing the sheet
+   //
+
+   /** @return the slot for <code>node()</code> */
+   public int requestNodeSlot()
+   {
+      if (nodeSlot == -1)
+         nodeSlot = slotCount++;
+      return nodeSlot;
+   }
+
+   /** @return the slot for <code>*</code> */
+   public int requestElementSlot()
+   {
+      if (elementSlot == -1)
+         elementSlot = slotCount++;
+      return elementSlot;
+   }
+
+   /** @return the slot for <code>text()</code> */
+   public int requestTextSlot()
+   {
+      if (textSlot == -1)
+         textSlot = slotCount++;
+      return textSlot;
+   }
+
+   /** @return the slot for <code>cdata()</code> */
+   public int requestCDATASlot()
+   {
+      if (cdataSlot == -1)
+         cdataSlot = slotCount++;
+      return cdataSlot;
+   }
+
+   /** @return the slot for <code>comment()</code> */
+   public int requestCommentSlot()
+   {
+      if (commentSlot == -1)
+         commentSlot = slotCount++;
+      return commentSlot;
+   }
+
+   /**
+    * @param target the target of the processing instruction test,
+    *        <code>null</code> for any target
+    * @return the slot for <code>processing-instruction(target)</code>
+    */
+   public int requestPISlot(String target)
+   {
+      if (target == null) {
+         if (piSlot == -1)
+            piSlot = slotCount++;
+         return piSlot;
+      }
+      return requestSlot(piTargetSlots, target);
+   }
+
+   /** @return the slot for the name test <code>uri:lname</code> */
+   public int requestNameSlot(int uriCode, int lNameCode)
+   {
+      if (lNameCode >= nameSlots.length) {
+         int[][] tmp = new int[lNameCode+1][];
+         System.arraycopy(nameSlots, 0, tmp, 0, nameSlots.length);
+         nameSlots = tmp;
+      }
+      int[] pairs = nameSlots[lNameCode];
+      if (pairs == null)
+         pairs = new int[0];
+      for (int i=0; i<pairs.length; i+=2)
+         if (pairs[i] == uriCode)
+            return pairs[i+1];
+      int[] tmp = new int[pairs.length+2];
+      System.arraycopy(pairs, 0, tmp, 0, pairs.length);
+      tmp[pairs.length] = uriCode;
+      tmp[pairs.length+1] = slotCount;
+      nameSlots[lNameCode] = tmp;
+      return slotCount++;
+   }
+
+   /** @return the slot for the name test <code>*:lname</code> */
+   public int requestLocalNameSlot(int lNameCode)
+   {
+      localNameSlots = requestSlot(localNameSlots, lNameCode);
+      return localNameSlots[lNameCode];
+   }
+
+   /** @return the slot for the name test <code>prefix:*</code> */
+   public int requestUriSlot(int uriCode)
+   {
+      uriSlots = requestSlot(uriSlots, uriCode);
+      return uriSlots[uriCode];
+   }
+
+   /**
+    * Allocates a slot in an array indexed by name codes
+    * @return the (possibly enlarged) array
+    */
+   private int[] requestSlot(int[] slots, int code)
+   {
+      if (code >= slots.length) {
+         int[] tmp = new int[code+1];
+         Arrays.fill(tmp, -1);
+         System.arraycopy(slots, 0, tmp, 0, slots.length);
+         slots = tmp;
+      }
+      if (slots[code] == -1)
+         slots[code] = slotCount++;
+      return slots;
+   }
+
+   private int requestSlot(HashMap map, String key)
+   {
+      Integer slot = (Integer)map.get(key);
+      if (slot == null)
+         map.put(key, slot = new Integer(slotCount++));
+      return slot.intValue();
+   }
+
+
+   private void writeObject(ObjectOutputStream out)
+      throws IOException
+   {
+      out.defaultWriteObject();
+      for (int lName=0; lName<nameSlots.length; lName++) {
+         int[] pairs = nameSlots[lName];
+         if (pairs != null)
+            for (int i=0; i<pairs.length; i+=2) {
+               out.writeObject(NamePool.getName(pairs[i]));
+               out.writeObject(NamePool.getName(lName));
+               out.writeInt(pairs[i+1]);
+            }
+      }
+      out.writeObject(null);
+      writeSlots(out, localNameSlots);
+      writeSlots(out, uriSlots);
+   }
+
+   private static void writeSlots(ObjectOutputStream out, int[] slots)
+      throws IOException
+   {
+      for (int i=0; i<slots.length; i++)
+         if (slots[i] != -1) {
+            out.writeObject(NamePool.getName(i));
+            out.writeInt(slots[i]);
+         }
+      out.writeObject(null);
+   }
+
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      nameSlots = new int[0][];
+      String uri;
+      while ((uri = (String)in.readObject()) != null) {
+         int lNameCode = NamePool.getCode((String)in.readObject());
+         if (lNameCode >= nameSlots.length) {
+            int[][] tmp = new int[lNameCode+1][];
+            System.arraycopy(nameSlots, 0, tmp, 0, nameSlots.length);
+            nameSlots = tmp;
+         }
+         int[] pairs = nameSlots[lNameCode];
+         int[] tmp = new int[pairs != null ? pairs.length+2 : 2];
+         if (pairs != null)
+            System.arraycopy(pairs, 0, tmp, 0, pairs.length);
+         tmp[tmp.length-2] = NamePool.getCode(uri);
+         tmp[tmp.length-1] = in.readInt();
+         nameSlots[lNameCode] = tmp;
+      }
+      localNameSlots = readSlots(in);
+      uriSlots = readSlots(in);
+   }
+
+   private static int[] readSlots(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      int[] slots = new int[0];
+      String name;
+      while ((name = (String)in.readObject()) != null) {
+         int code = NamePool.getCode(name);
+         if (code >= slots.length) {
+            int[] tmp = new int[code+1];
+            Arrays.fill(tmp, -1);
+            System.arraycopy(slots, 0, tmp, 0, slots.length);
+            slots = tmp;
+         }
+         slots[code] = in.readInt();
+      }
+      return slots;
+   }
+
+
+   //
+   // slot lookup, called while counting
+   //
+
+   /** @return the slot for the name test <code>uri:lname</code> or -1 */
+   int getNameSlot(int uriCode, int lNameCode)
+   {
+      if (lNameCode < 0 || lNameCode >= nameSlots.length)
+         return -1;
+      int[] pairs = nameSlots[lNameCode];
+      if (pairs != null)
+         for (int i=0; i<pairs.length; i+=2)
+            if (pairs[i] == uriCode)
+               return pairs[i+1];
+      return -1;
+   }
+
+   /** @return the slot for the name test <code>*:lname</code> or -1 */
+   int getLocalNameSlot(int lNameCode)
+   {
+      return lNameCode >= 0 && lNameCode < localNameSlots.length
+                ? localNameSlots[lNameCode] : -1;
+   }
+
+   /** @return the slot for the name test <code>prefix:*</code> or -1 */
+   int getUriSlot(int uriCode)
+   {
+      return uriCode >= 0 && uriCode < uriSlots.length ? uriSlots[uriCode]
+                                                       : -1;
+   }
+
+   /**
+    * @return the slot for the test <code>processing-instruction(target)</code>
+    *         or -1
+    */
+   int getPITargetSlot(String target)
+   {
+      return piTargetSlots.isEmpty() ? -1 : getSlot(piTargetSlots, target);
+   }
+
+   private static int getSlot(HashMap map, String key)
+   {
+      Integer slot = (Integer)map.get(key);
+      return slot != null ? slot.intValue() : -1;
+   }
+}
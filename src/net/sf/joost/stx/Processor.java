@@ -28,6 +28,8 @@ import net.sf.joost.Constants;
 import net.sf.joost.OptionalLog;
 import net.sf.joost.OutputURIResolver;
 import net.sf.joost.TransformerHandlerResolver;
+import net.sf.joost.emitter.BufferContents;
+import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.instruction.AbstractInstruction;
@@ -36,12 +38,12 @@ import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.instruction.PSiblingsFactory;
 import net.sf.joost.instruction.ProcessBase;
 import net.sf.joost.instruction.TemplateFactory;
+import net.sf.joost.instruction.TemplateIndex;
 import net.sf.joost.instruction.TransformFactory;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Properties;
 import java.util.Stack;
@@ -59,10 +61,11 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DeclHandler;
 import org.xml.sax.ext.LexicalHandler;
-import org.xml.sax.helpers.NamespaceSupport;
+import org.xml.sax.helpers.LocatorImpl;
 import org.xml.sax.helpers.XMLFilterImpl;
 import org.xml.sax.helpers.XMLReaderFactory;
 
@@ -94,21 +97,45 @@ public class Processor extends XMLFilterImpl
    /** The node representing the transformation sheet */
    private TransformFactory.Instance transformNode;
 
+   /** The position counter slots of the transformation sheet */
+   private PositionIndex positionIndex;
+
+   /** The descendant step slots of the transformation sheet */
+   private DescendantIndex descendantIndex;
+
    /**
     * Array of global visible templates (templates with an attribute
     * <code>visibility="global"</code>).
     */
    private TemplateFactory.Instance[] globalTemplates;
 
+   /** Dispatch index for {@link #globalTemplates} */
+   private TemplateIndex globalTemplateIndex;
+
    /** The Context object */
    private Context context;
 
+   /**
+    * The XML parser created for this processor, will be restored by
+    * {@link #reset}
+    */
+   private XMLReader defaultParent;
+
    /**
     * Depth in the subtree to be skipped; increased by startElement
     * and decreased by endElement.
     */
    private int skipDepth = 0;
 
+   /**
+    * Depth in a projected subtree, i.e. a subtree that is subject to the
+    * default action only, because no visible template is able to match
+    * any of its nodes. The events of such a subtree are passed through
+    * (or discarded) without being turned into {@link SAXEvent} objects.
+    * Increased by startElement and decreased by endElement.
+    */
+   private int projectDepth = 0;
+
    /**
     * Set to true between {@link #startCDATA} and {@link #endCDATA},
     * needed for CDATA processing
@@ -122,13 +149,29 @@ public class Processor extends XMLFilterImpl
    private boolean insideDTD = false;
 
    /** Buffer for collecting character data into single text nodes */
-   private StringBuffer collectedCharacters = new StringBuffer();
+   private char[] collectedCharacters = new char[256];
+
+   /** The number of characters in {@link #collectedCharacters} */
+   private int collectedLength = 0;
+
+   /**
+    * The contents of {@link #collectedCharacters} as string, created on
+    * demand by {@link #getCollectedString}
+    */
+   private String collectedString;
 
    /** Last event (this Processor uses one look-ahead) */
    private SAXEvent lastElement = null;
 
+   /**
+    * The encoded name of a stored element passed by
+    * {@link #startBufferedElement}, <code>bufferedUriCode</code> is -1 if
+    * there's no such element
+    */
+   private int bufferedUriCode = -1, bufferedLNameCode;
+
    /** The namespaces of the current scope */
-   private Hashtable inScopeNamespaces;
+   private NamespaceScope inScopeNamespaces;
 
    /** The namespace context as a stack */
    private Stack namespaceContext = new Stack();
@@ -193,8 +236,9 @@ public class Processor extends XMLFilterImpl
       /** Next group in the processing, contains the visible templates */
       private GroupBase targetGroup;
 
-      /** current table of local variables in {@link #template} */
-      private Hashtable localVars;
+      /** current local variables in {@link #template}, shared with
+          {@link Context#localVars} */
+      private Object[] localVars;
 
       /** passed parameters to {@link #template} (only for the debugging) */
       private Hashtable passedParams;
@@ -221,7 +265,7 @@ public class Processor extends XMLFilterImpl
          currentGroup = c.currentGroup;
          contextPosition = c.position;
          targetGroup = c.targetGroup;
-         localVars = (Hashtable)c.localVars.clone();
+         localVars = c.localVars;
          passedParams = pp;
          psiblings = c.psiblings;
          sibEvent = se;
@@ -237,7 +281,7 @@ public class Processor extends XMLFilterImpl
          currentGroup = c.currentGroup;
          contextPosition = c.position;
          targetGroup = c.targetGroup;
-         localVars = (Hashtable)c.localVars.clone();
+         localVars = c.localVars;
          passedParams = pp;
       }
 
@@ -272,7 +316,7 @@ public class Processor extends XMLFilterImpl
       }
 
        /** returns the value of {@link #localVars} */
-      public Hashtable getLocalVars() {
+      public Object[] getLocalVars() {
          return localVars;
       }
 
@@ -327,6 +371,12 @@ public class Processor extends XMLFilterImpl
          return stack[--objCount];
       }
 
+      void clear()
+      {
+         while (objCount > 0)
+            stack[--objCount] = null;
+      }
+
       public int size()
       {
          return objCount;
@@ -408,7 +458,7 @@ public class Processor extends XMLFilterImpl
       init(stxParser.getTransformNode());
 
       // re-use this XMLReader for processing
-      setParent(reader);
+      setParent(defaultParent = reader);
    }
 
 
@@ -422,26 +472,28 @@ public class Processor extends XMLFilterImpl
       throws SAXException
    {
       init(stxParser.getTransformNode());
-      setParent(createXMLReader());
+      setParent(defaultParent = createXMLReader());
    }
 
 
    /**
-    * Constructs a copy of the given Processor.
+    * Constructs a copy of the given Processor. Both processors share
+    * the same compiled transformation sheet; the run-time state is kept
+    * in the {@link Context} of each processor.
     * @param proc the original Processor object
     * @throws SAXException if the construction of a new XML parser fails
     */
    public Processor(Processor proc) throws SAXException
    {
-      HashMap copies = new HashMap();
-      globalTemplates =
-         AbstractInstruction.deepTemplateArrayCopy(proc.globalTemplates, copies);
-      init((TransformFactory.Instance) proc.transformNode.deepCopy(copies));
-      setParent(createXMLReader());
+      globalTemplates = proc.globalTemplates;
+      globalTemplateIndex = proc.globalTemplateIndex;
+      init(proc.transformNode);
+      setParent(defaultParent = createXMLReader());
       setTransformerHandlerResolver(
          proc.context.defaultTransformerHandlerResolver.customResolver);
       setOutputURIResolver(proc.context.outputUriResolver);
-
+      setBufferSpillThreshold(proc.context.bufferSpillThreshold);
+      setDocumentCache(proc.context.documentCache);
    }
 
    /**
@@ -457,6 +509,63 @@ public class Processor extends XMLFilterImpl
    // Methods
    //
 
+   /**
+    * Resets this processor to the state after its construction, so it can
+    * be used for another transformation, even if the previous one has
+    * been aborted. Clears the data, event and inner processing stacks,
+    * the emitter stack, all group variables and the run-time state of
+    * the instructions, as well as parameters, output properties and the
+    * handlers and resolvers that belong to a single transformation.
+    * The compiled transformation sheet and the XML parser are kept.
+    */
+   public void reset()
+   {
+      skipDepth = projectDepth = 0;
+      insideCDATA = insideDTD = false;
+      clearCollectedCharacters();
+      lastElement = null;
+      bufferedUriCode = -1;
+      namespaceContext.clear();
+      nsContextActive = false;
+      innerProcStack.clear();
+
+      // back to the initial emitter
+      Emitter emitter = context.emitter;
+      while (emitter.prev != null)
+         emitter = emitter.prev;
+      emitter.reset();
+      emitter.setContentHandler(null);
+      emitter.setLexicalHandler(null);
+      context.emitter = emitter;
+
+      context.locator = null;
+      context.ancestorStack.clear();
+      eventStack = context.ancestorStack;
+      context.position = 0;
+      context.currentInstruction = null;
+      context.currentGroup = context.targetGroup = transformNode;
+      context.psiblings = null;
+      context.localVars = new Object[0];
+      context.globalParameters.clear();
+      context.passedParameters.clear();
+      abortParallelHandler();
+      clearSpilledBuffers();
+      context.targetHandler = null;
+      context.uriResolver = null;
+      context.errorHandler.errorListener = null;
+      context.jumpTarget = null;
+      context.jumpRequested = false;
+      // discards the group variables as well
+      Arrays.fill(context.frames, null);
+
+      dataStack.clear();
+      dataStack.push(new Data(context));
+      initNamespaces();
+      initOutputProperties();
+      if (getParent() != defaultParent)
+         setParent(defaultParent);
+   }
+
    /**
     * Create an <code>XMLReader</code> object (a SAX Parser)
     * @throws SAXException if a SAX Parser couldn't be created
@@ -540,6 +649,9 @@ public class Processor extends XMLFilterImpl
       context.currentProcessor = this;
       context.currentGroup = context.targetGroup = transformNode =
          pTransformNode;
+      context.frames = new NodeBase.Frame[transformNode.frameCount];
+      positionIndex = transformNode.positionIndex;
+      descendantIndex = transformNode.descendantIndex;
 
       // first Data frame; needed for the first target group
       dataStack.push(new Data(context));
@@ -554,18 +666,18 @@ public class Processor extends XMLFilterImpl
          globalTemplates = new TemplateFactory.Instance[tempVec.size()];
          tempVec.toArray(globalTemplates);
          Arrays.sort(globalTemplates);
+         globalTemplateIndex = new TemplateIndex(globalTemplates);
       }
       initOutputProperties();
    }
 
 
    /**
-    * Create a fresh namespace hashtable
+    * Start with a fresh namespace scope
     */
    private void initNamespaces()
    {
-      inScopeNamespaces = new Hashtable();
-      inScopeNamespaces.put("xml", NamespaceSupport.XMLNS);
+      inScopeNamespaces = NamespaceScope.ROOT;
    }
 
 
@@ -620,6 +732,64 @@ public class Processor extends XMLFilterImpl
    }
 
 
+   /**
+    * Parses the input. If the transformation fails, the worker threads of
+    * a parallel <code>stx:process-children</code> will be stopped.
+    */
+   public void parse(InputSource input)
+      throws SAXException, IOException
+   {
+      boolean completed = false;
+      try {
+         super.parse(input);
+         completed = true;
+      }
+      finally {
+         if (!completed)
+            abortParallelHandler();
+      }
+   }
+
+
+   /**
+    * Reports a fatal error of the parser. Stops the worker threads of a
+    * parallel <code>stx:process-children</code> and deletes the temporary
+    * files of spilled buffers, because the transformation won't receive an
+    * <code>endDocument</code> event.
+    */
+   public void fatalError(SAXParseException e)
+      throws SAXException
+   {
+      abortParallelHandler();
+      clearSpilledBuffers();
+      super.fatalError(e);
+   }
+
+
+   /**
+    * Deletes the temporary files of all buffers that have spilled during
+    * the current transformation. Called at the end of a transformation,
+    * and by {@link #reset}; should be called by the owner of this
+    * processor if a transformation has been aborted.
+    */
+   public void clearSpilledBuffers()
+   {
+      BufferEmitter.clearAll(context.spilledBuffers);
+   }
+
+
+   /**
+    * Stops the worker threads of an aborted transformation, if the
+    * children of the current node are processed by a
+    * {@link ParallelHandler}
+    */
+   private void abortParallelHandler()
+   {
+      if (context.targetHandler instanceof ParallelHandler)
+         ((ParallelHandler)context.targetHandler).abort();
+   }
+
+
    /**
     * Registers a content handler.
     */
@@ -761,6 +931,41 @@ public class Processor extends XMLFilterImpl
    }
 
 
+   /**
+    * Sets the size above which the contents of a buffer
+    * (<code>stx:buffer</code>) will be written to temporary files
+    * @param threshold the size in bytes, 0 keeps all buffers in memory
+    */
+   public void setBufferSpillThreshold(int threshold)
+   {
+      context.bufferSpillThreshold = threshold;
+   }
+
+
+   /**
+    * Sets the cache for the documents processed by
+    * <code>stx:process-document</code>. Copies of this processor share
+    * the cache.
+    * @param cache the cache, <code>null</code> parses these documents on
+    *        every request
+    */
+   public void setDocumentCache(DocumentCache cache)
+   {
+      context.documentCache = cache;
+   }
+
+
+   /**
+    * @return the cache for the documents processed by
+    *         <code>stx:process-document</code>, <code>null</code> if there
+    *         is no cache
+    */
+   public DocumentCache getDocumentCache()
+   {
+      return context.documentCache;
+   }
+
+
    /**
     * Registers a message emitter for <code>stx:message</code>
     * @param emitter the emitter object to be registered
@@ -779,8 +984,8 @@ public class Processor extends XMLFilterImpl
    public void startInnerProcessing()
    {
       // there might be characters already read
-      innerProcStack.push(collectedCharacters.toString());
-      collectedCharacters.setLength(0);
+      innerProcStack.push(getCollectedString());
+      clearCollectedCharacters();
       innerProcStack.push(inScopeNamespaces);
       initNamespaces();
       // possible jump to another group (changed visibleTemplates)
@@ -798,7 +1003,7 @@ public class Processor extends XMLFilterImpl
       if (lastElement != null)
          processLastElement(true);
 
-      if (collectedCharacters.length() != 0)
+      if (collectedLength != 0)
          processCharacters();
 
       // Clean up dataStack: terminate pending stx:process-siblings
@@ -806,8 +1011,93 @@ public class Processor extends XMLFilterImpl
 
       // remove Data object from startInnerProcessing()
       context.localVars = dataStack.pop().localVars;
-      inScopeNamespaces = (Hashtable)innerProcStack.pop();
-      collectedCharacters.append(innerProcStack.pop());
+      inScopeNamespaces = (NamespaceScope)innerProcStack.pop();
+      String s = (String)innerProcStack.pop();
+      collectCharacters(s.toCharArray(), 0, s.length());
+   }
+
+
+   /** @return the namespaces of the current scope */
+   NamespaceScope getInScopeNamespaces()
+   {
+      return inScopeNamespaces;
+   }
+
+
+   /** @return the position counter slots of the transformation sheet */
+   PositionIndex getPositionIndex()
+   {
+      return positionIndex;
+   }
+
+
+   /**
+    * Creates a processor that transforms chunks of children on behalf of
+    * a {@link ParallelHandler}. The new processor shares the parameters,
+    * resolvers and listeners of this processor.
+    * @return the new processor
+    * @throws SAXException if the construction of a new XML parser fails
+    */
+   Processor createWorker()
+      throws SAXException
+   {
+      Processor worker = new Processor(this);
+      worker.context.globalParameters = context.globalParameters;
+      worker.context.uriResolver = context.uriResolver;
+      worker.context.errorHandler.errorListener =
+         context.errorHandler.errorListener;
+      worker.context.messageEmitter = context.messageEmitter;
+      if (context.locator != null)
+         // keeps the system identifier of the input
+         worker.context.locator = new LocatorImpl(context.locator);
+      return worker;
+   }
+
+
+   /**
+    * Transforms a chunk of children on behalf of a {@link ParallelHandler}.
+    * Every chunk starts with fresh group variables, and pending
+    * <code>stx:process-siblings</code> instructions are terminated at the
+    * end of the chunk.
+    * @param ancestors the ancestors of the children, the top-most one
+    *        must have its own position counters
+    * @param group the target group for the children
+    * @param namespaces the namespaces in scope for the children
+    * @param params the parameters passed to the templates
+    * @param chunk the events of the children
+    * @param result the buffer that receives the result
+    * @param instruction the instruction that started the processing
+    */
+   void processChunk(SAXEvent[] ancestors, GroupBase group,
+                     NamespaceScope namespaces, Hashtable params,
+                     BufferContents chunk, BufferEmitter result,
+                     NodeBase instruction)
+      throws SAXException
+   {
+      setContentHandler(result);
+      setLexicalHandler(result);
+      eventStack.clear();
+      transformNode.initGroupVariables(context);
+      context.emitter.startDocument();
+
+      for (int i=0; i<ancestors.length; i++)
+         eventStack.push(ancestors[i]);
+      inScopeNamespaces = namespaces;
+      context.currentGroup = context.targetGroup = group;
+      context.passedParameters = params;
+      dataStack.push(new Data(context));
+
+      chunk.parse(this, this);
+
+      if (collectedLength != 0)
+         processCharacters();
+      clearProcessSiblings();
+      dataStack.pop();
+
+      transformNode.exitRecursionLevel(context);
+      context.emitter.endDocument(instruction);
+      eventStack.clear();
+      clearSpilledBuffers();
    }
 
 
@@ -849,11 +1139,13 @@ public class Processor extends XMLFilterImpl
       // used for performance (to prevent calling foundUnprocessedTemplate())
       boolean notSelf = (top.lastProcStatus != PR_SELF);
 
-      // the three precedence categories
+      // the three precedence categories, each of them reduced to the
+      // templates that are able to match the current event
+      SAXEvent event = (SAXEvent)eventStack.peek();
       TemplateFactory.Instance precCats[][] = {
-         top.targetGroup.visibleTemplates,
-         top.targetGroup.groupTemplates,
-         globalTemplates
+         top.targetGroup.visibleTemplateIndex.getCandidates(event),
+         top.targetGroup.groupTemplateIndex.getCandidates(event),
+         globalTemplateIndex.getCandidates(event)
       };
 
       // look up for a matching template in the categories
@@ -914,6 +1206,9 @@ public class Processor extends XMLFilterImpl
    {
       processStatus = PR_CONTINUE;
 
+      // the current node may be referenced by instructions from now on
+      ((SAXEvent)eventStack.peek()).detach();
+
       while (inst != null && processStatus == PR_CONTINUE) {
          // check, if this is the original class: call process() directly
          if (isProcessorClass) {
@@ -924,7 +1219,7 @@ public class Processor extends XMLFilterImpl
                      log.debug(inst.lineNo + ": " + inst);
 
                processStatus = inst.process(context);
-               inst = inst.next;
+               inst = inst.getNext(context);
             }
          }
          // otherwise: this is a derived class
@@ -935,7 +1230,7 @@ public class Processor extends XMLFilterImpl
                   processStatus = inst.process(context);
                else
                   processStatus = processInstruction(inst, event);
-               inst = inst.next;
+               inst = inst.getNext(context);
             }
          }
 
@@ -976,7 +1271,7 @@ public class Processor extends XMLFilterImpl
       if (DEBUG)
          if (log.isDebugEnabled()) {
             log.debug(event);
-            log.debug(context.localVars);
+            log.debug(Arrays.asList(context.localVars));
          }
 
       if (dataStack.peek().lastProcStatus == PR_SIBLINGS)
@@ -985,7 +1280,6 @@ public class Processor extends XMLFilterImpl
       TemplateFactory.Instance temp = findMatchingTemplate();
       if (temp != null) {
          AbstractInstruction inst = temp;
-         context.localVars.clear();
          Hashtable currentParams = context.passedParameters;
 
          inst = doProcessLoop(inst, event, false);
@@ -993,7 +1287,7 @@ public class Processor extends XMLFilterImpl
          if (DEBUG)
             if (log.isDebugEnabled()) {
                log.debug("stop " + processStatus);
-               log.debug(context.localVars);
+               log.debug(Arrays.asList(context.localVars));
             }
 
          switch (processStatus) {
@@ -1001,7 +1295,7 @@ public class Processor extends XMLFilterImpl
             if (event.type == SAXEvent.ELEMENT ||
                 event.type == SAXEvent.ROOT) {
                skipDepth = 1;
-               collectedCharacters.setLength(0); // clear text
+               clearCollectedCharacters();
                insideCDATA = false; // reset if there was a CDATA section
             }
             break;
@@ -1013,11 +1307,10 @@ public class Processor extends XMLFilterImpl
             if (context.targetHandler != null) {
                // instruction had a filter attribute
                startExternDocument();
-               if (collectedCharacters.length() > 0) {
-                  context.targetHandler.characters(
-                     collectedCharacters.toString().toCharArray(),
-                     0, collectedCharacters.length());
-                  collectedCharacters.setLength(0);
+               if (collectedLength > 0) {
+                  context.targetHandler.characters(collectedCharacters,
+                                                   0, collectedLength);
+                  clearCollectedCharacters();
                }
                skipDepth = 1;
             }
@@ -1039,7 +1332,7 @@ public class Processor extends XMLFilterImpl
                case SAXEvent.TEXT:
                   startExternDocument();
                   context.targetHandler.characters(
-                     event.value.toCharArray(), 0, event.value.length());
+                     event.getChars(), 0, event.getLength());
                   endExternDocument();
                   break;
 
@@ -1047,7 +1340,7 @@ public class Processor extends XMLFilterImpl
                   startExternDocument();
                   context.targetHandler.startCDATA();
                   context.targetHandler.characters(
-                     event.value.toCharArray(), 0, event.value.length());
+                     event.getChars(), 0, event.getLength());
                   context.targetHandler.endCDATA();
                   endExternDocument();
                   break;
@@ -1128,7 +1421,7 @@ public class Processor extends XMLFilterImpl
                 event.type == SAXEvent.ROOT) {
                // end of template reached, skip contents
                skipDepth = 1;
-               collectedCharacters.setLength(0); // clear text
+               clearCollectedCharacters();
             }
             dataStack.push(
                new Data(PR_SIBLINGS, temp, inst, currentParams,
@@ -1163,20 +1456,26 @@ public class Processor extends XMLFilterImpl
                emitter.startElement(event.uri, event.lName, event.qName,
                                     event.attrs, event.namespaces, tg);
             dataStack.push(new Data(dataStack.peek()));
+            if (!mayMatchBelow(dataStack.peek().targetGroup)) {
+               if (log != null && log.isDebugEnabled())
+                  log.debug("Projecting the contents of " + event.qName +
+                            ", no template matches below");
+               projectDepth = 1;
+            }
             break;
 
          case SAXEvent.TEXT:
             if ((tg.passThrough & PASS_THROUGH_TEXT) != 0) {
-               emitter.characters(event.value.toCharArray(),
-                                  0, event.value.length(), tg);
+               emitter.characters(event.getChars(),
+                                  0, event.getLength(), tg);
             }
             break;
 
          case SAXEvent.CDATA:
             if ((tg.passThrough & PASS_THROUGH_TEXT) != 0) {
                emitter.startCDATA(tg);
-               emitter.characters(event.value.toCharArray(),
-                                  0, event.value.length(), tg);
+               emitter.characters(event.getChars(),
+                                  0, event.getLength(), tg);
                emitter.endCDATA();
             }
             break;
@@ -1208,6 +1507,23 @@ public class Processor extends XMLFilterImpl
    }
 
 
+   /**
+    * Determines whether a template may match a descendant of the current
+    * element.
+    * @param group the group that contains the visible templates
+    * @return <code>false</code> if the element contents are subject to
+    *         the default action only
+    */
+   private boolean mayMatchBelow(GroupBase group)
+      throws SAXException
+   {
+      int top = eventStack.size();
+      return group.visibleTemplateIndex.mayMatchBelow(context, top) ||
+             group.groupTemplateIndex.mayMatchBelow(context, top) ||
+             globalTemplateIndex.mayMatchBelow(context, top);
+   }
+
+
    /**
     * Process last element start (stored as {@link #lastElement} in
     * {@link #startElement startElement})
@@ -1220,22 +1536,24 @@ public class Processor extends XMLFilterImpl
             log.debug(lastElement);
 
       // determine if the look-ahead is a text node
-      String s = collectedCharacters.toString();
-      if (s.length() == 0 ||
-          (context.targetGroup.stripSpace && s.trim().length() == 0)) {
+      if (collectedLength == 0 ||
+          (context.targetGroup.stripSpace && isCollectedWhitespace())) {
          if (hasChildren)
             lastElement.enableChildNodes(true);
       }
       else {
-         // set string value of the last element
-         lastElement.value = s;
+         // set string value of the last element (the following text node
+         // will share this string)
+         lastElement.value = getCollectedString();
          lastElement.enableChildNodes(true);
       }
 
       // put last element on the event stack
-      ((SAXEvent)eventStack.peek()).countElement(lastElement.uri,
-                                                 lastElement.lName);
+      ((SAXEvent)eventStack.peek()).countElement(lastElement.uriCode,
+                                                 lastElement.lNameCode,
+                                                 positionIndex);
       eventStack.push(lastElement);
+      descendantIndex.enterElement(context);
 
       lastElement = null;
       processEvent();
@@ -1249,44 +1567,124 @@ public class Processor extends XMLFilterImpl
    private void processCharacters()
       throws SAXException
    {
-      String s = collectedCharacters.toString();
-
       if (DEBUG)
          if (log.isDebugEnabled())
-            log.debug("'" + s + "'");
+            log.debug("'" + getCollectedString() + "'");
 
       if (skipDepth > 0 && context.targetHandler != null) {
          if (insideCDATA) {
             context.targetHandler.startCDATA();
-            context.targetHandler.characters(s.toCharArray(), 0, s.length());
+            context.targetHandler.characters(collectedCharacters,
+                                             0, collectedLength);
             context.targetHandler.endCDATA();
          }
          else
-            context.targetHandler.characters(s.toCharArray(), 0, s.length());
-         collectedCharacters.setLength(0);
+            context.targetHandler.characters(collectedCharacters,
+                                             0, collectedLength);
+         clearCollectedCharacters();
          return;
       }
 
-      if (context.targetGroup.stripSpace && s.trim().length() == 0) {
-         collectedCharacters.setLength(0);
+      if (context.targetGroup.stripSpace && isCollectedWhitespace()) {
+         clearCollectedCharacters();
          return; // white-space only characters found, do nothing
       }
 
+      if (projectDepth > 0) {
+         // default action without creating a text node
+         GroupBase tg = context.targetGroup;
+         if ((tg.passThrough & PASS_THROUGH_TEXT) != 0) {
+            Emitter emitter = context.emitter;
+            if (insideCDATA) {
+               emitter.startCDATA(tg);
+               emitter.characters(collectedCharacters, 0, collectedLength,
+                                  tg);
+               emitter.endCDATA();
+            }
+            else
+               emitter.characters(collectedCharacters, 0, collectedLength,
+                                  tg);
+         }
+         clearCollectedCharacters();
+         return;
+      }
+
+      // The new node is a view on collectedCharacters (unless the string
+      // has been created already for the look-ahead of the parent).
+      // It will be detached from the buffer as soon as it is visible for
+      // instructions (see doProcessLoop), so a text node that is simply
+      // passed through doesn't need a copy of its characters.
       SAXEvent ev;
       if (insideCDATA) {
-         ((SAXEvent)eventStack.peek()).countCDATA();
-         ev = SAXEvent.newCDATA(s);
+         ((SAXEvent)eventStack.peek()).countCDATA(positionIndex);
+         ev = collectedString != null
+              ? SAXEvent.newCDATA(collectedString)
+              : SAXEvent.newCDATA(collectedCharacters, collectedLength);
       }
       else {
-         ((SAXEvent)eventStack.peek()).countText();
-         ev = SAXEvent.newText(s);
+         ((SAXEvent)eventStack.peek()).countText(positionIndex);
+         ev = collectedString != null
+              ? SAXEvent.newText(collectedString)
+              : SAXEvent.newText(collectedCharacters, collectedLength);
       }
 
       eventStack.push(ev);
       processEvent();
       eventStack.pop();
+      ev.detach();
+
+      clearCollectedCharacters();
+   }
+
+
+   /**
+    * Appends characters to {@link #collectedCharacters}, enlarges the
+    * buffer if necessary
+    */
+   private void collectCharacters(char[] ch, int start, int length)
+   {
+      int newLength = collectedLength + length;
+      if (newLength > collectedCharacters.length) {
+         char[] tmp = new char[Math.max(newLength,
+                                        collectedCharacters.length << 1)];
+         System.arraycopy(collectedCharacters, 0, tmp, 0, collectedLength);
+         collectedCharacters = tmp;
+      }
+      System.arraycopy(ch, start, collectedCharacters, collectedLength,
+                       length);
+      collectedLength = newLength;
+      collectedString = null;
+   }
+
+
+   /** Removes all characters from {@link #collectedCharacters} */
+   private void clearCollectedCharacters()
+   {
+      collectedLength = 0;
+      collectedString = null;
+   }
+
 
-      collectedCharacters.setLength(0);
+   /** @return the contents of {@link #collectedCharacters} as string */
+   private String getCollectedString()
+   {
+      if (collectedString == null)
+         collectedString = new String(collectedCharacters, 0,
+                                      collectedLength);
+      return collectedString;
+   }
+
+
+   /**
+    * @return whether {@link #collectedCharacters} contains white-space only
+    *         (in the sense of {@link String#trim})
+    */
+   private boolean isCollectedWhitespace()
+   {
+      for (int i=0; i<collectedLength; i++)
+         if (collectedCharacters[i] > ' ')
+            return false;
+      return true;
    }
 
 
@@ -1336,7 +1734,7 @@ public class Processor extends XMLFilterImpl
          // terminates
          int stackPos = dataStack.size()-1;
          Data data = dataStack.peek();
-         Hashtable storedVars = context.localVars;
+         Object[] storedVars = context.localVars;
          stopData = null;
          do {
             context.localVars = data.localVars;
@@ -1389,6 +1787,9 @@ public class Processor extends XMLFilterImpl
    private void clearProcessSiblings(Data stopData, boolean clearLast)
       throws SAXException
    {
+      // the top-most event may be referenced by instructions from now on
+      ((SAXEvent)eventStack.peek()).detach();
+
       // replace top-most event and local variables
       Object topEvent = null;
       // if clearLast==true then there's no event to remove,
@@ -1397,7 +1798,7 @@ public class Processor extends XMLFilterImpl
          topEvent = eventStack.peek();
       else
          topEvent = eventStack.pop();
-      Hashtable storedVars = context.localVars;
+      Object[] storedVars = context.localVars;
       Data data;
       do {
          data = dataStack.pop();
@@ -1413,7 +1814,7 @@ public class Processor extends XMLFilterImpl
             if (DEBUG)
                if (log.isDebugEnabled()) {
                   log.debug("stop " + processStatus);
-                  log.debug(context.localVars);
+                  log.debug(Arrays.asList(context.localVars));
                }
 
             switch (processStatus) {
@@ -1461,10 +1862,15 @@ public class Processor extends XMLFilterImpl
          // will remove it
          namespaceContext.push(namespaceContext.peek());
          // postpone the processing of character data
-         StringBuffer postponedCharacters = collectedCharacters;
-         collectedCharacters = new StringBuffer();
+         char[] postponedCharacters = collectedCharacters;
+         int postponedLength = collectedLength;
+         String postponedString = collectedString;
+         collectedCharacters = new char[256];
+         clearCollectedCharacters();
          endElement(selfEvent.uri, selfEvent.lName, selfEvent.qName);
          collectedCharacters = postponedCharacters;
+         collectedLength = postponedLength;
+         collectedString = postponedString;
       }
 
       // restore old event stack
@@ -1485,25 +1891,13 @@ public class Processor extends XMLFilterImpl
          context.targetHandler.startDocument();
 
          // declare current namespaces
-         for (Enumeration e = inScopeNamespaces.keys();
-              e.hasMoreElements(); ) {
-            String prefix = (String)e.nextElement();
+         for (int i=0; i<inScopeNamespaces.size(); i++) {
+            String prefix = inScopeNamespaces.getPrefix(i);
             if (!prefix.equals("xml"))
                context.targetHandler.startPrefixMapping(
-                  prefix, (String)inScopeNamespaces.get(prefix));
+                  prefix, inScopeNamespaces.getURI(i));
          }
 
-// If the Map interface would be used:
-//
-//           Map.Entry[] nsEntries = new Map.Entry[inScopeNamespaces.size()];
-//           inScopeNamespaces.entrySet().toArray(nsEntries);
-//           for (int i=0; i<nsEntries.length; i++) {
-//              String prefix = (String)nsEntries[i].getKey();
-//              if (!prefix.equals("xml"))
-//                 context.targetHandler.startPrefixMapping(
-//                    prefix, (String)nsEntries[i].getValue());
-//           }
-
       }
       catch (RuntimeException e) {
          // wrap exception
@@ -1528,23 +1922,12 @@ public class Processor extends XMLFilterImpl
    {
       try {
          // undeclare current namespaces
-         for (Enumeration e = inScopeNamespaces.keys();
-              e.hasMoreElements(); ) {
-            String prefix = (String)e.nextElement();
+         for (int i=0; i<inScopeNamespaces.size(); i++) {
+            String prefix = inScopeNamespaces.getPrefix(i);
             if (!prefix.equals("xml"))
                context.targetHandler.endPrefixMapping(prefix);
          }
 
-// If the Map interface would be used
-//
-//           Map.Entry[] nsEntries = new Map.Entry[inScopeNamespaces.size()];
-//           inScopeNamespaces.entrySet().toArray(nsEntries);
-//           for (int i=0; i<nsEntries.length; i++) {
-//              String prefix = (String)nsEntries[i].getKey();
-//              if (!prefix.equals("xml"))
-//                 context.targetHandler.endPrefixMapping(prefix);
-//           }
-
          context.targetHandler.endDocument();
          context.targetHandler = null;
       }
@@ -1590,7 +1973,7 @@ public class Processor extends XMLFilterImpl
    public void endDocument()
       throws SAXException
    {
-      if (collectedCharacters.length() != 0)
+      if (collectedLength != 0)
          processCharacters();
 
       if (skipDepth == 1 && context.targetHandler != null &&
@@ -1657,6 +2040,7 @@ public class Processor extends XMLFilterImpl
             if (innerProcStack.empty()) {
                transformNode.exitRecursionLevel(context);
                context.emitter.endDocument(transformNode);
+               clearSpilledBuffers();
             }
             else
                eventStack = context.ancestorStack =
@@ -1672,10 +2056,32 @@ public class Processor extends XMLFilterImpl
    }
 
 
+   /**
+    * Starts an element that has been stored in a buffer. This method
+    * invokes {@link #startElement(String, String, String, Attributes)},
+    * which reuses the encoded name of the stored element.
+    * @param uriCode the code of <code>uri</code> (see {@link NamePool})
+    * @param lNameCode the code of <code>lName</code>
+    */
+   public void startBufferedElement(String uri, String lName, String qName,
+                                    Attributes attrs,
+                                    int uriCode, int lNameCode)
+      throws SAXException
+   {
+      bufferedUriCode = uriCode;
+      bufferedLNameCode = lNameCode;
+      startElement(uri, lName, qName, attrs);
+      bufferedUriCode = -1; // in case it hasn't been consumed
+   }
+
+
    public void startElement(String uri, String lName, String qName,
                             Attributes attrs)
       throws SAXException
    {
+      int uriCode = bufferedUriCode;
+      bufferedUriCode = -1;
+
       if (DEBUG)
          if (log.isDebugEnabled()) {
             log.debug(qName);
@@ -1687,7 +2093,7 @@ public class Processor extends XMLFilterImpl
       if (lastElement != null)
          processLastElement(true);
 
-      if (collectedCharacters.length() != 0)
+      if (collectedLength != 0)
          processCharacters();
 
       if (skipDepth > 0) {
@@ -1697,14 +2103,28 @@ public class Processor extends XMLFilterImpl
          return;
       }
 
-      lastElement = SAXEvent.newElement(uri, lName, qName, attrs, false,
-                                        inScopeNamespaces);
-
-      if (!nsContextActive) {
+      // an element without own namespace declarations shares the scope
+      // of its parent
+      if (!nsContextActive)
          namespaceContext.push(inScopeNamespaces);
-         inScopeNamespaces = (Hashtable)inScopeNamespaces.clone();
-      }
       nsContextActive = false;
+
+      if (projectDepth > 0) {
+         projectDepth++;
+         GroupBase tg = context.targetGroup;
+         if ((tg.passThrough & PASS_THROUGH_ELEMENT) != 0)
+            context.emitter.startElement(uri, lName, qName, attrs,
+                                         inScopeNamespaces, tg);
+         return;
+      }
+
+      if (uriCode != -1)
+         lastElement = SAXEvent.newElement(uri, lName, qName, attrs,
+                                           uriCode, bufferedLNameCode,
+                                           inScopeNamespaces);
+      else
+         lastElement = SAXEvent.newElement(uri, lName, qName, attrs, false,
+                                           inScopeNamespaces);
    }
 
 
@@ -1721,9 +2141,17 @@ public class Processor extends XMLFilterImpl
       if (lastElement != null)
          processLastElement(false);
 
-      if (collectedCharacters.length() != 0)
+      if (collectedLength != 0)
          processCharacters();
 
+      if (projectDepth > 0 && --projectDepth > 0) {
+         if ((context.targetGroup.passThrough & PASS_THROUGH_ELEMENT) != 0)
+            context.emitter.endElement(uri, lName, qName,
+                                       context.targetGroup);
+         inScopeNamespaces = (NamespaceScope)namespaceContext.pop();
+         return;
+      }
+
       if (skipDepth == 1 && context.targetHandler != null &&
           dataStack.peek().lastProcStatus == PR_CHILDREN) {
          // provisional fix for bug #765301
@@ -1804,7 +2232,7 @@ public class Processor extends XMLFilterImpl
          }
          else {
             eventStack.pop();
-            inScopeNamespaces = (Hashtable)namespaceContext.pop();
+            inScopeNamespaces = (NamespaceScope)namespaceContext.pop();
          }
       }
    }
@@ -1818,7 +2246,7 @@ public class Processor extends XMLFilterImpl
             context.targetHandler.characters(ch, start, length);
          return;
       }
-      collectedCharacters.append(ch, start, length);
+      collectCharacters(ch, start, length);
    }
 
 
@@ -1838,7 +2266,7 @@ public class Processor extends XMLFilterImpl
       if (lastElement != null)
          processLastElement(true);
 
-      if (collectedCharacters.length() != 0)
+      if (collectedLength != 0)
          processCharacters();
 
       if (skipDepth > 0) {
@@ -1847,8 +2275,15 @@ public class Processor extends XMLFilterImpl
          return;
       }
 
+      if (projectDepth > 0) {
+         if ((context.targetGroup.passThrough & PASS_THROUGH_PI) != 0)
+            context.emitter.processingInstruction(target, data,
+                                                  context.targetGroup);
+         return;
+      }
+
       // don't modify the event stack after process-self
-      ((SAXEvent)eventStack.peek()).countPI(target);
+      ((SAXEvent)eventStack.peek()).countPI(target, positionIndex);
 
       eventStack.push(SAXEvent.newPI(target, data));
 
@@ -1872,13 +2307,10 @@ public class Processor extends XMLFilterImpl
 
       if (!nsContextActive) {
          namespaceContext.push(inScopeNamespaces);
-         inScopeNamespaces = (Hashtable)inScopeNamespaces.clone();
          nsContextActive = true;
       }
-      if (uri.equals("")) // undeclare namespace
-         inScopeNamespaces.remove(prefix);
-      else
-         inScopeNamespaces.put(prefix, uri);
+      // an empty uri undeclares the namespace
+      inScopeNamespaces = inScopeNamespaces.declare(prefix, uri);
    }
 
 
@@ -1931,7 +2363,10 @@ public class Processor extends XMLFilterImpl
    public void startCDATA()
       throws SAXException
    {
-      if (!context.targetGroup.recognizeCdata)
+      // a ParallelHandler decides on its own (the children may be
+      // processed in a different group)
+      if (!context.targetGroup.recognizeCdata &&
+          !(skipDepth > 0 && context.targetHandler instanceof ParallelHandler))
          return;
 
       if (DEBUG)
@@ -1943,7 +2378,7 @@ public class Processor extends XMLFilterImpl
          return;
       }
 
-      if (collectedCharacters.length() != 0) {
+      if (collectedLength != 0) {
          if (lastElement != null)
             processLastElement(true);
          processCharacters();
@@ -1961,7 +2396,8 @@ public class Processor extends XMLFilterImpl
    public void endCDATA()
       throws SAXException
    {
-      if (!context.targetGroup.recognizeCdata)
+      if (!context.targetGroup.recognizeCdata &&
+          !(skipDepth > 0 && context.targetHandler instanceof ParallelHandler))
          return;
 
       if (skipDepth > 0) {
@@ -1992,7 +2428,7 @@ public class Processor extends XMLFilterImpl
       if (lastElement != null)
          processLastElement(true);
 
-      if (collectedCharacters.length() != 0)
+      if (collectedLength != 0)
          processCharacters();
 
       if (skipDepth > 0) {
@@ -2001,8 +2437,14 @@ public class Processor extends XMLFilterImpl
          return;
       }
 
+      if (projectDepth > 0) {
+         if ((context.targetGroup.passThrough & PASS_THROUGH_COMMENT) != 0)
+            context.emitter.comment(ch, start, length, context.targetGroup);
+         return;
+      }
+
       // don't modify the event stack after process-self
-      ((SAXEvent)eventStack.peek()).countComment();
+      ((SAXEvent)eventStack.peek()).countComment(positionIndex);
 
       eventStack.push(SAXEvent.newComment(new String(ch, start, length)));
 
@@ -2082,7 +2524,7 @@ public class Processor extends XMLFilterImpl
 //        log.debug("categoryStack: " + categoryStack.size());
 //        log.debug("eventStack: " + eventStack.size());
 //        log.debug("newNs: " + newNs.size());
-//        log.debug("collectedCharacters: " + collectedCharacters.capacity());
+//        log.debug("collectedCharacters: " + collectedCharacters.length);
 //        */
 //     }
 }
@@ -24,9 +24,6 @@
 
 package net.sf.joost.stx;
 
-import java.util.HashMap;
-import java.util.Hashtable;
-
 import net.sf.joost.stx.helpers.MutableAttributes;
 import net.sf.joost.stx.helpers.MutableAttributesImpl;
 
@@ -57,15 +54,29 @@ final public class SAXEvent
    public String uri;
    public String lName;
    public String qName; // PI->target, MAPPING->prefix
+   public int uriCode, lNameCode; // ELEMENT, ATTRIBUTE: see NamePool
    public MutableAttributes attrs;
-   public Hashtable namespaces;
+   public NamespaceScope namespaces;
    public String value = ""; 
       // PI->data, MAPPING->uri, TEXT, ATTRIBUTES as usual
       // ELEMENT->text look-ahead
    public boolean hasChildNodes = false;
 
-   /** contains the position counters */
-   private HashMap posHash;
+   /**
+    * TEXT, CDATA: the characters as a view on the text buffer of a
+    * {@link Processor}, <code>null</code> if the node has its own
+    * {@link #value}
+    */
+   private char[] chars;
+
+   /** The number of valid characters in {@link #chars} */
+   private int length;
+
+   /** contains the position counters, see {@link PositionIndex} */
+   private long[] positions;
+
+   /** ELEMENT: the states of the descendant steps, see {@link DescendantIndex} */
+   boolean[] descendantStates;
 
 
 
@@ -85,13 +96,15 @@ final public class SAXEvent
    /** Create a new element node */
    public static SAXEvent newElement(String uri, String lName, String qName,
                                      Attributes attrs, boolean mutable,
-                                     Hashtable inScopeNamespaces)
+                                     NamespaceScope inScopeNamespaces)
    {
       SAXEvent event = new SAXEvent();
       event.type = attrs != null ? ELEMENT : ELEMENT_END;
       event.uri = uri;
       event.lName = lName;
       event.qName = qName;
+      event.uriCode = NamePool.lookupCode(uri);
+      event.lNameCode = NamePool.lookupCode(lName);
       
       if (attrs != null)
          event.attrs = new MutableAttributesImpl(attrs);
@@ -102,6 +115,30 @@ final public class SAXEvent
       return event;
    }
 
+   /**
+    * Create a new element node from an element that has been stored
+    * (e.g. in a buffer), reusing its encoded name
+    */
+   public static SAXEvent newElement(String uri, String lName, String qName,
+                                     Attributes attrs,
+                                     int uriCode, int lNameCode,
+                                     NamespaceScope inScopeNamespaces)
+   {
+      SAXEvent event = new SAXEvent();
+      event.type = ELEMENT;
+      event.uri = uri;
+      event.lName = lName;
+      event.qName = qName;
+      event.uriCode = uriCode;
+      event.lNameCode = lNameCode;
+      event.attrs = new MutableAttributesImpl(attrs);
+
+      event.namespaces = inScopeNamespaces;
+      event.hasChildNodes = false;
+      event.value = "";
+      return event;
+   }
+
    /** Create a new text node */
    public static SAXEvent newText(String value)
    {
@@ -122,6 +159,33 @@ final public class SAXEvent
    }
 
 
+   /**
+    * Create a new text node as a view on a character buffer. The node
+    * must be {@link #detach detached} before the buffer changes.
+    */
+   static SAXEvent newText(char[] chars, int length)
+   {
+      SAXEvent event = new SAXEvent();
+      event.type = TEXT;
+      event.value = null;
+      event.chars = chars;
+      event.length = length;
+      return event;
+   }
+
+
+   /**
+    * Create a new CDATA node as a view on a character buffer. The node
+    * must be {@link #detach detached} before the buffer changes.
+    */
+   static SAXEvent newCDATA(char[] chars, int length)
+   {
+      SAXEvent event = newText(chars, length);
+      event.type = CDATA;
+      return event;
+   }
+
+
    /** Create a root node */
    public static SAXEvent newRoot()
    {
@@ -161,6 +225,8 @@ final public class SAXEvent
       event.uri = uri;
       event.lName = lname;
       event.qName = qName;
+      event.uriCode = NamePool.lookupCode(uri);
+      event.lNameCode = NamePool.lookupCode(lname);
       event.value = value;
       return event;
    }
@@ -173,6 +239,8 @@ final public class SAXEvent
       event.uri = attrs.getURI(index);
       event.lName = attrs.getLocalName(index);
       event.qName = attrs.getQName(index);
+      event.uriCode = NamePool.lookupCode(event.uri);
+      event.lNameCode = NamePool.lookupCode(event.lName);
       event.value = attrs.getValue(index);
       return event;
    }
@@ -190,202 +258,209 @@ final public class SAXEvent
 
 
    /**
-    * Enables the counting of child nodes.
+    * Marks this node as one with child nodes.
     * @param hasChildNodes <code>true</code>, if there are really child nodes;
     *                      <code>false</code>, if only the counting has to be
     *                      supported (e.g. in <code>stx:process-buffer</code>)
     */
    public void enableChildNodes(boolean hasChildNodes)
    {
-      if (hasChildNodes) {
-         posHash = new HashMap();
+      if (hasChildNodes)
          this.hasChildNodes = true;
-      }
-      else
-         if (posHash == null)
-            posHash = new HashMap();
+      // the position counters will be created by the first count call
    }
 
 
 
-   // *******************************************************************
-
-   /** 
-    * This class replaces java.lang.Long for counting because I need to 
-    * change the wrapped value and want to avoid the creation of a new
-    * object in each increment. Is this really better (faster)?
-    */
-   private final class Counter
-   {
-      public long value;
-      public Counter()
-      {
-         value = 1;
-      }
-   }
-
    // *******************************************************************
 
    /**
-    * This class acts as a wrapper for a pair of {@link String} objects.
-    * Such a pair is needed as a key for a hashtable.
+    * Returns the position counters of this node, creates them if necessary.
+    * @return the counters or <code>null</code> if the transformation sheet
+    *         doesn't need positions
     */
-   private static final class DoubleString
+   private long[] getPositions(PositionIndex index)
    {
-      private String s1, s2;
-      private int hashValue;
-      public DoubleString(String s1, String s2)
-      {
-         this.s1 = s1;
-         this.s2 = s2;
-         hashValue = (s1.hashCode() << 1) ^ s2.hashCode();
-      }
-
-      public int hashCode()
-      {
-         return hashValue;
-      }
-
-      public boolean equals(Object o)
-      {
-         if (!(o instanceof DoubleString))
-            return false;
-         DoubleString ds = (DoubleString)o;
-         return s1.equals(ds.s1) && s2.equals(ds.s2);
+      if (positions == null) {
+         int slotCount = index.getSlotCount();
+         if (slotCount == 0)
+            return null;
+         positions = new long[slotCount];
       }
+      return positions;
    }
 
-   // *******************************************************************
-
-
-   private static final DoubleString GENERIC_ELEMENT = 
-      new DoubleString("*", "*");
    /**
     * Increments the associated counters for an element.
     */
-   public void countElement(String uri, String lName)
+   public void countElement(int uriCode, int lNameCode, PositionIndex index)
    {
-      Object[] keys = { "node()", GENERIC_ELEMENT,  
-                        new DoubleString(uri, lName),
-                        new DoubleString("*", lName),
-                        new DoubleString(uri, "*") };
-      _countPosition(keys);
+      long[] p = getPositions(index);
+      if (p == null)
+         return;
+      increment(p, index.nodeSlot);
+      increment(p, index.elementSlot);
+      increment(p, index.getNameSlot(uriCode, lNameCode));
+      increment(p, index.getLocalNameSlot(lNameCode));
+      increment(p, index.getUriSlot(uriCode));
    }
 
    /**
     * Increments the associated counters for a text node.
     */
-   public void countText()
+   public void countText(PositionIndex index)
    {
-      String[] keys = { "node()", "text()" };
-      _countPosition(keys);
+      long[] p = getPositions(index);
+      if (p == null)
+         return;
+      increment(p, index.nodeSlot);
+      increment(p, index.textSlot);
    }
 
    /**
     * Increments the associated counters for a text CDATA node.
     */
-   public void countCDATA()
+   public void countCDATA(PositionIndex index)
    {
-      String[] keys = { "node()", "text()", "cdata()" };
-      _countPosition(keys);
+      long[] p = getPositions(index);
+      if (p == null)
+         return;
+      increment(p, index.nodeSlot);
+      increment(p, index.textSlot);
+      increment(p, index.cdataSlot);
    }
 
    /**
     * Increments the associated counters for a comment node.
     */
-   public void countComment()
+   public void countComment(PositionIndex index)
    {
-      String[] keys = { "node()", "comment()" };
-      _countPosition(keys);
+      long[] p = getPositions(index);
+      if (p == null)
+         return;
+      increment(p, index.nodeSlot);
+      increment(p, index.commentSlot);
    }
 
-   private static final DoubleString GENERIC_PI = 
-      new DoubleString("pi()", "");
    /**
     * Increment the associated counters for a processing instruction node.
     */
-   public void countPI(String target)
+   public void countPI(String target, PositionIndex index)
    {
-      Object[] keys = { "node()", GENERIC_PI, 
-                        new DoubleString("pi()", target) };
-      _countPosition(keys);
+      long[] p = getPositions(index);
+      if (p == null)
+         return;
+      increment(p, index.nodeSlot);
+      increment(p, index.piSlot);
+      increment(p, index.getPITargetSlot(target));
    }
 
+   private static void increment(long[] positions, int slot)
+   {
+      if (slot != -1)
+         positions[slot]++;
+   }
+
+
    /**
-    * Performs the real counting. Will be used by the count* functions.
+    * Returns the position of the last counted child node for a node test.
+    * @param slot the counter slot of the node test, allocated by a
+    *        {@link PositionIndex}
+    * @return the position, 0 if the transformation sheet doesn't use
+    *         positions
     */
-   private void _countPosition(Object[] keys)
+   public long getPosition(int slot)
    {
-      Counter c;
-      for (int i=0; i<keys.length; i++) {
-         c = (Counter)posHash.get(keys[i]);
-         if (c == null)
-            posHash.put(keys[i], new Counter());
-         else
-            c.value++;
-         // posHash.put(keys[i], new Long(l.longValue()+1));
-      }
+      return positions != null ? positions[slot] : 0;
    }
 
+   /**
+    * @return whether the states of the descendant steps are known for
+    *         this node
+    */
+   public boolean hasDescendantStates()
+   {
+      return descendantStates != null;
+   }
 
-   public long getPositionOf(String uri, String lName)
+   /**
+    * Returns whether the left path of a descendant step matches this
+    * element or one of its ancestors.
+    * @param slot the slot of the descendant step, allocated by a
+    *        {@link DescendantIndex}
+    */
+   public boolean getDescendantState(int slot)
    {
-      Counter c = (Counter)posHash.get(new DoubleString(uri, lName));
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return descendantStates[slot];
    }
 
-   public long getPositionOfNode()
+   /**
+    * Returns the string value of this node. In contrast to the field
+    * {@link #value} this method may be used for text nodes that are views
+    * on a character buffer.
+    */
+   public String getValue()
    {
-      Counter c = (Counter)posHash.get("node()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      if (value == null)
+         value = new String(chars, 0, length);
+      return value;
    }
 
-   public long getPositionOfText()
+   /**
+    * Returns the characters of a text node without copying them if
+    * possible. Only the first {@link #getLength} characters of the
+    * returned array are valid, and the array must not be changed.
+    */
+   public char[] getChars()
    {
-      Counter c = (Counter)posHash.get("text()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return chars != null ? chars : value.toCharArray();
    }
 
-   public long getPositionOfCDATA()
+   /** @return the number of characters of a text node */
+   public int getLength()
    {
-      Counter c = (Counter)posHash.get("cdata()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return chars != null ? length : value.length();
    }
 
-   public long getPositionOfComment()
+   /**
+    * Detaches a text node from the character buffer it is a view on,
+    * i.e. creates its own {@link #value}. Does nothing for other nodes.
+    */
+   void detach()
    {
-      Counter c = (Counter)posHash.get("comment()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
+      if (chars != null) {
+         getValue();
+         chars = null;
       }
-      return c.value;
    }
 
-   public long getPositionOfPI(String target)
+   /**
+    * Creates a copy of an element or the document node with its own
+    * position counters, which start with the current values of the
+    * counters of this node. The copy may be used as the parent of child
+    * nodes that are processed independently of this node.
+    * @return the copy
+    */
+   SAXEvent copyWithPositions()
    {
-      Counter c = (Counter)posHash.get(new DoubleString("pi()", target));
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
+      SAXEvent event = new SAXEvent();
+      event.type = type;
+      event.uri = uri;
+      event.lName = lName;
+      event.qName = qName;
+      event.uriCode = uriCode;
+      event.lNameCode = lNameCode;
+      event.attrs = attrs;
+      event.namespaces = namespaces;
+      event.value = value;
+      event.hasChildNodes = hasChildNodes;
+      if (positions != null) {
+         event.positions = new long[positions.length];
+         System.arraycopy(positions, 0, event.positions, 0,
+                          positions.length);
       }
-      return c.value;
+      event.descendantStates = descendantStates;
+      return event;
    }
 
    public Object clone() {
@@ -409,9 +484,9 @@ final public class SAXEvent
       case ELEMENT_END:
          return ret + "</" + qName + ">";
       case TEXT:
-         return ret + "'" + value + "'";
+         return ret + "'" + getValue() + "'";
       case CDATA:
-         return ret + "<![CDATA[" + value + "]]>";
+         return ret + "<![CDATA[" + getValue() + "]]>";
       case COMMENT:
          return ret + "<!--" + value + "-->";
       case PI:
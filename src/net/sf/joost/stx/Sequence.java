@@ -0,0 +1,391 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.io.Serializable;
+
+
+/**
+ * Immutable array-backed storage of a sequence with at least two items.
+ * A {@link Value} that is an item of a sequence refers to an object of
+ * this class and to its own position, so the next items, the number of
+ * the remaining items and any item at a given position are available in
+ * constant time. Subsequences share the arrays of the original sequence.
+ * <p>
+ * Sequences that consist of numbers or strings only are stored in a
+ * <code>double</code> or a <code>String</code> array respectively;
+ * Value objects are created only when an item is accessed.
+ * Sequences are constructed by a {@link Sequence.Builder}.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class Sequence implements Serializable
+{
+   private static final long serialVersionUID = 1L;
+
+   /** The items, if this isn't a sequence of numbers or strings */
+   private final Value[] values;
+
+   /** The items, if this is a sequence of numbers */
+   private final double[] numbers;
+
+   /** The items, if this is a sequence of strings */
+   private final String[] strings;
+
+   /** The array index behind the last item */
+   private final int end;
+
+   /** The index for comparisons, built on demand */
+   private transient SequenceIndex index;
+
+   /** The array index of the first item covered by {@link #index} */
+   private transient int indexFrom;
+
+   /** The number of comparisons that didn't use an index */
+   private transient int lookups;
+
+
+   private Sequence(Value[] values, double[] numbers, String[] strings,
+                    int end)
+   {
+      this.values = values;
+      this.numbers = numbers;
+      this.strings = strings;
+      this.end = end;
+   }
+
+
+   /**
+    * @return the number of items from array index <code>index</code>
+    *         to the end of this sequence
+    */
+   int countFrom(int index)
+   {
+      return end - index;
+   }
+
+
+   /**
+    * @return the single item at array index <code>index</code>, not
+    *         connected to this sequence
+    */
+   Value getItem(int index)
+   {
+      if (values != null)
+         return values[index];
+      else if (numbers != null)
+         return new Value(numbers[index]);
+      else
+         return new Value(strings[index]);
+   }
+
+
+   /** @return the number value of the item at array index <code>index</code> */
+   double getNumber(int index)
+   {
+      return numbers != null ? numbers[index]
+                             : getItem(index).getNumberValue();
+   }
+
+
+   /** @return the string value of the item at array index <code>index</code> */
+   String getString(int index)
+   {
+      return strings != null ? strings[index]
+                             : getItem(index).getStringValue();
+   }
+
+
+   /**
+    * @return the item at array index <code>index</code> as head of the
+    *         rest of this sequence, <code>null</code> if
+    *         <code>index</code> is behind the last item
+    */
+   Value getValue(int index)
+   {
+      if (index >= end)
+         return null;
+      if (index == end - 1)
+         return getItem(index);
+      return new Value(getItem(index), this, index);
+   }
+
+
+   /**
+    * @return the items from array index <code>from</code> to
+    *         <code>to</code> (exclusive) as a sequence value,
+    *         <code>from &lt; to &lt;= end</code>
+    */
+   Value getValue(int from, int to)
+   {
+      if (to - from == 1)
+         return getItem(from);
+      if (to == end)
+         return getValue(from);
+      return new Sequence(values, numbers, strings, to)
+                .getValue(from);
+   }
+
+
+   /**
+    * Returns the index of the items starting with <code>head</code>, see
+    * {@link SequenceIndex#getIndex}.
+    * @param head an item of this sequence
+    * @param lookups the number of items that are going to be looked up
+    * @return the index, <code>null</code> if it doesn't pay to build one
+    */
+   SequenceIndex getIndex(Value head, int lookups)
+   {
+      int from = head.getPosition();
+      if (index != null && indexFrom == from)
+         return index;
+      // build an index only if it will be used more than once
+      if (lookups < 2 && this.lookups++ == 0)
+         return null;
+      index = new SequenceIndex(head);
+      indexFrom = from;
+      return index;
+   }
+
+
+   /**
+    * Copies the items from array index <code>from</code> to the end of
+    * this sequence into an array.
+    */
+   void copyItems(int from, Value[] dest, int destPos)
+   {
+      if (values != null)
+         System.arraycopy(values, from, dest, destPos, end - from);
+      else
+         for (int i=from; i<end; i++)
+            dest[destPos++] = getItem(i);
+   }
+
+
+
+   /**
+    * Collects the items of a new sequence. A builder must not be used
+    * any more after {@link #toValue} has been called.
+    */
+   public static final class Builder
+   {
+      /** The initial capacity of the arrays */
+      private int capacity;
+
+      /**
+       * The items, at most one of these arrays is non-null: the first
+       * item determines the representation, an item of another type
+       * switches to {@link #values}
+       */
+      private Value[] values;
+      private double[] numbers;
+      private String[] strings;
+
+      /** The number of items */
+      private int size;
+
+      /** Constructs a builder for a sequence of unknown length */
+      public Builder()
+      {
+         this(8);
+      }
+
+      /**
+       * Constructs a builder
+       * @param capacity the expected number of items
+       */
+      public Builder(int capacity)
+      {
+         this.capacity = capacity < 2 ? 2 : capacity;
+      }
+
+      /** @return the number of items added so far */
+      public int size()
+      {
+         return size;
+      }
+
+      /** Appends a number */
+      public void add(double d)
+      {
+         if (size == 0 && values == null)
+            numbers = new double[capacity];
+         if (numbers != null) {
+            numbers = ensure(numbers, size + 1);
+            numbers[size++] = d;
+         }
+         else
+            addItem(new Value(d));
+      }
+
+      /** Appends a string */
+      public void add(String s)
+      {
+         if (size == 0 && values == null)
+            strings = new String[capacity];
+         if (strings != null) {
+            strings = ensure(strings, size + 1);
+            strings[size++] = s;
+         }
+         else
+            addItem(new Value(s));
+      }
+
+      /**
+       * Appends all items of a value, nothing if <code>v</code> is the
+       * empty sequence.
+       */
+      public void add(Value v)
+      {
+         if (v.type == Value.EMPTY)
+            return;
+         v = v.getItems();
+         Sequence seq = v.getSequence();
+         if (seq == null) {
+            if (v.type == Value.NUMBER)
+               add(v.getNumberValue());
+            else if (v.type == Value.STRING && v.getString() != null)
+               add(v.getString());
+            else
+               addItem(v);
+            return;
+         }
+         int from = v.getPosition();
+         int count = seq.end - from;
+         if (size == 0 && values == null) {
+            // adopt the representation of seq
+            if (seq.numbers != null)
+               numbers = new double[Math.max(capacity, count)];
+            else if (seq.strings != null)
+               strings = new String[Math.max(capacity, count)];
+         }
+         if (seq.numbers != null && numbers != null) {
+            numbers = ensure(numbers, size + count);
+            System.arraycopy(seq.numbers, from, numbers, size, count);
+         }
+         else if (seq.strings != null && strings != null) {
+            strings = ensure(strings, size + count);
+            System.arraycopy(seq.strings, from, strings, size, count);
+         }
+         else {
+            ensureValues(size + count);
+            seq.copyItems(from, values, size);
+         }
+         size += count;
+      }
+
+      /** Appends a single item that is neither a number nor a string */
+      private void addItem(Value v)
+      {
+         ensureValues(size + 1);
+         values[size++] = v;
+      }
+
+      /**
+       * Switches to the general representation (if necessary) and makes
+       * room for <code>minCapacity</code> items
+       */
+      private void ensureValues(int minCapacity)
+      {
+         if (values == null) {
+            values = new Value[Math.max(minCapacity,
+                                        Math.max(capacity, size << 1))];
+            if (numbers != null)
+               for (int i=0; i<size; i++)
+                  values[i] = new Value(numbers[i]);
+            else if (strings != null)
+               for (int i=0; i<size; i++)
+                  values[i] = new Value(strings[i]);
+            numbers = null;
+            strings = null;
+         }
+         else if (minCapacity > values.length) {
+            Value[] tmp = new Value[Math.max(minCapacity, size << 1)];
+            System.arraycopy(values, 0, tmp, 0, size);
+            values = tmp;
+         }
+      }
+
+      private static double[] ensure(double[] array, int minCapacity)
+      {
+         if (minCapacity <= array.length)
+            return array;
+         double[] tmp = new double[Math.max(minCapacity, array.length << 1)];
+         System.arraycopy(array, 0, tmp, 0, array.length);
+         return tmp;
+      }
+
+      private static String[] ensure(String[] array, int minCapacity)
+      {
+         if (minCapacity <= array.length)
+            return array;
+         String[] tmp = new String[Math.max(minCapacity, array.length << 1)];
+         System.arraycopy(array, 0, tmp, 0, array.length);
+         return tmp;
+      }
+
+      /**
+       * @return the collected items as a value: the empty sequence, a
+       *         single item, or the head of an immutable sequence
+       */
+      public Value toValue()
+      {
+         Sequence seq;
+         if (size == 0)
+            return Value.VAL_EMPTY;
+         else if (values != null) {
+            if (size == 1)
+               return values[0];
+            Value[] tmp = values;
+            if (size != tmp.length) {
+               tmp = new Value[size];
+               System.arraycopy(values, 0, tmp, 0, size);
+            }
+            seq = new Sequence(tmp, null, null, size);
+         }
+         else if (numbers != null) {
+            if (size == 1)
+               return new Value(numbers[0]);
+            double[] tmp = numbers;
+            if (size != tmp.length) {
+               tmp = new double[size];
+               System.arraycopy(numbers, 0, tmp, 0, size);
+            }
+            seq = new Sequence(null, tmp, null, size);
+         }
+         else {
+            if (size == 1)
+               return new Value(strings[0]);
+            String[] tmp = strings;
+            if (size != tmp.length) {
+               tmp = new String[size];
+               System.arraycopy(strings, 0, tmp, 0, size);
+            }
+            seq = new Sequence(null, null, tmp, size);
+         }
+         return seq.getValue(0);
+      }
+   }
+}
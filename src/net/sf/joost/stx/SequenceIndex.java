@@ -0,0 +1,298 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Hash index over the items of a sequence for the general comparisons
+ * <code>=</code> and <code>!=</code> and for the function
+ * <code>index-of</code>. Looking up an item takes constant time instead
+ * of comparing it with every item of the sequence.
+ * <p>
+ * Since sequences are immutable, an index is stored with its
+ * {@link Sequence} and reused as long as the sequence is referenced, for
+ * example by a variable. Assigning a new value to the variable simply
+ * replaces the sequence and thereby its index. An index is built only for
+ * sequences with at least {@link #getMinSize} items, and only when more
+ * than one item is going to be looked up.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class SequenceIndex
+{
+   /** The minimal number of items of an indexed sequence */
+   private static int minSize = 16;
+
+   /** @return the minimal number of items of an indexed sequence */
+   public static int getMinSize()
+   {
+      return minSize;
+   }
+
+   /**
+    * Sets the minimal number of items of an indexed sequence.
+    * @param size the number of items; {@link Integer#MAX_VALUE} disables
+    *        the use of indexes
+    */
+   public static void setMinSize(int size)
+   {
+      minSize = size;
+   }
+
+
+   /** A list of item positions in ascending order */
+   private static final class Positions
+   {
+      int[] items = new int[1];
+      int size;
+
+      void add(int pos)
+      {
+         if (size == items.length) {
+            int[] tmp = new int[size << 1];
+            System.arraycopy(items, 0, tmp, 0, size);
+            items = tmp;
+         }
+         items[size++] = pos;
+      }
+   }
+
+   private static final Positions NONE = new Positions();
+
+
+   /** The indexed sequence */
+   private final Value seq;
+
+   /**
+    * Positions of the items that are neither booleans nor numbers
+    * (strings, nodes, objects), keyed by their string values
+    */
+   private final HashMap strings = new HashMap();
+
+   /**
+    * Positions of the same items keyed by their number values,
+    * computed on demand
+    */
+   private HashMap stringNumbers;
+
+   /** Positions of the numbers, keyed by their values */
+   private final HashMap numbers = new HashMap();
+
+   /** Positions of the booleans */
+   private final Positions booleanTrue = new Positions(),
+                           booleanFalse = new Positions();
+
+   /** Positions of all items by their boolean value, computed on demand */
+   private Positions allTrue, allFalse;
+
+   /** The number of strings and numbers in the sequence */
+   private int stringCount, numberCount;
+
+
+   /**
+    * Builds the index
+    * @param seq the head of a sequence stored in a {@link Sequence}
+    */
+   SequenceIndex(Value seq)
+   {
+      this.seq = seq;
+      for (int i=0, count=seq.count(); i<count; i++) {
+         Value v = seq.itemAt(i);
+         switch (v.type) {
+         case Value.BOOLEAN:
+            (v.getBooleanValue() ? booleanTrue : booleanFalse).add(i);
+            break;
+         case Value.NUMBER:
+            add(numbers, key(v.getNumberValue()), i);
+            numberCount++;
+            break;
+         default:
+            add(strings, v.getStringValue(), i);
+            stringCount++;
+         }
+      }
+   }
+
+
+   /**
+    * Returns the index of a sequence for looking up a number of items.
+    * @param seq the sequence
+    * @param lookups the number of items that are going to be looked up
+    * @return the index, <code>null</code> if comparing the items one by
+    *         one is expected to be faster
+    */
+   public static SequenceIndex getIndex(Value seq, int lookups)
+   {
+      if (!seq.hasNext() || seq.count() < minSize)
+         return null;
+      seq = seq.getItems();
+      return seq.getSequence().getIndex(seq, lookups);
+   }
+
+
+   /**
+    * @return whether an item of the sequence is equal to
+    *         <code>item</code> according to the <code>=</code> operator
+    */
+   public boolean containsEqual(Value item)
+   {
+      if (item.type == Value.BOOLEAN)
+         return getAll(item.getBooleanValue()).size > 0;
+      if ((item.getBooleanValue() ? booleanTrue : booleanFalse).size > 0)
+         return true;
+      if (item.type == Value.NUMBER) {
+         Object number = key(item.getNumberValue());
+         return get(numbers, number).size > 0 ||
+                (stringCount > 0 && get(getStringNumbers(), number).size > 0);
+      }
+      // convert item to a number only if necessary
+      return get(strings, item.getStringValue()).size > 0 ||
+             (numberCount > 0 &&
+              get(numbers, key(item.getNumberValue())).size > 0);
+   }
+
+
+   /**
+    * @return whether an item of the sequence is not equal to
+    *         <code>item</code> according to the <code>!=</code> operator
+    */
+   public boolean containsUnequal(Value item)
+   {
+      if (item.type == Value.BOOLEAN)
+         return getAll(!item.getBooleanValue()).size > 0;
+      if ((item.getBooleanValue() ? booleanFalse : booleanTrue).size > 0)
+         return true;
+      if (item.type == Value.NUMBER) {
+         Object number = key(item.getNumberValue());
+         return numberCount > get(numbers, number).size ||
+                (stringCount > 0 &&
+                 stringCount > get(getStringNumbers(), number).size);
+      }
+      return stringCount > get(strings, item.getStringValue()).size ||
+             (numberCount > 0 &&
+              numberCount > get(numbers, key(item.getNumberValue())).size);
+   }
+
+
+   /**
+    * @return the positions (counted from 0, in ascending order) of the
+    *         items that are equal to <code>item</code> according to the
+    *         <code>=</code> operator
+    */
+   public int[] indexesOf(Value item)
+   {
+      Positions[] found;
+      if (item.type == Value.BOOLEAN)
+         found = new Positions[] { getAll(item.getBooleanValue()) };
+      else {
+         Positions matchingBooleans =
+            item.getBooleanValue() ? booleanTrue : booleanFalse;
+         if (item.type == Value.NUMBER) {
+            Object number = key(item.getNumberValue());
+            found = new Positions[] {
+               matchingBooleans, get(numbers, number),
+               stringCount > 0 ? get(getStringNumbers(), number) : NONE };
+         }
+         else
+            found = new Positions[] {
+               matchingBooleans, get(strings, item.getStringValue()),
+               numberCount > 0 ? get(numbers, key(item.getNumberValue()))
+                               : NONE };
+      }
+      int size = 0;
+      for (int i=0; i<found.length; i++)
+         size += found[i].size;
+      int[] result = new int[size];
+      size = 0;
+      for (int i=0; i<found.length; i++) {
+         System.arraycopy(found[i].items, 0, result, size, found[i].size);
+         size += found[i].size;
+      }
+      // the lists contain different items
+      if (found.length > 1)
+         Arrays.sort(result);
+      return result;
+   }
+
+
+   /** @return the positions of the strings keyed by their number values */
+   private HashMap getStringNumbers()
+   {
+      if (stringNumbers == null) {
+         stringNumbers = new HashMap();
+         for (int i=0, count=seq.count(); i<count; i++) {
+            Value v = seq.itemAt(i);
+            if (v.type != Value.BOOLEAN && v.type != Value.NUMBER)
+               add(stringNumbers, key(v.getNumberValue()), i);
+         }
+      }
+      return stringNumbers;
+   }
+
+
+   /** @return the positions of all items with the boolean value b */
+   private Positions getAll(boolean b)
+   {
+      if (allTrue == null) {
+         allTrue = new Positions();
+         allFalse = new Positions();
+         for (int i=0, count=seq.count(); i<count; i++)
+            (seq.itemAt(i).getBooleanValue() ? allTrue : allFalse).add(i);
+      }
+      return b ? allTrue : allFalse;
+   }
+
+
+   /**
+    * @return the key for a number, <code>null</code> for NaN (which isn't
+    *         equal to any number)
+    */
+   private static Object key(double d)
+   {
+      if (Double.isNaN(d))
+         return null;
+      // 0.0 == -0.0
+      return new Double(d == 0 ? 0.0 : d);
+   }
+
+   private static void add(HashMap map, Object key, int pos)
+   {
+      if (key == null)
+         return;
+      Positions p = (Positions)map.get(key);
+      if (p == null)
+         map.put(key, p = new Positions());
+      p.add(pos);
+   }
+
+   private static Positions get(HashMap map, Object key)
+   {
+      Positions p = key != null ? (Positions)map.get(key) : null;
+      return p != null ? p : NONE;
+   }
+}
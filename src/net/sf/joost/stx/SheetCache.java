@@ -0,0 +1,540 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.stx;
+
+import net.sf.joost.Constants;
+import net.sf.joost.OptionalLog;
+import net.sf.joost.instruction.TransformFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Vector;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+
+/**
+ * Stores compiled transformation sheets in a directory, so later runs
+ * (and other VMs) can load them instead of compiling them again. An entry
+ * is found by a hash of the system identifier and the contents of the
+ * sheet, and is used only if none of its included sheets has changed.
+ * <p>
+ * Sheets with objects that are not serializable (e.g. script functions),
+ * with includes from a <code>URIResolver</code>, or with a
+ * {@link ParserListener} are not cached. Entries are written to temporary
+ * files that are renamed afterwards, and may contain Joost classes and a
+ * few JDK classes only.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class SheetCache implements Constants
+{
+   /** The logger object if available */
+   private static Log log = OptionalLog.getLog(SheetCache.class);
+
+   /** The version of the format of the cache entries */
+   private static final String FORMAT = "joost-sheet-cache-1";
+
+   /** The suffix of cache entry files */
+   private static final String SUFFIX = ".stxc";
+
+   /** Identifies the Joost classes, an update invalidates all entries */
+   private static final String CODE_STAMP = getCodeStamp();
+
+   /** Serializing the deeply linked instructions needs a large stack */
+   private static final long STACK_SIZE = 64L << 20;
+
+   /** The directory for the cache entries */
+   private File directory;
+
+
+   /**
+    * A task performed in a new thread, since only a new thread can get a
+    * stack of {@link #STACK_SIZE} bytes (cheap compared to compiling)
+    */
+   private static abstract class Task implements Runnable
+   {
+      private Object result;
+      private Exception exception;
+
+      /** @return the result of this task */
+      abstract Object perform()
+         throws Exception;
+
+      public void run()
+      {
+         try {
+            result = perform();
+         }
+         catch (Exception ex) {
+            exception = ex;
+         }
+         catch (StackOverflowError err) {
+            exception = new IOException("Transformation sheet too large");
+         }
+      }
+
+      /**
+       * Performs this task in a new thread and waits for its completion.
+       * @return the result of {@link #perform}
+       */
+      Object execute()
+         throws Exception
+      {
+         Thread thread = new Thread(null, this, "joost-sheet-cache",
+                                    STACK_SIZE);
+         thread.start();
+         boolean interrupted = false;
+         while (thread.isAlive()) {
+            try {
+               thread.join();
+            }
+            catch (InterruptedException ex) {
+               // wait again, the interrupt will be restored below
+               interrupted = true;
+            }
+         }
+         if (interrupted)
+            Thread.currentThread().interrupt();
+         if (exception != null)
+            throw exception;
+         return result;
+      }
+   }
+
+
+   /**
+    * Reads cache entries. Classes that don't belong to Joost and that are
+    * not among {@link #JDK_CLASSES} will be rejected before an object of
+    * such a class has been created.
+    */
+   private static final class EntryInputStream extends ObjectInputStream
+   {
+      /** The JDK classes that may occur in a compiled sheet */
+      private static final HashSet JDK_CLASSES = new HashSet(Arrays.asList(
+         new String[] {
+            "java.lang.Boolean", "java.lang.Double", "java.lang.Integer",
+            "java.lang.Long", "java.lang.Number", "java.lang.Object",
+            "java.lang.String", "java.util.ArrayList",
+            "java.util.Collections$EmptyList", "java.util.HashMap",
+            "java.util.HashSet", "java.util.Hashtable", "java.util.Stack",
+            "java.util.Vector", "java.util.regex.Pattern"
+         }));
+
+      EntryInputStream(InputStream in)
+         throws IOException
+      {
+         super(in);
+      }
+
+      protected Class resolveClass(ObjectStreamClass desc)
+         throws IOException, ClassNotFoundException
+      {
+         String name = desc.getName();
+         int dims = 0;
+         while (name.charAt(dims) == '[')
+            dims++;
+         if (dims > 0) {
+            if (name.length() == dims + 1) // array of a primitive type
+               return super.resolveClass(desc);
+            name = name.substring(dims + 1, name.length() - 1); // Lname;
+         }
+         if (!name.startsWith("net.sf.joost.") && !JDK_CLASSES.contains(name))
+            throw new InvalidClassException(desc.getName(),
+                                            "not allowed in a cache entry");
+         return super.resolveClass(desc);
+      }
+
+      protected Class resolveProxyClass(String[] interfaces)
+         throws InvalidClassException
+      {
+         throw new InvalidClassException("proxy class",
+                                         "not allowed in a cache entry");
+      }
+   }
+
+
+   /**
+    * Constructs a cache that keeps its entries in a directory.
+    * @param directory the directory, will be created if necessary
+    */
+   public SheetCache(File directory)
+   {
+      this.directory = directory;
+   }
+
+
+   /** @return the directory of this cache */
+   public File getDirectory()
+   {
+      return directory;
+   }
+
+
+   /**
+    * Parses a transformation sheet, or loads it from the cache if there is
+    * an up-to-date entry. A parsed sheet will be stored in the cache.
+    * @param reader the XML parser for the sheet, may be <code>null</code>
+    * @param src the source of the transformation sheet
+    * @param pContext the parse context
+    * @return a parser that provides the compiled sheet
+    * @throws IOException if <code>src</code> couldn't be read
+    * @throws SAXException if the sheet couldn't be parsed
+    */
+   public Parser parse(XMLReader reader, InputSource src,
+                       ParseContext pContext)
+      throws IOException, SAXException
+   {
+      Parser stxParser = new Parser(pContext);
+      byte[] contents = null;
+      File entry = null;
+      if (pContext.parserListener == null &&
+          (src.getSystemId() != null || src.getByteStream() != null ||
+           src.getCharacterStream() != null)) {
+         // read the sheet and replace src with a copy in memory
+         InputSource copy = new InputSource();
+         copy.setPublicId(src.getPublicId());
+         copy.setEncoding(src.getEncoding());
+         if (src.getCharacterStream() != null) {
+            String chars = readFully(src.getCharacterStream());
+            copy.setCharacterStream(new StringReader(chars));
+            contents = chars.getBytes("UTF-8");
+            copy.setSystemId(src.getSystemId());
+         }
+         else {
+            String systemId = src.getSystemId();
+            InputStream is = src.getByteStream();
+            if (is == null) {
+               URL url = getURL(systemId);
+               systemId = url.toExternalForm();
+               is = url.openStream();
+            }
+            contents = readFully(is);
+            copy.setByteStream(new ByteArrayInputStream(contents));
+            copy.setSystemId(systemId);
+         }
+         src = copy;
+
+         entry = new File(directory,
+                          getKey(src.getSystemId(), contents, pContext) +
+                          SUFFIX);
+         TransformFactory.Instance transformNode = load(entry, pContext);
+         if (transformNode != null) {
+            if (DEBUG)
+               log.debug("Loaded " + src.getSystemId() + " from " + entry);
+            pContext.transformNode = transformNode;
+            return stxParser;
+         }
+      }
+
+      if (reader == null)
+         reader = Processor.createXMLReader();
+      reader.setContentHandler(stxParser);
+      reader.setErrorHandler(pContext.getErrorHandler());
+      reader.parse(src);
+
+      if (entry != null)
+         store(entry, stxParser.getTransformNode(),
+               pContext.getIncludedSheets());
+      return stxParser;
+   }
+
+
+   /**
+    * Loads a compiled sheet from the cache.
+    * @param entry the file of the cache entry
+    * @param pContext the parse context, receives the included sheets
+    * @return the compiled sheet, <code>null</code> if there is no entry,
+    *         the entry is not readable, or an included sheet has changed
+    */
+   private TransformFactory.Instance load(final File entry,
+                                          final ParseContext pContext)
+   {
+      if (!entry.isFile())
+         return null;
+      try {
+         return (TransformFactory.Instance)new Task() {
+            Object perform()
+               throws Exception
+            {
+               ObjectInputStream in = new EntryInputStream(
+                  new BufferedInputStream(new FileInputStream(entry)));
+               try {
+                  String[] includes = (String[])in.readObject();
+                  byte[][] digests = (byte[][])in.readObject();
+                  for (int i=0; i<includes.length; i++)
+                     if (!Arrays.equals(digests[i],
+                                        digest(readFully(getURL(includes[i])
+                                                         .openStream())))) {
+                        if (DEBUG)
+                           log.debug(includes[i] + " has changed");
+                        return null;
+                     }
+                  Object transformNode = in.readObject();
+                  for (int i=0; i<includes.length; i++)
+                     pContext.addIncludedSheet(includes[i]);
+                  return transformNode;
+               }
+               finally {
+                  in.close();
+               }
+            }
+         }.execute();
+      }
+      catch (Exception ex) {
+         // outdated or damaged entry, or a missing include
+         if (DEBUG)
+            log.debug("Can't use " + entry + ": " + ex);
+         return null;
+      }
+   }
+
+
+   /**
+    * Stores a compiled sheet in the cache.
+    * @param entry the file of the cache entry
+    * @param transformNode the compiled sheet
+    * @param includes the system identifiers of the included sheets
+    */
+   private void store(File entry,
+                      final TransformFactory.Instance transformNode,
+                      Vector includes)
+   {
+      if (includes.contains(null)) {
+         if (DEBUG)
+            log.debug("Not cached (included sheet from a URIResolver): " +
+                      transformNode.systemId);
+         return;
+      }
+      File tmp = null;
+      try {
+         final String[] systemIds = new String[includes.size()];
+         includes.copyInto(systemIds);
+         final byte[][] digests = new byte[systemIds.length][];
+         for (int i=0; i<systemIds.length; i++)
+            digests[i] =
+               digest(readFully(getURL(systemIds[i]).openStream()));
+
+         directory.mkdirs();
+         final File file = tmp = File.createTempFile("joost", ".tmp",
+                                                     directory);
+         new Task() {
+            Object perform()
+               throws Exception
+            {
+               ObjectOutputStream out = new ObjectOutputStream(
+                  new BufferedOutputStream(new FileOutputStream(file)));
+               try {
+                  out.writeObject(systemIds);
+                  out.writeObject(digests);
+                  out.writeObject(transformNode);
+               }
+               finally {
+                  out.close();
+               }
+               return null;
+            }
+         }.execute();
+         // another thread or VM may have stored the same entry meanwhile
+         if (!tmp.renameTo(entry) && !(entry.delete() && tmp.renameTo(entry)))
+            throw new IOException("Can't rename " + tmp + " to " + entry);
+         tmp = null;
+      }
+      catch (Exception ex) {
+         // for example a NotSerializableException
+         if (log != null)
+            log.warn("Can't cache " + transformNode.systemId + ": " + ex);
+      }
+      finally {
+         if (tmp != null)
+            tmp.delete();
+      }
+   }
+
+
+   /**
+    * Computes the name of the cache entry for a sheet.
+    */
+   private static String getKey(String systemId, byte[] contents,
+                                ParseContext pContext)
+      throws UnsupportedEncodingException
+   {
+      // the compiled sheet depends on these settings as well
+      String settings = FORMAT + '\n' + CODE_STAMP + '\n' +
+                        pContext.allowExternalFunctions + '\n' + systemId;
+      byte[] s = settings.getBytes("UTF-8");
+      byte[] all = new byte[s.length + contents.length];
+      System.arraycopy(s, 0, all, 0, s.length);
+      System.arraycopy(contents, 0, all, s.length, contents.length);
+      byte[] digest = digest(all);
+      StringBuffer key = new StringBuffer(digest.length * 2);
+      for (int i=0; i<digest.length; i++) {
+         key.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+         key.append(Character.forDigit(digest[i] & 0xF, 16));
+      }
+      return key.toString();
+   }
+
+
+   /** @return the SHA-1 digest of <code>data</code> */
+   private static byte[] digest(byte[] data)
+   {
+      try {
+         return MessageDigest.getInstance("SHA-1").digest(data);
+      }
+      catch (NoSuchAlgorithmException ex) {
+         // SHA-1 is available on every Java platform
+         throw new RuntimeException(ex.toString());
+      }
+   }
+
+
+   /**
+    * @return the URL for a system identifier, which may be a file name
+    *         as well
+    */
+   private static URL getURL(String systemId)
+      throws MalformedURLException
+   {
+      try {
+         return new URL(systemId);
+      }
+      catch (MalformedURLException ex) {
+         return new File(systemId).toURI().normalize().toURL();
+      }
+   }
+
+
+   /** Reads and closes a stream */
+   private static byte[] readFully(InputStream is)
+      throws IOException
+   {
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         byte[] buf = new byte[8192];
+         int len;
+         while ((len = is.read(buf)) != -1)
+            bytes.write(buf, 0, len);
+         return bytes.toByteArray();
+      }
+      finally {
+         is.close();
+      }
+   }
+
+
+   /** Reads and closes a reader */
+   private static String readFully(Reader reader)
+      throws IOException
+   {
+      try {
+         StringBuffer chars = new StringBuffer();
+         char[] buf = new char[8192];
+         int len;
+         while ((len = reader.read(buf)) != -1)
+            chars.append(buf, 0, len);
+         return chars.toString();
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+
+   /**
+    * @return the location and the modification time of the jar file or
+    *         class directory that contains this class; for a directory
+    *         the latest modification time of all files below it, because
+    *         recompiling a class doesn't change the time of the directory
+    */
+   private static String getCodeStamp()
+   {
+      try {
+         CodeSource cs = SheetCache.class.getProtectionDomain()
+                                         .getCodeSource();
+         if (cs != null && cs.getLocation() != null) {
+            URL url = cs.getLocation();
+            if ("file".equals(url.getProtocol())) {
+               File location;
+               try {
+                  location = new File(new URI(url.toExternalForm()));
+               }
+               catch (URISyntaxException ex) {
+                  location = new File(url.getPath());
+               }
+               return url + " " + lastModified(location);
+            }
+            return url.toString();
+         }
+      }
+      catch (SecurityException ex) {
+         // ignore
+      }
+      return "";
+   }
+
+
+   /**
+    * @return the modification time of a file, or the latest modification
+    *         time of all files in a directory and its subdirectories
+    */
+   private static long lastModified(File file)
+   {
+      File[] files = file.listFiles();
+      if (files == null) // not a directory
+         return file.lastModified();
+      long time = 0;
+      for (int i=0; i<files.length; i++)
+         time = Math.max(time, lastModified(files[i]));
+      return time;
+   }
+}
@@ -0,0 +1,1020 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.stx;
+
+import net.sf.joost.emitter.BufferContents;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.instruction.GroupBase;
+import net.sf.joost.instruction.NodeBase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Stack;
+import java.util.Vector;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/**
+ * A buffer that sorts its records, used for <code>joost:sort-buffer</code>.
+ * Every element at the top level of the buffer is a record (other nodes at
+ * the top level are dropped). The sort keys of a record are computed when
+ * its end tag has been received: the key expressions see the record
+ * element with its attributes, and the string value of this element is
+ * the text of the record.
+ * <p>
+ * The records are encoded in a compact form and collected in memory. If
+ * their estimated size exceeds the run size, they will be sorted and
+ * written as a run to a temporary file. Reading the buffer merges all
+ * runs (at most {@link #MERGE_ORDER} at once, more runs will be merged
+ * into larger runs before). The sort is stable, i.e. records with equal
+ * keys keep their input order.
+ * <p>
+ * A buffer with run files registers itself in the spilled buffers of its
+ * context, so the files will be deleted when the buffer is cleared, at the
+ * latest at the end of the transformation (see
+ * {@link BufferEmitter#clearAll}).
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class SortBuffer extends BufferEmitter
+{
+   /** The run size (in bytes) used if no other size has been specified */
+   public static final int DEFAULT_RUN_SIZE = 16 << 20;
+
+   /** The maximal number of runs that will be merged at once */
+   private static final int MERGE_ORDER = 64;
+
+   /** The estimated memory occupied by a record besides its data */
+   private static final int RECORD_SIZE = 64;
+
+   /** The buffer size for reading and writing run files */
+   private static final int FILE_BUFFER_SIZE = 65536;
+
+   /** The key expressions */
+   private final Tree[] keys;
+
+   /** Comparison of the keys: numbers instead of strings, and the order */
+   private final boolean[] numeric, descending;
+
+   /** The estimated size in bytes above which a run will be written */
+   private final int runSize;
+
+   /** The context for evaluating the keys */
+   private final Context context;
+
+   /** The <code>joost:sort-buffer</code> instruction and its group */
+   private final NodeBase instruction;
+   private final GroupBase group;
+
+   /** The name table, entries never change once they have been added */
+   private String[] names = new String[16];
+
+   /** The NamePool codes of the names, -1 if not known yet */
+   private int[] nameCodes = newNameCodes(16);
+
+   /** The number of names */
+   private int nameCount;
+
+   /** Maps names to their index in {@link #names} */
+   private final HashMap nameIndex = new HashMap();
+
+   /** The events of the current record */
+   private final Bytes record = new Bytes();
+
+   /** The element depth within the current record */
+   private int depth;
+
+   /** The name indexes of the prefixes declared before the current
+       record element */
+   private final Bytes recordPrefixes = new Bytes();
+
+   /** The namespaces declared before the current record element */
+   private NamespaceScope recordScope = NamespaceScope.ROOT;
+
+   /** The current record element and its text */
+   private SAXEvent recordEvent;
+   private final StringBuffer recordText = new StringBuffer();
+
+   /** The ancestor stack for evaluating the keys */
+   private final Stack keyStack = new Stack();
+
+   /** The records of the current run (of type {@link Record}) */
+   private final Vector run = new Vector();
+
+   /** The estimated size of {@link #run} */
+   private long runBytes;
+
+   /** The files of the runs that have been written */
+   private final Vector runFiles = new Vector();
+
+   /** The sorted contents, <code>null</code> if not computed yet */
+   private BufferContents contents;
+
+   /** The buffer that holds {@link #contents} */
+   private BufferEmitter sorted;
+
+   /** CDATA flag */
+   private boolean insideCDATA = false;
+
+   /** characters flag, needed for detecting empty CDATA sections */
+   private boolean charsEmitted = false;
+
+
+   /**
+    * Constructs a sort buffer.
+    * @param keys the key expressions, the most significant first
+    * @param numeric whether a key is compared as number
+    *        (<code>data-type="number"</code>)
+    * @param descending whether a key is sorted in descending order
+    * @param runSize the estimated size in bytes of the records that will
+    *        be sorted in memory
+    * @param context the context of the transformation
+    * @param instruction the <code>joost:sort-buffer</code> instruction
+    * @param group the group that contains <code>instruction</code>
+    */
+   public SortBuffer(Tree[] keys, boolean[] numeric, boolean[] descending,
+                     int runSize, Context context, NodeBase instruction,
+                     GroupBase group)
+   {
+      this.keys = keys;
+      this.numeric = numeric;
+      this.descending = descending;
+      this.runSize = runSize;
+      this.context = context;
+      this.instruction = instruction;
+      this.group = group;
+      keyStack.push(SAXEvent.newRoot());
+   }
+
+
+   /** Removes all records and deletes the run files */
+   public void clear()
+   {
+      run.clear();
+      runBytes = 0;
+      for (int i=0; i<runFiles.size(); i++)
+         ((File)runFiles.elementAt(i)).delete();
+      runFiles.clear();
+      context.spilledBuffers.remove(this);
+      if (sorted != null) {
+         sorted.clear();
+         sorted = null;
+      }
+      contents = null;
+      record.reset();
+      recordPrefixes.reset();
+      depth = 0;
+   }
+
+   /** Does nothing, the records will be sorted when they are read */
+   public void filled()
+   { }
+
+   /**
+    * Sorts the records into a buffer, makes them available to
+    * {@link #getContents}. The buffer will be written to spill files if
+    * it is larger than the run size.
+    */
+   public void sort()
+      throws SAXException
+   {
+      if (contents != null)
+         return;
+      sorted = new BufferEmitter(runSize, context.spilledBuffers);
+      parse(sorted, sorted);
+      sorted.filled();
+      contents = sorted.getContents();
+   }
+
+   /**
+    * @return the sorted records as buffer contents, <code>null</code> if
+    *         {@link #sort} hasn't been called since the buffer was filled
+    */
+   public BufferContents getContents()
+   {
+      return contents;
+   }
+
+
+   /**
+    * Reports the sorted records.
+    * @param contH the content handler
+    * @param lexH the lexical handler, may be <code>null</code>
+    */
+   public void parse(ContentHandler contH, LexicalHandler lexH)
+      throws SAXException
+   {
+      // the records of the current run at this time
+      Record[] records = new Record[run.size()];
+      run.toArray(records);
+      Arrays.sort(records, new RecordComparator());
+
+      while (runFiles.size() >= MERGE_ORDER) {
+         // merge the oldest runs into a single run
+         Run[] oldRuns = new Run[MERGE_ORDER];
+         File file;
+         try {
+            for (int i=0; i<MERGE_ORDER; i++)
+               oldRuns[i] = new FileRun((File)runFiles.elementAt(i), i);
+            file = writeRun(new MergedRun(oldRuns));
+         }
+         finally {
+            close(oldRuns);
+         }
+         for (int i=0; i<MERGE_ORDER; i++)
+            ((File)runFiles.remove(0)).delete();
+         runFiles.insertElementAt(file, 0);
+      }
+
+      int fileCount = runFiles.size();
+      Run[] runs = new Run[fileCount + 1];
+      try {
+         for (int i=0; i<fileCount; i++)
+            runs[i] = new FileRun((File)runFiles.elementAt(i), i);
+         runs[fileCount] = new MemoryRun(records, fileCount);
+         Run merged = new MergedRun(runs);
+         while (merged.next())
+            replay(merged.data, contH, lexH);
+      }
+      finally {
+         close(runs);
+      }
+   }
+
+   /** Closes the runs that have been opened */
+   private static void close(Run[] runs)
+   {
+      for (int i=0; i<runs.length; i++)
+         if (runs[i] != null)
+            runs[i].close();
+   }
+
+
+   //
+   // records and runs
+   //
+
+   /** A record with its sort keys */
+   private static final class Record
+   {
+      /** the keys, either String or Double objects */
+      final Object[] keys;
+
+      /** the encoded events */
+      final byte[] data;
+
+      Record(Object[] keys, byte[] data)
+      {
+         this.keys = keys;
+         this.data = data;
+      }
+   }
+
+   /** Orders records by their keys */
+   private final class RecordComparator implements Comparator
+   {
+      public int compare(Object o1, Object o2)
+      {
+         return compareKeys(((Record)o1).keys, ((Record)o2).keys);
+      }
+   }
+
+   private int compareKeys(Object[] keys1, Object[] keys2)
+   {
+      for (int i=0; i<keys1.length; i++) {
+         int c;
+         if (numeric[i]) {
+            double d1 = ((Double)keys1[i]).doubleValue(),
+                   d2 = ((Double)keys2[i]).doubleValue();
+            // NaN precedes all other numbers
+            if (Double.isNaN(d1))
+               c = Double.isNaN(d2) ? 0 : -1;
+            else if (Double.isNaN(d2))
+               c = 1;
+            else
+               c = d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+         }
+         else
+            c = ((String)keys1[i]).compareTo((String)keys2[i]);
+         if (c != 0)
+            return descending[i] ? -c : c;
+      }
+      return 0;
+   }
+
+
+   /**
+    * A sorted sequence of records, the current record is available in
+    * {@link #keys} and {@link #data}.
+    */
+   private abstract static class Run
+   {
+      Object[] keys;
+      byte[] data;
+
+      /** the number of this run, decides between equal keys */
+      final int number;
+
+      Run(int number)
+      {
+         this.number = number;
+      }
+
+      /**
+       * Advances to the next record.
+       * @return <code>false</code> if there is no further record
+       */
+      abstract boolean next()
+         throws SAXException;
+
+      void close()
+      { }
+   }
+
+   /** The records in memory */
+   private static final class MemoryRun extends Run
+   {
+      private final Record[] records;
+      private int index;
+
+      MemoryRun(Record[] records, int number)
+      {
+         super(number);
+         this.records = records;
+      }
+
+      boolean next()
+      {
+         if (index == records.length)
+            return false;
+         keys = records[index].keys;
+         data = records[index++].data;
+         return true;
+      }
+   }
+
+   /** The records of a run file */
+   private final class FileRun extends Run
+   {
+      private final File file;
+      private DataInputStream in;
+
+      FileRun(File file, int number)
+         throws SAXException
+      {
+         super(number);
+         this.file = file;
+         try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), FILE_BUFFER_SIZE));
+         }
+         catch (IOException ex) {
+            throw new SAXException("Cannot read the run file " + file, ex);
+         }
+      }
+
+      boolean next()
+         throws SAXException
+      {
+         try {
+            if (in.readByte() == 0) {
+               close();
+               return false;
+            }
+            keys = new Object[numeric.length];
+            for (int i=0; i<keys.length; i++)
+               keys[i] = numeric[i] ? (Object)new Double(in.readDouble())
+                                    : readString(in);
+            data = new byte[readVarInt(in)];
+            in.readFully(data);
+            return true;
+         }
+         catch (IOException ex) {
+            throw new SAXException("Cannot read the run file " + file, ex);
+         }
+      }
+
+      void close()
+      {
+         if (in == null)
+            return;
+         try {
+            in.close();
+         }
+         catch (IOException ex) {
+            // ignore
+         }
+         in = null;
+      }
+   }
+
+   /** Merges several runs, the runs form a heap */
+   private final class MergedRun extends Run
+   {
+      private final Run[] heap;
+      private int size;
+
+      MergedRun(Run[] runs)
+         throws SAXException
+      {
+         super(0);
+         heap = new Run[runs.length];
+         for (int i=0; i<runs.length; i++)
+            if (runs[i].next()) {
+               heap[size] = runs[i];
+               siftUp(size++);
+            }
+      }
+
+      /** @return whether the current record of r1 precedes that of r2 */
+      private boolean precedes(Run r1, Run r2)
+      {
+         int c = compareKeys(r1.keys, r2.keys);
+         return c < 0 || (c == 0 && r1.number < r2.number);
+      }
+
+      private void siftUp(int i)
+      {
+         Run r = heap[i];
+         while (i > 0 && precedes(r, heap[(i-1) >> 1])) {
+            heap[i] = heap[(i-1) >> 1];
+            i = (i-1) >> 1;
+         }
+         heap[i] = r;
+      }
+
+      private void siftDown(int i)
+      {
+         Run r = heap[i];
+         for (int child; (child = 2*i + 1) < size; i = child) {
+            if (child + 1 < size && precedes(heap[child+1], heap[child]))
+               child++;
+            if (!precedes(heap[child], r))
+               break;
+            heap[i] = heap[child];
+         }
+         heap[i] = r;
+      }
+
+      boolean next()
+         throws SAXException
+      {
+         if (data != null) {
+            // advance the run of the last record
+            if (!heap[0].next())
+               heap[0] = heap[--size];
+            if (size > 0)
+               siftDown(0);
+         }
+         if (size == 0)
+            return false;
+         keys = heap[0].keys;
+         data = heap[0].data;
+         return true;
+      }
+
+      void close()
+      {
+         for (int i=0; i<heap.length; i++)
+            if (heap[i] != null)
+               heap[i].close();
+      }
+   }
+
+
+   /** Sorts the current run and writes it to a file */
+   private void spill()
+      throws SAXException
+   {
+      Record[] records = new Record[run.size()];
+      run.toArray(records);
+      Arrays.sort(records, new RecordComparator());
+      runFiles.addElement(writeRun(new MemoryRun(records, 0)));
+      context.spilledBuffers.add(this);
+      run.clear();
+      runBytes = 0;
+   }
+
+   /**
+    * Writes the records of a run to a new temporary file. Every record
+    * is preceded by a non-zero byte, a zero byte terminates the file.
+    */
+   private File writeRun(Run records)
+      throws SAXException
+   {
+      File file = null;
+      try {
+         file = File.createTempFile("joost", ".run");
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), FILE_BUFFER_SIZE));
+         try {
+            while (records.next()) {
+               out.writeByte(1);
+               for (int i=0; i<numeric.length; i++) {
+                  if (numeric[i])
+                     out.writeDouble(((Double)records.keys[i]).doubleValue());
+                  else
+                     writeString(out, (String)records.keys[i]);
+               }
+               writeVarInt(out, records.data.length);
+               out.write(records.data);
+            }
+            out.writeByte(0);
+         }
+         finally {
+            out.close();
+            records.close();
+         }
+         return file;
+      }
+      catch (IOException ex) {
+         if (file != null)
+            file.delete();
+         throw new SAXException("Cannot write the run file " + file, ex);
+      }
+   }
+
+
+   //
+   // compact encoding
+   //
+
+   /**
+    * A growable byte array for encoding and decoding the events of a
+    * record: unsigned ints in 7 bit groups, strings as length and
+    * characters.
+    */
+   private static final class Bytes
+   {
+      byte[] buf = new byte[256];
+      int length;
+
+      /** read position */
+      int pos;
+
+      /** target of {@link #readChars} */
+      char[] chars = new char[64];
+
+      void reset()
+      {
+         length = 0;
+      }
+
+      void writeVarInt(int v)
+      {
+         if (length + 5 > buf.length) {
+            byte[] tmp = new byte[buf.length << 1];
+            System.arraycopy(buf, 0, tmp, 0, length);
+            buf = tmp;
+         }
+         while ((v & ~0x7F) != 0) {
+            buf[length++] = (byte)((v & 0x7F) | 0x80);
+            v >>>= 7;
+         }
+         buf[length++] = (byte)v;
+      }
+
+      void writeChars(char[] ch, int start, int len)
+      {
+         writeVarInt(len);
+         for (int i=start; i<start+len; i++)
+            writeVarInt(ch[i]);
+      }
+
+      void writeString(String s)
+      {
+         int len = s.length();
+         writeVarInt(len);
+         for (int i=0; i<len; i++)
+            writeVarInt(s.charAt(i));
+      }
+
+      byte[] toByteArray()
+      {
+         byte[] data = new byte[length];
+         System.arraycopy(buf, 0, data, 0, length);
+         return data;
+      }
+
+      int readVarInt()
+      {
+         int v = 0;
+         for (int shift=0; ; shift+=7) {
+            byte b = buf[pos++];
+            v |= (b & 0x7F) << shift;
+            if (b >= 0)
+               return v;
+         }
+      }
+
+      /** @return the length of the characters read into {@link #chars} */
+      int readChars()
+      {
+         int len = readVarInt();
+         if (len > chars.length)
+            chars = new char[Math.max(len, chars.length << 1)];
+         for (int i=0; i<len; i++)
+            chars[i] = (char)readVarInt();
+         return len;
+      }
+
+      String readString()
+      {
+         return new String(chars, 0, readChars());
+      }
+   }
+
+   private static void writeVarInt(DataOutput out, int v)
+      throws IOException
+   {
+      while ((v & ~0x7F) != 0) {
+         out.writeByte((v & 0x7F) | 0x80);
+         v >>>= 7;
+      }
+      out.writeByte(v);
+   }
+
+   private static int readVarInt(DataInput in)
+      throws IOException
+   {
+      int v = 0;
+      for (int shift=0; ; shift+=7) {
+         byte b = in.readByte();
+         v |= (b & 0x7F) << shift;
+         if (b >= 0)
+            return v;
+      }
+   }
+
+   private static void writeString(DataOutput out, String s)
+      throws IOException
+   {
+      int len = s.length();
+      writeVarInt(out, len);
+      for (int i=0; i<len; i++)
+         writeVarInt(out, s.charAt(i));
+   }
+
+   private static String readString(DataInput in)
+      throws IOException
+   {
+      int len = readVarInt(in);
+      char[] chars = new char[len];
+      for (int i=0; i<len; i++)
+         chars[i] = (char)readVarInt(in);
+      return new String(chars);
+   }
+
+
+   private static int[] newNameCodes(int size)
+   {
+      int[] codes = new int[size];
+      Arrays.fill(codes, -1);
+      return codes;
+   }
+
+   /** @return the index of <code>name</code> in the name table */
+   private int name(String name)
+   {
+      Integer index = (Integer)nameIndex.get(name);
+      if (index != null)
+         return index.intValue();
+      if (nameCount == names.length) {
+         String[] tmp = new String[nameCount << 1];
+         System.arraycopy(names, 0, tmp, 0, nameCount);
+         names = tmp;
+         int[] codes = newNameCodes(nameCount << 1);
+         System.arraycopy(nameCodes, 0, codes, 0, nameCount);
+         nameCodes = codes;
+      }
+      names[nameCount] = name;
+      nameIndex.put(name, new Integer(nameCount));
+      return nameCount++;
+   }
+
+   /** @return the {@link NamePool} code of the name at <code>index</code> */
+   private int getNameCode(int index)
+   {
+      int code = nameCodes[index];
+      if (code == -1)
+         nameCodes[index] = code = NamePool.lookupCode(names[index]);
+      return code;
+   }
+
+
+   /**
+    * Reports the events of a record.
+    * Elements are passed to {@link Processor#startBufferedElement} if
+    * <code>contH</code> is a {@link Processor}.
+    */
+   private void replay(byte[] data, ContentHandler contH,
+                       LexicalHandler lexH)
+      throws SAXException
+   {
+      Bytes in = new Bytes();
+      in.buf = data;
+      in.length = data.length;
+      Processor proc =
+         contH instanceof Processor ? (Processor)contH : null;
+      AttributesImpl attrs = new AttributesImpl();
+      // the names of the open elements
+      int[] open = new int[24];
+      int openLength = 0;
+
+      while (in.pos < in.length) {
+         int type = in.readVarInt();
+         switch (type) {
+         case SAXEvent.ELEMENT: {
+            int uri = in.readVarInt(), lName = in.readVarInt(),
+                qName = in.readVarInt(), attCount = in.readVarInt();
+            attrs.clear();
+            for (int j=0; j<attCount; j++) {
+               int attUri = in.readVarInt(), attLName = in.readVarInt(),
+                   attQName = in.readVarInt(), attType = in.readVarInt();
+               attrs.addAttribute(names[attUri], names[attLName],
+                                  names[attQName], names[attType],
+                                  in.readString());
+            }
+            if (openLength + 3 > open.length) {
+               int[] tmp = new int[open.length << 1];
+               System.arraycopy(open, 0, tmp, 0, openLength);
+               open = tmp;
+            }
+            open[openLength++] = uri;
+            open[openLength++] = lName;
+            open[openLength++] = qName;
+            if (proc != null)
+               // keep the encoded name
+               proc.startBufferedElement(names[uri], names[lName],
+                                         names[qName], attrs,
+                                         getNameCode(uri),
+                                         getNameCode(lName));
+            else
+               contH.startElement(names[uri], names[lName], names[qName],
+                                  attrs);
+            break;
+         }
+         case SAXEvent.ELEMENT_END:
+            openLength -= 3;
+            contH.endElement(names[open[openLength]],
+                             names[open[openLength+1]],
+                             names[open[openLength+2]]);
+            break;
+         case SAXEvent.TEXT:
+            contH.characters(in.chars, 0, in.readChars());
+            break;
+         case SAXEvent.CDATA: {
+            int len = in.readChars();
+            if (lexH != null)
+               lexH.startCDATA();
+            contH.characters(in.chars, 0, len);
+            if (lexH != null)
+               lexH.endCDATA();
+            break;
+         }
+         case SAXEvent.COMMENT: {
+            int len = in.readChars();
+            if (lexH != null)
+               lexH.comment(in.chars, 0, len);
+            break;
+         }
+         case SAXEvent.PI: {
+            int target = in.readVarInt();
+            contH.processingInstruction(names[target], in.readString());
+            break;
+         }
+         case SAXEvent.MAPPING: {
+            int prefix = in.readVarInt();
+            contH.startPrefixMapping(names[prefix], names[in.readVarInt()]);
+            break;
+         }
+         case SAXEvent.MAPPING_END:
+            contH.endPrefixMapping(names[in.readVarInt()]);
+            break;
+         default:
+            throw new SAXException("Corrupt sort buffer: unknown " +
+                                   "event type " + type);
+         }
+      }
+   }
+
+
+   /** Completes the current record: computes its keys and stores it */
+   private void endRecord()
+      throws SAXException
+   {
+      // end the namespace declarations of the record element
+      recordPrefixes.pos = 0;
+      while (recordPrefixes.pos < recordPrefixes.length) {
+         record.writeVarInt(SAXEvent.MAPPING_END);
+         record.writeVarInt(recordPrefixes.readVarInt());
+      }
+
+      Object[] keyValues = new Object[keys.length];
+      long size = RECORD_SIZE + record.length;
+      recordEvent.value = recordText.toString();
+      keyStack.push(recordEvent);
+      Stack ancestorStack = context.ancestorStack;
+      long position = context.position;
+      NodeBase currentInstruction = context.currentInstruction;
+      GroupBase currentGroup = context.currentGroup;
+      context.ancestorStack = keyStack;
+      context.position = 1;
+      context.currentInstruction = instruction;
+      context.currentGroup = group;
+      try {
+         for (int i=0; i<keys.length; i++) {
+            Value v = keys[i].evaluate(context, 2);
+            if (numeric[i]) {
+               keyValues[i] = new Double(v.getNumberValue());
+               size += 16;
+            }
+            else {
+               String s = v.getStringValue();
+               keyValues[i] = s;
+               size += 40 + 2 * s.length();
+            }
+         }
+      }
+      finally {
+         keyStack.pop();
+         context.ancestorStack = ancestorStack;
+         context.position = position;
+         context.currentInstruction = currentInstruction;
+         context.currentGroup = currentGroup;
+      }
+
+      run.addElement(new Record(keyValues, record.toByteArray()));
+      runBytes += size;
+      contents = null;
+      record.reset();
+      recordPrefixes.reset();
+      recordScope = NamespaceScope.ROOT;
+      recordEvent = null;
+      recordText.setLength(0);
+
+      if (runBytes > runSize)
+         spill();
+   }
+
+
+   /** Appends an event of the type TEXT, CDATA or COMMENT */
+   private void addCharacters(int type, char[] ch, int start, int length)
+   {
+      if (depth == 0) // outside of a record
+         return;
+      if (depth == 1)
+         recordEvent.enableChildNodes(true);
+      record.writeVarInt(type);
+      record.writeChars(ch, start, length);
+      if (type != SAXEvent.COMMENT)
+         recordText.append(ch, start, length);
+   }
+
+
+   //
+   // SAX ContentHandler interface
+   //
+
+   public void startPrefixMapping(String prefix, String uri)
+   {
+      if (depth == 0) {
+         recordPrefixes.writeVarInt(name(prefix));
+         recordScope = recordScope.declare(prefix, uri);
+      }
+      record.writeVarInt(SAXEvent.MAPPING);
+      record.writeVarInt(name(prefix));
+      record.writeVarInt(name(uri));
+   }
+
+   public void endPrefixMapping(String prefix)
+   {
+      // the mappings of the record element end with the record
+      if (depth == 0)
+         return;
+      record.writeVarInt(SAXEvent.MAPPING_END);
+      record.writeVarInt(name(prefix));
+   }
+
+   public void startElement(String namespaceURI, String localName,
+                            String qName, Attributes atts)
+   {
+      if (depth == 0)
+         recordEvent = SAXEvent.newElement(namespaceURI, localName, qName,
+                                           atts, false, recordScope);
+      else if (depth == 1)
+         recordEvent.enableChildNodes(true);
+      depth++;
+      int attCount = atts.getLength();
+      record.writeVarInt(SAXEvent.ELEMENT);
+      record.writeVarInt(name(namespaceURI));
+      record.writeVarInt(name(localName));
+      record.writeVarInt(name(qName));
+      record.writeVarInt(attCount);
+      for (int i=0; i<attCount; i++) {
+         record.writeVarInt(name(atts.getURI(i)));
+         record.writeVarInt(name(atts.getLocalName(i)));
+         record.writeVarInt(name(atts.getQName(i)));
+         record.writeVarInt(name(atts.getType(i)));
+         record.writeString(atts.getValue(i));
+      }
+   }
+
+   public void endElement(String namespaceURI, String localName,
+                          String qName)
+      throws SAXException
+   {
+      record.writeVarInt(SAXEvent.ELEMENT_END);
+      if (--depth == 0)
+         endRecord();
+   }
+
+   public void characters(char[] ch, int start, int length)
+   {
+      if (insideCDATA) {
+         addCharacters(SAXEvent.CDATA, ch, start, length);
+         charsEmitted = true;
+      }
+      else
+         addCharacters(SAXEvent.TEXT, ch, start, length);
+   }
+
+   public void ignorableWhitespace(char[] ch, int start, int length)
+   {
+      characters(ch, start, length);
+   }
+
+   public void processingInstruction(String target, String data)
+   {
+      if (depth == 0) // outside of a record
+         return;
+      if (depth == 1)
+         recordEvent.enableChildNodes(true);
+      record.writeVarInt(SAXEvent.PI);
+      record.writeVarInt(name(target));
+      record.writeString(data);
+   }
+
+
+   //
+   // SAX LexicalHandler interface
+   //
+
+   public void startCDATA()
+   {
+      insideCDATA = true;
+      charsEmitted = false;
+   }
+
+   public void endCDATA()
+   {
+      insideCDATA = false;
+      if (!charsEmitted) // no characters event: empty CDATA section
+         addCharacters(SAXEvent.CDATA, new char[0], 0, 0);
+   }
+
+   public void comment(char[] ch, int start, int length)
+   {
+      addCharacters(SAXEvent.COMMENT, ch, start, length);
+   }
+}
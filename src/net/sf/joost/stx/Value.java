@@ -26,6 +26,7 @@ package net.sf.joost.stx;
 
 import net.sf.joost.grammar.EvalException;
 
+import java.io.Serializable;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -37,8 +38,10 @@ import java.util.Locale;
  * @version $Revision: 1.27 $ $Date: 2010/01/24 20:27:13 $
  * @author Oliver Becker
  */
-public class Value implements Cloneable
+public class Value implements Cloneable, Serializable
 {
+   private static final long serialVersionUID = 1L;
+
    // number format for number to string conversion
    private static NumberFormat numberFormat;
    static {
@@ -88,13 +91,23 @@ public class Value implements Cloneable
 
 
    /**
-    * The next value of the sequence. A sequence is simply a chained list
-    * of Value objects. The empty sequence is represented by a
-    * {@link #type} set to {@link #NODE} and {@link #event} set to
-    * <code>null</code> (<code>next</code> must be <code>null</code> in
-    * this case, too).
+    * The sequence this value belongs to, <code>null</code> for a single
+    * item. A value that is an item of a sequence represents the sequence
+    * of this item and all following items. Sequences are immutable and
+    * may be shared. The empty sequence is represented by a {@link #type}
+    * set to {@link #EMPTY}.
+    */
+   private Sequence sequence;
+
+   /** The array index of this item in {@link #sequence} */
+   private int position;
+
+   /**
+    * The state of a lazily evaluated sequence this value belongs to,
+    * <code>null</code> if this isn't an item of such a sequence
+    * @see LazySequence
     */
-   public Value next;
+   private LazySequence.Cell cell;
 
    //
    // Constructors
@@ -144,6 +157,36 @@ public class Value implements Cloneable
       event = e;
    }
 
+   /**
+    * Constructs the head of a sequence
+    * @param item the single item at <code>position</code>
+    * @param sequence the sequence
+    * @param position the array index of <code>item</code> in
+    *        <code>sequence</code>
+    */
+   Value(Value item, Sequence sequence, int position)
+   {
+      type = item.type;
+      event = item.event;
+      bool = item.bool;
+      number = item.number;
+      string = item.string;
+      object = item.object;
+      this.sequence = sequence;
+      this.position = position;
+   }
+
+   /**
+    * Constructs the head of a lazily evaluated sequence
+    * @param item the single item
+    * @param cell the state of the sequence
+    */
+   Value(Value item, LazySequence.Cell cell)
+   {
+      this(item, null, 0);
+      this.cell = cell;
+   }
+
    /** Constructs a <code>Value</code> containing a custom Java object,
        possibly converting the object to a known STX type */
    public Value(Object obj)
@@ -202,6 +245,145 @@ public class Value implements Cloneable
       return object;
    }
 
+   Sequence getSequence()
+   {
+      return sequence;
+   }
+
+   int getPosition()
+   {
+      return position;
+   }
+
+   LazySequence.Cell getCell()
+   {
+      return cell;
+   }
+
+   /**
+    * @return the items of a lazily evaluated sequence after they have been
+    *         computed and stored, otherwise this value
+    */
+   Value getItems()
+   {
+      return cell != null ? cell.getItems(this) : this;
+   }
+
+
+   // Sequences
+
+   /**
+    * @return the sequence that follows this item, <code>null</code> if
+    *         this is the last item
+    */
+   public Value getNext()
+   {
+      if (cell != null)
+         return cell.getNext();
+      return sequence != null ? sequence.getValue(position + 1) : null;
+   }
+
+   /** @return whether this item is followed by other items */
+   public boolean hasNext()
+   {
+      return sequence != null || cell != null;
+   }
+
+   /**
+    * @return whether this value is the head of a sequence whose items
+    *         are computed on demand and haven't been computed yet
+    * @see LazySequence
+    */
+   public boolean isLazy()
+   {
+      return cell != null && !cell.hasItems();
+   }
+
+   /** @return the number of items of the sequence represented by this value */
+   public int count()
+   {
+      if (cell != null)
+         return cell.getItems(this).count();
+      if (sequence != null)
+         return sequence.countFrom(position);
+      return type == EMPTY ? 0 : 1;
+   }
+
+   /**
+    * @param index the position of the item, counted from 0,
+    *        <code>0 &lt;= index &lt; count()</code>
+    * @return the single item at position <code>index</code>
+    */
+   public Value itemAt(int index)
+   {
+      if (cell != null)
+         // the first item is available without computing the others
+         return index == 0 ? singleCopy()
+                           : cell.getItems(this).itemAt(index);
+      if (sequence != null)
+         return sequence.getItem(position + index);
+      return this;
+   }
+
+   /**
+    * @param index the position of the item, counted from 0
+    * @return the number value of the item at position <code>index</code>
+    * @see #itemAt
+    */
+   public double numberAt(int index)
+   {
+      if (cell != null && index > 0)
+         return cell.getItems(this).numberAt(index);
+      if (sequence != null)
+         return sequence.getNumber(position + index);
+      return getNumberValue();
+   }
+
+   /**
+    * @param index the position of the item, counted from 0
+    * @return the string value of the item at position <code>index</code>
+    * @see #itemAt
+    */
+   public String stringAt(int index)
+   {
+      if (cell != null && index > 0)
+         return cell.getItems(this).stringAt(index);
+      if (sequence != null)
+         return sequence.getString(position + index);
+      return getStringValue();
+   }
+
+   /**
+    * @param from the position of the first item, counted from 0
+    * @param to the position behind the last item,
+    *        <code>0 &lt;= from &lt;= to &lt;= count()</code>
+    * @return the items from position <code>from</code> to
+    *         <code>to</code> (exclusive) as a sequence
+    */
+   public Value subsequence(int from, int to)
+   {
+      if (from == to)
+         return VAL_EMPTY;
+      if (cell != null)
+         return cell.getItems(this).subsequence(from, to);
+      if (sequence != null)
+         return sequence.getValue(position + from, position + to);
+      return this;
+   }
+
+   /** @return the single items of this sequence as an array */
+   public Value[] toArray()
+   {
+      if (cell != null)
+         return cell.getItems(this).toArray();
+      if (sequence != null) {
+         Value[] items = new Value[sequence.countFrom(position)];
+         sequence.copyItems(position, items, 0);
+         return items;
+      }
+      return type == EMPTY ? new Value[0] : new Value[] { this };
+   }
+
 
    // Converter
 
@@ -245,7 +427,7 @@ public class Value implements Cloneable
       case STRING:
          return string;
       case NODE:
-         return event.value;
+         return event.getValue();
       case EMPTY:
          return "";
       case BOOLEAN:
@@ -300,33 +482,18 @@ public class Value implements Cloneable
    // Misc
 
    /**
-    * Creates a full copy of the sequence represented by this value.
+    * Creates a copy of this value. Since sequences are immutable, the
+    * copy shares the items following this value.
     */
-   public Value copy() {
-       Value valueToCopy=this;
-       Value newValue = new Value();
-       Value ret = newValue;
-       
-       do  {
-           newValue.bool = valueToCopy.bool;
-           newValue.event = valueToCopy.event;
-           newValue.number = valueToCopy.number;
-           newValue.object = valueToCopy.object;
-           newValue.string = valueToCopy.string;
-           newValue.type = valueToCopy.type;
-
-           if (valueToCopy.next != null) {
-               newValue.next = new Value();
-               newValue = newValue.next;
-               valueToCopy = valueToCopy.next;
-           } else {
-               newValue.next = null;
-               break;
-           }
-       }
-       while (true);
-       
-       return ret;
+   public Value copy()
+   {
+      try {
+         return (Value)clone();
+      }
+      catch (CloneNotSupportedException e) {
+         // mustn't happen
+         return null;
+      }
    }
 
    /**
@@ -353,25 +520,11 @@ public class Value implements Cloneable
     */
    public static Value concat(Value v1, Value v2)
    {
-      try {
-         if (v1.next == null) {
-            Value ret = (Value)v1.clone();
-            ret.next = v2;
-            return ret;
-         }
-         else {
-            Value tmp = v1;
-            while (tmp.next.next != null)
-               tmp = tmp.next;
-            tmp.next = (Value)tmp.next.clone();
-            tmp.next.next = v2;
-            return v1;
-         }
-      }
-      catch (CloneNotSupportedException e) {
-         // mustn't happen
-         return null;
-      }
+      Sequence.Builder builder =
+         new Sequence.Builder(v1.count() + v2.count());
+      builder.add(v1);
+      builder.add(v2);
+      return builder.toValue();
    }
 
    /**
@@ -472,7 +625,7 @@ public class Value implements Cloneable
       if (target == Object.class) {
          switch (type) {
          case EMPTY:   return null;
-         case NODE:    return event.value;
+         case NODE:    return event.getValue();
          case BOOLEAN: return new Boolean(bool);
          case NUMBER:  return new Double(number);
          case STRING:  return string;
@@ -489,9 +642,9 @@ public class Value implements Cloneable
       else if (target == List.class) {
          if (type == EMPTY)
             return new ArrayList(0);
-         ArrayList list = new ArrayList();
-         for (Value it=this; it!=null; it=it.next)
-            list.add(it.toJavaObject(Object.class));
+         ArrayList list = new ArrayList(count());
+         for (int i=0, n=count(); i<n; i++)
+            list.add(itemAt(i).toJavaObject(Object.class));
          return list;
       }
       else if (type == EMPTY && !target.isPrimitive()) {
@@ -541,23 +694,38 @@ public class Value implements Cloneable
 
 
 
+   /**
+    * Serializes the computed items instead of the state of a lazily
+    * evaluated sequence
+    */
+   private Object writeReplace()
+   {
+      return getItems();
+   }
+
+
    //
    // for debugging
    //
    public String toString()
    {
-      String ret;
+      if (sequence != null || cell != null) {
+         StringBuffer buf = new StringBuffer();
+         for (int i=0, n=count(); i<n; i++) {
+            if (i > 0)
+               buf.append(", ");
+            buf.append(itemAt(i).toString());
+         }
+         return buf.toString();
+      }
       switch(type) {
-      case EMPTY:   ret = "()"; break;
-      case NUMBER:  ret = "number " + number; break;
-      case BOOLEAN: ret = "boolean " + bool; break;
-      case STRING:  ret = "string '" + string + "'"; break;
-      case NODE:    ret = "node " + event; break;
-      case OBJECT:  ret = "object " + object; break;
-      default: ret = ("unknown type in Value object");
+      case EMPTY:   return "()";
+      case NUMBER:  return "number " + number;
+      case BOOLEAN: return "boolean " + bool;
+      case STRING:  return "string '" + string + "'";
+      case NODE:    return "node " + event;
+      case OBJECT:  return "object " + object;
+      default:      return "unknown type in Value object";
       }
-      if (next != null)
-         ret += ", " + next.toString();
-      return ret;
    }
 }
@@ -41,6 +41,8 @@ import org.xml.sax.SAXException;
  */
 final public class Avg implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -60,13 +62,9 @@ final public class Avg implements Instance
       if (v.type == Value.EMPTY) // empty sequence
          return v;
       double avg = 0;
-      int count = 0;
-      while (v != null) {
-         Value next = v.next;
-         avg += v.getNumberValue();
-         count++;
-         v = next;
-      }
+      int count = v.count();
+      for (int i=0; i<count; i++)
+         avg += v.numberAt(i);
       return new Value(avg / count);
    }
 }
\ No newline at end of file
@@ -44,6 +44,8 @@ import org.xml.sax.SAXException;
  */
 final public class Count implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -60,13 +62,6 @@ final public class Count implements Instance
       throws SAXException, EvalException
    {
       Value v = args.evaluate(context, top);
-      if (v.type == Value.EMPTY) // empty sequence
-         return Value.VAL_ZERO;
-      int count = 1;
-      while (v.next != null) {
-         count++;
-         v = v.next;
-      }
-      return new Value(count);
+      return new Value(v.count());
    }
 }
\ No newline at end of file
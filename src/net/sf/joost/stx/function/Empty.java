@@ -45,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class Empty implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -45,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class EndsWith implements Instance 
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -48,6 +48,8 @@ import org.xml.sax.SAXException;
  */
 final public class EscapeUri implements Instance 
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
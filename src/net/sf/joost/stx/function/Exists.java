@@ -45,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class Exists implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
    /** @return 1 */
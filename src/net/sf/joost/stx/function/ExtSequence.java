@@ -29,6 +29,7 @@ import java.util.List;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -44,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class ExtSequence implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -76,14 +79,10 @@ final public class ExtSequence implements Instance
          if (objs.length == 0)
             return Value.VAL_EMPTY;
 
-         // ok, there's at least one element
-         v = new Value(objs[0]);
-         // create the rest of the sequence
-         Value last = v;
-         for (int i=1; i<objs.length; i++) {
-            last.next = new Value(objs[i]);
-            last = last.next;
-         }
+         Sequence.Builder seq = new Sequence.Builder(objs.length);
+         for (int i=0; i<objs.length; i++)
+            seq.add(new Value(objs[i]));
+         v = seq.toValue();
       }
 
       return v;
@@ -49,6 +49,8 @@ import org.xml.sax.SAXParseException;
  */
 final public class ExtensionFunction implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** the target class, identified by the namespace */
    private Class targetClass;
 
@@ -24,6 +24,7 @@
 
 package net.sf.joost.stx.function;
 
+import java.io.Serializable;
 import java.util.Hashtable;
 
 import net.sf.joost.Constants;
@@ -31,9 +32,12 @@ import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.instruction.ScriptFactory;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamespaceScope;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
+import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegularExpression;
 
 import org.apache.bsf.BSFEngine;
 import org.apache.bsf.BSFManager;
@@ -51,7 +55,7 @@ final public class FunctionFactory implements Constants
    /**
     * Type for all functions
     */
-   public static interface Instance
+   public static interface Instance extends Serializable
    {
       /** Minimum number of parameters. */
       public int getMinParCount();
@@ -140,7 +144,8 @@ final public class FunctionFactory implements Constants
          new Avg(),
          new RegexGroup(),
          new FilterAvailable(),
-         new ExtSequence()
+         new ExtSequence(),
+         new Key()
       };
       functionHash = new Hashtable(functions.length);
       for (int i=0; i<functions.length; i++)
@@ -177,7 +182,8 @@ final public class FunctionFactory implements Constants
     *
     * @param uri URI of the expanded function name
     * @param lName local function name
-    * @param args parameters (needed here just for counting)
+    * @param args parameters (needed for counting and for precompiling
+    *        literal regular expressions)
     *
     * @return the implementation instance for this function
     * @exception SAXParseException if the function wasn't found or the number
@@ -216,10 +222,11 @@ final public class FunctionFactory implements Constants
 
       // Count parameters in args
       int argc = 0;
-      if (args != null) {
+      Tree params = args;
+      if (params != null) {
          argc = 1;
-         while (args.type == Tree.LIST) {
-            args = args.left;
+         while (params.type == Tree.LIST) {
+            params = params.left;
             argc++;
          }
       }
@@ -233,10 +240,61 @@ final public class FunctionFactory implements Constants
                                      "function '" + qName + "' (" + 
                                      function.getMaxParCount() + " allowed)",
                                      pContext.locator);
+      if (function instanceof RegexGroup)
+         // needs the local pseudo-variable of the current template
+         return new RegexGroup(pContext.getRegexGroupSlot());
+      if (function instanceof Key)
+         // needs the key declarations and the namespaces for the key name
+         return new Key(pContext.getKeys(),
+                        NamespaceScope.fromTable(pContext.nsSet));
+      if (function instanceof Matches || function instanceof Replace ||
+          function instanceof Tokenize) {
+         RegularExpression re = compileRegex(function, args, argc);
+         if (re != null) {
+            if (function instanceof Matches)
+               return new Matches(re);
+            if (function instanceof Replace)
+               return new Replace(re);
+            return new Tokenize(re);
+         }
+      }
       return function;
    }
 
 
+   /**
+    * Compiles the regular expression of a regex function while parsing if
+    * the pattern (the second argument) and the optional flags (the last
+    * argument) are string literals.
+    * @param function the regex function
+    * @param args the arguments of the function call
+    * @param argc the number of arguments
+    * @return the compiled expression, or <code>null</code> if it is not
+    *         known before run-time or if it is invalid (the error will
+    *         be reported when the function gets evaluated)
+    */
+   private static RegularExpression compileRegex(Instance function,
+                                                 Tree args, int argc)
+   {
+      Tree pattern = args;
+      for (int i=argc; i>2; i--)
+         pattern = pattern.left;
+      pattern = pattern.right;
+      Tree flags = argc == function.getMaxParCount() ? args.right : null;
+      if (pattern.type != Tree.STRING ||
+          (flags != null && flags.type != Tree.STRING))
+         return null;
+      try {
+         return new JRegularExpression((String)pattern.value, true,
+                                       flags != null ? (String)flags.value
+                                                     : "");
+      }
+      catch (EvalException ex) {
+         return null;
+      }
+   }
+
+
    
    /**
     * @return a value for an optional function argument. Either the
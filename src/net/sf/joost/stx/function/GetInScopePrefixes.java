@@ -24,12 +24,11 @@
 
 package net.sf.joost.stx.function;
 
-import java.util.Enumeration;
-
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.SAXEvent;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -48,6 +47,8 @@ import org.xml.sax.SAXException;
  */
 final public class GetInScopePrefixes implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -74,19 +75,10 @@ final public class GetInScopePrefixes implements Instance
       if (e.namespaces == null)
          return Value.VAL_EMPTY;
 
-      Value ret = null, last = null;
-      for (Enumeration en=e.namespaces.keys(); en.hasMoreElements(); ) {
-         v = new Value((String)en.nextElement());
-         if (last != null)
-            last.next = v;
-         else
-            ret = v;
-         last = v;
-      }
-      if (ret != null)
-         return ret;
-      else
-         // shouldn't happen: at least "xml" is always defined
-         return Value.VAL_EMPTY;
+      Sequence.Builder ret = new Sequence.Builder(e.namespaces.size());
+      for (int i=0; i<e.namespaces.size(); i++)
+         ret.add(e.namespaces.getPrefix(i));
+      // at least "xml" is always defined
+      return ret.toValue();
    }
 }
\ No newline at end of file
@@ -46,6 +46,8 @@ import org.xml.sax.SAXException;
  */
 final public class GetNamespaceUriForPrefix implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 */
    public int getMinParCount() { return 2; }
 
@@ -74,7 +76,7 @@ final public class GetNamespaceUriForPrefix implements Instance
       if (e.namespaces == null)
          return Value.VAL_EMPTY;
 
-      String uri = (String)e.namespaces.get(prefix);
+      String uri = e.namespaces.getURI(prefix);
       if (uri == null)
          return Value.VAL_EMPTY;
       else
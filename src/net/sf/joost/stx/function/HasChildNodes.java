@@ -39,6 +39,8 @@ import net.sf.joost.stx.function.FunctionFactory.Instance;
  */
 final public class HasChildNodes implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 0 */
    public int getMinParCount() { return 0; }
 
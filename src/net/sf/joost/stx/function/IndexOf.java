@@ -29,6 +29,8 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.grammar.tree.EqTree;
 import net.sf.joost.grammar.tree.ValueTree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Sequence;
+import net.sf.joost.stx.SequenceIndex;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -48,6 +50,8 @@ import org.xml.sax.SAXException;
  */
 final public class IndexOf implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 */
    public int getMinParCount() { return 2; }
 
@@ -68,29 +72,30 @@ final public class IndexOf implements Instance
 
       if (seq.type == Value.EMPTY)
          return seq;
+      if (item.type == Value.EMPTY)
+         return Value.VAL_EMPTY;
+
+      SequenceIndex index = SequenceIndex.getIndex(seq, 1);
+      if (index != null) {
+         int[] positions = index.indexesOf(item.itemAt(0));
+         Sequence.Builder result = new Sequence.Builder(positions.length);
+         for (int i=0; i<positions.length; i++)
+            result.add(positions[i] + 1);
+         return result.toValue();
+      }
 
       Tree tSeq = new ValueTree(seq);
-      item.next = null;
-      Tree tItem = new ValueTree(item);
+      Tree tItem = new ValueTree(item.itemAt(0));
       // use the implemented = semantics
       Tree equals = new EqTree(tSeq, tItem);
 
-      Value next, last = null, result = Value.VAL_EMPTY;
-      long index = 1;
-
-      while (seq != null) {
-         next = seq.next;
-         seq.next = null; // compare items, not sequences
-         if (equals.evaluate(context, top).getBooleanValue()) {
-            if (last == null)
-               last = result = new Value(index);
-            else
-               last = last.next = new Value(index);
-         }
-         tSeq.value = seq = next;
-         index++;
+      Sequence.Builder result = new Sequence.Builder();
+      for (int i=0, count=seq.count(); i<count; i++) {
+         tSeq.value = seq.itemAt(i); // compare items, not sequences
+         if (equals.evaluate(context, top).getBooleanValue())
+            result.add(i + 1);
       }
 
-      return result;
+      return result.toValue();
    }
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ package net.sf.joost.stx.function;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -44,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class InsertBefore implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 3 */
    public int getMinParCount() { return 3; }
 
@@ -77,24 +80,17 @@ final public class InsertBefore implements Instance
       if (target.type == Value.EMPTY)
          return inserts;
 
-      Value result;
-      if (position <= 1)
-         // insert before the first item of target
-         result = inserts;
-      else {
-         result = target;
-         // determine position
-         while (target.next != null && --position > 1)
-            target = target.next;
-         Value rest = target.next;
-         target.next = inserts;
-         target = rest;
-      }
-      // append rest of target 
-      while (inserts.next != null)
-         inserts = inserts.next;
-      inserts.next = target;
+      int count = target.count();
+      if (position < 1)
+         position = 1;
+      else if (position > count)
+         position = count + 1;
 
-      return result;
+      Sequence.Builder result =
+         new Sequence.Builder(count + inserts.count());
+      result.add(target.subsequence(0, (int)position - 1));
+      result.add(inserts);
+      result.add(target.subsequence((int)position - 1, count));
+      return result.toValue();
    }
 }
\ No newline at end of file
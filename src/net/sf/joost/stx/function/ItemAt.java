@@ -42,6 +42,8 @@ import org.xml.sax.SAXException;
  */
 final public class ItemAt implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 */
    public int getMinParCount() { return 2; }
 
@@ -64,14 +66,11 @@ final public class ItemAt implements Instance
          return Value.VAL_EMPTY;
 
       long position = Math.round(dpos);
-      while (seq != null && --position != 0)
-         seq = seq.next;
-
-      if (seq == null)
+      if (position < 1 || position > seq.count())
          throw new EvalException("Position " + dpos + 
                                  " out of bounds in call to function '" + 
                                  getName().substring(FunctionFactory.FNSP.length()) + "'");
       else
-         return seq.singleCopy();
+         return seq.itemAt((int)position - 1);
    }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.stx.function;
+
+import java.util.Hashtable;
+
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.instruction.KeyFactory;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.NamespaceScope;
+import net.sf.joost.stx.Value;
+import net.sf.joost.stx.function.FunctionFactory.Instance;
+
+import org.xml.sax.SAXException;
+
+/**
+ * The <code>key</code> extension function.<br>
+ * Returns the elements of a buffer whose key (declared by a
+ * <code>joost:key</code> element, first parameter) equals one of the
+ * given values (second parameter). The string value of a returned element
+ * is the text of its subtree.
+ *
+ * @see KeyFactory
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+final public class Key implements Instance
+{
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The <code>joost:key</code> declarations of the sheet, indexed by
+    * their expanded names, <code>null</code> for the function table
+    * @see net.sf.joost.stx.ParseContext#getKeys
+    */
+   private final Hashtable keys;
+
+   /** The namespaces in scope of the function call, for resolving the
+       key name */
+   private final NamespaceScope namespaces;
+
+   /** Constructs the instance for the function table */
+   public Key()
+   {
+      this(null, null);
+   }
+
+   /**
+    * Constructs an instance for a function call
+    * @param keys the key declarations of the sheet
+    * @param namespaces the namespaces in scope of the call
+    */
+   public Key(Hashtable keys, NamespaceScope namespaces)
+   {
+      this.keys = keys;
+      this.namespaces = namespaces;
+   }
+
+   /** @return 2 */
+   public int getMinParCount() { return 2; }
+
+   /** @return 2 */
+   public int getMaxParCount() { return 2; }
+
+   /** @return "key" */
+   public String getName() { return FunctionFactory.JENSP + "key"; }
+
+   /** @return <code>false</code> */
+   public boolean isConstant() { return false; }
+
+   public Value evaluate(Context context, int top, Tree args)
+      throws SAXException, EvalException
+   {
+      String name = args.left.evaluate(context, top).getStringValue().trim();
+      String uri = "";
+      String lName = name;
+      int colon = name.indexOf(':');
+      if (colon != -1) {
+         uri = namespaces.getURI(name.substring(0, colon));
+         if (uri == null)
+            throw new EvalException("Undeclared prefix '" +
+                                    name.substring(0, colon) +
+                                    "' in call to function '" +
+                                    getName().substring(
+                                       FunctionFactory.JENSP.length()) +
+                                    "'");
+         lName = name.substring(colon+1);
+      }
+      KeyFactory.Instance key =
+         (KeyFactory.Instance)keys.get("{" + uri + "}" + lName);
+      if (key == null)
+         throw new EvalException("Unknown key '" + name + "'");
+
+      return key.lookup(context, args.right.evaluate(context, top));
+   }
+}
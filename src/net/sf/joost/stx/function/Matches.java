@@ -29,7 +29,8 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
-import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegexCache;
+import net.sf.joost.util.regex.RegularExpression;
 
 import org.xml.sax.SAXException;
 
@@ -47,6 +48,30 @@ import org.xml.sax.SAXException;
  */
 final public class Matches implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The regular expression if it has been compiled while parsing,
+    * <code>null</code> otherwise
+    */
+   private final RegularExpression regex;
+
+   /** Constructs the instance for the function table */
+   public Matches()
+   {
+      this(null);
+   }
+
+   /**
+    * Constructs an instance for a function call with literal pattern and
+    * flags
+    * @param regex the compiled regular expression
+    */
+   public Matches(RegularExpression regex)
+   {
+      this.regex = regex;
+   }
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -62,18 +87,21 @@ final public class Matches implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      String input, pattern, flags;
+      String input;
+      RegularExpression re = regex;
       if (args.left.type == Tree.LIST) { // three parameters
          input = args.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.right.evaluate(context, top).getStringValue();
-         flags = args.right.evaluate(context, top).getStringValue();
+         if (re == null)
+            re = RegexCache.getRegex(
+                    args.left.right.evaluate(context, top).getStringValue(),
+                    args.right.evaluate(context, top).getStringValue());
       }
       else { // two parameters
          input = args.left.evaluate(context, top).getStringValue();
-         pattern = args.right.evaluate(context, top).getStringValue();
-         flags = "";
+         if (re == null)
+            re = RegexCache.getRegex(
+                    args.right.evaluate(context, top).getStringValue(), "");
       }
-      return new JRegularExpression(pattern, true, flags)
-                    .containsMatch(input) ? Value.VAL_TRUE : Value.VAL_FALSE;
+      return re.containsMatch(input) ? Value.VAL_TRUE : Value.VAL_FALSE;
    }
 }
\ No newline at end of file
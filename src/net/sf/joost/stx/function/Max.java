@@ -41,6 +41,8 @@ import org.xml.sax.SAXException;
  */
 final public class Max implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -60,14 +62,12 @@ final public class Max implements Instance
       if (v.type == Value.EMPTY) // empty sequence
          return v;
       double max = Double.NEGATIVE_INFINITY;
-      while (v != null) {
-         Value next = v.next;
-         double n = v.getNumberValue();
+      for (int i=0, count=v.count(); i<count; i++) {
+         double n = v.numberAt(i);
          if (Double.isNaN(n))
             return Value.VAL_NAN;
          else
             max = n > max ? n : max;
-         v = next;
       }
       return new Value(max);
    }
@@ -41,6 +41,8 @@ import org.xml.sax.SAXException;
  */
 final public class Min implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -60,14 +62,12 @@ final public class Min implements Instance
       if (v.type == Value.EMPTY) // empty sequence
          return v;
       double min = Double.POSITIVE_INFINITY;
-      while (v != null) {
-         Value next = v.next;
-         double n = v.getNumberValue();
+      for (int i=0, count=v.count(); i<count; i++) {
+         double n = v.numberAt(i);
          if (Double.isNaN(n))
             return Value.VAL_NAN;
          else
             min = n < min ? n : min;
-         v = next;
       }
       return new Value(min);
    }
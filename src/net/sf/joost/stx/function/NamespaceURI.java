@@ -45,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class NamespaceURI implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 0 */
    public int getMinParCount() { return 0; }
 
@@ -42,6 +42,8 @@ import org.xml.sax.SAXException;
  */
 final public class NodeKind implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
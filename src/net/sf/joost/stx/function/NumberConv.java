@@ -44,6 +44,8 @@ import org.xml.sax.SAXException;
  */
 final public class NumberConv implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 0 */
    public int getMinParCount() { return 0; }
 
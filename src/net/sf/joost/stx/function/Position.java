@@ -38,6 +38,8 @@ import net.sf.joost.stx.function.FunctionFactory.Instance;
  */
 final public class Position implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 0 */
    public int getMinParCount() { return 0; }
 
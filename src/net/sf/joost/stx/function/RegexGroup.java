@@ -28,7 +28,6 @@ import java.util.Stack;
 
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
-import net.sf.joost.instruction.AnalyzeTextFactory;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
@@ -46,6 +45,30 @@ import org.xml.sax.SAXException;
  */
 final public class RegexGroup implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The slot of the pseudo-variable that contains the captured substrings,
+    * <code>-1</code> if the function is called outside of a template
+    * @see net.sf.joost.stx.ParseContext#getRegexGroupSlot
+    */
+   private final int slot;
+
+   /** Constructs the instance for the function table */
+   public RegexGroup()
+   {
+      this(-1);
+   }
+
+   /**
+    * Constructs an instance for a function call
+    * @param slot the slot of the captured substrings in the local variables
+    */
+   public RegexGroup(int slot)
+   {
+      this.slot = slot;
+   }
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -64,8 +87,7 @@ final public class RegexGroup implements Instance
       Value v = args.evaluate(context, top);
       double d = v.getNumberValue();
       // access a special pseudo variable
-      Stack s = 
-         (Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP);
+      Stack s = slot != -1 ? (Stack)context.localVars[slot] : null;
       if (Double.isNaN(d) || d < 0 || s == null || s.size() == 0)
          return Value.VAL_EMPTY_STRING;
       
@@ -27,6 +27,8 @@ package net.sf.joost.stx.function;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.LazySequence;
+import net.sf.joost.stx.Sequence;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -45,6 +47,8 @@ import org.xml.sax.SAXException;
  */
 final public class Remove implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 */
    public int getMinParCount() { return 2; }
 
@@ -72,26 +76,58 @@ final public class Remove implements Instance
                                  getName().substring(FunctionFactory.FNSP.length()) + "'");
       long position = Math.round(dPos);
 
-      if (seq.type == Value.EMPTY || position < 1)
+      if (position < 1)
          return seq;
-
-      Value last = null, result = seq;
-      while (seq != null && --position != 0) {
-         last = seq;
-         seq = seq.next;
+      if (seq.isLazy()) {
+         // compute the items on demand
+         if (position == 1)
+            return seq.getNext();
+         return new Without(seq, position - 1).toValue();
       }
 
-      if (seq == null) // position greater than sequence length
-         return result;
+      int count = seq.count();
+      if (position > count)
+         return seq;
+
+      if (position == 1) // remove the first item
+         return seq.subsequence(1, count);
+      if (position == count) // remove the last item
+         return seq.subsequence(0, count - 1);
+
+      Sequence.Builder result = new Sequence.Builder(count - 1);
+      result.add(seq.subsequence(0, (int)position - 1));
+      result.add(seq.subsequence((int)position, count));
+      return result.toValue();
+   }
 
-      if (last == null) { // remove the first item
-         if (result.next == null) // the one and only item
-            return Value.VAL_EMPTY;
-         else
-            return result.next;
+
+   /** A lazily evaluated sequence without one of its items */
+   private static final class Without extends LazySequence
+   {
+      /** The remaining items, <code>null</code> at the end */
+      private Value rest;
+
+      /** The number of items before the removed one still to be returned */
+      private long index;
+
+      Without(Value seq, long index)
+      {
+         this.rest = seq;
+         this.index = index;
       }
 
-      last.next = seq.next;
-      return result;
+      protected Value nextItem()
+      {
+         if (rest == null)
+            return null;
+         if (index-- == 0) { // skip this item
+            rest = rest.getNext();
+            if (rest == null)
+               return null;
+         }
+         Value item = rest.itemAt(0);
+         rest = rest.getNext();
+         return item;
+      }
    }
-}
\ No newline at end of file
+}
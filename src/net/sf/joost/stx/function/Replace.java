@@ -29,7 +29,7 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
-import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegexCache;
 import net.sf.joost.util.regex.RegularExpression;
 
 import org.xml.sax.SAXException;
@@ -49,6 +49,30 @@ import org.xml.sax.SAXException;
  */
 final public class Replace implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The regular expression if it has been compiled while parsing,
+    * <code>null</code> otherwise
+    */
+   private final RegularExpression regex;
+
+   /** Constructs the instance for the function table */
+   public Replace()
+   {
+      this(null);
+   }
+
+   /**
+    * Constructs an instance for a function call with literal pattern and
+    * flags
+    * @param regex the compiled regular expression
+    */
+   public Replace(RegularExpression regex)
+   {
+      this.regex = regex;
+   }
+
    /** @return 3 **/
    public int getMinParCount() { return 3; }
 
@@ -64,20 +88,25 @@ final public class Replace implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      String input, pattern, replacement, flags;
+      String input, replacement;
+      RegularExpression re = regex;
       if (args.left.left.type == Tree.LIST) { // four parameters
          input = args.left.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.left.right.evaluate(context, top).getStringValue();
          replacement = args.left.right.evaluate(context, top).getStringValue();
-         flags = args.right.evaluate(context, top).getStringValue();
+         if (re == null)
+            re = RegexCache.getRegex(
+                    args.left.left.right.evaluate(context, top)
+                                        .getStringValue(),
+                    args.right.evaluate(context, top).getStringValue());
       }
       else { // three parameters
          input = args.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.right.evaluate(context, top).getStringValue();
          replacement = args.right.evaluate(context, top).getStringValue();
-         flags = "";
+         if (re == null)
+            re = RegexCache.getRegex(
+                    args.left.right.evaluate(context, top).getStringValue(),
+                    "");
       }
-      RegularExpression re = new JRegularExpression(pattern, true, flags);
       if (re.matches(""))
          throw new EvalException("The regular expression in replace() must " +
                                  "not be one that matches a zero-length string");
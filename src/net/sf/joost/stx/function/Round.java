@@ -44,6 +44,8 @@ import org.xml.sax.SAXException;
  */
 final public class Round implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 **/
    public int getMinParCount() { return 1; }
 
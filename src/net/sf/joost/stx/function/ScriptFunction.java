@@ -47,6 +47,8 @@ import org.xml.sax.SAXException;
  */
 final public class ScriptFunction implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** BSF script engine instance */
    BSFEngine engine;
 
@@ -45,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class StringJoin implements Instance 
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -65,12 +67,10 @@ final public class StringJoin implements Instance
       if (seq.type == Value.EMPTY)
          return Value.VAL_EMPTY_STRING;
       StringBuffer buf = new StringBuffer();
-      while (seq != null) {
-         Value next = seq.next;
-         buf.append(seq.getStringValue());
-         if (next != null)
+      for (int i=0, count=seq.count(); i<count; i++) {
+         if (i > 0)
             buf.append(sep);
-         seq = next;
+         buf.append(seq.stringAt(i));
       }
       return new Value(buf.toString());
    }
@@ -27,6 +27,7 @@ package net.sf.joost.stx.function;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.LazySequence;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -46,6 +47,8 @@ import org.xml.sax.SAXException;
  */
 final public class Subsequence implements Instance 
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -95,26 +98,48 @@ final public class Subsequence implements Instance
          end = -1; // special marker to speed up the evaluation
       }
 
-      Value ret = null;
-      while (seq != null) {
-         if (ret == null && begin == 0) {
-            ret = seq;
-            if (end < 0) // true, if the two parameter version was used
-               break;
-         }
-         else
-            begin--;
-         end--;
-         if (end == 0)
-            break;
-         seq = seq.next;
-      }
-      if (ret != null) {
-         if (end == 0) // reached the end of the requested subsequence
-            seq.next = null; // cut the rest
-         return ret;
+      if (seq.isLazy()) {
+         // compute only the requested items
+         for (; begin > 0 && seq != null; begin--, end--)
+            seq = seq.getNext();
+         if (seq == null)
+            return Value.VAL_EMPTY;
+         if (end < 0)
+            return seq;
+         return new Prefix(seq, end).toValue();
       }
-      else
+
+      int count = seq.count();
+      if (begin >= count)
          return Value.VAL_EMPTY;
+      if (end < 0 || end > count)
+         end = count;
+      return seq.subsequence((int)begin, (int)end);
+   }
+
+
+   /** The first items of a lazily evaluated sequence */
+   private static final class Prefix extends LazySequence
+   {
+      /** The remaining items, <code>null</code> at the end */
+      private Value rest;
+
+      /** The number of items still to be returned */
+      private long length;
+
+      Prefix(Value seq, long length)
+      {
+         this.rest = seq;
+         this.length = length;
+      }
+
+      protected Value nextItem()
+      {
+         if (rest == null || length-- == 0)
+            return null;
+         Value item = rest.itemAt(0);
+         rest = length > 0 ? rest.getNext() : null;
+         return item;
+      }
    }
-}
\ No newline at end of file
+}
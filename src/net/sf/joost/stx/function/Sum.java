@@ -44,6 +44,8 @@ import org.xml.sax.SAXException;
  */
 final public class Sum implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 1 */
    public int getMinParCount() { return 1; }
 
@@ -63,11 +65,8 @@ final public class Sum implements Instance
       if (v.type == Value.EMPTY) // empty sequence
          return Value.VAL_ZERO;
       double sum = 0;
-      while (v != null) {
-         Value next = v.next;
-         sum += v.getNumberValue();
-         v = next;
-      }
+      for (int i=0, count=v.count(); i<count; i++)
+         sum += v.numberAt(i);
       return new Value(sum);
    }
 }
\ No newline at end of file
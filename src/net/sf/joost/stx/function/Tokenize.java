@@ -27,9 +27,10 @@ package net.sf.joost.stx.function;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.LazySequence;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
-import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegexCache;
 import net.sf.joost.util.regex.RegularExpression;
 
 import java.util.regex.Matcher;
@@ -51,6 +52,30 @@ import org.xml.sax.SAXException;
  */
 final public class Tokenize implements Instance
 {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The regular expression if it has been compiled while parsing,
+    * <code>null</code> otherwise
+    */
+   private final RegularExpression regex;
+
+   /** Constructs the instance for the function table */
+   public Tokenize()
+   {
+      this(null);
+   }
+
+   /**
+    * Constructs an instance for a function call with literal pattern and
+    * flags
+    * @param regex the compiled regular expression
+    */
+   public Tokenize(RegularExpression regex)
+   {
+      this.regex = regex;
+   }
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -66,46 +91,63 @@ final public class Tokenize implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      String input, pattern, flags;
+      String input;
+      RegularExpression re = regex;
       if (args.left.type == Tree.LIST) { // three parameters
          input = args.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.right.evaluate(context, top).getStringValue();
-         flags = args.right.evaluate(context, top).getStringValue();
+         if (re == null)
+            re = RegexCache.getRegex(
+                    args.left.right.evaluate(context, top).getStringValue(),
+                    args.right.evaluate(context, top).getStringValue());
       }
       else { // two parameters
          input = args.left.evaluate(context, top).getStringValue();
-         pattern = args.right.evaluate(context, top).getStringValue();
-         flags = "";
+         if (re == null)
+            re = RegexCache.getRegex(
+                    args.right.evaluate(context, top).getStringValue(), "");
       }
 
       if ("".equals(input))
          return Value.VAL_EMPTY;
 
-      RegularExpression re = new JRegularExpression(pattern, true, flags);
       if (re.matches(""))
          throw new EvalException("The regular expression in tokenize() must " +
                                  "not be one that matches a zero-length string");
 
-      Matcher matcher = re.matcher(input);
-      int prevEnd = 0;
-      Value start = null, last = null, current;
-      do {
+      // compute the tokens on demand
+      return new Tokens(input, re.matcher(input)).toValue();
+   }
+
+
+   /** The tokens of a string, computed one after another */
+   private static final class Tokens extends LazySequence
+   {
+      private final String input;
+      private final Matcher matcher;
+
+      /** The end of the previous separator, -1 after the last token */
+      private int prevEnd;
+
+      Tokens(String input, Matcher matcher)
+      {
+         this.input = input;
+         this.matcher = matcher;
+      }
+
+      protected Value nextItem()
+      {
+         if (prevEnd < 0)
+            return null;
+         String token;
          if (matcher.find()) {
-            current = new Value(input.subSequence(prevEnd, matcher.start()));
+            token = input.substring(prevEnd, matcher.start());
             prevEnd = matcher.end();
          }
          else {
-            current = new Value(input.subSequence(prevEnd, input.length()));
+            token = input.substring(prevEnd);
             prevEnd = -1;
          }
-         if (start == null)
-            start = last = current;
-         else {
-            last.next = current;
-            last = current;
-         }
-      } while (prevEnd > 0);
-
-      return start;
+         return new Value(token);
+      }
    }
-}
\ No newline at end of file
+}
@@ -45,6 +45,8 @@ import org.xml.sax.SAXException;
  */
 final public class Translate implements Instance 
 {
+   private static final long serialVersionUID = 1L;
+
    /** @return 3 **/
    public int getMinParCount() { return 3; }
 
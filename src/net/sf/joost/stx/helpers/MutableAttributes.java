@@ -33,6 +33,12 @@ public interface MutableAttributes extends Attributes
    /** Set the value of an attribute at the specified index */
    public void setValue(int index, String value);
 
+   /**
+    * Look up the index of an attribute by its encoded name
+    * @see net.sf.joost.stx.NamePool
+    */
+   public int getIndex(int uriCode, int lNameCode);
+
    /** Add an attribute to the set of attributes */
    public void addAttribute(String uri, String lName, String qName, 
                             String type, String value);
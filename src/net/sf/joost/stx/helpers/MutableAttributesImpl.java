@@ -23,6 +23,8 @@
  */
 package net.sf.joost.stx.helpers;
 
+import net.sf.joost.stx.NamePool;
+
 import org.xml.sax.Attributes;
 
 /**
@@ -37,6 +39,8 @@ public final class MutableAttributesImpl implements MutableAttributes
    private String[] _qNames;
    private String[] _values;
    private String[] _types;
+   // codes of the uris and local names (alternating), computed on demand
+   private int[] _codes;
 
    public MutableAttributesImpl(Attributes attributes)
    {
@@ -60,6 +64,15 @@ public final class MutableAttributesImpl implements MutableAttributes
          _values[n] = attributes.getValue(n);
          _types[n] = attributes.getType(n);
       }
+
+      if (attributes instanceof MutableAttributesImpl) {
+         // take over the already computed name codes
+         int[] codes = ((MutableAttributesImpl)attributes)._codes;
+         if (codes != null && codes.length >= _length << 1) {
+            _codes = new int[_length << 1];
+            System.arraycopy(codes, 0, _codes, 0, _codes.length);
+         }
+      }
    }
 
    public int getIndex(String uri, String localName) 
@@ -71,6 +84,24 @@ public final class MutableAttributesImpl implements MutableAttributes
       return -1;
    }
    
+   public int getIndex(int uriCode, int lNameCode)
+   {
+      int[] codes = _codes;
+      if (codes == null) {
+         codes = new int[_length << 1];
+         for (int n=_length; n-->0; ) {
+            codes[n << 1] = NamePool.lookupCode(_uris[n]);
+            codes[(n << 1) + 1] = NamePool.lookupCode(_lNames[n]);
+         }
+         _codes = codes;
+      }
+      for (int n=_length; n-->0; ) {
+         if (codes[(n << 1) + 1] == lNameCode && codes[n << 1] == uriCode)
+            return n;
+      }
+      return -1;
+   }
+
    public int getLength() 
    {
       return _length;
@@ -183,5 +214,6 @@ public final class MutableAttributesImpl implements MutableAttributes
       _types[_length] = type;
     	
       _length++;
+      _codes = null; // will be recomputed
    }
 }
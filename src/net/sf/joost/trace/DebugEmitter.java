@@ -26,14 +26,15 @@ package net.sf.joost.trace;
 
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Hashtable;
 
 import net.sf.joost.OptionalLog;
+import net.sf.joost.emitter.SerializedFragment;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ErrorHandlerImpl;
+import net.sf.joost.stx.NamespaceScope;
 import net.sf.joost.stx.SAXEvent;
 
 import org.apache.commons.logging.Log;
@@ -120,6 +121,17 @@ public class DebugEmitter extends Emitter {
     }
 
 
+    /**
+     * Never writes a serialized fragment, because the trace listeners
+     * expect the events of all instructions
+     * see {@link Emitter#fragment}
+     */
+    public boolean fragment(SerializedFragment fragment, NodeBase instruction)
+    {
+        return false;
+    }
+
+
     // ------------------------------------------------------------------
     // Sax-callback methods
     // ------------------------------------------------------------------
@@ -154,7 +166,7 @@ public class DebugEmitter extends Emitter {
      * overloaded method for debug information
      */
     public void startElement(String uri, String lName, String qName,
-                             Attributes attrs, Hashtable namespaces,
+                             Attributes attrs, NamespaceScope namespaces,
                              NodeBase instruction) throws SAXException {
         if (log != null)
             log.debug("start element in resultdoc");
@@ -0,0 +1,287 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+
+package net.sf.joost.trax;
+
+import net.sf.joost.util.LRUCache;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Vector;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+
+
+/**
+ * Bounded cache of compiled {@link Templates} objects, keyed by the absolute
+ * system identifiers of the transformation sheets. It is used by
+ * {@link TransformerFactoryImpl} and by the TrAX filter plugin
+ * ({@link net.sf.joost.plugins.traxfilter.THResolver}), and may be shared by
+ * concurrent threads. Only sources that consist of a system
+ * identifier can be cached, the contents of streams, readers and DOM
+ * nodes are not looked at. If a sheet or one of its included sheets is a
+ * local file, its modification time is checked on every lookup and a
+ * changed sheet is compiled again (included sheets are known only for
+ * {@link TemplatesImpl} objects). When the cache is full, the least
+ * recently used entry will be evicted.
+ * <p>
+ * The factory clears the cache whenever one of its settings changes,
+ * because these settings are part of a compiled sheet. An instance
+ * provides statistics about its use, see
+ * {@link TrAXConstants#TEMPLATES_CACHE_STATISTICS}.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class TemplatesCache implements TrAXConstants
+{
+    /** The cached sheets, each one has a size of 1 */
+    private final LRUCache cache;
+
+    /** The total compile time */
+    private long compileTime;
+
+    /** The number of times the cache has been cleared */
+    private long generation;
+
+
+    /**
+     * Constructs a cache.
+     * @param maxSize the maximal number of cached sheets, must be positive
+     */
+    public TemplatesCache(int maxSize)
+    {
+        cache = new LRUCache(maxSize);
+    }
+
+
+    /**
+     * Determines the cache key for a source.
+     * @param source the source of a transformation sheet
+     * @return the absolute system identifier of <code>source</code>,
+     *  <code>null</code> if <code>source</code> can't be cached
+     */
+    public static String getSystemId(Source source)
+    {
+        if (source instanceof StreamSource) {
+            StreamSource ss = (StreamSource)source;
+            if (ss.getInputStream() != null || ss.getReader() != null)
+                return null;
+        }
+        else if (source instanceof SAXSource) {
+            SAXSource ss = (SAXSource)source;
+            InputSource is = ss.getInputSource();
+            // a custom XMLReader may deliver anything
+            if (ss.getXMLReader() != null || is == null ||
+                is.getByteStream() != null || is.getCharacterStream() != null)
+                return null;
+        }
+        else
+            return null;
+
+        String systemId = source.getSystemId();
+        if (systemId == null)
+            return null;
+        try {
+            return new URL(systemId).toExternalForm();
+        }
+        catch (MalformedURLException ex) {
+            // a file name
+            return new File(systemId).getAbsoluteFile().toURI().normalize()
+                                     .toString();
+        }
+    }
+
+
+    /**
+     * Looks up a compiled sheet.
+     * @param key the key, usually the result of {@link #getSystemId}
+     * @return the compiled sheet, <code>null</code> if there is no entry
+     *  for <code>key</code> or if the sheet has been changed since
+     *  it was compiled
+     */
+    public synchronized Templates get(String key)
+    {
+        return (Templates)cache.get(key);
+    }
+
+
+    /**
+     * The state of a sheet before it is compiled, see
+     * {@link TemplatesCache#startCompilation}
+     */
+    public static final class Compilation
+    {
+        private final LRUCache.Stamp stamp;
+        private final long generation;
+        private final long start;
+
+        private Compilation(LRUCache.Stamp stamp, long generation)
+        {
+            this.stamp = stamp;
+            this.generation = generation;
+            start = System.currentTimeMillis();
+        }
+    }
+
+
+    /**
+     * Looks at the file of a sheet before it is compiled, so that a change
+     * while compiling will be detected next time.
+     * @param systemId the system identifier of the sheet, whose file will
+     *  be checked for modifications, may be <code>null</code>
+     * @return the state to pass to {@link #put}
+     */
+    public synchronized Compilation startCompilation(String systemId)
+    {
+        File file = LRUCache.toFile(systemId);
+        return new Compilation(
+            new LRUCache.Stamp(file != null ? new File[] { file }
+                                            : new File[0]),
+            generation);
+    }
+
+
+    /**
+     * Puts a compiled sheet into the cache, evicts the least recently used
+     * entry if the cache is full. The sheet will be dropped if the cache
+     * has been cleared since the compilation started.
+     * @param key the key, usually the result of {@link #getSystemId}
+     * @param compilation the result of {@link #startCompilation}
+     * @param templates the compiled sheet
+     */
+    public synchronized void put(String key, Compilation compilation,
+                                 Templates templates)
+    {
+        compileTime += System.currentTimeMillis() - compilation.start;
+        if (compilation.generation != generation)
+            return;
+        Vector stamps = new Vector();
+        stamps.addElement(compilation.stamp);
+        if (templates instanceof TemplatesImpl) {
+            Vector includes = ((TemplatesImpl)templates).getIncludedFiles();
+            for (int i=0; i<includes.size(); i++)
+                stamps.addElement(includes.elementAt(i));
+        }
+        LRUCache.Stamp[] stampArray = new LRUCache.Stamp[stamps.size()];
+        stamps.copyInto(stampArray);
+        cache.put(key, templates, new LRUCache.Stamp(stampArray), 1);
+    }
+
+
+    /**
+     * Changes the maximal number of entries.
+     * @param maxSize the new size, must be positive
+     */
+    public synchronized void setMaxSize(int maxSize)
+    {
+        cache.setMaxSize(maxSize);
+    }
+
+
+    /** @return the maximal number of cached sheets */
+    public synchronized int getMaxSize()
+    {
+        return (int)cache.getMaxSize();
+    }
+
+
+    /** @return the number of cached sheets */
+    public synchronized int getSize()
+    {
+        return cache.getCount();
+    }
+
+
+    /** @return the number of lookups that returned a cached sheet */
+    public synchronized long getHits()
+    {
+        return cache.getHits();
+    }
+
+
+    /**
+     * @return the number of lookups that found no usable entry, i.e. the
+     *  number of sheets that had to be compiled
+     */
+    public synchronized long getMisses()
+    {
+        return cache.getMisses();
+    }
+
+
+    /**
+     * @return the number of entries that have been removed because
+     *  their sheets have been changed (these lookups count as misses)
+     */
+    public synchronized long getStaleEntries()
+    {
+        return cache.getStaleEntries();
+    }
+
+
+    /** @return the number of entries removed because the cache was full */
+    public synchronized long getEvictions()
+    {
+        return cache.getEvictions();
+    }
+
+
+    /**
+     * @return the total time in milliseconds spent for compiling the
+     *  sheets that have been put into this cache
+     */
+    public synchronized long getCompileTime()
+    {
+        return compileTime;
+    }
+
+
+    /**
+     * Removes all entries. The statistics will be retained.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+        generation++;
+    }
+
+
+    /** @return a summary of the statistics */
+    public synchronized String toString()
+    {
+        return "TemplatesCache[size=" + cache.getCount() + "/" +
+               cache.getMaxSize() + ", hits=" + cache.getHits() +
+               ", misses=" + cache.getMisses() +
+               ", stale=" + cache.getStaleEntries() +
+               ", evictions=" + cache.getEvictions() +
+               ", compileTime=" + compileTime + "ms]";
+    }
+}
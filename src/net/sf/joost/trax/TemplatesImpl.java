@@ -26,12 +26,14 @@
 package net.sf.joost.trax;
 
 import net.sf.joost.OptionalLog;
+import net.sf.joost.stx.DocumentCache;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Parser;
 import net.sf.joost.stx.Processor;
 import net.sf.joost.trace.DebugProcessor;
 
 import java.util.Properties;
+import java.util.Vector;
 
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
@@ -67,11 +69,19 @@ public class TemplatesImpl implements Templates, TrAXConstants {
     private Processor processor             = null;
 
     /**
-     * Synch object to guard against setting values from the TrAX interface
-     * or reentry while the transform is going on.
+     * Processors available for reuse, see {@link #recycle}; the length is
+     * determined by {@link TrAXConstants#PROCESSOR_POOL_SIZE}
      */
-    private Object reentryGuard = new Object();
+    private Processor[] pool;
 
+    /** The number of processors in {@link #pool} */
+    private int pooled = 0;
+
+    /**
+     * The state of the local files included by the compiled sheet, see
+     * {@link ParseContext#getIncludedFiles}
+     */
+    private Vector includedFiles = new Vector();
 
     /**
      * Constructor used by {@link net.sf.joost.trax.TemplatesHandlerImpl}
@@ -84,6 +94,7 @@ public class TemplatesImpl implements Templates, TrAXConstants {
         if (DEBUG)
             log.debug("calling constructor with existing Parser");
         this.factory = factory;
+        this.pool = new Processor[factory.processorPoolSize];
         try {
             //configure the template
             init(stxParser);
@@ -110,6 +121,7 @@ public class TemplatesImpl implements Templates, TrAXConstants {
             log.debug("calling constructor with SystemId " +
                       isource.getSystemId());
         this.factory = factory;
+        this.pool = new Processor[factory.processorPoolSize];
         try {
             //configure template
             init(reader, isource);
@@ -144,6 +156,10 @@ public class TemplatesImpl implements Templates, TrAXConstants {
             }
             processor.setTransformerHandlerResolver(factory.thResolver);
             processor.setOutputURIResolver(factory.outputUriResolver);
+            processor.setBufferSpillThreshold(factory.bufferSpillThreshold);
+            if (factory.documentCacheSize > 0)
+                processor.setDocumentCache(
+                    new DocumentCache(factory.documentCacheSize));
         } catch (org.xml.sax.SAXException sE) {
             if (log != null)
                 log.fatal(sE);
@@ -189,11 +205,19 @@ public class TemplatesImpl implements Templates, TrAXConstants {
                 pContext.parserListener = factory.getParserListenerMgr();
                 processor = new DebugProcessor(reader, isource, pContext,
                                                factory.getMessageEmitter());
+            } else if (factory.sheetCache != null) {
+                processor = new Processor(
+                    factory.sheetCache.parse(reader, isource, pContext));
             } else {
                 processor = new Processor(reader, isource, pContext);
             }
+            includedFiles = pContext.getIncludedFiles();
             processor.setTransformerHandlerResolver(factory.thResolver);
             processor.setOutputURIResolver(factory.outputUriResolver);
+            processor.setBufferSpillThreshold(factory.bufferSpillThreshold);
+            if (factory.documentCacheSize > 0)
+                processor.setDocumentCache(
+                    new DocumentCache(factory.documentCacheSize));
         } catch (java.io.IOException iE) {
             if (DEBUG)
                 log.debug(iE);
@@ -214,6 +238,25 @@ public class TemplatesImpl implements Templates, TrAXConstants {
     }
 
 
+    /**
+     * @return whether the sheet has been compiled successfully (the
+     *  constructor returns normally if the configured
+     *  <code>ErrorListener</code> doesn't throw an exception)
+     */
+    boolean isCompiled() {
+        return processor != null;
+    }
+
+
+    /**
+     * @return the state of the included local files when they were read,
+     *  a vector of {@link net.sf.joost.util.LRUCache.Stamp}s
+     */
+    Vector getIncludedFiles() {
+        return includedFiles;
+    }
+
+
     /**
      * Method returns a Transformer-instance for transformation-process
      * @return A <code>Transformer</code> object.
@@ -221,23 +264,67 @@ public class TemplatesImpl implements Templates, TrAXConstants {
      */
     public Transformer newTransformer() throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-                log.debug("calling newTransformer to get a " +
-                          "Transformer object for Transformation");
-            try {
-               // register the processor
-               Transformer transformer = new TransformerImpl(processor.copy());
-               if (factory.getURIResolver() != null)
-                  transformer.setURIResolver(factory.getURIResolver());
-               return transformer;
-            }
-            catch (SAXException e) {
-                if (log != null)
-                    log.fatal(e);
-                throw new TransformerConfigurationException(e.getMessage());
+        // no synchronization needed: the copy shares the compiled
+        // transformation sheet, which won't be modified while processing
+        if (DEBUG)
+            log.debug("calling newTransformer to get a " +
+                      "Transformer object for Transformation");
+        try {
+           // register the processor
+           TransformerImpl transformer = new TransformerImpl(getProcessor());
+           transformer.templates = this;
+           if (factory.getURIResolver() != null)
+              transformer.setURIResolver(factory.getURIResolver());
+           return transformer;
+        }
+        catch (SAXException e) {
+            if (log != null)
+                log.fatal(e);
+            throw new TransformerConfigurationException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * @return a processor from the pool, or a new copy of {@link #processor}
+     *         if the pool is empty
+     */
+    private Processor getProcessor() throws SAXException {
+        synchronized (pool) {
+            if (pooled > 0) {
+                Processor proc = pool[--pooled];
+                pool[pooled] = null;
+                return proc;
             }
         }
+        return processor.copy();
+    }
+
+
+    /**
+     * Puts the processor of a transformer back into the pool of this
+     * object, so a subsequent {@link #newTransformer} call can reuse it
+     * instead of creating a new processor and a new XML parser. The
+     * processor will be reset; the transformer must not be used afterwards.
+     * Nothing happens if the pool is disabled or full (see
+     * {@link TrAXConstants#PROCESSOR_POOL_SIZE}), if the transformer has
+     * not been created by this object or if it has been recycled already.
+     * @param transformer a transformer obtained from {@link #newTransformer}
+     */
+    public void recycle(Transformer transformer) {
+        if (pool.length == 0 || !(transformer instanceof TransformerImpl))
+            return;
+        TransformerImpl t = (TransformerImpl)transformer;
+        Processor proc = t.getStxProcessor();
+        if (t.templates != this || proc instanceof DebugProcessor)
+            return;
+        t.templates = null;
+
+        proc.reset();
+        synchronized (pool) {
+            if (pooled < pool.length)
+                pool[pooled++] = proc;
+        }
     }
 
 
@@ -250,7 +337,9 @@ public class TemplatesImpl implements Templates, TrAXConstants {
 
 	    try {
 	        Transformer transformer = newTransformer();
-	        return transformer.getOutputProperties();
+	        Properties props = transformer.getOutputProperties();
+	        recycle(transformer);
+	        return props;
 	    } catch (TransformerConfigurationException tE) {
             try {
                 factory.defaultErrorListener.fatalError(tE);
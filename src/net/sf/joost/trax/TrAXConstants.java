@@ -96,6 +96,75 @@ public interface TrAXConstants extends Constants {
     public final static String ALLOW_EXTERNAL_FUNCTIONS =
        "http://joost.sf.net/attributes/allow-external-functions";
 
+    /**
+     * Key for a Joost property that determines the maximal number of
+     * processors a {@link TemplatesImpl} object keeps for reuse by
+     * subsequent {@link TemplatesImpl#newTransformer} calls (see
+     * {@link TemplatesImpl#recycle}). Its property value must be an
+     * Integer, 0 (the default) disables the pool.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String PROCESSOR_POOL_SIZE =
+       "http://joost.sf.net/attributes/processor-pool-size";
+
+    /**
+     * Key for a Joost property that determines the size in bytes above
+     * which the contents of an <code>stx:buffer</code> will be written to
+     * temporary files, which are mapped into memory when the buffer is
+     * processed. Its property value must be an Integer, 0 (the default)
+     * keeps all buffers in memory. A spilled buffer holds at most 2 GB of
+     * events and 2 GB of characters; the files are deleted when the buffer
+     * is cleared or the transformation ends.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String BUFFER_SPILL_THRESHOLD =
+       "http://joost.sf.net/attributes/buffer-spill-threshold";
+
+    /**
+     * Key for a Joost property that determines a directory for storing
+     * compiled transformation sheets, so they don't need to be parsed and
+     * compiled again in later runs (see {@link net.sf.joost.stx.SheetCache}).
+     * Its property value must be a String or a File, <code>null</code>
+     * (the default) disables the cache.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String SHEET_CACHE_DIRECTORY =
+       "http://joost.sf.net/attributes/sheet-cache-directory";
+
+    /**
+     * Key for a Joost property that determines the memory in bytes for
+     * caching the documents processed by <code>stx:process-document</code>
+     * (see {@link net.sf.joost.stx.DocumentCache}). The cache is shared by
+     * all transformers of a Templates object. Its property value must be an
+     * Integer, 0 (the default) parses these documents on every request.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String DOCUMENT_CACHE_SIZE =
+       "http://joost.sf.net/attributes/document-cache-size";
+
+    /**
+     * Key for a Joost property that determines the number of compiled
+     * transformation sheets the factory keeps in memory, so repeated
+     * requests for the same sheet (for example <code>newTransformer</code>
+     * with the same system identifier) don't compile it again (see
+     * {@link TemplatesCache}). Its property value must be an Integer,
+     * 0 (the default) disables the cache.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String TEMPLATES_CACHE_SIZE =
+       "http://joost.sf.net/attributes/templates-cache-size";
+
+    /**
+     * Key for a read-only Joost property that provides the hit, miss and
+     * compile time statistics of the templates cache. Its property value
+     * is a {@link TemplatesCache}, or <code>null</code> if the cache is
+     * disabled.
+     * @see #TEMPLATES_CACHE_SIZE
+     * @see javax.xml.transform.TransformerFactory#getAttribute
+     */
+    public final static String TEMPLATES_CACHE_STATISTICS =
+       "http://joost.sf.net/attributes/templates-cache-statistics";
+
     /**
      * Key for a Joost output property that determines whether the PIs for
      * controlling disable-output-escaping
@@ -30,8 +30,10 @@ import net.sf.joost.TransformerHandlerResolver;
 import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.stx.SheetCache;
 import net.sf.joost.trace.ParserListenerMgr;
 
+import java.io.File;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 
@@ -81,6 +83,11 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     protected TransformerHandlerResolver thResolver = null;
     protected OutputURIResolver outputUriResolver   = null;
     protected boolean allowExternalFunctions        = true;
+    protected int processorPoolSize                 = 0;
+    protected int bufferSpillThreshold              = 0;
+    protected int documentCacheSize                 = 0;
+    protected SheetCache sheetCache                 = null;
+    private   volatile TemplatesCache templatesCache = null;
 
     // init default errorlistener
     // visible for TemplatesImpl
@@ -171,6 +178,25 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         else if (ALLOW_EXTERNAL_FUNCTIONS.equals(name)) {
            return new Boolean(allowExternalFunctions);
         }
+        else if (PROCESSOR_POOL_SIZE.equals(name)) {
+           return new Integer(processorPoolSize);
+        }
+        else if (BUFFER_SPILL_THRESHOLD.equals(name)) {
+           return new Integer(bufferSpillThreshold);
+        }
+        else if (SHEET_CACHE_DIRECTORY.equals(name)) {
+           return sheetCache != null ? sheetCache.getDirectory() : null;
+        }
+        else if (DOCUMENT_CACHE_SIZE.equals(name)) {
+           return new Integer(documentCacheSize);
+        }
+        else if (TEMPLATES_CACHE_SIZE.equals(name)) {
+           return new Integer(templatesCache != null
+                              ? templatesCache.getMaxSize() : 0);
+        }
+        else if (TEMPLATES_CACHE_STATISTICS.equals(name)) {
+           return templatesCache;
+        }
         else if (DEBUG_FEATURE.equals(name)) {
            return new Boolean(debugmode);
        }
@@ -192,6 +218,25 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public void setAttribute(String name, Object value)
         throws IllegalArgumentException {
 
+        if (TEMPLATES_CACHE_SIZE.equals(name)) {
+            int size = ((Integer)value).intValue();
+            if (size < 0)
+                throw new IllegalArgumentException(
+                    "Negative templates cache size: " + size);
+            synchronized (reentryGuard) {
+                if (size == 0)
+                    templatesCache = null;
+                else if (templatesCache == null)
+                    templatesCache = new TemplatesCache(size);
+                else
+                    templatesCache.setMaxSize(size);
+            }
+            return;
+        }
+        if (TEMPLATES_CACHE_STATISTICS.equals(name)) {
+            throw new IllegalArgumentException(
+                "Read-only attribute: " + name);
+        }
         if (KEY_TH_RESOLVER.equals(name)) {
             thResolver = (TransformerHandlerResolver)value;
         }
@@ -221,6 +266,39 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         else if (ALLOW_EXTERNAL_FUNCTIONS.equals(name)) {
             this.allowExternalFunctions = ((Boolean)value).booleanValue();
         }
+        else if (PROCESSOR_POOL_SIZE.equals(name)) {
+            int size = ((Integer)value).intValue();
+            if (size < 0)
+                throw new IllegalArgumentException(
+                    "Negative processor pool size: " + size);
+            this.processorPoolSize = size;
+        }
+        else if (BUFFER_SPILL_THRESHOLD.equals(name)) {
+            int threshold = ((Integer)value).intValue();
+            if (threshold < 0)
+                throw new IllegalArgumentException(
+                    "Negative buffer spill threshold: " + threshold);
+            this.bufferSpillThreshold = threshold;
+        }
+        else if (DOCUMENT_CACHE_SIZE.equals(name)) {
+            int size = ((Integer)value).intValue();
+            if (size < 0)
+                throw new IllegalArgumentException(
+                    "Negative document cache size: " + size);
+            this.documentCacheSize = size;
+        }
+        else if (SHEET_CACHE_DIRECTORY.equals(name)) {
+            if (value == null)
+                this.sheetCache = null;
+            else if (value instanceof File)
+                this.sheetCache = new SheetCache((File)value);
+            else if (value instanceof String)
+                this.sheetCache = new SheetCache(new File((String)value));
+            else
+                throw new IllegalArgumentException(
+                    "Sheet cache directory is of wrong type, "
+                    + "should be either a String or a File");
+        }
         else if (DEBUG_FEATURE.equals(name)) {
            this.debugmode = ((Boolean)value).booleanValue();
        }
@@ -229,6 +307,8 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
                 log.warn("Feature not supported: " + name);
             throw new IllegalArgumentException("Feature not supported: " + name);
         }
+        // the other settings become part of the compiled sheets
+        clearTemplatesCache();
     }
 
     /**
@@ -255,6 +335,7 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
             }
             this.errorListener = errorListener;
             defaultErrorListener.setUserErrorListener(errorListener);
+            clearTemplatesCache();
         }
     }
 
@@ -274,9 +355,20 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
 
         synchronized (reentryGuard) {
             this.uriResolver = resolver;
+            clearTemplatesCache();
         }
     }
 
+    /**
+     * Removes the compiled sheets from the templates cache, because they
+     * don't reflect a changed setting of this factory.
+     */
+    private void clearTemplatesCache() {
+        TemplatesCache cache = templatesCache;
+        if (cache != null)
+            cache.clear();
+    }
+
     /**
      * see {@link javax.xml.transform.TransformerFactory#setFeature(java.lang.String, boolean)}
      */
@@ -332,7 +424,10 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
 
 
     /**
-     * Creates a new Templates for Transformations.
+     * Creates a new Templates for Transformations. If the templates cache
+     * is enabled (see {@link TrAXConstants#TEMPLATES_CACHE_SIZE}) and
+     * <code>source</code> consists of a system identifier only, a cached
+     * Templates object will be returned.
      * @param source The <code>Source</code> of the stylesheet.
      * @return A <code>Templates</code> object or <code>null</code> when an error
      *  occured (no user defined ErrorListener)
@@ -341,17 +436,33 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public Templates newTemplates(Source source)
         throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG) {
-                if (log.isDebugEnabled())
-                    log.debug("get a Templates-instance from Source " +
-                              source.getSystemId());
+        if (DEBUG) {
+            if (log.isDebugEnabled())
+                log.debug("get a Templates-instance from Source " +
+                          source.getSystemId());
+        }
+        // the cache is thread-safe, a cached sheet doesn't need the lock
+        TemplatesCache cache = templatesCache;
+        String systemId = null;
+        TemplatesCache.Compilation compilation = null;
+        if (cache != null) {
+            systemId = TemplatesCache.getSystemId(source);
+            if (systemId != null) {
+                Templates cached = cache.get(systemId);
+                if (cached != null)
+                    return cached;
+                // a clear() after this point drops the compiled sheet
+                compilation = cache.startCompilation(systemId);
             }
+        }
+        synchronized (reentryGuard) {
             try {
                 SAXSource saxSource = TrAXHelper.getSAXSource(source, errorListener);
-                Templates template =
+                TemplatesImpl template =
                     new TemplatesImpl(saxSource.getXMLReader(),
                                       saxSource.getInputSource(), this);
+                if (compilation != null && template.isCompiled())
+                    cache.put(systemId, compilation, template);
                 return template;
             } catch (TransformerException tE) {
                 defaultErrorListener.fatalError(tE);
@@ -389,13 +500,12 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public Transformer newTransformer(Source source)
         throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-                log.debug("get a Transformer-instance");
-            Templates templates     = newTemplates(source);
-            Transformer transformer = templates.newTransformer();
-            return(transformer);
-        }
+        // newTemplates takes the lock if it has to compile the sheet
+        if (DEBUG)
+            log.debug("get a Transformer-instance");
+        Templates templates     = newTemplates(source);
+        Transformer transformer = templates.newTransformer();
+        return(transformer);
     }
 
 
@@ -458,14 +568,12 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public TransformerHandler newTransformerHandler(Source src)
         throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-                if (log.isDebugEnabled())
-                    log.debug("get a TransformerHandler-instance from Source " +
-                              src.getSystemId());
-            Templates templates = newTemplates(src);
-            return newTransformerHandler(templates);
-        }
+        if (DEBUG)
+            if (log.isDebugEnabled())
+                log.debug("get a TransformerHandler-instance from Source " +
+                          src.getSystemId());
+        Templates templates = newTemplates(src);
+        return newTransformerHandler(templates);
     }
 
 
@@ -480,13 +588,11 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public TransformerHandler newTransformerHandler(Templates templates)
         throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-               log.debug("get a TransformerHandler-instance from Templates");
-            Transformer internal = templates.newTransformer();
-            TransformerHandlerImpl thandler = new TransformerHandlerImpl(internal);
-            return thandler;
-        }
+        if (DEBUG)
+           log.debug("get a TransformerHandler-instance from Templates");
+        Transformer internal = templates.newTransformer();
+        TransformerHandlerImpl thandler = new TransformerHandlerImpl(internal);
+        return thandler;
     }
 
 
@@ -72,6 +72,13 @@ public class TransformerImpl extends Transformer implements TrAXConstants
 
    private Processor processor = null; // Bugfix
 
+   /**
+    * The templates object that created this transformer and may recycle
+    * its processor, <code>null</code> after recycling
+    * @see TemplatesImpl#recycle
+    */
+   TemplatesImpl templates;
+
    private URIResolver uriRes = null;
 
    // init with default errorlistener
@@ -280,6 +287,10 @@ public class TransformerImpl extends Transformer implements TrAXConstants
                                           new TransformerException(ex
                                                 .getMessage(), ex));
          }
+         finally {
+            // delete the temporary files of an aborted transformation
+            this.processor.clearSpilledBuffers();
+         }
       }
    }
 
@@ -0,0 +1,297 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.util;
+
+import net.sf.joost.Constants;
+import net.sf.joost.OptionalLog;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+
+
+/**
+ * Map of cached values that evicts the least recently used values when
+ * the total size of its values exceeds a limit. A value may depend on
+ * local files (see {@link Stamp}); it will be removed when one of these
+ * files has been changed. The map counts hits, misses, changed files and
+ * evictions.
+ * <p>
+ * This class is not synchronized, the owner of an instance has to guard it.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class LRUCache implements Constants
+{
+   private static Log log = OptionalLog.getLog(LRUCache.class);
+
+   /**
+    * The modification times and lengths of the local files a cached value
+    * has been created from
+    */
+   public static final class Stamp
+   {
+      private final File[] files;
+      private final long[] lastModified, length;
+
+      /**
+       * Records the current state of some files.
+       * @param files the files, may be empty
+       */
+      public Stamp(File[] files)
+      {
+         this.files = files;
+         lastModified = new long[files.length];
+         length = new long[files.length];
+         for (int i=0; i<files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            length[i] = files[i].length();
+         }
+      }
+
+      /**
+       * Combines stamps that have been taken at different times.
+       * @param stamps the stamps
+       */
+      public Stamp(Stamp[] stamps)
+      {
+         int count = 0;
+         for (int i=0; i<stamps.length; i++)
+            count += stamps[i].files.length;
+         files = new File[count];
+         lastModified = new long[count];
+         length = new long[count];
+         count = 0;
+         for (int i=0; i<stamps.length; i++) {
+            int n = stamps[i].files.length;
+            System.arraycopy(stamps[i].files, 0, files, count, n);
+            System.arraycopy(stamps[i].lastModified, 0, lastModified, count,
+                             n);
+            System.arraycopy(stamps[i].length, 0, length, count, n);
+            count += n;
+         }
+      }
+
+      /** @return whether one of the files has been changed or removed */
+      public boolean isStale()
+      {
+         for (int i=0; i<files.length; i++)
+            if (files[i].lastModified() != lastModified[i] ||
+                files[i].length() != length[i])
+               return true;
+         return false;
+      }
+   }
+
+   /** A cached value */
+   private static final class Entry
+   {
+      final Object value;
+      final Stamp stamp;
+      final long size;
+
+      Entry(Object value, Stamp stamp, long size)
+      {
+         this.value = value;
+         this.stamp = stamp;
+         this.size = size;
+      }
+   }
+
+   /** The entries in access order, the least recently used first */
+   private final LinkedHashMap entries =
+      new LinkedHashMap(16, 0.75f, true);
+
+   /** The maximal and the current total size of all entries */
+   private long maxSize, size;
+
+   // statistics
+   private long hits, misses, staleEntries, evictions;
+
+
+   /**
+    * Constructs a cache.
+    * @param maxSize the maximal total size of all values
+    */
+   public LRUCache(long maxSize)
+   {
+      this.maxSize = maxSize;
+   }
+
+
+   /**
+    * Looks up a value.
+    * @param key the key
+    * @return the value, <code>null</code> if there is no value for
+    *  <code>key</code> or if one of its files has been changed
+    */
+   public Object get(Object key)
+   {
+      Entry entry = (Entry)entries.get(key);
+      if (entry != null && entry.stamp.isStale()) {
+         if (DEBUG)
+            log.debug("Changed: " + key);
+         entries.remove(key);
+         size -= entry.size;
+         staleEntries++;
+         entry = null;
+      }
+      if (entry == null) {
+         misses++;
+         return null;
+      }
+      hits++;
+      return entry.value;
+   }
+
+
+   /**
+    * Puts a value into the cache, evicts the least recently used values
+    * if the cache is full.
+    * @param key the key
+    * @param value the value
+    * @param stamp the files of <code>value</code>
+    * @param size the size of <code>value</code>, must not exceed the
+    *  maximal size of the cache
+    */
+   public void put(Object key, Object value, Stamp stamp, long size)
+   {
+      Entry old = (Entry)entries.put(key, new Entry(value, stamp, size));
+      if (old != null)
+         this.size -= old.size;
+      this.size += size;
+      trim();
+   }
+
+
+   /** Evicts the least recently used entries exceeding {@link #maxSize} */
+   private void trim()
+   {
+      for (Iterator it = entries.entrySet().iterator(); size > maxSize; ) {
+         Map.Entry e = (Map.Entry)it.next();
+         if (DEBUG)
+            log.debug("Evicting " + e.getKey());
+         size -= ((Entry)e.getValue()).size;
+         it.remove();
+         evictions++;
+      }
+   }
+
+
+   /**
+    * Changes the maximal size, evicts values if necessary.
+    * @param maxSize the new size
+    */
+   public void setMaxSize(long maxSize)
+   {
+      this.maxSize = maxSize;
+      trim();
+   }
+
+
+   /** @return the maximal total size of all values */
+   public long getMaxSize()
+   {
+      return maxSize;
+   }
+
+
+   /** @return the total size of all values */
+   public long getSize()
+   {
+      return size;
+   }
+
+
+   /** @return the number of values */
+   public int getCount()
+   {
+      return entries.size();
+   }
+
+
+   /** @return the number of lookups that returned a value */
+   public long getHits()
+   {
+      return hits;
+   }
+
+
+   /** @return the number of lookups that returned <code>null</code> */
+   public long getMisses()
+   {
+      return misses;
+   }
+
+
+   /**
+    * @return the number of values that have been removed because their
+    *  files have been changed (these lookups count as misses)
+    */
+   public long getStaleEntries()
+   {
+      return staleEntries;
+   }
+
+
+   /** @return the number of values removed because the cache was full */
+   public long getEvictions()
+   {
+      return evictions;
+   }
+
+
+   /** Removes all values, the statistics will be retained */
+   public void clear()
+   {
+      entries.clear();
+      size = 0;
+   }
+
+
+   /**
+    * Returns the local file for a system identifier.
+    * @param systemId an absolute system identifier, may be
+    *  <code>null</code>
+    * @return the file, <code>null</code> if <code>systemId</code> is not
+    *  a <code>file:</code> URL
+    */
+   public static File toFile(String systemId)
+   {
+      if (systemId == null || !systemId.startsWith("file:"))
+         return null;
+      try {
+         return new File(new URI(systemId));
+      }
+      catch (Exception ex) {
+         // not a hierarchical URI, or unescaped characters
+         return null;
+      }
+   }
+}
@@ -24,9 +24,6 @@
 
 package net.sf.joost.util;
 
-import java.util.Hashtable;
-import java.util.Stack;
-
 import net.sf.joost.instruction.GroupBase;
 import net.sf.joost.stx.Context;
 
@@ -45,28 +42,21 @@ public abstract class VariableUtils
    
    
    /**
-    * @return the group to which the variable declaration belongs to,
-    *         <code>null</code> if it is a local variable
+    * Looks for a group variable in the current group and its ancestors.
+    * (Local variables have been resolved while parsing, see
+    * {@link net.sf.joost.stx.ParseContext#getLocalVariableSlot}.)
+    * @return the group to which the variable declaration belongs to
     * @throws VariableNotFoundException if the variable couldn't be found
     */
    public static GroupBase findVariableScope(Context context, String expName) throws VariableNotFoundException
    {
-      GroupBase groupScope = null;
-
-      Object obj = context.localVars.get(expName);
-      if (obj == null) {
-         GroupBase group = context.currentGroup;
-         while (obj == null && group != null) {
-            obj = ((Hashtable) ((Stack) context.groupVars.get(group)).peek()).get(expName);
-            groupScope = group;
-            group = group.parentGroup;
-         }
-
-         if (obj == null) {
-            throw new VariableNotFoundException();
-         }
+      for (GroupBase group = context.currentGroup; group != null;
+           group = group.parentGroup) {
+         int slot = group.getVariableSlot(expName);
+         if (slot != -1 && group.getVariables(context)[slot] != null)
+            return group;
       }
-      return groupScope;
+      throw new VariableNotFoundException();
    }
 
 }
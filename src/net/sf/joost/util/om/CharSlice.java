@@ -24,6 +24,7 @@ import java.io.Serializable;
  *
  */
 public final class CharSlice implements CharSequence, Serializable {
+   private static final long serialVersionUID = 1L;
 
     private char[] array;
     private int offset;
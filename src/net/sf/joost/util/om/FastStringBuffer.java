@@ -19,6 +19,7 @@ import java.io.Writer;
  */
 
 public final class FastStringBuffer implements CharSequence, Serializable {
+   private static final long serialVersionUID = 1L;
 
     private char[] array;
     private int used = 0;
@@ -19,6 +19,7 @@ import java.util.Iterator;
  */
 
 public class IntHashMap implements Serializable {
+   private static final long serialVersionUID = 1L;
 
     /**
      * Initializes a map with a capacity of 8 and a load factor of 0,25.
@@ -282,6 +283,7 @@ public class IntHashMap implements Serializable {
      * Iterator over keys
      */
     private class IntHashMapKeyIterator implements IntIterator, Serializable {
+       private static final long serialVersionUID = 1L;
 
         private int i = 0;
 
@@ -309,6 +311,7 @@ public class IntHashMap implements Serializable {
      * Iterator over keys
      */
     private class IntHashMapValueIterator implements Iterator, Serializable {
+       private static final long serialVersionUID = 1L;
 
         private int i = 0;
 
@@ -347,6 +350,7 @@ public class IntHashMap implements Serializable {
      * Iterator over values
      */
     private class IntHashMapValueIteratorOLD implements Iterator, Serializable {
+       private static final long serialVersionUID = 1L;
 
         private IntHashMapKeyIterator k;
 
@@ -19,6 +19,7 @@ import java.io.Serializable;
  * @author Michael Kay: retrofitted to JDK 1.4, added iterator()
  */
 public class IntHashSet implements IntSet, Serializable {
+   private static final long serialVersionUID = 1L;
 
     private static final int NBIT = 30; // MAX_SIZE = 2^NBIT
 
@@ -338,6 +339,7 @@ public class IntHashSet implements IntSet, Serializable {
      */
 
     private class IntHashSetIterator implements IntIterator, Serializable {
+       private static final long serialVersionUID = 1L;
 
         private int i = 0;
 
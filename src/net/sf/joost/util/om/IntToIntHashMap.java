@@ -17,6 +17,7 @@ import java.io.Serializable;
  * @author Michael Kay: created this class based on IntHashMap
  */
 public class IntToIntHashMap implements Serializable {
+   private static final long serialVersionUID = 1L;
 
     /**
      * Initializes a map with a capacity of 8 and a load factor of 0,25.
@@ -251,6 +252,7 @@ public class IntToIntHashMap implements Serializable {
      * Iterator over keys
      */
     private class IntToIntHashMapKeyIterator implements IntIterator, Serializable {
+       private static final long serialVersionUID = 1L;
 
         private int i = 0;
 
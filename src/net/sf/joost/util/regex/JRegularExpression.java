@@ -19,6 +19,7 @@ import org.xml.sax.SAXException;
  * A compiled regular expression implemented using the Java JDK regex package
  */
 public class JRegularExpression implements RegularExpression {
+   private static final long serialVersionUID = 1L;
 
     Pattern pattern;
     String javaRegex;
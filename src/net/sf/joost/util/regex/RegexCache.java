@@ -0,0 +1,130 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is nsushkin.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.util.regex;
+
+import net.sf.joost.grammar.EvalException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Global cache for regular expressions whose pattern or flags are known at
+ * run-time only. Compiled expressions are immutable, so they are shared by
+ * all transformation sheets and all threads. The cache keeps at most
+ * {@link #MAX_SIZE} expressions and evicts the least recently used one.
+ * Expressions that fail to compile are not cached.
+ * @version $Revision$ $Date$
+ * @author nsushkin
+ */
+public final class RegexCache
+{
+   /** The maximal number of cached expressions */
+   public static final int MAX_SIZE = 256;
+
+   /** Maps flags and pattern to the compiled expression, in access order */
+   private static final LinkedHashMap cache =
+      new LinkedHashMap(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry eldest)
+         {
+            return size() > MAX_SIZE;
+         }
+      };
+
+   /** Statistics, guarded by {@link #cache} */
+   private static long hitCount, missCount;
+
+
+   // no instances
+   private RegexCache()
+   { }
+
+
+   /**
+    * Returns a compiled regular expression, compiles it if necessary.
+    * @param regex the regular expression in XPath syntax
+    * @param flags the flags as used by the XPath regex functions
+    * @return the compiled expression
+    * @exception EvalException if the expression or the flags are invalid
+    */
+   public static RegularExpression getRegex(String regex, String flags)
+      throws EvalException
+   {
+      // flags never contain a NUL character
+      String key = flags + '\u0000' + regex;
+      synchronized (cache) {
+         RegularExpression re = (RegularExpression)cache.get(key);
+         if (re != null) {
+            hitCount++;
+            return re;
+         }
+         missCount++;
+      }
+      // compile without holding the lock, in the worst case two threads
+      // compile the same expression at the same time
+      RegularExpression re = new JRegularExpression(regex, true, flags);
+      synchronized (cache) {
+         cache.put(key, re);
+      }
+      return re;
+   }
+
+
+   /** @return the number of requests that found a cached expression */
+   public static long getHitCount()
+   {
+      synchronized (cache) {
+         return hitCount;
+      }
+   }
+
+
+   /** @return the number of requests that needed to compile an expression */
+   public static long getMissCount()
+   {
+      synchronized (cache) {
+         return missCount;
+      }
+   }
+
+
+   /** @return the number of currently cached expressions */
+   public static int getSize()
+   {
+      synchronized (cache) {
+         return cache.size();
+      }
+   }
+
+
+   /** Removes all cached expressions and resets the statistics */
+   public static void clear()
+   {
+      synchronized (cache) {
+         cache.clear();
+         hitCount = missCount = 0;
+      }
+   }
+}